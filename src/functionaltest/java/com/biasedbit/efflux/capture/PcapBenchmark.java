@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.capture;
+
+import com.biasedbit.efflux.network.DataPacketDecoder;
+import com.biasedbit.efflux.packet.DataPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how fast datagrams can be captured (and how many are dropped when the writer can't keep up) and how fast a
+ * capture can be replayed through the RTP decoder.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PcapBenchmark {
+
+    private static final int PACKETS = 500000;
+    private static final int PAYLOAD_SIZE = 1200;
+
+    @Test
+    public void testCaptureAndReplayThroughput() throws Exception {
+        File file = File.createTempFile("efflux-benchmark", ".pcap");
+        try {
+            InetSocketAddress sender = new InetSocketAddress("127.0.0.1", 6000);
+            InetSocketAddress recipient = new InetSocketAddress("127.0.0.1", 7000);
+            DataPacket packet = new DataPacket();
+            packet.setSsrc(0x11223344L);
+            packet.setPayloadType(96);
+            packet.setData(new byte[PAYLOAD_SIZE]);
+
+            PcapWriter writer = new PcapWriter(file);
+            writer.open();
+            long start = System.nanoTime();
+            for (int i = 0; i < PACKETS; i++) {
+                packet.setSequenceNumber(i & 0xffff);
+                ByteBuf encoded = packet.encode();
+                writer.capture(sender, recipient, encoded);
+                encoded.release();
+            }
+            long captureTime = System.nanoTime() - start;
+            writer.close();
+            long flushTime = System.nanoTime() - start;
+
+            System.err.println(String.format("capture: %.0f pps offered, %d dropped, %.1f MB/s written to disk",
+                                             PACKETS / (captureTime / 1000000000d), writer.getDroppedPackets(),
+                                             writer.getWrittenBytes() / (flushTime / 1000d)));
+
+            final long[] decoded = {0};
+            EmbeddedChannel channel = new EmbeddedChannel(new DataPacketDecoder(), new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                    decoded[0]++;
+                    ReferenceCountUtil.release(msg);
+                }
+            });
+            PcapReader reader = new PcapReader(file);
+            try {
+                PcapReplayer replayer = new PcapReplayer(reader, PcapReplayer.toPipeline(channel));
+                replayer.setReportInterval(1000);
+                long replayed = replayer.replay();
+                assertEquals(writer.getCapturedPackets(), replayed);
+                assertEquals(replayed, decoded[0]);
+                System.err.println(String.format("replay:  %.0f pps, %.1f Mbps through DataPacketDecoder",
+                                                 replayer.getPacketsPerSecond(), replayer.getMegabitsPerSecond()));
+            } finally {
+                reader.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.capture;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures sustained recording throughput to disk, for a few stream counts, and how many packets get dropped when the
+ * offered load exceeds what the disk takes.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpDumpRecorderBenchmark {
+
+    private static final int PACKETS = 500000;
+    private static final int PAYLOAD_SIZE = 1200;
+
+    @Test
+    public void testSustainedThroughput() throws Exception {
+        System.err.println("streams  offered(MB/s)  written(MB/s)  dropped  files");
+        for (int streams : new int[]{1, 8, 64}) {
+            this.run(streams);
+        }
+    }
+
+    private void run(int streams) throws Exception {
+        File directory = File.createTempFile("efflux-benchmark", "-rtpdump");
+        directory.delete();
+        RtpDumpRecorder recorder = new RtpDumpRecorder(directory);
+        recorder.setMaxFileSize(64 * 1024 * 1024);
+        try {
+            DataPacket[] packets = new DataPacket[streams];
+            for (int i = 0; i < streams; i++) {
+                packets[i] = new DataPacket();
+                packets[i].setSsrc(0x10000000L + i);
+                packets[i].setPayloadType(96);
+                packets[i].setData(new byte[PAYLOAD_SIZE]);
+            }
+
+            recorder.start();
+            long start = System.nanoTime();
+            for (int i = 0; i < PACKETS; i++) {
+                DataPacket packet = packets[i % streams];
+                packet.setSequenceNumber((i / streams) & 0xffff);
+                recorder.dataPacketReceived(null, null, packet);
+            }
+            long offerTime = System.nanoTime() - start;
+            recorder.close();
+            long writeTime = System.nanoTime() - start;
+
+            assertEquals(PACKETS, recorder.getRecordedPackets() + recorder.getDroppedPackets());
+            System.err.println(String.format("%7d %14.1f %14.1f %8d %6d", streams,
+                                             (PACKETS * (PAYLOAD_SIZE + 20d)) / (offerTime / 1000d),
+                                             recorder.getWrittenBytes() / (writeTime / 1000d),
+                                             recorder.getDroppedPackets(), recorder.getFilesCreated()));
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+}
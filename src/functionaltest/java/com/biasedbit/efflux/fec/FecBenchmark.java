@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.fec;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures parity generation throughput and the fraction of lost packets recovered, for a few group size, interleave
+ * and (uniform random) loss rate combinations.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FecBenchmark {
+
+    private static final int FEC_PAYLOAD_TYPE = 127;
+    private static final int PACKETS = 200000;
+    private static final int PAYLOAD_SIZE = 1200;
+
+    @Test
+    public void testThroughputVersusRecoveryRate() {
+        int[][] configurations = {{5, 1}, {10, 1}, {5, 4}, {10, 4}};
+        double[] lossRates = {0.01, 0.05, 0.10};
+
+        System.err.println("groupSize interleave loss  encode(pps)  decode(pps)  overhead  recovered");
+        for (int[] configuration : configurations) {
+            for (double lossRate : lossRates) {
+                this.run(configuration[0], configuration[1], lossRate);
+            }
+        }
+    }
+
+    private void run(int groupSize, int interleave, double lossRate) {
+        FecEncoder encoder = new FecEncoder(FEC_PAYLOAD_TYPE, groupSize, interleave);
+        FecDecoder decoder = new FecDecoder(FEC_PAYLOAD_TYPE);
+        Random random = new Random(groupSize * 31 + interleave);
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        random.nextBytes(payload);
+
+        List<DataPacket> stream = new ArrayList<DataPacket>(PACKETS + (PACKETS / groupSize) + 1);
+        int sequenceNumber = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < PACKETS; i++) {
+            DataPacket packet = new DataPacket();
+            packet.setSsrc(0x11223344L);
+            packet.setPayloadType(96);
+            packet.setSequenceNumber(sequenceNumber++ & 0xffff);
+            packet.setTimestamp(i * 3000L);
+            packet.setData(payload);
+            stream.add(packet);
+
+            DataPacket parity = encoder.protect(packet);
+            if (parity != null) {
+                parity.setSsrc(packet.getSsrc());
+                parity.setSequenceNumber(sequenceNumber++ & 0xffff);
+                stream.add(parity);
+            }
+        }
+        long encodeTime = System.nanoTime() - start;
+        encoder.reset();
+
+        int lost = 0;
+        int recovered = 0;
+        start = System.nanoTime();
+        for (DataPacket packet : stream) {
+            if (random.nextDouble() < lossRate) {
+                if (packet.getPayloadType() != FEC_PAYLOAD_TYPE) {
+                    lost++;
+                }
+                continue;
+            }
+            if (packet.getPayloadType() == FEC_PAYLOAD_TYPE) {
+                recovered += decoder.fecPacketReceived(packet).size();
+            } else {
+                recovered += decoder.mediaPacketReceived(packet).size();
+            }
+        }
+        long decodeTime = System.nanoTime() - start;
+
+        assertTrue(recovered <= lost);
+        System.err.println(String.format("%9d %10d %4.0f%% %12.0f %12.0f %8.1f%% %9.1f%%",
+                                         groupSize, interleave, lossRate * 100,
+                                         PACKETS / (encodeTime / 1000000000d),
+                                         stream.size() / (decodeTime / 1000000000d),
+                                         ((stream.size() - PACKETS) * 100d) / PACKETS,
+                                         lost == 0 ? 100d : (recovered * 100d) / lost));
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.load;
+
+import com.biasedbit.efflux.network.NetworkImpairment;
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.AbstractRtpSession;
+import com.biasedbit.efflux.session.MultiParticipantSession;
+import com.biasedbit.efflux.session.RtpSession;
+import com.biasedbit.efflux.session.RtpSessionDataListener;
+import com.biasedbit.efflux.session.SingleParticipantSession;
+import io.netty.util.HashedWheelTimer;
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Synthetic load generator: sets up pairs of sessions talking to each other over loopback, has both ends of every pair
+ * send RTP at a fixed packet rate (constant or variable payload size) with automated RTCP enabled, and prints
+ * throughput, loss, RTCP round trip delay and GC/allocation figures every report interval.
+ * <p/>
+ * Run {@link #main(String[])} (or this class as a test) with system properties to configure the run:
+ * <ul>
+ * <li>{@code efflux.load.pairs} - number of session pairs (default 20);</li>
+ * <li>{@code efflux.load.mode} - {@code single} or {@code multi} participant sessions (default single);</li>
+ * <li>{@code efflux.load.pps} - packets per second sent by each session (default 50);</li>
+ * <li>{@code efflux.load.payloadSize} - RTP payload size in bytes (default 160);</li>
+ * <li>{@code efflux.load.vbr} - vary payload size between half and 1.5 times the configured size (default false);</li>
+ * <li>{@code efflux.load.duration} - length of the run in seconds (default 15);</li>
+ * <li>{@code efflux.load.reportInterval} - seconds between reports (default 1);</li>
+ * <li>{@code efflux.load.basePort} - first UDP port used, each pair takes 4 (default 20000);</li>
+ * <li>{@code efflux.load.senderThreads} - threads pacing the senders (default 2);</li>
+ * <li>{@code efflux.load.socketBuffer} - SO_SNDBUF/SO_RCVBUF of every channel (default 256KB);</li>
+ * <li>{@code efflux.load.loss} - simulated loss probability on the data channel of every session (default 0);</li>
+ * <li>{@code efflux.load.delay} - simulated one way delay in milliseconds (default 0);</li>
+ * <li>{@code efflux.load.jitter} - simulated jitter in milliseconds (default 0);</li>
+ * <li>{@code efflux.load.seed} - seed for the simulated impairments, each session using {@code seed + index}
+ * (default 0).</li>
+ * </ul>
+ * Every session runs its own event loops, so thousands of pairs need a correspondingly high thread limit.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class LoadGenerator {
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int pairs = Integer.getInteger("efflux.load.pairs", 20);
+    private final boolean multi = "multi".equals(System.getProperty("efflux.load.mode", "single"));
+    private final int pps = Integer.getInteger("efflux.load.pps", 50);
+    private final int payloadSize = Integer.getInteger("efflux.load.payloadSize", 160);
+    private final boolean vbr = Boolean.getBoolean("efflux.load.vbr");
+    private final int duration = Integer.getInteger("efflux.load.duration", 15);
+    private final int reportInterval = Integer.getInteger("efflux.load.reportInterval", 1);
+    private final int basePort = Integer.getInteger("efflux.load.basePort", 20000);
+    private final int senderThreads = Integer.getInteger("efflux.load.senderThreads", 2);
+    private final int socketBuffer = Integer.getInteger("efflux.load.socketBuffer", 256 * 1024);
+    private final double loss = Double.parseDouble(System.getProperty("efflux.load.loss", "0"));
+    private final int delay = Integer.getInteger("efflux.load.delay", 0);
+    private final int jitter = Integer.getInteger("efflux.load.jitter", 0);
+    private final long seed = Long.getLong("efflux.load.seed", 0);
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final List<AbstractRtpSession> sessions = new ArrayList<AbstractRtpSession>();
+    private final AtomicLong sentPackets = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong failedSends = new AtomicLong();
+    private final AtomicLong receivedPackets = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private volatile boolean running;
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator().run();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    @Test
+    public void testLoad() throws Exception {
+        Report report = this.run();
+        assertTrue(report.receivedPackets > 0);
+        assertEquals(0, this.failedSends.get());
+    }
+
+    public Report run() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.SECONDS);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(this.senderThreads, 16));
+        try {
+            this.createSessions(timer, executor);
+            System.err.println(String.format("%d %s session pairs up, %d pps x %d bytes (%s) per session",
+                                             this.pairs, this.multi ? "multi" : "single", this.pps, this.payloadSize,
+                                             this.vbr ? "VBR" : "CBR"));
+
+            this.running = true;
+            List<Future<?>> senders = new ArrayList<Future<?>>();
+            for (int i = 0; i < this.senderThreads; i++) {
+                senders.add(executor.submit(new Sender(i)));
+            }
+
+            Report report = this.monitor();
+            this.running = false;
+            for (Future<?> sender : senders) {
+                sender.get();
+            }
+
+            // Let in-flight packets land before the final tally.
+            Thread.sleep(200);
+            System.err.println(String.format("total: sent %d, received %d, failed sends %d, loss %.3f%%",
+                                             this.sentPackets.get(), this.receivedPackets.get(),
+                                             this.failedSends.get(), lossPercentage(this.sentPackets.get(),
+                                                                                    this.receivedPackets.get())));
+            if (this.isImpaired()) {
+                long simulated = 0;
+                for (AbstractRtpSession session : this.sessions) {
+                    simulated += session.getDataImpairment().getDroppedPackets();
+                }
+                System.err.println(String.format("simulated loss: %d packets, %.3f%%", simulated,
+                                                 (simulated * 100d) / Math.max(1, this.sentPackets.get())));
+            }
+            report.receivedPackets = this.receivedPackets.get();
+            return report;
+        } finally {
+            this.running = false;
+            this.terminateSessions(executor);
+            executor.shutdown();
+            timer.stop();
+        }
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void createSessions(HashedWheelTimer timer, ExecutorService executor) throws Exception {
+        RtpSessionDataListener listener = new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                receivedPackets.incrementAndGet();
+                receivedBytes.addAndGet(packet.getDataSize());
+            }
+        };
+
+        for (int i = 0; i < this.pairs; i++) {
+            int port = this.basePort + (i * 4);
+            long ssrc = (i * 2) + 1;
+            this.sessions.add(this.createSession("load-" + i + "a", ssrc, port, ssrc + 1, port + 2, timer));
+            this.sessions.add(this.createSession("load-" + i + "b", ssrc + 1, port + 2, ssrc, port, timer));
+        }
+
+        // Binding is slow-ish, do it in parallel.
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (final AbstractRtpSession session : this.sessions) {
+            session.addDataListener(listener);
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return session.init();
+                }
+            }));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).get()) {
+                throw new IllegalStateException("Failed to initialise session " + this.sessions.get(i).getId());
+            }
+        }
+    }
+
+    private AbstractRtpSession createSession(String id, long ssrc, int port, long remoteSsrc, int remotePort,
+                                             HashedWheelTimer timer) {
+        RtpParticipant local = RtpParticipant.createReceiver(new RtpParticipantInfo(ssrc), "127.0.0.1", port, port + 1);
+        RtpParticipant remote = RtpParticipant.createReceiver(new RtpParticipantInfo(remoteSsrc), "127.0.0.1",
+                                                              remotePort, remotePort + 1);
+        AbstractRtpSession session;
+        if (this.multi) {
+            session = new MultiParticipantSession(id, 8, local, timer);
+            session.addReceiver(remote);
+        } else {
+            session = new SingleParticipantSession(id, 8, local, remote, timer);
+        }
+        session.setSendBufferSize(this.socketBuffer);
+        session.setReceiveBufferSize(this.socketBuffer);
+        if (this.isImpaired()) {
+            NetworkImpairment impairment = NetworkImpairment.loss(this.loss, this.seed + this.sessions.size());
+            impairment.setDelay(this.delay);
+            impairment.setJitter(this.jitter);
+            session.setDataImpairment(impairment);
+        }
+        return session;
+    }
+
+    private boolean isImpaired() {
+        return (this.loss > 0) || (this.delay > 0) || (this.jitter > 0);
+    }
+
+    private void terminateSessions(ExecutorService executor) throws Exception {
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (final AbstractRtpSession session : this.sessions) {
+            results.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    session.terminate();
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        this.sessions.clear();
+    }
+
+    private Report monitor() throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Report report = new Report();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(this.duration);
+        long lastSent = 0;
+        long lastSentBytes = 0;
+        long lastReceived = 0;
+        long lastReceivedBytes = 0;
+        long lastGcCount = gcCount();
+        long lastGcTime = gcTime();
+        long lastAllocated = allocatedBytes(threads);
+        long lastTime = start;
+
+        System.err.println("    t  tx(pps)  tx(Mbps)  rx(pps)  rx(Mbps)   loss  rtt avg/max(ms)  gc(n/ms)" +
+                           "  alloc(MB/s)  heap(MB)");
+        while (System.nanoTime() < end) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(this.reportInterval));
+
+            long now = System.nanoTime();
+            double seconds = (now - lastTime) / 1000000000d;
+            long sent = this.sentPackets.get();
+            long sentBytes = this.sentBytes.get();
+            long received = this.receivedPackets.get();
+            long receivedBytes = this.receivedBytes.get();
+            long gcCount = gcCount();
+            long gcTime = gcTime();
+            long allocated = allocatedBytes(threads);
+
+            long rttSum = 0;
+            long rttCount = 0;
+            long rttMax = -1;
+            for (AbstractRtpSession session : this.sessions) {
+                for (RtpParticipant participant : session.getRemoteParticipants().values()) {
+                    long rtt = participant.getRoundTripDelay();
+                    if (rtt >= 0) {
+                        rttSum += rtt;
+                        rttCount++;
+                        rttMax = Math.max(rttMax, rtt);
+                    }
+                }
+            }
+
+            System.err.println(String.format("%5d %8.0f %9.2f %8.0f %9.2f %5.2f%% %8s/%-6s %4d/%-5d %11.1f %9d",
+                                             TimeUnit.NANOSECONDS.toSeconds(now - start),
+                                             (sent - lastSent) / seconds,
+                                             ((sentBytes - lastSentBytes) * 8e-6) / seconds,
+                                             (received - lastReceived) / seconds,
+                                             ((receivedBytes - lastReceivedBytes) * 8e-6) / seconds,
+                                             lossPercentage(sent - lastSent, received - lastReceived),
+                                             rttCount == 0 ? "-" : String.valueOf(rttSum / rttCount),
+                                             rttMax < 0 ? "-" : String.valueOf(rttMax),
+                                             gcCount - lastGcCount, gcTime - lastGcTime,
+                                             allocated < 0 ? -1 : ((allocated - lastAllocated) / 1048576d) / seconds,
+                                             (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) /
+                                             1048576));
+
+            report.roundTripSamples += rttCount;
+            lastTime = now;
+            lastSent = sent;
+            lastSentBytes = sentBytes;
+            lastReceived = received;
+            lastReceivedBytes = receivedBytes;
+            lastGcCount = gcCount;
+            lastGcTime = gcTime;
+            lastAllocated = allocated;
+        }
+
+        return report;
+    }
+
+    private static double lossPercentage(long sent, long received) {
+        return sent <= 0 ? 0 : Math.max(0, ((sent - received) * 100d) / sent);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        long total = 0;
+        for (long allocated : ((com.sun.management.ThreadMXBean) threads)
+                .getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    /**
+     * Paces the sessions with index i where (i % senderThreads) == index, sending every packet that is due and then
+     * sleeping for a millisecond.
+     */
+    private final class Sender implements Runnable {
+
+        private final int index;
+
+        private Sender(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            Random random = new Random(this.index);
+            byte[][] payloads = new byte[16][];
+            for (int i = 0; i < payloads.length; i++) {
+                int size = vbr ? ((payloadSize / 2) + random.nextInt(payloadSize + 1)) : payloadSize;
+                payloads[i] = new byte[Math.max(1, size)];
+            }
+
+            List<AbstractRtpSession> owned = new ArrayList<AbstractRtpSession>();
+            for (int i = this.index; i < sessions.size(); i += senderThreads) {
+                owned.add(sessions.get(i));
+            }
+            long interval = TimeUnit.SECONDS.toNanos(1) / pps;
+            long[] next = new long[owned.size()];
+            long start = System.nanoTime();
+            for (int i = 0; i < next.length; i++) {
+                // Spread the sessions over the first interval instead of sending in bursts.
+                next[i] = start + ((interval * i) / Math.max(1, next.length));
+            }
+
+            long[] timestamps = new long[owned.size()];
+            int payload = 0;
+            while (running) {
+                long now = System.nanoTime();
+                for (int i = 0; i < next.length; i++) {
+                    while (next[i] <= now) {
+                        byte[] data = payloads[payload++ & 15];
+                        if (owned.get(i).sendData(data, timestamps[i], false)) {
+                            sentPackets.incrementAndGet();
+                            sentBytes.addAndGet(data.length);
+                        } else {
+                            failedSends.incrementAndGet();
+                        }
+                        timestamps[i] += 8000 / pps;
+                        next[i] += interval;
+                    }
+                }
+
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public static final class Report {
+
+        private long receivedPackets;
+        private long roundTripSamples;
+
+        public long getReceivedPackets() {
+            return receivedPackets;
+        }
+
+        public long getRoundTripSamples() {
+            return roundTripSamples;
+        }
+    }
+}
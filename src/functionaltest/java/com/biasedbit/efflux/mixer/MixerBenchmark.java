@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.mixer;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.SingleParticipantSession;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures how much of a core a mixer takes for a 100 participant conference, for a few proportions of simultaneous
+ * talkers. Packets are fed straight into the mixer and the mixed packets are counted instead of being sent.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class MixerBenchmark {
+
+    private static final int PARTICIPANTS = 100;
+    private static final int TICKS = 5000;
+    private static final int CLOCK_RATE = 8000;
+
+    @Test
+    public void testHundredParticipantsPerCore() {
+        double[] talkers = {0.03, 0.25, 1.0};
+
+        System.err.println("codec talkers  ticks   avg tick(us)  core usage  mixed(pps)");
+        for (AudioCodec codec : AudioCodec.values()) {
+            for (double fraction : talkers) {
+                this.run(codec, fraction);
+            }
+        }
+    }
+
+    private void run(AudioCodec codec, double fraction) {
+        final AtomicLong sent = new AtomicLong();
+        RtpParticipant local = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "localhost", 6000, 6001);
+        RtpParticipant[] participants = new RtpParticipant[PARTICIPANTS];
+        for (int i = 0; i < PARTICIPANTS; i++) {
+            participants[i] = RtpParticipant.createReceiver(new RtpParticipantInfo(i + 2), "localhost", 7000, 7001);
+        }
+        SingleParticipantSession session = new SingleParticipantSession("bench", codec.getPayloadType(), local,
+                                                                        participants[0]) {
+            @Override
+            public boolean sendDataPacket(DataPacket packet, RtpParticipant participant) {
+                sent.incrementAndGet();
+                return true;
+            }
+        };
+
+        AudioMixer mixer = new AudioMixer(codec, CLOCK_RATE);
+        for (RtpParticipant participant : participants) {
+            mixer.addParticipant(session, participant);
+        }
+        int samples = mixer.getSamplesPerFrame();
+        byte[] payload = new byte[samples * codec.getBytesPerSample()];
+        new Random(42).nextBytes(payload);
+        int talking = Math.max(1, (int) (PARTICIPANTS * fraction));
+
+        // Receiving is part of the work done per tick: decoding happens there.
+        long start = System.nanoTime();
+        for (int tick = 0; tick < TICKS; tick++) {
+            for (int i = 0; i < talking; i++) {
+                DataPacket packet = new DataPacket();
+                packet.setPayloadType(codec.getPayloadType());
+                packet.setSequenceNumber(tick & 0xffff);
+                packet.setTimestamp((long) tick * samples);
+                packet.setData(Unpooled.wrappedBuffer(payload));
+                mixer.dataPacketReceived(session, participants[i].getInfo(), packet);
+            }
+            mixer.mix();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double tickMicros = elapsed / 1000.0 / TICKS;
+        double usage = tickMicros / (AudioMixer.FRAME_DURATION * 1000.0);
+        double pps = sent.get() / (TICKS * AudioMixer.FRAME_DURATION / 1000.0);
+        System.err.println(String.format("%-5s %6.0f%%  %6d  %12.1f  %9.2f%%  %10.0f", codec, fraction * 100, TICKS,
+                                         tickMicros, usage * 100, pps));
+        assertEquals((long) PARTICIPANTS * TICKS, sent.get());
+    }
+}
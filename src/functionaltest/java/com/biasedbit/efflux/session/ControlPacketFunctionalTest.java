@@ -16,6 +16,7 @@
 
 package com.biasedbit.efflux.session;
 
+import com.biasedbit.efflux.packet.AbstractFeedbackPacket;
 import com.biasedbit.efflux.packet.AppDataPacket;
 import com.biasedbit.efflux.packet.ByePacket;
 import com.biasedbit.efflux.packet.CompoundControlPacket;
@@ -71,6 +72,11 @@ public class ControlPacketFunctionalTest {
             public void appDataReceived(RtpSession session, AppDataPacket appDataPacket) {
                 fail("Unexpected APP_DATA packet received");
             }
+
+            @Override
+            public void feedbackReceived(RtpSession session, AbstractFeedbackPacket packet) {
+                fail("Unexpected feedback packet received");
+            }
         });
 
         RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
@@ -120,6 +126,11 @@ public class ControlPacketFunctionalTest {
             public void appDataReceived(RtpSession session, AppDataPacket appDataPacket) {
                 fail("Unexpected APP_DATA packet received");
             }
+
+            @Override
+            public void feedbackReceived(RtpSession session, AbstractFeedbackPacket packet) {
+                fail("Unexpected feedback packet received");
+            }
         });
 
         RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
@@ -190,6 +201,10 @@ public class ControlPacketFunctionalTest {
                 fail("Unexpected event triggered.");
             }
 
+            @Override
+            public void writabilityChanged(RtpSession session, boolean writable) {
+            }
+
             @Override
             public void sessionTerminated(RtpSession session, Throwable cause) {
                 System.err.println("Session terminated: " + cause.getMessage());
@@ -249,6 +264,10 @@ public class ControlPacketFunctionalTest {
             public void resolvedSsrcConflict(RtpSession session, long oldSsrc, long newSsrc) {
             }
 
+            @Override
+            public void writabilityChanged(RtpSession session, boolean writable) {
+            }
+
             @Override
             public void sessionTerminated(RtpSession session, Throwable cause) {
                 System.err.println("Session terminated: " + cause.getMessage());
@@ -307,6 +326,11 @@ public class ControlPacketFunctionalTest {
             public void appDataReceived(RtpSession session, AppDataPacket appDataPacket) {
                 fail("Unexpected APP_DATA packet received");
             }
+
+            @Override
+            public void feedbackReceived(RtpSession session, AbstractFeedbackPacket packet) {
+                fail("Unexpected feedback packet received");
+            }
         });
 
         RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
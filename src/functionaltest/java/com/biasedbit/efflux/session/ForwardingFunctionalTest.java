@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.forwarding.ForwardedStream;
+import com.biasedbit.efflux.forwarding.RtpForwarder;
+import com.biasedbit.efflux.network.NetworkImpairment;
+import com.biasedbit.efflux.packet.AbstractFeedbackPacket;
+import com.biasedbit.efflux.packet.AppDataPacket;
+import com.biasedbit.efflux.packet.CompoundControlPacket;
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.PictureLossIndicationPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a publisher and a subscriber over loopback, each talking to its own session of a forwarder in the middle.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ForwardingFunctionalTest {
+
+    private RtpForwarder forwarder;
+    private SingleParticipantSession publisher;
+    private SingleParticipantSession inbound;
+    private SingleParticipantSession outbound;
+    private SingleParticipantSession subscriber;
+    private RtpParticipant subscriberParticipant;
+    private Set<Integer> received;
+    private AtomicInteger foreignSsrcs;
+    private volatile long expectedSsrc;
+
+    @Before
+    public void setUp() {
+        this.forwarder = new RtpForwarder();
+        this.received = Collections.synchronizedSet(new HashSet<Integer>());
+        this.foreignSsrcs = new AtomicInteger();
+
+        this.publisher = new SingleParticipantSession("publisher", 96, this.participant(1, 6100),
+                                                      this.participant(2, 6102));
+        this.inbound = new SingleParticipantSession("inbound", 96, this.participant(2, 6102),
+                                                    this.participant(1, 6100));
+        this.inbound.setForwarder(this.forwarder);
+
+        this.subscriberParticipant = this.participant(4, 6106);
+        this.outbound = new SingleParticipantSession("outbound", 96, this.participant(3, 6104),
+                                                     this.subscriberParticipant);
+        this.outbound.setForwarder(this.forwarder);
+        this.subscriber = new SingleParticipantSession("subscriber", 96, this.participant(4, 6106),
+                                                       this.participant(3, 6104));
+        this.subscriber.addDataListener(new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                if (packet.getSsrc() != expectedSsrc) {
+                    foreignSsrcs.incrementAndGet();
+                }
+                received.add(packet.getSequenceNumber());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        for (RtpSession session : new RtpSession[]{this.publisher, this.inbound, this.outbound, this.subscriber}) {
+            session.terminate();
+        }
+    }
+
+    @Test
+    public void testForwardingAndKeyFrameRequest() throws Exception {
+        final AtomicInteger delivered = new AtomicInteger();
+        this.inbound.addDataListener(new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                delivered.incrementAndGet();
+            }
+        });
+        final CountDownLatch pli = new CountDownLatch(1);
+        this.publisher.addControlListener(new RtpSessionControlListener() {
+            @Override
+            public void controlPacketReceived(RtpSession session, CompoundControlPacket packet) {
+            }
+
+            @Override
+            public void appDataReceived(RtpSession session, AppDataPacket appDataPacket) {
+            }
+
+            @Override
+            public void feedbackReceived(RtpSession session, AbstractFeedbackPacket packet) {
+                if ((packet instanceof PictureLossIndicationPacket) && (packet.getMediaSsrc() == 1)) {
+                    pli.countDown();
+                }
+            }
+        });
+        this.initAll();
+
+        ForwardedStream stream = this.forwarder.subscribe(this.inbound, 1, this.outbound,
+                                                          this.subscriberParticipant, 8000);
+        this.expectedSsrc = stream.getSsrc();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(this.publisher.sendData(new byte[]{0x45, 0x45}, i * 160, false));
+            Thread.sleep(2);
+        }
+        Thread.sleep(200);
+
+        assertEquals(50, this.received.size());
+        assertEquals(0, this.foreignSsrcs.get());
+        // Also handed to the receiving session.
+        assertEquals(50, delivered.get());
+        assertEquals(50, stream.getForwardedPackets());
+
+        assertTrue(this.forwarder.switchSource(stream, this.inbound, 1));
+        assertTrue(pli.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNackIsTranslatedToSource() throws Exception {
+        this.outbound.setDataImpairment(NetworkImpairment.loss(0.05, 7));
+        this.publisher.setNackEnabled(true);
+        this.publisher.setRetransmissionHistorySize(512);
+        this.subscriber.setNackEnabled(true);
+        this.initAll();
+
+        ForwardedStream stream = this.forwarder.subscribe(this.inbound, 1, this.outbound,
+                                                          this.subscriberParticipant, 8000);
+        this.expectedSsrc = stream.getSsrc();
+        for (int i = 0; i < 300; i++) {
+            assertTrue(this.publisher.sendData(new byte[]{0x45, 0x45}, i * 160, false));
+            Thread.sleep(2);
+        }
+        Thread.sleep(300);
+
+        assertTrue(this.outbound.getDataImpairment().getDroppedPackets() > 0);
+        assertTrue(this.forwarder.getTranslatedControlPackets() > 0);
+        assertTrue(this.publisher.getRetransmittedPackets() > 0);
+        assertEquals(0, this.foreignSsrcs.get());
+        // Only the tail may go unnoticed, as there are no later packets to reveal the gap.
+        for (int i = 1; i <= 250; i++) {
+            assertTrue("Missing packet " + i, this.received.contains(i));
+        }
+    }
+
+    private void initAll() {
+        assertTrue(this.publisher.init());
+        assertTrue(this.inbound.init());
+        assertTrue(this.outbound.init());
+        assertTrue(this.subscriber.init());
+    }
+
+    private RtpParticipant participant(long ssrc, int port) {
+        return RtpParticipant.createReceiver(new RtpParticipantInfo(ssrc), "127.0.0.1", port, port + 1);
+    }
+}
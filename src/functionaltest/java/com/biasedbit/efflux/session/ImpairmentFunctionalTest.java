@@ -0,0 +1,173 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.network.NetworkImpairment;
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a pair of sessions over loopback with an impaired data channel on the sending side, asserting on how the
+ * receiving side copes.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ImpairmentFunctionalTest {
+
+    private SingleParticipantSession session1;
+    private SingleParticipantSession session2;
+
+    @After
+    public void tearDown() {
+        if (this.session1 != null) {
+            this.session1.terminate();
+        }
+
+        if (this.session2 != null) {
+            this.session2.terminate();
+        }
+    }
+
+    @Test
+    public void testLoss() throws Exception {
+        NetworkImpairment impairment = NetworkImpairment.loss(0.1, 1234);
+        final AtomicInteger received = new AtomicInteger();
+        this.createSessions(impairment, new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                received.incrementAndGet();
+            }
+        });
+        assertTrue(this.session1.init());
+        assertTrue(this.session2.init());
+
+        for (int i = 0; i < 500; i++) {
+            assertTrue(this.session1.sendData(new byte[]{0x45, 0x45}, i * 160, false));
+            Thread.sleep(1);
+        }
+        Thread.sleep(200);
+
+        // The only loss on loopback is the simulated one.
+        assertEquals(500, impairment.getPassedPackets() + impairment.getDroppedPackets());
+        assertTrue(impairment.getDroppedPackets() > 25);
+        assertTrue(impairment.getDroppedPackets() < 75);
+        assertEquals(impairment.getPassedPackets(), received.get());
+        // Losing packets is invisible to the sender.
+        assertEquals(500, this.session1.getSentPackets());
+        assertEquals(0, this.session1.getDroppedPackets());
+    }
+
+    @Test
+    public void testDelayAndJitter() throws Exception {
+        NetworkImpairment impairment = new NetworkImpairment();
+        impairment.setDelay(50);
+        impairment.setJitter(10);
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger reordered = new AtomicInteger();
+        final AtomicLong minLatency = new AtomicLong(Long.MAX_VALUE);
+        this.createSessions(impairment, new RtpSessionDataListener() {
+            private int lastSequenceNumber;
+
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                long latency = System.nanoTime() - packet.getData().getLong(0);
+                if (latency < minLatency.get()) {
+                    minLatency.set(latency);
+                }
+                if (packet.getSequenceNumber() < this.lastSequenceNumber) {
+                    reordered.incrementAndGet();
+                }
+                this.lastSequenceNumber = packet.getSequenceNumber();
+                received.incrementAndGet();
+            }
+        });
+        this.session2.setDiscardOutOfOrder(false);
+        assertTrue(this.session1.init());
+        assertTrue(this.session2.init());
+
+        for (int i = 0; i < 200; i++) {
+            DataPacket packet = new DataPacket();
+            packet.setTimestamp(i * 160);
+            packet.setData(Unpooled.copyLong(System.nanoTime()));
+            assertTrue(this.session1.sendDataPacket(packet));
+            Thread.sleep(2);
+        }
+        Thread.sleep(200);
+
+        assertEquals(200, received.get());
+        assertEquals(200, impairment.getDelayedPackets());
+        assertTrue(minLatency.get() >= TimeUnit.MILLISECONDS.toNanos(40));
+        // Packets sent 2ms apart with +/-10ms of jitter overtake each other.
+        assertTrue(reordered.get() > 0);
+    }
+
+    @Test
+    public void testNackRecoversLoss() throws Exception {
+        NetworkImpairment impairment = NetworkImpairment.loss(0.05, 99);
+        impairment.setDelay(5);
+        final Set<Integer> received = Collections.synchronizedSet(new HashSet<Integer>());
+        this.createSessions(impairment, new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                received.add(packet.getSequenceNumber());
+            }
+        });
+        this.session1.setNackEnabled(true);
+        this.session1.setRetransmissionHistorySize(512);
+        this.session2.setNackEnabled(true);
+        assertTrue(this.session1.init());
+        assertTrue(this.session2.init());
+
+        for (int i = 0; i < 300; i++) {
+            assertTrue(this.session1.sendData(new byte[]{0x45, 0x45}, i * 160, false));
+            Thread.sleep(2);
+        }
+        Thread.sleep(200);
+
+        assertTrue(impairment.getDroppedPackets() > 0);
+        assertTrue(this.session1.getRetransmittedPackets() > 0);
+        // Only the tail may go unnoticed, as there are no later packets to reveal the gap.
+        for (int i = 1; i <= 250; i++) {
+            assertTrue("Missing packet " + i, received.contains(i));
+        }
+    }
+
+    private void createSessions(NetworkImpairment impairment, RtpSessionDataListener listener) {
+        RtpParticipant local1 = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 6000, 6001);
+        RtpParticipant remote1 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
+        this.session1 = new SingleParticipantSession("Session1", 8, local1, remote1);
+        this.session1.setDataImpairment(impairment);
+
+        RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
+        RtpParticipant remote2 = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 6000, 6001);
+        this.session2 = new SingleParticipantSession("Session2", 8, local2, remote2);
+        this.session2.setReceiveBufferSize(64 * 1024);
+        this.session2.addDataListener(listener);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class LocalStreamFunctionalTest {
+
+    private MultiParticipantSession session1;
+    private MultiParticipantSession session2;
+
+    @After
+    public void tearDown() {
+        if (this.session1 != null) {
+            this.session1.terminate();
+        }
+
+        if (this.session2 != null) {
+            this.session2.terminate();
+        }
+    }
+
+    @Test
+    public void testAudioAndVideoOverOneSession() throws Exception {
+        final int packets = 100;
+        final CountDownLatch latch = new CountDownLatch(packets * 2);
+        final Map<Long, AtomicInteger> received = new ConcurrentHashMap<Long, AtomicInteger>();
+
+        RtpParticipant local1 = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 6000, 6001);
+        this.session1 = new MultiParticipantSession("Session1", 8, local1);
+        this.session1.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001));
+        LocalStream video = this.session1.addLocalStream(96);
+        assertTrue(this.session1.init());
+
+        RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
+        this.session2 = new MultiParticipantSession("Session2", new HashSet<Integer>(Arrays.asList(8, 96)), local2,
+                                                    null);
+        this.session2.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 6000, 6001));
+        // Default receive buffer only fits a couple of packets.
+        this.session2.setReceiveBufferSize(64 * 1024);
+        this.session2.addDataListener(new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                AtomicInteger counter = received.get(packet.getSsrc());
+                if (counter == null) {
+                    received.put(packet.getSsrc(), counter = new AtomicInteger());
+                }
+                counter.incrementAndGet();
+                latch.countDown();
+            }
+        });
+        assertTrue(this.session2.init());
+
+        for (int i = 0; i < packets; i++) {
+            assertTrue(this.session1.sendData(new byte[]{0x45, 0x45}, i * 160, false));
+            assertTrue(video.sendData(new byte[]{0x46, 0x46, 0x46}, i * 3000, false));
+            // Paced, as media would be.
+            Thread.sleep(1);
+        }
+
+        assertTrue(latch.await(2000, TimeUnit.MILLISECONDS));
+        // Both streams arrive whole and are told apart by SSRC, even though they come from the same address.
+        assertEquals(2, received.size());
+        assertEquals(packets, received.get(1L).get());
+        assertEquals(packets, received.get(video.getSsrc()).get());
+        assertEquals(2, this.session2.getRemoteParticipants().size());
+        assertEquals(packets, video.getSentPackets());
+        assertEquals(packets, this.session1.getSentPackets());
+    }
+}
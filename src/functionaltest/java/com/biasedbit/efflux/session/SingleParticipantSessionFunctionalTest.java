@@ -19,9 +19,14 @@ package com.biasedbit.efflux.session;
 import com.biasedbit.efflux.packet.DataPacket;
 import com.biasedbit.efflux.participant.RtpParticipant;
 import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.Future;
 import org.junit.After;
 import org.junit.Test;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -173,7 +178,7 @@ public class SingleParticipantSessionFunctionalTest {
                     return false;
                 }
 
-                packet.setPayloadType(this.payloadType);
+                packet.setPayloadType(this.payloadTypes.iterator().next());
                 // explicitly commented this one out to allow SSRC override!
                 //packet.setSsrc(this.localParticipant.getSsrc());
                 packet.setSequenceNumber(this.sequence.incrementAndGet());
@@ -238,6 +243,10 @@ public class SingleParticipantSessionFunctionalTest {
                 latch.countDown();
             }
 
+            @Override
+            public void writabilityChanged(RtpSession session, boolean writable) {
+            }
+
             @Override
             public void sessionTerminated(RtpSession session, Throwable cause) {
                 System.err.println("Session terminated: " + cause.getMessage());
@@ -271,4 +280,117 @@ public class SingleParticipantSessionFunctionalTest {
         assertEquals(this.session1.getLocalParticipant().getSsrc(), this.session2.getRemoteParticipant().getSsrc());
         assertEquals(this.session2.getLocalParticipant().getSsrc(), this.session1.getRemoteParticipant().getSsrc());
     }
+
+    @Test
+    public void testAsyncLifecycle() throws Exception {
+        RtpParticipant local1 = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 6000, 6001);
+        RtpParticipant remote1 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
+        this.session1 = new SingleParticipantSession("Session1", 8, local1, remote1);
+        RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
+        RtpParticipant remote2 = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 6000, 6001);
+        this.session2 = new SingleParticipantSession("Session2", 8, local2, remote2);
+
+        Future<Boolean> init1 = this.session1.initAsync();
+        Future<Boolean> init2 = this.session2.initAsync();
+        assertSame(init1, this.session1.initAsync());
+        assertTrue(init1.await(1000));
+        assertTrue(init2.await(1000));
+        assertTrue(init1.getNow());
+        assertTrue(init2.getNow());
+
+        // Ports are taken, so this one fails.
+        RtpParticipant local3 = RtpParticipant.createReceiver(new RtpParticipantInfo(3), "127.0.0.1", 6000, 6001);
+        SingleParticipantSession session3 = new SingleParticipantSession("Session3", 8, local3, remote1);
+        assertFalse(session3.init());
+
+        assertTrue(this.session1.sendData(new byte[]{0x45, 0x45, 0x45, 0x45}, 6969, false));
+        long before = System.nanoTime();
+        Future<Void> terminate = this.session1.terminateAsync();
+        assertTrue(terminate.await(1000));
+        // No quiet period: BYE out, channels closed and threads gone in a fraction of the default 2s.
+        assertTrue((System.nanoTime() - before) < TimeUnit.MILLISECONDS.toNanos(1000));
+        assertTrue(this.session1.terminateAsync().isDone());
+
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!this.session2.getRemoteParticipant().receivedBye() && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertTrue(this.session2.getRemoteParticipant().receivedBye());
+    }
+
+    @Test
+    public void testPinnedToEventLoop() throws Exception {
+        final EventLoopGroup group = new NioEventLoopGroup(1);
+        final EventLoop loop = group.next();
+        final CountDownLatch dataLatch = new CountDownLatch(2);
+        final AtomicInteger offLoop = new AtomicInteger();
+        try {
+            RtpParticipant local1 = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 6000, 6001);
+            RtpParticipant remote1 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
+            this.session1 = new SingleParticipantSession("Session1", 8, local1, remote1);
+            this.session1.setEventLoop(loop);
+            RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 7000, 7001);
+            RtpParticipant remote2 = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 6000, 6001);
+            this.session2 = new SingleParticipantSession("Session2", 8, local2, remote2);
+            this.session2.setEventLoop(loop);
+
+            RtpSessionDataListener dataListener = new RtpSessionDataListener() {
+                @Override
+                public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                    if (!loop.inEventLoop()) {
+                        offLoop.incrementAndGet();
+                    }
+                    dataLatch.countDown();
+                }
+            };
+            this.session1.addDataListener(dataListener);
+            this.session2.addDataListener(dataListener);
+
+            // Init from the loop itself, where only the non-blocking version may be used.
+            Future<Future<Boolean>> inits = loop.submit(new Callable<Future<Boolean>>() {
+                @Override
+                public Future<Boolean> call() throws Exception {
+                    try {
+                        session1.init();
+                        fail("init() mustn't block the loop");
+                    } catch (IllegalStateException expected) {
+                    }
+                    session2.initAsync();
+                    return session1.initAsync();
+                }
+            });
+            assertTrue(inits.get().await(1000));
+            assertTrue(inits.get().getNow());
+            assertTrue(this.session2.initAsync().await(1000));
+            // No internal timer is even created, so there's none to stop.
+            assertNull(this.session1.timer);
+            assertNull(this.session2.timer);
+
+            assertTrue(this.session1.sendData(new byte[]{0x45, 0x45, 0x45, 0x45}, 6969, false));
+            assertTrue(this.session2.sendData(new byte[]{0x45, 0x45, 0x45, 0x45}, 6969, false));
+            assertTrue(dataLatch.await(1000, TimeUnit.MILLISECONDS));
+            assertEquals(0, offLoop.get());
+
+            // The periodic sender report comes from a task scheduled on the loop, the session's timer never runs.
+            long deadline = System.currentTimeMillis() + 7000;
+            while ((this.session2.getRemoteParticipant().getLastSenderReport() == 0) &&
+                   (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(50);
+            }
+            assertTrue(this.session2.getRemoteParticipant().getLastSenderReport() != 0);
+
+            this.session1.terminate();
+            this.session2.terminate();
+            // The loop belongs to the application and survives the sessions.
+            assertFalse(loop.isShuttingDown());
+            assertEquals(Boolean.TRUE, loop.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return true;
+                }
+            }).get());
+        } finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+
+/**
+ * Records every datagram that goes in or out of a channel into a {@link PacketFlightRecorder}. Must sit below the
+ * encoders, so it sees encoded packets in both directions.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+@ChannelHandler.Sharable
+public class FlightRecorderHandler extends ChannelDuplexHandler {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final PacketFlightRecorder recorder;
+    private final boolean control;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param recorder Recorder to record packets into.
+     * @param control  Whether the handler is for the RTCP (as opposed to RTP) channel.
+     */
+    public FlightRecorderHandler(PacketFlightRecorder recorder, boolean control) {
+        this.recorder = recorder;
+        this.control = control;
+    }
+
+    // ChannelDuplexHandler -------------------------------------------------------------------------------------------
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof DatagramPacket) {
+            this.record(false, ((DatagramPacket) msg).content());
+        } else if (msg instanceof ByteBuf) {
+            this.record(false, (ByteBuf) msg);
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof DatagramPacket) {
+            this.record(true, ((DatagramPacket) msg).content());
+        } else if (msg instanceof ByteBuf) {
+            this.record(true, (ByteBuf) msg);
+        }
+
+        ctx.write(msg, promise);
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void record(boolean outbound, ByteBuf datagram) {
+        if (this.control) {
+            this.recorder.recordControl(outbound, datagram);
+        } else {
+            this.recorder.recordData(outbound, datagram);
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public PacketFlightRecorder getRecorder() {
+        return recorder;
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.capture;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Always-on flight recorder of the last packets that went in and out of a session: one fixed size record per packet,
+ * with the instant, direction, SSRC, sequence number, RTP timestamp, payload type, size and, for inbound RTP packets
+ * that the session discarded, why.
+ * <p/>
+ * Records live in two off-heap rings, one for RTP and one for RTCP, each written by the event loop of its channel
+ * through a {@link FlightRecorderHandler}; since each ring has a single writer, recording is a handful of plain stores
+ * into the ring's buffer, with no allocation, synchronisation or memory barriers. When a ring is full the oldest
+ * records are overwritten.
+ * <p/>
+ * The rings can be dumped at any time, merged in chronological order, as text (one line per packet) or in binary form
+ * (see {@link #dumpBinary(File)}), e.g. from a session event listener when the session terminates or through JMX
+ * (this class is a standard MBean). Dumping a session that is still running may produce the odd torn record for
+ * packets recorded while dumping.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PacketFlightRecorder implements PacketFlightRecorderMBean {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int RECORD_SIZE = 32;
+    public static final int BINARY_MAGIC = 0x45464652; // "EFFR"
+    public static final int BINARY_VERSION = 1;
+
+    private static final int TIME = 0;
+    private static final int SSRC = 8;
+    private static final int TIMESTAMP = 12;
+    private static final int SIZE = 16;
+    private static final int SEQUENCE = 20;
+    private static final int PAYLOAD_TYPE = 22;
+    private static final int FLAGS = 23;
+    private static final int DROP_REASON = 24;
+
+    private static final int FLAG_OUTBOUND = 0x01;
+    private static final int FLAG_CONTROL = 0x02;
+    private static final int FLAG_MARKER = 0x04;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final int capacity;
+    private final long epochMicros;
+    private final long epochNanos;
+    private final Ring data;
+    private final Ring control;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param capacity Number of packets kept for each of RTP and RTCP; rounded up to a power of two.
+     */
+    public PacketFlightRecorder(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be > 0");
+        }
+
+        this.capacity = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        // Records are stamped with the monotonic clock, which is finer and keeps both rings in order when merged, and
+        // only converted to wall clock time when dumped.
+        this.epochMicros = System.currentTimeMillis() * 1000;
+        this.epochNanos = System.nanoTime();
+        this.data = new Ring(this.capacity);
+        this.control = new Ring(this.capacity);
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Record an RTP datagram. Must only be called from the data channel's event loop.
+     *
+     * @param outbound Whether the datagram is being sent (as opposed to received).
+     * @param datagram Contents of the datagram; indexes are left untouched.
+     */
+    public void recordData(boolean outbound, ByteBuf datagram) {
+        int index = datagram.readerIndex();
+        int size = datagram.readableBytes();
+        int offset = this.data.next(outbound);
+        ByteBuffer buffer = this.data.buffer;
+        buffer.putLong(offset + TIME, System.nanoTime());
+        buffer.putInt(offset + SIZE, size);
+        if ((size < 12) || ((datagram.getByte(index) & 0xc0) != 0x80)) {
+            buffer.putInt(offset + SSRC, 0);
+            buffer.putInt(offset + TIMESTAMP, 0);
+            buffer.putShort(offset + SEQUENCE, (short) 0);
+            buffer.put(offset + PAYLOAD_TYPE, (byte) 0);
+            buffer.put(offset + FLAGS, (byte) (outbound ? FLAG_OUTBOUND : 0));
+            buffer.put(offset + DROP_REASON, DropReason.MALFORMED.getByte());
+            return;
+        }
+
+        byte second = datagram.getByte(index + 1);
+        buffer.putInt(offset + SSRC, datagram.getInt(index + 8));
+        buffer.putInt(offset + TIMESTAMP, datagram.getInt(index + 4));
+        buffer.putShort(offset + SEQUENCE, datagram.getShort(index + 2));
+        buffer.put(offset + PAYLOAD_TYPE, (byte) (second & 0x7f));
+        buffer.put(offset + FLAGS, (byte) ((outbound ? FLAG_OUTBOUND : 0) | ((second & 0x80) != 0 ? FLAG_MARKER : 0)));
+        buffer.put(offset + DROP_REASON, DropReason.NONE.getByte());
+    }
+
+    /**
+     * Record an RTCP datagram, under the type and SSRC of its first packet. Must only be called from the control
+     * channel's event loop.
+     *
+     * @param outbound Whether the datagram is being sent (as opposed to received).
+     * @param datagram Contents of the datagram; indexes are left untouched.
+     */
+    public void recordControl(boolean outbound, ByteBuf datagram) {
+        int index = datagram.readerIndex();
+        int size = datagram.readableBytes();
+        boolean valid = (size >= 8) && ((datagram.getByte(index) & 0xc0) == 0x80);
+        int offset = this.control.next(outbound);
+        ByteBuffer buffer = this.control.buffer;
+        buffer.putLong(offset + TIME, System.nanoTime());
+        buffer.putInt(offset + SSRC, valid ? datagram.getInt(index + 4) : 0);
+        buffer.putInt(offset + TIMESTAMP, 0);
+        buffer.putInt(offset + SIZE, size);
+        buffer.putShort(offset + SEQUENCE, (short) 0);
+        buffer.put(offset + PAYLOAD_TYPE, valid ? datagram.getByte(index + 1) : 0);
+        buffer.put(offset + FLAGS, (byte) (FLAG_CONTROL | (outbound ? FLAG_OUTBOUND : 0)));
+        buffer.put(offset + DROP_REASON, (valid ? DropReason.NONE : DropReason.MALFORMED).getByte());
+    }
+
+    /**
+     * Flag the last inbound RTP packet as discarded. Must only be called from the data channel's event loop, while the
+     * packet is being handled.
+     */
+    public void dataDropped(DropReason reason) {
+        this.data.dropped(reason);
+    }
+
+    /**
+     * Write every record, oldest first, one per line.
+     */
+    public void dumpText(Writer writer) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        DecimalFormat micros = new DecimalFormat("000");
+        Date date = new Date();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        Cursor data = new Cursor(this.data);
+        Cursor control = new Cursor(this.control);
+        Cursor next;
+        while ((next = Cursor.earliest(data, control)) != null) {
+            this.read(next, record);
+            int flags = record.get(FLAGS);
+            long time = record.getLong(TIME);
+            date.setTime(time / 1000);
+            StringBuilder line = new StringBuilder(128)
+                    .append(format.format(date)).append(micros.format(time % 1000))
+                    .append((flags & FLAG_OUTBOUND) != 0 ? " OUT " : " IN  ")
+                    .append((flags & FLAG_CONTROL) != 0 ? "RTCP" : "RTP ")
+                    .append(" ssrc=").append(record.getInt(SSRC) & 0xffffffffL);
+            if ((flags & FLAG_CONTROL) == 0) {
+                line.append(" seq=").append(record.getShort(SEQUENCE) & 0xffff)
+                    .append(" ts=").append(record.getInt(TIMESTAMP) & 0xffffffffL)
+                    .append(" pt=").append(record.get(PAYLOAD_TYPE) & 0xff);
+                if ((flags & FLAG_MARKER) != 0) {
+                    line.append(" M");
+                }
+            } else {
+                line.append(" type=").append(record.get(PAYLOAD_TYPE) & 0xff);
+            }
+            line.append(" size=").append(record.getInt(SIZE));
+            byte rawReason = record.get(DROP_REASON);
+            DropReason reason = DropReason.fromByte(rawReason);
+            if (reason == DropReason.UNKNOWN) {
+                line.append(" dropped=").append(reason).append('(').append(rawReason & 0xff).append(')');
+            } else if (reason != DropReason.NONE) {
+                line.append(" dropped=").append(reason);
+            }
+            writer.write(line.append('\n').toString());
+        }
+        writer.flush();
+    }
+
+    public void dumpText(File file) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            this.dumpText(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write every record, oldest first, in binary form: a header with a magic number ({@value #BINARY_MAGIC}), format
+     * version, record size and record count (4, 2, 2 and 4 bytes), followed by the records, big endian, as laid out in
+     * memory: instant in microseconds since the epoch (8 bytes), SSRC, RTP timestamp and size (4 bytes each), sequence
+     * number (2 bytes), payload type (or RTCP packet type), flags (1: outbound, 2: RTCP, 4: marker) and drop reason
+     * (see {@link DropReason#getByte()}), one byte each, then 7 bytes of padding.
+     */
+    public void dumpBinary(File file) throws IOException {
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+        try {
+            Cursor data = new Cursor(this.data);
+            Cursor control = new Cursor(this.control);
+            output.writeInt(BINARY_MAGIC);
+            output.writeShort(BINARY_VERSION);
+            output.writeShort(RECORD_SIZE);
+            output.writeInt(data.remaining() + control.remaining());
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            Cursor next;
+            while ((next = Cursor.earliest(data, control)) != null) {
+                this.read(next, record);
+                output.write(record.array());
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    // PacketFlightRecorderMBean --------------------------------------------------------------------------------------
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Number of packets recorded since the recorder was created, including those already overwritten.
+     */
+    @Override
+    public long getRecordedPackets() {
+        return this.data.position + this.control.position;
+    }
+
+    @Override
+    public void dumpText(String path) throws IOException {
+        this.dumpText(new File(path));
+    }
+
+    @Override
+    public void dumpBinary(String path) throws IOException {
+        this.dumpBinary(new File(path));
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void read(Cursor cursor, ByteBuffer record) {
+        cursor.read(record);
+        record.putLong(TIME, this.epochMicros + ((record.getLong(TIME) - this.epochNanos) / 1000));
+    }
+
+    // public classes -------------------------------------------------------------------------------------------------
+
+    public static enum DropReason {
+
+        // constants --------------------------------------------------------------------------------------------------
+
+        NONE((byte) 0),
+        /**
+         * Not a valid RTP/RTCP packet.
+         */
+        MALFORMED((byte) 1),
+        /**
+         * Payload type not accepted by the session.
+         */
+        PAYLOAD_TYPE((byte) 2),
+        /**
+         * Sent by the session itself, or by a source whose SSRC collided too many times.
+         */
+        LOOP((byte) 3),
+        /**
+         * Source not accepted by the participant database.
+         */
+        UNKNOWN_SOURCE((byte) 4),
+        /**
+         * Sequence number not ahead of the last packet received from the same source.
+         */
+        OUT_OF_ORDER((byte) 5),
+        /**
+         * Unrecognised value, as read from a torn or corrupt record; never recorded.
+         */
+        UNKNOWN((byte) -1);
+
+        // internal vars ----------------------------------------------------------------------------------------------
+
+        private final byte b;
+
+        // constructors -----------------------------------------------------------------------------------------------
+
+        DropReason(byte b) {
+            this.b = b;
+        }
+
+        // public methods ---------------------------------------------------------------------------------------------
+
+        public static DropReason fromByte(byte b) {
+            switch (b) {
+                case 0:
+                    return NONE;
+                case 1:
+                    return MALFORMED;
+                case 2:
+                    return PAYLOAD_TYPE;
+                case 3:
+                    return LOOP;
+                case 4:
+                    return UNKNOWN_SOURCE;
+                case 5:
+                    return OUT_OF_ORDER;
+                default:
+                    return UNKNOWN;
+            }
+        }
+
+        // getters & setters ------------------------------------------------------------------------------------------
+
+        public byte getByte() {
+            return this.b;
+        }
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    private static final class Ring {
+
+        private final ByteBuffer buffer;
+        private final int mask;
+        // Only ever written by the ring's event loop.
+        private long position;
+        private long lastInbound;
+
+        private Ring(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity * RECORD_SIZE);
+            this.mask = capacity - 1;
+            this.lastInbound = -1;
+        }
+
+        private int next(boolean outbound) {
+            long slot = this.position++;
+            if (!outbound) {
+                this.lastInbound = slot;
+            }
+            return (int) (slot & this.mask) * RECORD_SIZE;
+        }
+
+        private void dropped(DropReason reason) {
+            // Unless it was overwritten meanwhile.
+            if ((this.lastInbound >= 0) && ((this.position - this.lastInbound) <= (this.mask + 1))) {
+                this.buffer.put((int) (this.lastInbound & this.mask) * RECORD_SIZE + DROP_REASON, reason.getByte());
+            }
+        }
+    }
+
+    private static final class Cursor {
+
+        private final Ring ring;
+        private final long end;
+        private long position;
+
+        private Cursor(Ring ring) {
+            this.ring = ring;
+            this.end = ring.position;
+            this.position = Math.max(0, this.end - (ring.mask + 1));
+        }
+
+        private static Cursor earliest(Cursor first, Cursor second) {
+            if (first.remaining() == 0) {
+                return second.remaining() == 0 ? null : second;
+            } else if (second.remaining() == 0) {
+                return first;
+            }
+            return first.time() <= second.time() ? first : second;
+        }
+
+        private int remaining() {
+            return (int) (this.end - this.position);
+        }
+
+        private long time() {
+            return this.ring.buffer.getLong((int) (this.position & this.ring.mask) * RECORD_SIZE + TIME);
+        }
+
+        private void read(ByteBuffer record) {
+            int offset = (int) (this.position++ & this.ring.mask) * RECORD_SIZE;
+            for (int i = 0; i < RECORD_SIZE; i++) {
+                record.put(i, this.ring.buffer.get(offset + i));
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.capture;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Taps every datagram that goes in or out of a channel into a {@link PcapWriter}. Must sit at the head of the pipeline
+ * (closest to the socket) so it sees raw, encoded packets in both directions.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+@ChannelHandler.Sharable
+public class PcapCaptureHandler extends ChannelDuplexHandler {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final PcapWriter writer;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PcapCaptureHandler(PcapWriter writer) {
+        this.writer = writer;
+    }
+
+    // ChannelDuplexHandler -------------------------------------------------------------------------------------------
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof DatagramPacket) {
+            DatagramPacket packet = (DatagramPacket) msg;
+            this.writer.capture(packet.sender(), packet.recipient(), packet.content());
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof DatagramPacket) {
+            DatagramPacket packet = (DatagramPacket) msg;
+            InetSocketAddress local = (InetSocketAddress) ctx.channel().localAddress();
+            this.writer.capture(local, packet.recipient(), packet.content());
+        }
+
+        ctx.write(msg, promise);
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public PcapWriter getWriter() {
+        return writer;
+    }
+}
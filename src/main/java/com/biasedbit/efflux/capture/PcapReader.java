@@ -0,0 +1,288 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reader of classic libpcap files that yields the UDP datagrams they contain.
+ * <p/>
+ * The file is memory mapped in large windows and payloads are handed out as slices of the mapping, so reading does not
+ * copy packet data. Both byte orders and both microsecond and nanosecond resolution files are supported, as are the
+ * Ethernet (optionally 802.1Q tagged), Linux cooked, BSD loopback and raw IP link types. Non-UDP frames and IP
+ * fragments are skipped. pcapng files are rejected (they can be converted with {@code editcap -F pcap}).
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PcapReader implements Closeable {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int LINKTYPE_NULL = 0;
+    public static final int LINKTYPE_ETHERNET = 1;
+    public static final int LINKTYPE_RAW = PcapWriter.LINKTYPE_RAW;
+    public static final int LINKTYPE_LINUX_SLL = 113;
+    public static final int LINKTYPE_IPV4 = 228;
+    public static final int LINKTYPE_IPV6 = 229;
+
+    protected static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final int GLOBAL_HEADER_SIZE = 24;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int MAX_RECORD_SIZE = 256 * 1024;
+    private static final int PCAPNG_MAGIC = 0x0a0d0d0a;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final long size;
+    private final ByteOrder order;
+    private final boolean nanosecondResolution;
+    private final int linkType;
+    private ByteBuf window;
+    private ByteBuf orderedWindow;
+    private long windowStart;
+    private int offset;
+    private long recordsRead;
+    private long recordsSkipped;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PcapReader(File file) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+        this.channel = this.randomAccessFile.getChannel();
+        this.size = this.channel.size();
+
+        try {
+            if (this.size < GLOBAL_HEADER_SIZE) {
+                throw new IOException("Not a pcap file (too short): " + file);
+            }
+
+            this.map(0);
+            int magic = this.window.getInt(0);
+            if (magic == PcapWriter.MAGIC_MICROS) {
+                this.order = ByteOrder.BIG_ENDIAN;
+                this.nanosecondResolution = false;
+            } else if (magic == Integer.reverseBytes(PcapWriter.MAGIC_MICROS)) {
+                this.order = ByteOrder.LITTLE_ENDIAN;
+                this.nanosecondResolution = false;
+            } else if (magic == PcapWriter.MAGIC_NANOS) {
+                this.order = ByteOrder.BIG_ENDIAN;
+                this.nanosecondResolution = true;
+            } else if (magic == Integer.reverseBytes(PcapWriter.MAGIC_NANOS)) {
+                this.order = ByteOrder.LITTLE_ENDIAN;
+                this.nanosecondResolution = true;
+            } else if (magic == PCAPNG_MAGIC) {
+                throw new IOException("pcapng files are not supported, convert to pcap first: " + file);
+            } else {
+                throw new IOException("Not a pcap file (bad magic 0x" + Integer.toHexString(magic) + "): " + file);
+            }
+
+            this.orderedWindow = this.window.order(this.order);
+            this.linkType = this.orderedWindow.getInt(20) & 0xffff;
+            this.offset = GLOBAL_HEADER_SIZE;
+        } catch (IOException e) {
+            this.randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * @return The next UDP datagram in the file or null once the end of the file (or a truncated last record) is
+     *         reached.
+     *
+     * @throws IOException If the file cannot be read or is corrupt.
+     */
+    public PcapRecord next() throws IOException {
+        while ((this.position() + RECORD_HEADER_SIZE) <= this.size) {
+            this.ensure(RECORD_HEADER_SIZE);
+            long seconds = this.orderedWindow.getUnsignedInt(this.offset);
+            long fraction = this.orderedWindow.getUnsignedInt(this.offset + 4);
+            int capturedLength = this.orderedWindow.getInt(this.offset + 8);
+            if ((capturedLength < 0) || (capturedLength > MAX_RECORD_SIZE)) {
+                throw new IOException("Corrupt pcap record at offset " + this.position() + " of " + this.file);
+            }
+            if ((this.position() + RECORD_HEADER_SIZE + capturedLength) > this.size) {
+                return null;
+            }
+
+            this.ensure(RECORD_HEADER_SIZE + capturedLength);
+            int frame = this.offset + RECORD_HEADER_SIZE;
+            this.offset = frame + capturedLength;
+            this.recordsRead++;
+
+            long timestamp = (seconds * 1000000000L) + (this.nanosecondResolution ? fraction : (fraction * 1000));
+            PcapRecord record = this.parse(timestamp, frame, frame + capturedLength);
+            if (record != null) {
+                return record;
+            }
+            this.recordsSkipped++;
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.window = null;
+        this.orderedWindow = null;
+        this.randomAccessFile.close();
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private long position() {
+        return this.windowStart + this.offset;
+    }
+
+    private void ensure(int length) throws IOException {
+        if ((this.offset + length) > this.window.capacity()) {
+            this.map(this.position());
+        }
+    }
+
+    private void map(long position) throws IOException {
+        long length = Math.min(WINDOW_SIZE, this.size - position);
+        this.window = Unpooled.wrappedBuffer(this.channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+        if (this.order != null) {
+            this.orderedWindow = this.window.order(this.order);
+        }
+        this.windowStart = position;
+        this.offset = 0;
+    }
+
+    private PcapRecord parse(long timestamp, int frame, int end) {
+        int ip;
+        switch (this.linkType) {
+            case LINKTYPE_ETHERNET:
+                if ((frame + 14) > end) {
+                    return null;
+                }
+                int etherType = this.window.getUnsignedShort(frame + 12);
+                ip = frame + 14;
+                if ((etherType == 0x8100) && ((ip + 4) <= end)) {
+                    etherType = this.window.getUnsignedShort(frame + 16);
+                    ip += 4;
+                }
+                if ((etherType != 0x0800) && (etherType != 0x86dd)) {
+                    return null;
+                }
+                break;
+            case LINKTYPE_LINUX_SLL:
+                ip = frame + 16;
+                break;
+            case LINKTYPE_NULL:
+                ip = frame + 4;
+                break;
+            case LINKTYPE_RAW:
+            case LINKTYPE_IPV4:
+            case LINKTYPE_IPV6:
+                ip = frame;
+                break;
+            default:
+                return null;
+        }
+        if (ip >= end) {
+            return null;
+        }
+
+        int udp;
+        byte[] source;
+        byte[] destination;
+        int version = this.window.getUnsignedByte(ip) >> 4;
+        if (version == 4) {
+            int headerLength = (this.window.getUnsignedByte(ip) & 0x0f) * 4;
+            if (((ip + headerLength + 8) > end) || (this.window.getUnsignedByte(ip + 9) != 17) ||
+                ((this.window.getUnsignedShort(ip + 6) & 0x3fff) != 0)) {
+                // Too short, not UDP or a fragment.
+                return null;
+            }
+            source = new byte[4];
+            destination = new byte[4];
+            this.window.getBytes(ip + 12, source);
+            this.window.getBytes(ip + 16, destination);
+            udp = ip + headerLength;
+        } else if (version == 6) {
+            if (((ip + 48) > end) || (this.window.getUnsignedByte(ip + 6) != 17)) {
+                // Too short or not UDP (extension headers are not followed).
+                return null;
+            }
+            source = new byte[16];
+            destination = new byte[16];
+            this.window.getBytes(ip + 8, source);
+            this.window.getBytes(ip + 24, destination);
+            udp = ip + 40;
+        } else {
+            return null;
+        }
+
+        int payloadLength = Math.min(this.window.getUnsignedShort(udp + 4) - 8, end - (udp + 8));
+        if (payloadLength < 0) {
+            return null;
+        }
+
+        try {
+            return new PcapRecord(timestamp,
+                                  new InetSocketAddress(InetAddress.getByAddress(source),
+                                                        this.window.getUnsignedShort(udp)),
+                                  new InetSocketAddress(InetAddress.getByAddress(destination),
+                                                        this.window.getUnsignedShort(udp + 2)),
+                                  this.window.slice(udp + 8, payloadLength));
+        } catch (UnknownHostException e) {
+            // Can't happen, lengths are fixed above.
+            return null;
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getLinkType() {
+        return linkType;
+    }
+
+    public boolean isNanosecondResolution() {
+        return nanosecondResolution;
+    }
+
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    public long getRecordsSkipped() {
+        return recordsSkipped;
+    }
+}
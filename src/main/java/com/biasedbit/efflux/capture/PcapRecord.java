@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.capture;
+
+import io.netty.buffer.ByteBuf;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A UDP datagram read back from a pcap file by {@link PcapReader}.
+ * <p/>
+ * The payload is a slice over the reader's memory mapping: it is only valid until the reader is closed and must be
+ * copied if it is to be handed over to code that releases it.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PcapRecord {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final long timestamp;
+    private final InetSocketAddress source;
+    private final InetSocketAddress destination;
+    private final ByteBuf payload;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PcapRecord(long timestamp, InetSocketAddress source, InetSocketAddress destination, ByteBuf payload) {
+        this.timestamp = timestamp;
+        this.source = source;
+        this.destination = destination;
+        this.payload = payload;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Capture time, in nanoseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public InetSocketAddress getSource() {
+        return source;
+    }
+
+    public InetSocketAddress getDestination() {
+        return destination;
+    }
+
+    public ByteBuf getPayload() {
+        return payload;
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("PcapRecord{")
+                .append("timestamp=").append(this.timestamp)
+                .append(", source=").append(this.source)
+                .append(", destination=").append(this.destination)
+                .append(", payload=").append(this.payload.readableBytes()).append(" bytes")
+                .append('}').toString();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.capture;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.DatagramPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the datagrams read by a {@link PcapReader} into a {@link Target}: either straight into a channel pipeline
+ * (e.g. one with a {@link com.biasedbit.efflux.network.DataPacketDecoder} or
+ * {@link com.biasedbit.efflux.network.ControlPacketDecoder}, to exercise the receive path without a network) or onto
+ * a socket.
+ * <p/>
+ * Packets are replayed either with their original inter-arrival timing (optionally sped up or slowed down) or as fast
+ * as possible, in which case the replayer reports the achieved throughput.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PcapReplayer {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    protected static final boolean ORIGINAL_TIMING = false;
+    protected static final double SPEED = 1.0;
+    protected static final int DESTINATION_PORT = -1;
+    protected static final long REPORT_INTERVAL = 0;
+
+    private static final Logger LOG = LoggerFactory.getLogger(PcapReplayer.class);
+    private static final long SPIN_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(2);
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final PcapReader reader;
+    private final Target target;
+    private boolean originalTiming;
+    private double speed;
+    private int destinationPort;
+    private long reportInterval;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private long packetsReplayed;
+    private long bytesReplayed;
+    private long elapsedNanos;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PcapReplayer(PcapReader reader, Target target) {
+        this.reader = reader;
+        this.target = target;
+        this.originalTiming = ORIGINAL_TIMING;
+        this.speed = SPEED;
+        this.destinationPort = DESTINATION_PORT;
+        this.reportInterval = REPORT_INTERVAL;
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * @param channel Channel whose pipeline will receive each datagram as if it had been read from the socket.
+     *
+     * @return A target that fires a copy of each datagram up the channel's pipeline.
+     */
+    public static Target toPipeline(final Channel channel) {
+        return new Target() {
+            @Override
+            public void replay(PcapRecord record) {
+                channel.pipeline().fireChannelRead(new DatagramPacket(Unpooled.copiedBuffer(record.getPayload()),
+                                                                      record.getDestination(), record.getSource()));
+            }
+        };
+    }
+
+    /**
+     * @param channel     Bound datagram channel to send through.
+     * @param destination Address to send every datagram to; null to send them to their original destination.
+     *
+     * @return A target that writes a copy of each datagram to the channel, waiting for it to become writable.
+     */
+    public static Target toSocket(final Channel channel, final InetSocketAddress destination) {
+        return new Target() {
+            @Override
+            public void replay(PcapRecord record) {
+                while (!channel.isWritable() && channel.isActive()) {
+                    Thread.yield();
+                }
+                channel.writeAndFlush(new DatagramPacket(Unpooled.copiedBuffer(record.getPayload()),
+                                                         destination == null ? record.getDestination() : destination));
+            }
+        };
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Replays every (matching) record left in the reader, on the calling thread.
+     *
+     * @return Number of packets replayed.
+     *
+     * @throws IOException          If the capture cannot be read.
+     * @throws InterruptedException If interrupted while waiting to replay a packet with original timing.
+     */
+    public long replay() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long nextReport = start + TimeUnit.MILLISECONDS.toNanos(this.reportInterval);
+        long firstTimestamp = -1;
+
+        PcapRecord record;
+        while ((record = this.reader.next()) != null) {
+            if ((this.destinationPort >= 0) && (record.getDestination().getPort() != this.destinationPort)) {
+                continue;
+            }
+
+            if (this.originalTiming) {
+                if (firstTimestamp < 0) {
+                    firstTimestamp = record.getTimestamp();
+                }
+                this.waitUntil(start + (long) ((record.getTimestamp() - firstTimestamp) / this.speed));
+            }
+
+            this.target.replay(record);
+            this.packetsReplayed++;
+            this.bytesReplayed += record.getPayload().readableBytes();
+
+            if ((this.reportInterval > 0) && (System.nanoTime() >= nextReport)) {
+                this.elapsedNanos = System.nanoTime() - start;
+                LOG.info("Replayed {} packets from {} ({} pps, {} Mbps).", this.packetsReplayed, this.reader.getFile(),
+                         (long) this.getPacketsPerSecond(), (long) this.getMegabitsPerSecond());
+                nextReport += TimeUnit.MILLISECONDS.toNanos(this.reportInterval);
+            }
+        }
+
+        this.elapsedNanos = System.nanoTime() - start;
+        LOG.debug("Replay of {} done: {} packets, {} bytes in {}ms ({} pps, {} Mbps).", this.reader.getFile(),
+                  this.packetsReplayed, this.bytesReplayed, TimeUnit.NANOSECONDS.toMillis(this.elapsedNanos),
+                  (long) this.getPacketsPerSecond(), (long) this.getMegabitsPerSecond());
+        return this.packetsReplayed;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void waitUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > SPIN_THRESHOLD) {
+            // Sleep most of the way and spin the rest, sleep granularity is too coarse for packet pacing.
+            TimeUnit.NANOSECONDS.sleep(remaining - SPIN_THRESHOLD);
+        }
+        while (System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public boolean isOriginalTiming() {
+        return originalTiming;
+    }
+
+    /**
+     * @param originalTiming true to reproduce the inter-packet gaps of the capture, false to replay as fast as
+     *                       possible.
+     */
+    public void setOriginalTiming(boolean originalTiming) {
+        this.originalTiming = originalTiming;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @param speed Multiplier applied to the original timing (2.0 replays twice as fast); must be > 0.
+     */
+    public void setSpeed(double speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Speed must be > 0");
+        }
+        this.speed = speed;
+    }
+
+    public int getDestinationPort() {
+        return destinationPort;
+    }
+
+    /**
+     * @param destinationPort Only replay datagrams sent to this UDP port (e.g. to split RTP from RTCP); -1 for all.
+     */
+    public void setDestinationPort(int destinationPort) {
+        this.destinationPort = destinationPort;
+    }
+
+    public long getReportInterval() {
+        return reportInterval;
+    }
+
+    /**
+     * @param reportInterval Interval, in milliseconds, between progress log lines; 0 disables progress reports.
+     */
+    public void setReportInterval(long reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public long getPacketsReplayed() {
+        return packetsReplayed;
+    }
+
+    public long getBytesReplayed() {
+        return bytesReplayed;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getPacketsPerSecond() {
+        return this.elapsedNanos == 0 ? 0 : (this.packetsReplayed * 1000000000.0) / this.elapsedNanos;
+    }
+
+    public double getMegabitsPerSecond() {
+        return this.elapsedNanos == 0 ? 0 : (this.bytesReplayed * 8000.0) / this.elapsedNanos;
+    }
+
+    // public classes -------------------------------------------------------------------------------------------------
+
+    public interface Target {
+
+        void replay(PcapRecord record) throws IOException;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.capture;
+
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes UDP datagrams to a classic libpcap file so that session traffic can be inspected with Wireshark/tcpdump or
+ * fed back through the stack with {@link PcapReplayer}.
+ * <p/>
+ * Callers of {@link #capture(InetSocketAddress, InetSocketAddress, ByteBuf)} (typically the I/O threads, through a
+ * {@link PcapCaptureHandler}) only copy the payload into a bounded queue; encoding and file I/O happen on a dedicated
+ * writer thread that batches records into a large direct buffer and flushes it through a {@link FileChannel} when it
+ * fills up or when the queue goes idle. When the queue is full, records are dropped and counted rather than blocking
+ * the caller.
+ * <p/>
+ * Records use {@link #LINKTYPE_RAW} with synthesized IPv4 (or IPv6, when either endpoint is IPv6) and UDP headers.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PcapWriter {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int MAGIC_MICROS = 0xa1b2c3d4;
+    public static final int MAGIC_NANOS = 0xa1b23c4d;
+    public static final int LINKTYPE_RAW = 101;
+    public static final int SNAPLEN = 65535;
+
+    protected static final int QUEUE_CAPACITY = 8192;
+    protected static final int BUFFER_SIZE = 256 * 1024;
+    protected static final long IDLE_FLUSH_MILLIS = 100;
+
+    private static final Logger LOG = LoggerFactory.getLogger(PcapWriter.class);
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int IPV4_HEADER_SIZE = 20;
+    private static final int IPV6_HEADER_SIZE = 40;
+    private static final int UDP_HEADER_SIZE = 8;
+    private static final InetSocketAddress UNKNOWN = new InetSocketAddress(0);
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final File file;
+    private final int queueCapacity;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final BlockingQueue<Record> queue;
+    private final AtomicLong capturedPackets;
+    private final AtomicLong droppedPackets;
+    private final long baseMicros;
+    private final long baseNanos;
+    private volatile boolean running;
+    private volatile long writtenBytes;
+    private FileChannel channel;
+    private Thread writerThread;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PcapWriter(File file) {
+        this(file, QUEUE_CAPACITY);
+    }
+
+    public PcapWriter(File file, int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be > 0");
+        }
+
+        this.file = file;
+        this.queueCapacity = queueCapacity;
+        this.queue = new ArrayBlockingQueue<Record>(queueCapacity);
+        this.capturedPackets = new AtomicLong();
+        this.droppedPackets = new AtomicLong();
+        this.baseMicros = System.currentTimeMillis() * 1000;
+        this.baseNanos = System.nanoTime();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates (or truncates) the file, writes the pcap global header and starts the writer thread.
+     *
+     * @throws IOException If the file cannot be created.
+     */
+    public synchronized void open() throws IOException {
+        if (this.running) {
+            return;
+        }
+
+        this.channel = new FileOutputStream(this.file).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(24);
+        header.putInt(MAGIC_MICROS)
+                .putShort((short) 2)
+                .putShort((short) 4)
+                .putInt(0) // thiszone
+                .putInt(0) // sigfigs
+                .putInt(SNAPLEN)
+                .putInt(LINKTYPE_RAW)
+                .flip();
+        this.write(header);
+
+        this.running = true;
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "efflux-pcap-writer-" + this.file.getName());
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues a copy of the readable bytes of {@code payload} for writing. Never blocks; the buffer's indexes and
+     * reference count are left untouched.
+     *
+     * @param source      Sender of the datagram; null if unknown.
+     * @param destination Recipient of the datagram; null if unknown.
+     * @param payload     UDP payload.
+     *
+     * @return true if the record was queued, false if it was dropped (writer closed or queue full).
+     */
+    public boolean capture(InetSocketAddress source, InetSocketAddress destination, ByteBuf payload) {
+        if (!this.running) {
+            return false;
+        }
+
+        long timestamp = this.baseMicros + ((System.nanoTime() - this.baseNanos) / 1000);
+        byte[] data = new byte[payload.readableBytes()];
+        payload.getBytes(payload.readerIndex(), data);
+        if (!this.queue.offer(new Record(timestamp, source, destination, data))) {
+            this.droppedPackets.incrementAndGet();
+            return false;
+        }
+
+        this.capturedPackets.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stops accepting records, waits for the writer thread to flush everything still queued and closes the file.
+     */
+    public synchronized void close() {
+        if (!this.running) {
+            return;
+        }
+
+        this.running = false;
+        try {
+            this.writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close pcap file {}.", this.file, e);
+        }
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void writeLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        List<Record> batch = new ArrayList<Record>(256);
+        try {
+            while (this.running || !this.queue.isEmpty()) {
+                Record first = this.queue.poll(IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // Idle, push out whatever is pending so the file is readable while capturing.
+                    this.flush(buffer);
+                    continue;
+                }
+
+                batch.add(first);
+                this.queue.drainTo(batch, 255);
+                for (Record record : batch) {
+                    if (buffer.remaining() < record.getEncodedSize()) {
+                        this.flush(buffer);
+                    }
+                    record.encode(buffer);
+                }
+                batch.clear();
+            }
+            this.flush(buffer);
+        } catch (InterruptedException e) {
+            LOG.warn("Pcap writer for {} interrupted, closing.", this.file);
+        } catch (IOException e) {
+            LOG.error("Failed to write to pcap file {}, capture stopped.", this.file, e);
+        } finally {
+            this.running = false;
+            this.droppedPackets.addAndGet(this.queue.size());
+            this.queue.clear();
+        }
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+
+        buffer.flip();
+        this.write(buffer);
+        buffer.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+        this.writtenBytes += length;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getCapturedPackets() {
+        return capturedPackets.get();
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    private static final class Record {
+
+        private final long timestamp;
+        private final InetSocketAddress source;
+        private final InetSocketAddress destination;
+        private final byte[] data;
+        private final boolean ipv6;
+
+        private Record(long timestamp, InetSocketAddress source, InetSocketAddress destination, byte[] data) {
+            this.timestamp = timestamp;
+            this.source = ((source == null) || source.isUnresolved()) ? UNKNOWN : source;
+            this.destination = ((destination == null) || destination.isUnresolved()) ? UNKNOWN : destination;
+            this.data = data;
+            this.ipv6 = !(this.source.getAddress() instanceof Inet4Address) ||
+                        !(this.destination.getAddress() instanceof Inet4Address);
+        }
+
+        private int getIpHeaderSize() {
+            return this.ipv6 ? IPV6_HEADER_SIZE : IPV4_HEADER_SIZE;
+        }
+
+        private int getEncodedSize() {
+            return RECORD_HEADER_SIZE + this.getCapturedLength();
+        }
+
+        private int getCapturedLength() {
+            return Math.min(SNAPLEN, this.getIpHeaderSize() + UDP_HEADER_SIZE + this.data.length);
+        }
+
+        private void encode(ByteBuffer buffer) {
+            int udpLength = UDP_HEADER_SIZE + this.data.length;
+            int capturedLength = this.getCapturedLength();
+
+            buffer.putInt((int) (this.timestamp / 1000000))
+                    .putInt((int) (this.timestamp % 1000000))
+                    .putInt(capturedLength)
+                    .putInt(this.getIpHeaderSize() + udpLength);
+
+            if (this.ipv6) {
+                buffer.putInt(0x60000000)
+                        .putShort((short) udpLength)
+                        .put((byte) 17)
+                        .put((byte) 64)
+                        .put(toIpv6(this.source.getAddress()))
+                        .put(toIpv6(this.destination.getAddress()));
+            } else {
+                byte[] src = this.source.getAddress().getAddress();
+                byte[] dst = this.destination.getAddress().getAddress();
+                int start = buffer.position();
+                buffer.putInt(0x45000000 | (IPV4_HEADER_SIZE + udpLength))
+                        .putInt(0x00004000) // id 0, don't fragment
+                        .putInt(0x40110000) // ttl 64, udp, checksum filled below
+                        .put(src)
+                        .put(dst);
+                buffer.putShort(start + 10, ipv4Checksum(buffer, start));
+            }
+
+            buffer.putShort((short) this.source.getPort())
+                    .putShort((short) this.destination.getPort())
+                    .putShort((short) udpLength)
+                    .putShort((short) 0);
+            buffer.put(this.data, 0, capturedLength - this.getIpHeaderSize() - UDP_HEADER_SIZE);
+        }
+
+        private static byte[] toIpv6(InetAddress address) {
+            byte[] bytes = address.getAddress();
+            if (bytes.length == 16) {
+                return bytes;
+            }
+
+            // IPv4-mapped IPv6 address.
+            byte[] mapped = new byte[16];
+            mapped[10] = (byte) 0xff;
+            mapped[11] = (byte) 0xff;
+            System.arraycopy(bytes, 0, mapped, 12, 4);
+            return mapped;
+        }
+
+        private static short ipv4Checksum(ByteBuffer buffer, int start) {
+            int sum = 0;
+            for (int i = start; i < (start + IPV4_HEADER_SIZE); i += 2) {
+                sum += buffer.getShort(i) & 0xffff;
+            }
+            while ((sum >> 16) != 0) {
+                sum = (sum & 0xffff) + (sum >> 16);
+            }
+            return (short) ~sum;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.capture;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.RtpSession;
+import com.biasedbit.efflux.session.RtpSessionDataListener;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records every RTP packet received by the sessions it listens to into one rtpdump file (the rtptools
+ * {@code #!rtpplay1.0} format, readable by rtpplay and Wireshark) per SSRC.
+ * <p/>
+ * {@link #dataPacketReceived(RtpSession, RtpParticipantInfo, DataPacket)} runs on the I/O threads and only encodes the
+ * packet into a queue whose total size is capped; when the disk can't keep up and the cap is reached, packets are
+ * dropped and counted instead of blocking. A dedicated writer thread accumulates each SSRC's records in a large direct
+ * buffer and only writes whole {@link #BLOCK_SIZE} multiples to the {@link FileChannel}, leaving the tail for the next
+ * write; partial blocks are only written on rotation, on close and when the recorder goes idle.
+ * <p/>
+ * Files are named {@code <ssrc in hex>-<sequence>.rtpdump} and are rotated once they reach a maximum size or age.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpDumpRecorder implements RtpSessionDataListener {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int BLOCK_SIZE = 4096;
+
+    protected static final long MAX_FILE_SIZE = 256 * 1024 * 1024;
+    protected static final long MAX_FILE_DURATION = TimeUnit.HOURS.toMillis(1);
+    protected static final long MAX_PENDING_BYTES = 16 * 1024 * 1024;
+    protected static final int BUFFER_SIZE = 64 * BLOCK_SIZE;
+    protected static final long IDLE_FLUSH_MILLIS = 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(RtpDumpRecorder.class);
+    private static final int PACKET_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 0xffff;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final File directory;
+    private long maxFileSize;
+    private long maxFileDuration;
+    private long maxPendingBytes;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final BlockingQueue<Record> queue;
+    private final AtomicLong pendingBytes;
+    private final AtomicLong recordedPackets;
+    private final AtomicLong droppedPackets;
+    private final long baseMillis;
+    private final long baseNanos;
+    private volatile boolean running;
+    private volatile long writtenBytes;
+    private volatile long filesCreated;
+    private Thread writerThread;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public RtpDumpRecorder(File directory) {
+        this.directory = directory;
+        this.maxFileSize = MAX_FILE_SIZE;
+        this.maxFileDuration = MAX_FILE_DURATION;
+        this.maxPendingBytes = MAX_PENDING_BYTES;
+        this.queue = new LinkedBlockingQueue<Record>();
+        this.pendingBytes = new AtomicLong();
+        this.recordedPackets = new AtomicLong();
+        this.droppedPackets = new AtomicLong();
+        this.baseMillis = System.currentTimeMillis();
+        this.baseNanos = System.nanoTime();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates the output directory, if needed, and starts the writer thread.
+     *
+     * @throws IOException If the output directory cannot be created.
+     */
+    public synchronized void start() throws IOException {
+        if (this.running) {
+            return;
+        }
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create output directory " + this.directory);
+        }
+
+        this.running = true;
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "efflux-rtpdump-writer-" + this.directory.getName());
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Stops recording, waits for the writer thread to write out everything still queued and closes all files.
+     */
+    public synchronized void close() {
+        if (!this.running) {
+            return;
+        }
+
+        this.running = false;
+        try {
+            this.writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // RtpSessionDataListener -----------------------------------------------------------------------------------------
+
+    @Override
+    public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+        if (!this.running) {
+            return;
+        }
+
+        ByteBuf encoded = packet.encode();
+        try {
+            int length = PACKET_HEADER_SIZE + encoded.readableBytes();
+            if ((length > MAX_RECORD_SIZE) || ((this.pendingBytes.get() + length) > this.maxPendingBytes)) {
+                this.droppedPackets.incrementAndGet();
+                return;
+            }
+
+            // Record offset (ms since the start of the file) is only known on the writer thread, left as 0 here.
+            byte[] data = new byte[length];
+            data[0] = (byte) (length >> 8);
+            data[1] = (byte) length;
+            data[2] = (byte) (encoded.readableBytes() >> 8);
+            data[3] = (byte) encoded.readableBytes();
+            encoded.getBytes(encoded.readerIndex(), data, PACKET_HEADER_SIZE, encoded.readableBytes());
+
+            this.pendingBytes.addAndGet(length);
+            this.queue.offer(new Record(packet.getSsrc(), System.nanoTime(), data));
+            this.recordedPackets.incrementAndGet();
+        } finally {
+            encoded.release();
+        }
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void writeLoop() {
+        Map<Long, DumpFile> files = new HashMap<Long, DumpFile>();
+        List<Record> batch = new ArrayList<Record>(256);
+        try {
+            while (this.running || !this.queue.isEmpty()) {
+                Record first = this.queue.poll(IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    for (DumpFile file : files.values()) {
+                        file.flush(false);
+                    }
+                    continue;
+                }
+
+                batch.add(first);
+                this.queue.drainTo(batch, 255);
+                for (Record record : batch) {
+                    this.pendingBytes.addAndGet(-record.data.length);
+                    DumpFile file = files.get(record.ssrc);
+                    if ((file != null) && file.isRotationDue(record)) {
+                        file.close();
+                        file = null;
+                    }
+                    if (file == null) {
+                        file = new DumpFile(record.ssrc, record.timestamp);
+                        files.put(record.ssrc, file);
+                    }
+                    file.append(record);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Rtpdump writer for {} interrupted, closing.", this.directory);
+        } catch (IOException e) {
+            LOG.error("Failed to write rtpdump files to {}, recording stopped.", this.directory, e);
+        } finally {
+            this.running = false;
+            for (DumpFile file : files.values()) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    LOG.warn("Failed to close rtpdump file {}.", file.file, e);
+                }
+            }
+            this.droppedPackets.addAndGet(this.queue.size());
+            this.queue.clear();
+            this.pendingBytes.set(0);
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * @param maxFileSize Size, in bytes, after which a new file is started for an SSRC; 0 disables size rotation.
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        if (this.running) {
+            throw new IllegalArgumentException("Cannot modify property after start");
+        }
+        this.maxFileSize = maxFileSize;
+    }
+
+    public long getMaxFileDuration() {
+        return maxFileDuration;
+    }
+
+    /**
+     * @param maxFileDuration Time, in milliseconds, after which a new file is started for an SSRC; 0 disables time
+     *                        rotation.
+     */
+    public void setMaxFileDuration(long maxFileDuration) {
+        if (this.running) {
+            throw new IllegalArgumentException("Cannot modify property after start");
+        }
+        this.maxFileDuration = maxFileDuration;
+    }
+
+    public long getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    /**
+     * @param maxPendingBytes Amount of packet data, in bytes, allowed to wait for the writer thread; packets that
+     *                        arrive once this is reached are dropped.
+     */
+    public void setMaxPendingBytes(long maxPendingBytes) {
+        if (this.running) {
+            throw new IllegalArgumentException("Cannot modify property after start");
+        }
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getRecordedPackets() {
+        return recordedPackets.get();
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    public long getFilesCreated() {
+        return filesCreated;
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    private static final class Record {
+
+        private final long ssrc;
+        private final long timestamp;
+        private final byte[] data;
+
+        private Record(long ssrc, long timestamp, byte[] data) {
+            this.ssrc = ssrc;
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+    }
+
+    private final class DumpFile {
+
+        private final File file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final long startNanos;
+        private long size;
+
+        private DumpFile(long ssrc, long startNanos) throws IOException {
+            this.file = new File(directory, String.format("%08x-%d.rtpdump", ssrc, filesCreated));
+            this.channel = new FileOutputStream(this.file).getChannel();
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            this.startNanos = startNanos;
+            filesCreated++;
+
+            // The source address isn't known to session listeners, the spec allows leaving it blank.
+            long startMillis = baseMillis + TimeUnit.NANOSECONDS.toMillis(startNanos - baseNanos);
+            this.buffer.put("#!rtpplay1.0 0.0.0.0/0\n".getBytes("US-ASCII"))
+                    .putInt((int) (startMillis / 1000))
+                    .putInt((int) ((startMillis % 1000) * 1000))
+                    .putInt(0) // source address
+                    .putShort((short) 0) // source port
+                    .putShort((short) 0); // padding
+        }
+
+        private boolean isRotationDue(Record record) {
+            return ((maxFileSize > 0) && ((this.size + this.buffer.position() + record.data.length) > maxFileSize)) ||
+                   ((maxFileDuration > 0) &&
+                    (TimeUnit.NANOSECONDS.toMillis(record.timestamp - this.startNanos) >= maxFileDuration));
+        }
+
+        private void append(Record record) throws IOException {
+            if (this.buffer.remaining() < record.data.length) {
+                this.flush(true);
+            }
+
+            int start = this.buffer.position();
+            this.buffer.put(record.data);
+            this.buffer.putInt(start + 4, (int) TimeUnit.NANOSECONDS.toMillis(record.timestamp - this.startNanos));
+        }
+
+        private void flush(boolean wholeBlocksOnly) throws IOException {
+            int length = this.buffer.position();
+            if (wholeBlocksOnly) {
+                length -= length % BLOCK_SIZE;
+            }
+            if (length == 0) {
+                return;
+            }
+
+            this.buffer.flip();
+            int limit = this.buffer.limit();
+            this.buffer.limit(length);
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.limit(limit);
+            this.buffer.compact();
+            this.size += length;
+            writtenBytes += length;
+        }
+
+        private void close() throws IOException {
+            try {
+                this.flush(false);
+            } finally {
+                this.channel.close();
+            }
+        }
+    }
+}
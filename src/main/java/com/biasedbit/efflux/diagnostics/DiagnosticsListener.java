@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.diagnostics;
+
+import com.biasedbit.efflux.participant.RtpParticipant;
+
+/**
+ * Hook for the internal events of sessions, meant to be bridged to whatever the application uses to correlate latency
+ * spikes and misbehaviour with what the library was doing (an event recorder, metrics, tracing...).
+ * <p/>
+ * Diagnostics are off unless a listener is set (see {@link
+ * com.biasedbit.efflux.session.AbstractRtpSession#setDiagnostics(DiagnosticsListener)}); with no listener, each of
+ * these events costs a single null check. Events carry primitives and objects that already exist so that emitting
+ * them doesn't allocate either, and are emitted from whichever thread they happen in (usually the session's event
+ * loops), so implementations must be thread safe, quick and never block.
+ * <p/>
+ * Durations are in nanoseconds, measured with {@link System#nanoTime()}.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public interface DiagnosticsListener {
+
+    /**
+     * @param duration Time from the call to <code>init()</code> until both channels were bound (or binding failed).
+     */
+    void sessionInitialised(String sessionId, long duration, boolean success);
+
+    /**
+     * @param duration Time from the call to <code>terminate()</code> until all resources were released.
+     * @param cause    Reason for termination, as given to session event listeners.
+     */
+    void sessionTerminated(String sessionId, long duration, Throwable cause);
+
+    /**
+     * A remote source was found using the SSRC of the local participant (or one of its local streams), which was
+     * changed.
+     */
+    void ssrcCollided(String sessionId, long oldSsrc, long newSsrc);
+
+    /**
+     * The session received its own packets, or collided too many times, and is terminating.
+     *
+     * @param collisions Number of collisions detected so far.
+     */
+    void loopDetected(String sessionId, long ssrc, int collisions);
+
+    /**
+     * The periodic RTCP reports were sent.
+     *
+     * @param interval Interval, in milliseconds, until the next reports are sent.
+     */
+    void reportsSent(String sessionId, long interval);
+
+    /**
+     * A participant became a member of the session, after its first RTP or RTCP packet.
+     */
+    void participantCreated(String sessionId, RtpParticipant participant);
+
+    /**
+     * A member was removed after a period of inactivity.
+     *
+     * @param byeReceived Whether the member had sent a BYE (and was removed after the shorter, post-BYE timeout).
+     */
+    void participantExpired(String sessionId, RtpParticipant participant, boolean byeReceived);
+
+    /**
+     * A datagram, or one of the packets in a compound RTCP datagram, failed to decode and was discarded.
+     *
+     * @param control Whether it was an RTCP (as opposed to RTP) packet.
+     * @param size    Size, in bytes, of what failed to decode.
+     * @param cause   Exception thrown while decoding, or <code>null</code> if the packet failed validation.
+     */
+    void decodeFailed(String sessionId, boolean control, int size, Throwable cause);
+
+    /**
+     * Time taken to process a received RTP packet, including the data listeners. Only one in every {@link
+     * com.biasedbit.efflux.session.AbstractRtpSession#getDiagnosticsSamplingInterval()} packets is timed.
+     */
+    void packetProcessed(String sessionId, long duration);
+}
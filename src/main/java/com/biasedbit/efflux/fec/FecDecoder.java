@@ -0,0 +1,276 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.fec;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.util.ByteUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Receive side counterpart of {@link FecEncoder}: keeps a short window of received media packets along with the parity
+ * packets that could not yet be used, and rebuilds a media packet whenever a parity packet has exactly one of its
+ * protected packets missing.
+ * <p/>
+ * One decoder tracks a single RTP stream. This class is not thread safe; it is meant to be driven from the path that
+ * receives packets for the stream.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FecDecoder {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    protected static final Logger LOG = LoggerFactory.getLogger(FecDecoder.class);
+
+    protected static final int WINDOW_SIZE = 128;
+    protected static final int MAX_PENDING_FEC_PACKETS = 32;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int payloadType;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final DataPacket[] window;
+    private final int[] windowSequenceNumbers;
+    private final List<FecPacket> pending;
+    private int highestSequenceNumber;
+    private boolean started;
+    private long fecPacketsReceived;
+    private long packetsRecovered;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param payloadType Payload type of the parity packets.
+     */
+    public FecDecoder(int payloadType) {
+        if ((payloadType < 0) || (payloadType > 127)) {
+            throw new IllegalArgumentException("PayloadType must be in range [0;127]");
+        }
+
+        this.payloadType = payloadType;
+        this.window = new DataPacket[WINDOW_SIZE];
+        this.windowSequenceNumbers = new int[WINDOW_SIZE];
+        this.pending = new ArrayList<FecPacket>();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Record a received media packet, possibly completing a parity group that was missing two packets.
+     *
+     * @param packet Received media packet.
+     *
+     * @return Media packets rebuilt as a consequence of this packet's arrival; often empty.
+     */
+    public List<DataPacket> mediaPacketReceived(DataPacket packet) {
+        this.store(packet);
+        if (this.pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return this.recover(null);
+    }
+
+    /**
+     * Process a received parity packet.
+     *
+     * @param packet Received packet carrying the FEC payload type.
+     *
+     * @return Media packets rebuilt with this parity packet; often empty.
+     */
+    public List<DataPacket> fecPacketReceived(DataPacket packet) {
+        FecPacket fec;
+        try {
+            fec = FecPacket.decode(packet);
+        } catch (Exception e) {
+            LOG.debug("Discarding malformed FEC packet {}: {}", packet, e.getMessage());
+            return Collections.emptyList();
+        }
+
+        this.fecPacketsReceived++;
+        if (this.pending.size() >= MAX_PENDING_FEC_PACKETS) {
+            this.pending.remove(0);
+        }
+        this.pending.add(fec);
+
+        return this.recover(null);
+    }
+
+    /**
+     * Discard every stored packet.
+     */
+    public void reset() {
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            this.window[i] = null;
+        }
+        this.pending.clear();
+        this.started = false;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void store(DataPacket packet) {
+        int sequenceNumber = packet.getSequenceNumber() & 0xffff;
+        int slot = sequenceNumber & (WINDOW_SIZE - 1);
+        this.window[slot] = packet;
+        this.windowSequenceNumbers[slot] = sequenceNumber;
+
+        if (!this.started || (((sequenceNumber - this.highestSequenceNumber) & 0xffff) < 0x8000)) {
+            this.highestSequenceNumber = sequenceNumber;
+            this.started = true;
+        }
+    }
+
+    private DataPacket lookup(int sequenceNumber) {
+        int slot = sequenceNumber & (WINDOW_SIZE - 1);
+        DataPacket packet = this.window[slot];
+        if ((packet == null) || (this.windowSequenceNumbers[slot] != sequenceNumber)) {
+            return null;
+        }
+
+        return packet;
+    }
+
+    private List<DataPacket> recover(List<DataPacket> recovered) {
+        // Every recovery may unlock another parity packet, so keep going until no progress is made.
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            Iterator<FecPacket> iterator = this.pending.iterator();
+            while (iterator.hasNext()) {
+                FecPacket fec = iterator.next();
+                if (this.started &&
+                    (((this.highestSequenceNumber - fec.getSequenceNumberBase()) & 0xffff) >= WINDOW_SIZE) &&
+                    (((this.highestSequenceNumber - fec.getSequenceNumberBase()) & 0xffff) < 0x8000)) {
+                    // Protected packets have left the window.
+                    iterator.remove();
+                    continue;
+                }
+
+                int missing = -1;
+                int missingCount = 0;
+                for (int i = 0; i < fec.getMaskBits(); i++) {
+                    int sequenceNumber = (fec.getSequenceNumberBase() + i) & 0xffff;
+                    if (fec.protects(sequenceNumber) && (this.lookup(sequenceNumber) == null)) {
+                        missing = sequenceNumber;
+                        if (++missingCount > 1) {
+                            break;
+                        }
+                    }
+                }
+
+                if (missingCount == 0) {
+                    iterator.remove();
+                } else if (missingCount == 1) {
+                    iterator.remove();
+                    DataPacket packet = this.rebuild(fec, missing);
+                    if (packet != null) {
+                        this.store(packet);
+                        this.packetsRecovered++;
+                        if (recovered == null) {
+                            recovered = new ArrayList<DataPacket>(1);
+                        }
+                        recovered.add(packet);
+                        progress = true;
+                    }
+                }
+            }
+        }
+
+        if (recovered == null) {
+            return Collections.emptyList();
+        }
+
+        return recovered;
+    }
+
+    private DataPacket rebuild(FecPacket fec, int sequenceNumber) {
+        int recoveryFlags = fec.getRecoveryFlags();
+        int markerAndPayloadType = fec.getRecoveryMarkerAndPayloadType();
+        long timestamp = fec.getTimestampRecovery();
+        int length = fec.getLengthRecovery();
+
+        ByteBuf parity = fec.getParity();
+        ByteBuf bitstring = PooledByteBufAllocator.DEFAULT.buffer(parity.readableBytes());
+        try {
+            bitstring.writeBytes(parity, parity.readerIndex(), parity.readableBytes());
+            for (int i = 0; i < fec.getMaskBits(); i++) {
+                int protectedSequenceNumber = (fec.getSequenceNumberBase() + i) & 0xffff;
+                if ((protectedSequenceNumber == sequenceNumber) || !fec.protects(protectedSequenceNumber)) {
+                    continue;
+                }
+
+                DataPacket packet = this.lookup(protectedSequenceNumber);
+                recoveryFlags ^= FecPacket.getRecoveryFlags(packet);
+                markerAndPayloadType ^= FecPacket.getMarkerAndPayloadType(packet);
+                timestamp ^= packet.getTimestamp();
+                length ^= FecPacket.getProtectedLength(packet);
+                FecPacket.xorProtectedBytes(bitstring, packet);
+            }
+
+            if (length > bitstring.readableBytes()) {
+                LOG.debug("Discarding recovery of packet {}: length {} exceeds protection length {}",
+                          sequenceNumber, length, bitstring.readableBytes());
+                return null;
+            }
+
+            ByteBuf buffer = Unpooled.buffer(12 + length);
+            buffer.writeByte(0x80 | (recoveryFlags & 0x3f));
+            buffer.writeByte(markerAndPayloadType);
+            buffer.writeShort(sequenceNumber);
+            buffer.writeInt((int) timestamp);
+            buffer.writeInt((int) fec.getSsrc());
+            buffer.writeBytes(bitstring, bitstring.readerIndex(), length);
+
+            return DataPacket.decode(buffer);
+        } catch (Exception e) {
+            LOG.debug("Failed to recover packet {} from {}: {}", sequenceNumber, fec, e.getMessage());
+            return null;
+        } finally {
+            bitstring.release();
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    public long getFecPacketsReceived() {
+        return fecPacketsReceived;
+    }
+
+    public long getPacketsRecovered() {
+        return packetsRecovered;
+    }
+
+    public int getPendingFecPackets() {
+        return this.pending.size();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.fec;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Generates RFC 5109 XOR parity packets over groups of outgoing media packets.
+ * <p/>
+ * Outgoing packets are split into <code>interleave</code> groups by arrival order (packet <code>i</code> goes to group
+ * <code>i % interleave</code>); once a group holds <code>groupSize</code> packets, a single parity packet protecting
+ * all of them is produced. With an interleave of 1 consecutive packets are protected together; higher interleave
+ * values spread each group further apart, trading latency for resilience to burst losses.
+ * <p/>
+ * Parity packets carry the configured payload type and are meant to be sent in the same RTP stream (same SSRC and
+ * sequence number space) as the media. The caller is responsible for assigning them their SSRC and sequence number.
+ * <p/>
+ * This class is not thread safe; it is meant to be driven from the single path that assigns sequence numbers to
+ * outgoing packets.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FecEncoder {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    protected static final int INITIAL_PARITY_CAPACITY = 1500;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int payloadType;
+    private final int groupSize;
+    private final int interleave;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final Group[] groups;
+    private int nextGroup;
+    private long parityPacketsGenerated;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param payloadType Payload type used by the parity packets; must not be used by media.
+     * @param groupSize   Number of media packets protected by each parity packet.
+     * @param interleave  Number of groups being filled simultaneously (1 for no interleaving).
+     */
+    public FecEncoder(int payloadType, int groupSize, int interleave) {
+        if ((payloadType < 0) || (payloadType > 127)) {
+            throw new IllegalArgumentException("PayloadType must be in range [0;127]");
+        }
+        if (groupSize < 1) {
+            throw new IllegalArgumentException("Group size must be >= 1");
+        }
+        if (interleave < 1) {
+            throw new IllegalArgumentException("Interleave must be >= 1");
+        }
+        // The span of a group includes the parity packets of the other groups, that are sent in between media.
+        if (((groupSize * interleave) + interleave) > FecPacket.LONG_MASK_BITS) {
+            throw new IllegalArgumentException("(groupSize + 1) * interleave cannot exceed " +
+                                               FecPacket.LONG_MASK_BITS);
+        }
+
+        this.payloadType = payloadType;
+        this.groupSize = groupSize;
+        this.interleave = interleave;
+        this.groups = new Group[interleave];
+        for (int i = 0; i < interleave; i++) {
+            this.groups[i] = new Group();
+        }
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Add a media packet, which must already carry its final sequence number, to the current protection groups.
+     *
+     * @param packet Outgoing media packet.
+     *
+     * @return A parity packet if this packet completed a group, <code>null</code> otherwise. Its SSRC and sequence
+     *         number are left for the caller to set.
+     */
+    public DataPacket protect(DataPacket packet) {
+        Group group = this.groups[this.nextGroup];
+        this.nextGroup = (this.nextGroup + 1) % this.interleave;
+
+        group.add(packet);
+        if (group.count < this.groupSize) {
+            return null;
+        }
+
+        this.parityPacketsGenerated++;
+        return group.flush(this.payloadType);
+    }
+
+    /**
+     * Discard any partially filled groups and release their buffers.
+     */
+    public void reset() {
+        for (Group group : this.groups) {
+            group.release();
+        }
+        this.nextGroup = 0;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    public int getInterleave() {
+        return interleave;
+    }
+
+    public long getParityPacketsGenerated() {
+        return parityPacketsGenerated;
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    private static final class Group {
+
+        private ByteBuf parity;
+        private int count;
+        private int sequenceNumberBase;
+        private long mask;
+        private int recoveryFlags;
+        private int recoveryMarkerAndPayloadType;
+        private long timestampRecovery;
+        private int lengthRecovery;
+        private long lastTimestamp;
+
+        private void add(DataPacket packet) {
+            int sequenceNumber = packet.getSequenceNumber() & 0xffff;
+            if (this.count == 0) {
+                this.sequenceNumberBase = sequenceNumber;
+                if (this.parity == null) {
+                    this.parity = PooledByteBufAllocator.DEFAULT.buffer(INITIAL_PARITY_CAPACITY);
+                }
+            }
+            int offset = (sequenceNumber - this.sequenceNumberBase) & 0xffff;
+            if (offset >= FecPacket.LONG_MASK_BITS) {
+                throw new IllegalStateException("Sequence number " + sequenceNumber + " outside of protection span " +
+                                                "starting at " + this.sequenceNumberBase);
+            }
+            this.mask |= 1L << (47 - offset);
+
+            this.recoveryFlags ^= FecPacket.getRecoveryFlags(packet);
+            this.recoveryMarkerAndPayloadType ^= FecPacket.getMarkerAndPayloadType(packet);
+            this.timestampRecovery ^= packet.getTimestamp();
+            this.lastTimestamp = packet.getTimestamp();
+
+            int length = FecPacket.getProtectedLength(packet);
+            this.lengthRecovery ^= length;
+            // Shorter packets are implicitly padded with zeroes up to the protection length.
+            if (length > this.parity.writerIndex()) {
+                this.parity.writeZero(length - this.parity.writerIndex());
+            }
+            FecPacket.xorProtectedBytes(this.parity, packet);
+            this.count++;
+        }
+
+        private DataPacket flush(int payloadType) {
+            DataPacket packet = new DataPacket();
+            packet.setPayloadType(payloadType);
+            packet.setTimestamp(this.lastTimestamp);
+            packet.setData(FecPacket.encode(this.recoveryFlags, this.recoveryMarkerAndPayloadType,
+                                            this.sequenceNumberBase, this.timestampRecovery, this.lengthRecovery,
+                                            this.mask, this.parity));
+
+            this.parity.clear();
+            this.count = 0;
+            this.mask = 0;
+            this.recoveryFlags = 0;
+            this.recoveryMarkerAndPayloadType = 0;
+            this.timestampRecovery = 0;
+            this.lengthRecovery = 0;
+
+            return packet;
+        }
+
+        private void release() {
+            if (this.parity != null) {
+                this.parity.release();
+                this.parity = null;
+            }
+            this.count = 0;
+            this.mask = 0;
+            this.recoveryFlags = 0;
+            this.recoveryMarkerAndPayloadType = 0;
+            this.timestampRecovery = 0;
+            this.lengthRecovery = 0;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.fec;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.util.ByteUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Payload of an XOR parity packet, as described in RFC 5109 (section 7), restricted to a single protection level.
+ * <p/>
+ * FEC packets travel in the same RTP stream (same SSRC and sequence number space) as the media they protect and are
+ * told apart by their payload type. The protected "bitstring" of each media packet is everything that follows the
+ * fixed 12 byte RTP header, laid out as {@link DataPacket#encode()} writes it: CSRC list, header extension and
+ * payload.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FecPacket {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FEC_HEADER_SIZE = 10;
+    public static final int SHORT_MASK_BITS = 16;
+    public static final int LONG_MASK_BITS = 48;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private long ssrc;
+    private long timestamp;
+    private int recoveryFlags;
+    private int recoveryMarkerAndPayloadType;
+    private int sequenceNumberBase;
+    private long timestampRecovery;
+    private int lengthRecovery;
+    private long mask;
+    private boolean longMask;
+    private ByteBuf parity;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    private FecPacket() {
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * Parse the FEC headers carried in an RTP packet.
+     *
+     * @param packet RTP packet with the FEC payload type.
+     *
+     * @return The FEC packet; its parity is a slice of the RTP packet's payload.
+     */
+    public static FecPacket decode(DataPacket packet) {
+        ByteBuf data = packet.getData();
+        if ((data == null) || (data.readableBytes() < (FEC_HEADER_SIZE + 4))) {
+            throw new IllegalArgumentException("FEC payload must be at least 14 octets long");
+        }
+
+        FecPacket fec = new FecPacket();
+        fec.ssrc = packet.getSsrc();
+        fec.timestamp = packet.getTimestamp();
+
+        int index = data.readerIndex();
+        byte b = data.getByte(index);
+        if ((b & 0x80) != 0) {
+            throw new IllegalArgumentException("FEC header extension flag (E) must not be set");
+        }
+        fec.longMask = (b & 0x40) != 0;
+        fec.recoveryFlags = b & 0x3f;
+        fec.recoveryMarkerAndPayloadType = data.getUnsignedByte(index + 1);
+        fec.sequenceNumberBase = data.getUnsignedShort(index + 2);
+        fec.timestampRecovery = data.getUnsignedInt(index + 4);
+        fec.lengthRecovery = data.getUnsignedShort(index + 8);
+
+        int protectionLength = data.getUnsignedShort(index + 10);
+        fec.mask = ((long) data.getUnsignedShort(index + 12)) << 32;
+        int levelHeaderSize = 4;
+        if (fec.longMask) {
+            fec.mask |= data.getUnsignedInt(index + 14);
+            levelHeaderSize = 8;
+        }
+
+        int parityIndex = index + FEC_HEADER_SIZE + levelHeaderSize;
+        if ((parityIndex + protectionLength) > data.writerIndex()) {
+            throw new IllegalArgumentException("FEC protection length exceeds packet size");
+        }
+        fec.parity = data.slice(parityIndex, protectionLength);
+
+        return fec;
+    }
+
+    /**
+     * Build the payload of an FEC packet.
+     *
+     * @return A heap buffer, sized to fit, ready to be used as {@link DataPacket} payload.
+     */
+    static ByteBuf encode(int recoveryFlags, int recoveryMarkerAndPayloadType, int sequenceNumberBase,
+                          long timestampRecovery, int lengthRecovery, long mask, ByteBuf parity) {
+        boolean longMask = (mask & 0xffffffffL) != 0;
+        ByteBuf buffer = Unpooled.buffer(FEC_HEADER_SIZE + (longMask ? 8 : 4) + parity.readableBytes());
+        buffer.writeByte((longMask ? 0x40 : 0x00) | (recoveryFlags & 0x3f));
+        buffer.writeByte(recoveryMarkerAndPayloadType);
+        buffer.writeShort(sequenceNumberBase);
+        buffer.writeInt((int) timestampRecovery);
+        buffer.writeShort(lengthRecovery);
+        // Level 0 header: protection length and mask.
+        buffer.writeShort(parity.readableBytes());
+        buffer.writeShort((int) (mask >>> 32));
+        if (longMask) {
+            buffer.writeInt((int) mask);
+        }
+        buffer.writeBytes(parity, parity.readerIndex(), parity.readableBytes());
+
+        return buffer;
+    }
+
+    /**
+     * @return Length of the bytes protected in a media packet (everything after the 12 byte fixed header).
+     */
+    static int getProtectedLength(DataPacket packet) {
+        int length = packet.getContributingSourcesCount() * 4;
+        if (packet.hasExtension()) {
+            length += 4 + packet.getExtensionDataSize();
+        }
+
+        return length + packet.getDataSize();
+    }
+
+    /**
+     * @return P, X and CC bits of the first RTP header byte, in the positions used by the FEC header.
+     */
+    static int getRecoveryFlags(DataPacket packet) {
+        int flags = packet.getContributingSourcesCount();
+        if (packet.hasExtension()) {
+            flags |= 0x10;
+        }
+
+        return flags;
+    }
+
+    static int getMarkerAndPayloadType(DataPacket packet) {
+        return (packet.hasMarker() ? 0x80 : 0x00) | packet.getPayloadType();
+    }
+
+    /**
+     * XOR the protected bytes of a media packet into <code>destination</code>, starting at its reader index. The
+     * destination must have at least {@link #getProtectedLength(DataPacket)} readable bytes.
+     */
+    static void xorProtectedBytes(ByteBuf destination, DataPacket packet) {
+        int index = destination.readerIndex();
+        if (packet.getContributingSourcesCount() > 0) {
+            for (Long contributingSourceId : packet.getContributingSourceIds()) {
+                destination.setInt(index, destination.getInt(index) ^ contributingSourceId.intValue());
+                index += 4;
+            }
+        }
+
+        if (packet.hasExtension()) {
+            ByteBuf extension = Unpooled.buffer(4 + packet.getExtensionDataSize());
+            packet.encodeExtension(extension);
+            ByteUtils.xor(destination, index, extension, 0, extension.readableBytes());
+            index += extension.readableBytes();
+        }
+
+        ByteBuf data = packet.getData();
+        if (data != null) {
+            ByteUtils.xor(destination, index, data, data.readerIndex(), packet.getDataSize());
+        }
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public boolean protects(int sequenceNumber) {
+        int offset = (sequenceNumber - this.sequenceNumberBase) & 0xffff;
+        return (offset < this.getMaskBits()) && ((this.mask & (1L << (47 - offset))) != 0);
+    }
+
+    public int getMaskBits() {
+        return this.longMask ? LONG_MASK_BITS : SHORT_MASK_BITS;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public long getSsrc() {
+        return ssrc;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getRecoveryFlags() {
+        return recoveryFlags;
+    }
+
+    public int getRecoveryMarkerAndPayloadType() {
+        return recoveryMarkerAndPayloadType;
+    }
+
+    public int getSequenceNumberBase() {
+        return sequenceNumberBase;
+    }
+
+    public long getTimestampRecovery() {
+        return timestampRecovery;
+    }
+
+    public int getLengthRecovery() {
+        return lengthRecovery;
+    }
+
+    /**
+     * @return The 48 bit mask, aligned so that the most significant of the 48 bits (bit 47) is the sequence number
+     *         base. Short masks only use the upper 16 of those 48 bits.
+     */
+    public long getMask() {
+        return mask;
+    }
+
+    public boolean isLongMask() {
+        return longMask;
+    }
+
+    public ByteBuf getParity() {
+        return parity;
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("FecPacket{SSRC=").append(this.ssrc)
+                .append(", SNbase=").append(this.sequenceNumberBase)
+                .append(", mask=").append(Long.toHexString(this.mask))
+                .append(", lengthRecovery=").append(this.lengthRecovery)
+                .append(", protectionLength=").append(this.parity.readableBytes())
+                .append('}').toString();
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.flow;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.AbstractRtpSession;
+import com.biasedbit.efflux.session.RtpSession;
+import com.biasedbit.efflux.session.RtpSessionDataListener;
+import com.biasedbit.efflux.session.RtpSessionEventListener;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Publisher} view of the RTP packets received in a session, either from everyone or from a single participant.
+ * <p/>
+ * Unlike {@link RtpSessionDataListener}s, subscribers only get packets as fast as they request them. Each subscriber
+ * has a small buffer of its own; when a subscriber runs out of demand the publisher applies its {@link OverflowPolicy}:
+ * either reading from the session's data channel is suspended until the subscriber asks for more, so that backpressure
+ * reaches the socket, or packets are dropped (and counted) once the buffer is full.
+ * <p/>
+ * Packets are pushed from the session's event loop as they are received or, when they had to be buffered, from
+ * whichever thread requests them. Subscribers are completed once the session terminates (with an error if it did so
+ * on its own, e.g. after detecting a loop) and, when publishing a single participant, once the participant leaves or
+ * is removed from the session.
+ * <p/>
+ * The publisher registers itself with the session when subscribed to and unregisters once it has no subscribers left.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class DataPacketPublisher implements Publisher<DataPacket>, RtpSessionDataListener, RtpSessionEventListener {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int BUFFER_SIZE = 64;
+    public static final OverflowPolicy OVERFLOW_POLICY = OverflowPolicy.SUSPEND_READING;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final AbstractRtpSession session;
+    private final RtpParticipant participant;
+    private final int bufferSize;
+    private final OverflowPolicy overflowPolicy;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final List<DataSubscription> subscriptions;
+    private final AtomicLong droppedPackets;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public DataPacketPublisher(AbstractRtpSession session) {
+        this(session, null);
+    }
+
+    public DataPacketPublisher(AbstractRtpSession session, RtpParticipant participant) {
+        this(session, participant, BUFFER_SIZE, OVERFLOW_POLICY);
+    }
+
+    /**
+     * @param session        Session whose packets are published.
+     * @param participant    Participant whose packets are published, or <code>null</code> to publish everyone's.
+     * @param bufferSize     Number of packets buffered for each subscriber that is out of demand.
+     * @param overflowPolicy What to do when a subscriber is out of demand.
+     */
+    public DataPacketPublisher(AbstractRtpSession session, RtpParticipant participant, int bufferSize,
+                               OverflowPolicy overflowPolicy) {
+        if (session == null) {
+            throw new IllegalArgumentException("Session cannot be null");
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be > 0");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Overflow policy cannot be null");
+        }
+
+        this.session = session;
+        this.participant = participant;
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+
+        this.subscriptions = new CopyOnWriteArrayList<DataSubscription>();
+        this.droppedPackets = new AtomicLong();
+    }
+
+    // Publisher ------------------------------------------------------------------------------------------------------
+
+    @Override
+    public void subscribe(Subscriber<? super DataPacket> subscriber) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("Subscriber cannot be null");
+        }
+
+        DataSubscription subscription = new DataSubscription(subscriber);
+        synchronized (this.subscriptions) {
+            if (this.subscriptions.isEmpty()) {
+                this.session.addDataListener(this);
+                this.session.addEventListener(this);
+            }
+            this.subscriptions.add(subscription);
+        }
+
+        subscriber.onSubscribe(subscription);
+        // Suspends reading if the subscriber didn't ask for anything yet.
+        subscription.drain();
+    }
+
+    // RtpSessionDataListener -----------------------------------------------------------------------------------------
+
+    @Override
+    public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+        if ((this.participant != null) && (this.participant.getInfo() != participant)) {
+            return;
+        }
+
+        for (DataSubscription subscription : this.subscriptions) {
+            subscription.offer(packet);
+        }
+    }
+
+    // RtpSessionEventListener ----------------------------------------------------------------------------------------
+
+    @Override
+    public void participantJoinedFromData(RtpSession session, RtpParticipant participant) {
+    }
+
+    @Override
+    public void participantJoinedFromControl(RtpSession session, RtpParticipant participant) {
+    }
+
+    @Override
+    public void participantDataUpdated(RtpSession session, RtpParticipant participant) {
+    }
+
+    @Override
+    public void participantLeft(RtpSession session, RtpParticipant participant) {
+        if (participant == this.participant) {
+            this.finish(null);
+        }
+    }
+
+    @Override
+    public void participantDeleted(RtpSession session, RtpParticipant participant) {
+        if (participant == this.participant) {
+            this.finish(null);
+        }
+    }
+
+    @Override
+    public void resolvedSsrcConflict(RtpSession session, long oldSsrc, long newSsrc) {
+    }
+
+    @Override
+    public void writabilityChanged(RtpSession session, boolean writable) {
+    }
+
+    @Override
+    public void sessionTerminated(RtpSession session, Throwable cause) {
+        this.finish(cause == TERMINATE_CALLED ? null : cause);
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void finish(Throwable cause) {
+        for (DataSubscription subscription : this.subscriptions) {
+            subscription.finish(cause);
+        }
+    }
+
+    private void remove(DataSubscription subscription) {
+        synchronized (this.subscriptions) {
+            if (this.subscriptions.remove(subscription) && this.subscriptions.isEmpty()) {
+                this.session.removeDataListener(this);
+                this.session.removeEventListener(this);
+            }
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public AbstractRtpSession getSession() {
+        return session;
+    }
+
+    public RtpParticipant getParticipant() {
+        return participant;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return Number of packets dropped, across all subscribers, for lack of demand.
+     */
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    private final class DataSubscription implements Subscription {
+
+        private final Subscriber<? super DataPacket> subscriber;
+        private final Queue<DataPacket> buffer;
+        private long demand;
+        private boolean draining;
+        private boolean suspended;
+        private boolean cancelled;
+        private boolean finished;
+        private Throwable cause;
+
+        private DataSubscription(Subscriber<? super DataPacket> subscriber) {
+            this.subscriber = subscriber;
+            this.buffer = new ArrayDeque<DataPacket>(bufferSize);
+        }
+
+        // Subscription -----------------------------------------------------------------------------------------------
+
+        @Override
+        public void request(long count) {
+            synchronized (this) {
+                if (this.cancelled || (this.finished && (this.cause != null))) {
+                    return;
+                }
+
+                if (count <= 0) {
+                    this.finished = true;
+                    this.cause = new IllegalArgumentException("Requested count must be > 0");
+                } else {
+                    this.demand += count;
+                    if (this.demand < 0) {
+                        this.demand = Long.MAX_VALUE;
+                    }
+                }
+            }
+            this.drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (this.cancelled) {
+                    return;
+                }
+                this.cancelled = true;
+            }
+            this.drain();
+        }
+
+        // private helpers --------------------------------------------------------------------------------------------
+
+        private void offer(DataPacket packet) {
+            synchronized (this) {
+                if (this.cancelled || this.finished) {
+                    return;
+                }
+
+                if (this.buffer.size() >= bufferSize) {
+                    droppedPackets.incrementAndGet();
+                    if (overflowPolicy != OverflowPolicy.DROP_OLDEST) {
+                        return;
+                    }
+                    this.buffer.poll();
+                }
+                this.buffer.add(packet);
+            }
+            this.drain();
+        }
+
+        private void finish(Throwable cause) {
+            synchronized (this) {
+                if (this.cancelled || this.finished) {
+                    return;
+                }
+                this.finished = true;
+                this.cause = cause;
+            }
+            this.drain();
+        }
+
+        /**
+         * Pushes as many buffered packets as there is demand for, then the terminal signal if it's due. Only one
+         * thread drains at a time; others leave their work to it, so that pushes are never concurrent (or reentrant).
+         */
+        private void drain() {
+            synchronized (this) {
+                if (this.draining) {
+                    return;
+                }
+                this.draining = true;
+            }
+
+            for (;;) {
+                DataPacket packet = null;
+                boolean complete = false;
+                Throwable error = null;
+                synchronized (this) {
+                    if (this.cancelled) {
+                        this.buffer.clear();
+                    } else if ((this.demand > 0) && !this.buffer.isEmpty()) {
+                        packet = this.buffer.poll();
+                        if (this.demand != Long.MAX_VALUE) {
+                            this.demand--;
+                        }
+                    } else if (this.finished && ((this.cause != null) || this.buffer.isEmpty())) {
+                        // Errors are pushed right away, completion only once everything buffered went out.
+                        this.buffer.clear();
+                        this.cancelled = true;
+                        complete = this.cause == null;
+                        error = this.cause;
+                    }
+
+                    if (packet == null) {
+                        this.draining = false;
+                        this.updateSuspension();
+                    }
+                }
+
+                if (packet != null) {
+                    this.subscriber.onNext(packet);
+                    continue;
+                }
+
+                if (complete || (error != null)) {
+                    remove(this);
+                    if (error != null) {
+                        this.subscriber.onError(error);
+                    } else {
+                        this.subscriber.onComplete();
+                    }
+                } else if (this.cancelled) {
+                    remove(this);
+                }
+                return;
+            }
+        }
+
+        private void updateSuspension() {
+            boolean suspend = (overflowPolicy == OverflowPolicy.SUSPEND_READING) && !this.cancelled &&
+                              (this.demand == 0);
+            if (suspend == this.suspended) {
+                return;
+            }
+
+            this.suspended = suspend;
+            if (suspend) {
+                session.suspendDataReading();
+            } else {
+                session.resumeDataReading();
+            }
+        }
+    }
+}
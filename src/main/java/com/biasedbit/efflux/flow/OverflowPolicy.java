@@ -0,0 +1,42 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.flow;
+
+/**
+ * What a {@link DataPacketPublisher} does with incoming packets when a subscriber isn't asking for them fast enough.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Stop reading from the session's data channel as soon as the subscriber's demand runs out, and resume once it asks
+     * for more. Packets pile up in the socket's receive buffer, and get dropped by the OS once it's full, rather than
+     * in the application. The publisher's buffer only holds packets already read when reading stopped; any overflow
+     * is dropped.
+     * <p/>
+     * Reading stops for the whole session, affecting every other listener and subscriber.
+     */
+    SUSPEND_READING,
+    /**
+     * Keep reading and, once the buffer is full, discard the packets that come in.
+     */
+    DROP_NEWEST,
+    /**
+     * Keep reading and, once the buffer is full, discard the oldest buffered packet to make room for each new one.
+     */
+    DROP_OLDEST
+}
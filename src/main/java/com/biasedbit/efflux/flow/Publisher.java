@@ -0,0 +1,31 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.flow;
+
+/**
+ * A source of items that are only pushed to subscribers as fast as they ask for them, following the contract of
+ * Reactive Streams' <code>org.reactivestreams.Publisher</code>, which an adapter can bridge to in a couple of lines.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public interface Publisher<T> {
+
+    /**
+     * Start pushing items to a subscriber. {@link Subscriber#onSubscribe(Subscription)} is always called first and
+     * nothing else is pushed until the subscriber requests it through the subscription.
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
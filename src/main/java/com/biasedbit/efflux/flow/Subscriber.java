@@ -0,0 +1,38 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.flow;
+
+/**
+ * Receiving end of a {@link Publisher}. Calls are never concurrent but may come from different threads.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public interface Subscriber<T> {
+
+    void onSubscribe(Subscription subscription);
+
+    void onNext(T item);
+
+    /**
+     * Called at most once, after which nothing else is pushed; never called if {@link #onComplete()} is.
+     */
+    void onError(Throwable cause);
+
+    /**
+     * Called at most once, after which nothing else is pushed; never called if {@link #onError(Throwable)} is.
+     */
+    void onComplete();
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.flow;
+
+/**
+ * Link between a {@link Publisher} and one of its {@link Subscriber}s. Both methods can be called from any thread,
+ * including from within the subscriber's callbacks.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public interface Subscription {
+
+    /**
+     * Ask for <code>count</code> more items; demand adds up (and saturates at <code>Long.MAX_VALUE</code>, which means
+     * unbounded). Asking for less than one item cancels the subscription with an error.
+     */
+    void request(long count);
+
+    /**
+     * Stop receiving items. Items may still arrive for a short while if a push was already under way.
+     */
+    void cancel();
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.forwarding;
+
+import com.biasedbit.efflux.packet.AbstractFeedbackPacket;
+import com.biasedbit.efflux.packet.GenericNackPacket;
+import com.biasedbit.efflux.packet.PictureLossIndicationPacket;
+import com.biasedbit.efflux.packet.SenderReportPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.session.AbstractRtpSession;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A stream sent to one subscriber by a {@link RtpForwarder}, fed by one source stream at a time.
+ * <p/>
+ * The stream has an SSRC of its own and keeps its sequence numbers and timestamps continuous when its source is
+ * switched: the first packet of a new source follows the last packet forwarded, with a timestamp advanced by the time
+ * elapsed since then. Within a source, numbering is translated by a constant offset, so gaps and reordering are
+ * preserved and feedback about the stream can be translated back to the source.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ForwardedStream {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final int REORDER_WINDOW = 0x4000;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final AbstractRtpSession session;
+    private final RtpParticipant subscriber;
+    private final long ssrc;
+    private final int clockRate;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private AbstractRtpSession sourceSession;
+    private long sourceSsrc;
+    private boolean switched;
+    private boolean started;
+    private int sequenceOffset;
+    private long timestampOffset;
+    private int oldestSequenceNumber;
+    private int lastSequenceNumber;
+    private long lastTimestamp;
+    private long lastForwardTime;
+    private long forwardedPackets;
+    private long forwardedBytes;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    ForwardedStream(AbstractRtpSession session, RtpParticipant subscriber, long ssrc, int clockRate) {
+        this.session = session;
+        this.subscriber = subscriber;
+        this.ssrc = ssrc;
+        this.clockRate = clockRate;
+    }
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    /**
+     * Payload length of an RTP packet, as counted by the sender octet count of sender reports (RFC 3550, section
+     * 6.4.1): without the header, CSRC list, header extension nor padding.
+     */
+    private static int payloadLength(ByteBuf packet, int index, int length) {
+        int b = packet.getUnsignedByte(index);
+        int headerLength = 12 + ((b & 0x0f) * 4);
+        if (((b & 0x10) != 0) && ((headerLength + 4) <= length)) {
+            headerLength += 4 + (packet.getUnsignedShort(index + headerLength + 2) * 4);
+        }
+        int padding = ((b & 0x20) != 0) ? packet.getUnsignedByte(index + length - 1) : 0;
+        return Math.max(0, length - headerLength - padding);
+    }
+
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    synchronized void setSource(AbstractRtpSession sourceSession, long sourceSsrc) {
+        this.sourceSession = sourceSession;
+        this.sourceSsrc = sourceSsrc;
+        this.switched = true;
+    }
+
+    /**
+     * Write the translated sequence number, timestamp and SSRC of an RTP packet of the current source into the fixed
+     * header at <code>targetIndex</code> of <code>target</code>, which may be the packet itself.
+     *
+     * @return <code>false</code> if the packet doesn't belong to the current source or predates the last switch.
+     */
+    synchronized boolean rewrite(AbstractRtpSession sourceSession, long sourceSsrc, ByteBuf packet, int index,
+                                 int length, ByteBuf target, int targetIndex, long now) {
+        if ((sourceSession != this.sourceSession) || (sourceSsrc != this.sourceSsrc)) {
+            return false;
+        }
+
+        int sequenceNumber = packet.getUnsignedShort(index + 2);
+        long timestamp = packet.getUnsignedInt(index + 4);
+        if (this.switched) {
+            if (this.started) {
+                // Continue right after the last packet sent, as if the new source had been there all along.
+                long elapsed = Math.max(1, ((now - this.lastForwardTime) * this.clockRate) / 1000000000L);
+                this.sequenceOffset = (this.lastSequenceNumber + 1 - sequenceNumber) & 0xffff;
+                this.timestampOffset = (this.lastTimestamp + elapsed - timestamp) & 0xffffffffL;
+            }
+            this.oldestSequenceNumber = sequenceNumber;
+            this.switched = false;
+        } else {
+            int age = (short) (sequenceNumber - this.oldestSequenceNumber);
+            if (age < 0) {
+                // Straggler from before the switch, which would collide with packets already sent.
+                return false;
+            } else if (age > REORDER_WINDOW) {
+                this.oldestSequenceNumber = (sequenceNumber - REORDER_WINDOW) & 0xffff;
+            }
+        }
+
+        int outputSequenceNumber = (sequenceNumber + this.sequenceOffset) & 0xffff;
+        long outputTimestamp = (timestamp + this.timestampOffset) & 0xffffffffL;
+        if (!this.started || ((short) (outputSequenceNumber - this.lastSequenceNumber) > 0)) {
+            this.lastSequenceNumber = outputSequenceNumber;
+            this.lastTimestamp = outputTimestamp;
+            this.lastForwardTime = now;
+            this.started = true;
+        }
+
+        target.setShort(targetIndex + 2, outputSequenceNumber);
+        target.setInt(targetIndex + 4, (int) outputTimestamp);
+        target.setInt(targetIndex + 8, (int) this.ssrc);
+        this.forwardedPackets++;
+        this.forwardedBytes += payloadLength(packet, index, length);
+        return true;
+    }
+
+    /**
+     * Translate a sender report of the current source into one for this stream: same NTP timestamp, RTP timestamp in
+     * this stream's timeline and this stream's packet and octet counts.
+     */
+    synchronized SenderReportPacket translate(SenderReportPacket report) {
+        if (!this.started || this.switched) {
+            return null;
+        }
+
+        SenderReportPacket translated = new SenderReportPacket();
+        translated.setSenderSsrc(this.ssrc);
+        translated.setNtpTimestamp(report.getNtpTimestamp());
+        translated.setRtpTimestamp((report.getRtpTimestamp() + this.timestampOffset) & 0xffffffffL);
+        translated.setSenderPacketCount(this.forwardedPackets & 0xffffffffL);
+        translated.setSenderOctetCount(this.forwardedBytes & 0xffffffffL);
+        return translated;
+    }
+
+    /**
+     * Translate feedback about this stream into feedback about the current source. Only NACKs and PLIs are
+     * translated; other messages (such as bandwidth estimates) concern the subscriber's link alone.
+     */
+    synchronized AbstractFeedbackPacket translate(AbstractFeedbackPacket feedback, long senderSsrc) {
+        AbstractFeedbackPacket translated;
+        if (feedback instanceof GenericNackPacket) {
+            if (!this.started) {
+                return null;
+            }
+            GenericNackPacket nack = new GenericNackPacket();
+            for (int sequenceNumber : ((GenericNackPacket) feedback).getLostSequenceNumbers()) {
+                nack.addLostSequenceNumber((sequenceNumber - this.sequenceOffset) & 0xffff);
+            }
+            translated = nack;
+        } else if (feedback instanceof PictureLossIndicationPacket) {
+            translated = new PictureLossIndicationPacket();
+        } else {
+            return null;
+        }
+
+        translated.setSenderSsrc(senderSsrc);
+        translated.setMediaSsrc(this.sourceSsrc);
+        return translated;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Session through which the stream is sent to the subscriber.
+     */
+    public AbstractRtpSession getSession() {
+        return session;
+    }
+
+    public RtpParticipant getSubscriber() {
+        return subscriber;
+    }
+
+    /**
+     * @return SSRC of the stream, as seen by the subscriber.
+     */
+    public long getSsrc() {
+        return ssrc;
+    }
+
+    public int getClockRate() {
+        return clockRate;
+    }
+
+    public synchronized AbstractRtpSession getSourceSession() {
+        return sourceSession;
+    }
+
+    public synchronized long getSourceSsrc() {
+        return sourceSsrc;
+    }
+
+    public synchronized long getForwardedPackets() {
+        return forwardedPackets;
+    }
+
+    public synchronized long getForwardedBytes() {
+        return forwardedBytes;
+    }
+}
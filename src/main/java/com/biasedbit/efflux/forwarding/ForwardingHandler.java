@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.forwarding;
+
+import com.biasedbit.efflux.session.AbstractRtpSession;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.util.List;
+
+/**
+ * Sits right before the RTP decoder of a session and hands the datagrams of forwarded sources to a {@link
+ * RtpForwarder}, undecoded. Unless the forwarder disables local delivery, they still go up the pipeline first.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ForwardingHandler extends ChannelInboundHandlerAdapter {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final RtpForwarder forwarder;
+    private final AbstractRtpSession session;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public ForwardingHandler(RtpForwarder forwarder, AbstractRtpSession session) {
+        this.forwarder = forwarder;
+        this.session = session;
+    }
+
+    // ChannelInboundHandlerAdapter -----------------------------------------------------------------------------------
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof DatagramPacket)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        DatagramPacket datagram = (DatagramPacket) msg;
+        ByteBuf content = datagram.content();
+        int index = content.readerIndex();
+        int length = content.readableBytes();
+        // Version 2, as the decoder would otherwise discard it anyway.
+        if ((length < 12) || ((content.getByte(index) & 0xc0) != 0x80)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        long ssrc = content.getUnsignedInt(index + 8);
+        List<ForwardedStream> route = this.forwarder.getRoute(this.session, ssrc);
+        if (route == null) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        // Hold on to the datagram while it's delivered; the header is only rewritten once it has been decoded.
+        content.retain();
+        try {
+            if (this.forwarder.isLocalDelivery()) {
+                ctx.fireChannelRead(msg);
+            } else {
+                datagram.release();
+            }
+            this.forwarder.forward(this.session, ssrc, route, content, index, length);
+        } finally {
+            content.release();
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.forwarding;
+
+import com.biasedbit.efflux.packet.AbstractFeedbackPacket;
+import com.biasedbit.efflux.packet.CompoundControlPacket;
+import com.biasedbit.efflux.packet.ControlPacket;
+import com.biasedbit.efflux.packet.PictureLossIndicationPacket;
+import com.biasedbit.efflux.packet.SenderReportPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.session.AbstractRtpSession;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Selective forwarding of RTP streams between sessions, i.e. the core of an SFU.
+ * <p/>
+ * Sessions take part by having the forwarder set ({@link AbstractRtpSession#setForwarder(RtpForwarder)}) before being
+ * initialised. Each {@link ForwardedStream} sends one source stream, received in one session, to one subscriber of
+ * another; its source can be switched at any time (e.g. to follow the active speaker or a simulcast layer).
+ * <p/>
+ * Forwarded datagrams are never decoded into {@link com.biasedbit.efflux.packet.DataPacket}s: the SSRC, sequence
+ * number and timestamp are rewritten at their fixed offsets in the received buffer, which is sent as is to the last
+ * subscriber of the source; every other subscriber gets a copy of the 12 byte fixed header followed by a slice of the
+ * received buffer. By default forwarded packets are also handed to the receiving session as usual, so it keeps
+ * generating reception reports and NACKs for the source; see {@link #setLocalDelivery(boolean)}.
+ * <p/>
+ * RTCP is translated both ways: sender reports of a source are sent to its subscribers as reports of the forwarded
+ * streams (their own SSRC, RTP timestamp and counters) and NACKs and PLIs about a forwarded stream are translated into
+ * feedback about its current source and sent to the source's session. Receiver reports of subscribers are not
+ * forwarded; the source gets the reports of the session that receives it. Switching sources asks the new source for
+ * a key frame.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpForwarder {
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private volatile boolean localDelivery;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final Map<AbstractRtpSession, Map<Long, List<ForwardedStream>>> routes;
+    private final Map<Long, ForwardedStream> streams;
+    private final Random random;
+    private final AtomicLong forwardedPackets;
+    private final AtomicLong discardedPackets;
+    private final AtomicLong translatedControlPackets;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public RtpForwarder() {
+        this.localDelivery = true;
+        this.routes = new ConcurrentHashMap<AbstractRtpSession, Map<Long, List<ForwardedStream>>>();
+        this.streams = new ConcurrentHashMap<Long, ForwardedStream>();
+        this.random = new Random();
+        this.forwardedPackets = new AtomicLong();
+        this.discardedPackets = new AtomicLong();
+        this.translatedControlPackets = new AtomicLong();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Forward a stream received in one session to a participant of another.
+     *
+     * @param sourceSession Session where the source stream is received.
+     * @param sourceSsrc    SSRC of the source stream.
+     * @param session       Session through which the stream is sent to the subscriber.
+     * @param subscriber    Participant that receives the stream.
+     * @param clockRate     RTP clock rate of the stream, used to keep timestamps continuous across source switches.
+     *
+     * @return The forwarded stream, with a newly picked SSRC.
+     */
+    public synchronized ForwardedStream subscribe(AbstractRtpSession sourceSession, long sourceSsrc,
+                                                  AbstractRtpSession session, RtpParticipant subscriber,
+                                                  int clockRate) {
+        if (clockRate <= 0) {
+            throw new IllegalArgumentException("Clock rate must be > 0");
+        }
+
+        long ssrc;
+        do {
+            ssrc = this.random.nextInt() & 0xffffffffL;
+        } while (this.streams.containsKey(ssrc) || (ssrc == session.getLocalParticipant().getSsrc()));
+
+        ForwardedStream stream = new ForwardedStream(session, subscriber, ssrc, clockRate);
+        stream.setSource(sourceSession, sourceSsrc);
+        this.streams.put(ssrc, stream);
+        this.getOrCreateRoute(sourceSession, sourceSsrc).add(stream);
+        return stream;
+    }
+
+    /**
+     * Switch the source of a forwarded stream. Takes effect with the first packet of the new source; packets of the old
+     * source are no longer forwarded. A PLI is sent to the new source, so that the subscriber gets a key frame soon.
+     *
+     * @param stream        Forwarded stream.
+     * @param sourceSession Session where the new source stream is received.
+     * @param sourceSsrc    SSRC of the new source stream.
+     *
+     * @return <code>false</code> if the stream is no longer being forwarded, <code>true</code> otherwise.
+     */
+    public boolean switchSource(ForwardedStream stream, AbstractRtpSession sourceSession, long sourceSsrc) {
+        synchronized (this) {
+            if (!this.streams.containsKey(stream.getSsrc())) {
+                return false;
+            }
+
+            this.removeRoute(stream);
+            stream.setSource(sourceSession, sourceSsrc);
+            this.getOrCreateRoute(sourceSession, sourceSsrc).add(stream);
+        }
+
+        RtpParticipant source = sourceSession.getRemoteParticipant(sourceSsrc);
+        if (source != null) {
+            PictureLossIndicationPacket pli = new PictureLossIndicationPacket();
+            pli.setSenderSsrc(sourceSession.getLocalParticipant().getSsrc());
+            pli.setMediaSsrc(sourceSsrc);
+            sourceSession.forwardControlPacket(pli, source);
+        }
+        return true;
+    }
+
+    /**
+     * Stop forwarding a stream.
+     *
+     * @param stream Forwarded stream.
+     *
+     * @return <code>false</code> if the stream was not being forwarded, <code>true</code> otherwise.
+     */
+    public synchronized boolean unsubscribe(ForwardedStream stream) {
+        if (this.streams.remove(stream.getSsrc()) == null) {
+            return false;
+        }
+
+        this.removeRoute(stream);
+        return true;
+    }
+
+    /**
+     * Translate the RTCP received by a session that takes part in forwarding. Called by the session itself.
+     *
+     * @param session Session where the packet was received.
+     * @param packet  Received compound packet.
+     */
+    public void controlPacketReceived(AbstractRtpSession session, CompoundControlPacket packet) {
+        for (ControlPacket controlPacket : packet.getControlPackets()) {
+            switch (controlPacket.getType()) {
+                case SENDER_REPORT:
+                    this.senderReportReceived(session, (SenderReportPacket) controlPacket);
+                    break;
+                case TRANSPORT_FEEDBACK:
+                case PAYLOAD_SPECIFIC_FEEDBACK:
+                    this.feedbackReceived(session, (AbstractFeedbackPacket) controlPacket);
+                    break;
+                default:
+                    // Not translated.
+            }
+        }
+    }
+
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return The streams fed by the given source, or <code>null</code> if there are none.
+     */
+    List<ForwardedStream> getRoute(AbstractRtpSession session, long ssrc) {
+        Map<Long, List<ForwardedStream>> sessionRoutes = this.routes.get(session);
+        if (sessionRoutes == null) {
+            return null;
+        }
+
+        List<ForwardedStream> route = sessionRoutes.get(ssrc);
+        return ((route == null) || route.isEmpty()) ? null : route;
+    }
+
+    /**
+     * Send a received RTP packet to every stream it feeds. The packet itself is only written to (and handed over to)
+     * the last stream, after all others got a copy of its header, so it must not be modified until this returns.
+     *
+     * @param session Session where the packet was received.
+     * @param ssrc    SSRC of the packet.
+     * @param route   Streams fed by the packet's source.
+     * @param packet  Received packet; not released.
+     * @param index   Index of the packet in the buffer.
+     * @param length  Length of the packet.
+     */
+    void forward(AbstractRtpSession session, long ssrc, List<ForwardedStream> route, ByteBuf packet, int index,
+                 int length) {
+        long now = System.nanoTime();
+        // Iterates over a snapshot, looking one stream ahead to know which one is the last.
+        Iterator<ForwardedStream> iterator = route.iterator();
+        ForwardedStream next = iterator.hasNext() ? iterator.next() : null;
+        while (next != null) {
+            ForwardedStream stream = next;
+            next = iterator.hasNext() ? iterator.next() : null;
+
+            ByteBuf forwarded;
+            if (next != null) {
+                ByteBuf header = Unpooled.buffer(12);
+                header.writeBytes(packet, index, 12);
+                if (!stream.rewrite(session, ssrc, packet, index, length, header, 0, now)) {
+                    this.discardedPackets.incrementAndGet();
+                    continue;
+                }
+                forwarded = Unpooled.wrappedBuffer(header, packet.slice(index + 12, length - 12).retain());
+            } else {
+                if (!stream.rewrite(session, ssrc, packet, index, length, packet, index, now)) {
+                    this.discardedPackets.incrementAndGet();
+                    continue;
+                }
+                forwarded = packet.slice(index, length).retain();
+            }
+
+            if (stream.getSession().forwardDataPacket(forwarded, stream.getSubscriber())) {
+                this.forwardedPackets.incrementAndGet();
+            } else {
+                this.discardedPackets.incrementAndGet();
+            }
+        }
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private List<ForwardedStream> getOrCreateRoute(AbstractRtpSession session, long ssrc) {
+        Map<Long, List<ForwardedStream>> sessionRoutes = this.routes.get(session);
+        if (sessionRoutes == null) {
+            sessionRoutes = new ConcurrentHashMap<Long, List<ForwardedStream>>();
+            this.routes.put(session, sessionRoutes);
+        }
+
+        List<ForwardedStream> route = sessionRoutes.get(ssrc);
+        if (route == null) {
+            route = new CopyOnWriteArrayList<ForwardedStream>();
+            sessionRoutes.put(ssrc, route);
+        }
+        return route;
+    }
+
+    private void removeRoute(ForwardedStream stream) {
+        Map<Long, List<ForwardedStream>> sessionRoutes = this.routes.get(stream.getSourceSession());
+        if (sessionRoutes == null) {
+            return;
+        }
+
+        List<ForwardedStream> route = sessionRoutes.get(stream.getSourceSsrc());
+        if ((route != null) && route.remove(stream) && route.isEmpty()) {
+            sessionRoutes.remove(stream.getSourceSsrc());
+            if (sessionRoutes.isEmpty()) {
+                this.routes.remove(stream.getSourceSession());
+            }
+        }
+    }
+
+    private void senderReportReceived(AbstractRtpSession session, SenderReportPacket report) {
+        List<ForwardedStream> route = this.getRoute(session, report.getSenderSsrc());
+        if (route == null) {
+            return;
+        }
+
+        for (ForwardedStream stream : route) {
+            SenderReportPacket translated = stream.translate(report);
+            if ((translated != null) && stream.getSession().forwardControlPacket(translated, stream.getSubscriber())) {
+                this.translatedControlPackets.incrementAndGet();
+            }
+        }
+    }
+
+    private void feedbackReceived(AbstractRtpSession session, AbstractFeedbackPacket feedback) {
+        ForwardedStream stream = this.streams.get(feedback.getMediaSsrc());
+        if ((stream == null) || (stream.getSession() != session)) {
+            return;
+        }
+
+        AbstractRtpSession sourceSession = stream.getSourceSession();
+        long sourceSsrc = stream.getSourceSsrc();
+        RtpParticipant source = sourceSession.getRemoteParticipant(sourceSsrc);
+        if (source == null) {
+            return;
+        }
+
+        AbstractFeedbackPacket translated = stream.translate(feedback, sourceSession.getLocalParticipant().getSsrc());
+        if ((translated != null) && sourceSession.forwardControlPacket(translated, source)) {
+            this.translatedControlPackets.incrementAndGet();
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public boolean isLocalDelivery() {
+        return localDelivery;
+    }
+
+    /**
+     * @param localDelivery Whether forwarded packets are also handed to the session that received them, as any other
+     *                      packet (true, the default); when false, they're only forwarded and never decoded, so that
+     *                      session no longer reports on or requests retransmissions of forwarded sources.
+     */
+    public void setLocalDelivery(boolean localDelivery) {
+        this.localDelivery = localDelivery;
+    }
+
+    /**
+     * @return The forwarded stream with the given SSRC, or <code>null</code> if there is none.
+     */
+    public ForwardedStream getStream(long ssrc) {
+        return this.streams.get(ssrc);
+    }
+
+    public long getForwardedPackets() {
+        return this.forwardedPackets.get();
+    }
+
+    /**
+     * @return Number of times a packet wasn't forwarded to a stream it was routed to: stragglers from before a source
+     *         switch and packets the subscriber's session refused to send.
+     */
+    public long getDiscardedPackets() {
+        return this.discardedPackets.get();
+    }
+
+    public long getTranslatedControlPackets() {
+        return this.translatedControlPackets.get();
+    }
+}
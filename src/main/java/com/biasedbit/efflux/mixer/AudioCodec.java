@@ -0,0 +1,203 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.mixer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Sample formats understood by {@link AudioMixer}: G.711 μ-law and A-law (RFC 3551, section 4.5.14) and 16 bit linear
+ * PCM in network byte order (RFC 3551, section 4.5.11), all mono.
+ * <p/>
+ * Decoding goes through a 256 entry table for the G.711 variants; encoding is computed, as it only takes a couple of
+ * shifts per sample.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public enum AudioCodec {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    PCMU(0, 1) {
+        @Override
+        public void decode(ByteBuf source, int index, short[] samples, int offset, int count) {
+            for (int i = 0; i < count; i++) {
+                samples[offset + i] = ULAW_TABLE[source.getUnsignedByte(index + i)];
+            }
+        }
+
+        @Override
+        public void encode(int[] samples, int count, byte[] destination, int index) {
+            for (int i = 0; i < count; i++) {
+                destination[index + i] = encodeUlaw(samples[i]);
+            }
+        }
+    },
+    PCMA(8, 1) {
+        @Override
+        public void decode(ByteBuf source, int index, short[] samples, int offset, int count) {
+            for (int i = 0; i < count; i++) {
+                samples[offset + i] = ALAW_TABLE[source.getUnsignedByte(index + i)];
+            }
+        }
+
+        @Override
+        public void encode(int[] samples, int count, byte[] destination, int index) {
+            for (int i = 0; i < count; i++) {
+                destination[index + i] = encodeAlaw(samples[i]);
+            }
+        }
+    },
+    L16(11, 2) {
+        @Override
+        public void decode(ByteBuf source, int index, short[] samples, int offset, int count) {
+            for (int i = 0; i < count; i++) {
+                samples[offset + i] = source.getShort(index + (i << 1));
+            }
+        }
+
+        @Override
+        public void encode(int[] samples, int count, byte[] destination, int index) {
+            for (int i = 0; i < count; i++) {
+                int sample = samples[i];
+                destination[index + (i << 1)] = (byte) (sample >> 8);
+                destination[index + (i << 1) + 1] = (byte) sample;
+            }
+        }
+    };
+
+    private static final int ULAW_BIAS = 0x84;
+    private static final int ULAW_CLIP = 32635;
+    private static final short[] ULAW_TABLE = new short[256];
+    private static final short[] ALAW_TABLE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            ULAW_TABLE[i] = decodeUlaw(i);
+            ALAW_TABLE[i] = decodeAlaw(i);
+        }
+    }
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final int payloadType;
+    private final int bytesPerSample;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    private AudioCodec(int payloadType, int bytesPerSample) {
+        this.payloadType = payloadType;
+        this.bytesPerSample = bytesPerSample;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Decode <code>count</code> samples starting at absolute <code>index</code> of <code>source</code>, without
+     * touching its reader index.
+     *
+     * @param source  Encoded payload.
+     * @param index   Absolute index of the first encoded sample in the buffer.
+     * @param samples Array where decoded samples are written.
+     * @param offset  Position of the first decoded sample in <code>samples</code>.
+     * @param count   Number of samples to decode.
+     */
+    public abstract void decode(ByteBuf source, int index, short[] samples, int offset, int count);
+
+    /**
+     * Encode <code>count</code> samples, which must already be clipped to the 16 bit range.
+     *
+     * @param samples     Samples to encode.
+     * @param count       Number of samples to encode.
+     * @param destination Array where the encoded samples are written.
+     * @param index       Position of the first encoded sample in <code>destination</code>.
+     */
+    public abstract void encode(int[] samples, int count, byte[] destination, int index);
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    private static short decodeUlaw(int ulaw) {
+        int u = ~ulaw & 0xff;
+        int t = ((u & 0x0f) << 3) + ULAW_BIAS;
+        t <<= (u & 0x70) >> 4;
+        return (short) (((u & 0x80) != 0) ? (ULAW_BIAS - t) : (t - ULAW_BIAS));
+    }
+
+    private static byte encodeUlaw(int sample) {
+        int sign = 0;
+        if (sample < 0) {
+            sign = 0x80;
+            sample = -sample;
+        }
+        if (sample > ULAW_CLIP) {
+            sample = ULAW_CLIP;
+        }
+        sample += ULAW_BIAS;
+
+        // The biased value always has a bit set between 7 and 14, which gives away the segment.
+        int exponent = 24 - Integer.numberOfLeadingZeros(sample);
+        int mantissa = (sample >> (exponent + 3)) & 0x0f;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+    private static short decodeAlaw(int alaw) {
+        int a = alaw ^ 0x55;
+        int t = (a & 0x0f) << 4;
+        int segment = (a & 0x70) >> 4;
+        if (segment == 0) {
+            t += 8;
+        } else {
+            t += 0x108;
+            if (segment > 1) {
+                t <<= segment - 1;
+            }
+        }
+        return (short) (((a & 0x80) != 0) ? t : -t);
+    }
+
+    private static byte encodeAlaw(int sample) {
+        int mask;
+        sample >>= 3;
+        if (sample >= 0) {
+            mask = 0xd5;
+        } else {
+            mask = 0x55;
+            sample = -sample - 1;
+        }
+        if (sample > 0xfff) {
+            return (byte) (0x7f ^ mask);
+        }
+
+        // Segment 0 covers [0;0x1f], segment n > 0 covers values whose highest set bit is n + 4.
+        int segment = (sample <= 0x1f) ? 0 : (27 - Integer.numberOfLeadingZeros(sample));
+        int value = segment << 4;
+        value |= (sample >> ((segment < 2) ? 1 : segment)) & 0x0f;
+        return (byte) (value ^ mask);
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return The static payload type assigned to this format by RFC 3551 (11 for L16, which is only static for
+     *         44.1kHz; any other clock rate uses a dynamic payload type).
+     */
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    public int getBytesPerSample() {
+        return bytesPerSample;
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.mixer;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.AbstractRtpSession;
+import com.biasedbit.efflux.session.RtpSession;
+import com.biasedbit.efflux.session.RtpSessionDataListener;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Conference audio mixer, as described in RFC 3550, section 7.
+ * <p/>
+ * Every {@value #FRAME_DURATION}ms the mixer takes one frame of audio from each participant, sums them all and sends
+ * each participant the sum minus its own contribution, so nobody hears themselves. Outgoing packets carry the mixer's
+ * (i.e. the session's) SSRC, a sequence number space of their own for each participant and list the SSRCs of the
+ * participants that were heard in that frame as contributing sources (up to 15). Timestamps follow a single timeline
+ * for the whole mixer, which advances one frame per tick, so every packet sent under the session's SSRC is on the
+ * same clock. Participants that only listen all get the same mix, which is encoded once per frame. When nobody but
+ * the participant itself is talking, nothing is sent to it.
+ * <p/>
+ * Incoming packets are decoded as soon as they are received into a small ring per participant, indexed by RTP
+ * timestamp, which takes care of reordering and jitter: playout of each participant starts {@value #PLAYOUT_DELAY}
+ * frames behind the first packet of each talkspurt and then advances one frame per tick; packets that arrive after
+ * their samples were mixed are discarded. All of this is done over primitive arrays so a tick costs a handful of
+ * additions per sample and participant, with no allocation other than the outgoing packets.
+ * <p/>
+ * Participants are added together with the session they belong to, which can be shared (a {@link
+ * com.biasedbit.efflux.session.MultiParticipantSession} with everyone) or one per participant (a {@link
+ * com.biasedbit.efflux.session.SingleParticipantSession} each). All participants must send the same format at the
+ * same clock rate and only packets with the mixer's payload type are mixed.
+ * <p/>
+ * Ticks are driven by {@link #start(ScheduledExecutorService)}, which accepts a Netty event loop as well, or by
+ * calling {@link #mix()} directly.
+ * <p/>
+ * The mixed packets are not counted in the session's sender statistics (see {@link
+ * AbstractRtpSession#sendDataPacket(DataPacket, RtpParticipant)}), as each participant receives a different stream:
+ * unless the session also sends on its own, its reports are receiver reports.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class AudioMixer implements RtpSessionDataListener {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final Logger LOG = LoggerFactory.getLogger(AudioMixer.class);
+
+    protected static final int FRAME_DURATION = 20;
+    protected static final int PLAYOUT_DELAY = 2;
+    protected static final int BUFFER_DURATION = 320;
+    protected static final int MAX_CONTRIBUTING_SOURCES = 15;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final AudioCodec codec;
+    private final int payloadType;
+    private final int samplesPerFrame;
+    private final int bufferSize;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final List<Member> members;
+    private final Map<RtpParticipantInfo, Member> membersByInfo;
+    private final Random random;
+    private final int[] mix;
+    private final int[] output;
+    private final Member[] contributors;
+    private final AtomicLong ticks;
+    private final AtomicLong mixedPackets;
+    private final AtomicLong latePackets;
+    private int timestamp;
+    private ScheduledFuture<?> tick;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a mixer that uses the codec's static payload type.
+     *
+     * @param codec     Format of both incoming and outgoing audio.
+     * @param clockRate RTP clock rate (and sample rate) of the audio.
+     */
+    public AudioMixer(AudioCodec codec, int clockRate) {
+        this(codec, codec.getPayloadType(), clockRate);
+    }
+
+    /**
+     * @param codec       Format of both incoming and outgoing audio.
+     * @param payloadType Payload type of incoming and outgoing packets.
+     * @param clockRate   RTP clock rate (and sample rate) of the audio.
+     */
+    public AudioMixer(AudioCodec codec, int payloadType, int clockRate) {
+        if ((payloadType < 0) || (payloadType > 127)) {
+            throw new IllegalArgumentException("PayloadType must be in range [0;127]");
+        }
+        if ((clockRate < 1000) || ((clockRate % (1000 / FRAME_DURATION)) != 0)) {
+            throw new IllegalArgumentException("Clock rate must be a multiple of " + (1000 / FRAME_DURATION) +
+                                               " and >= 1000");
+        }
+
+        this.codec = codec;
+        this.payloadType = payloadType;
+        this.samplesPerFrame = (clockRate * FRAME_DURATION) / 1000;
+        // Power of two, so that positions in the ring can be derived from RTP timestamps with a mask.
+        this.bufferSize = Integer.highestOneBit(((clockRate * BUFFER_DURATION) / 1000) - 1) << 1;
+
+        this.members = new CopyOnWriteArrayList<Member>();
+        this.membersByInfo = new ConcurrentHashMap<RtpParticipantInfo, Member>();
+        this.random = new Random();
+        this.mix = new int[this.samplesPerFrame];
+        this.output = new int[this.samplesPerFrame];
+        this.contributors = new Member[MAX_CONTRIBUTING_SOURCES + 1];
+        this.ticks = new AtomicLong();
+        this.mixedPackets = new AtomicLong();
+        this.latePackets = new AtomicLong();
+        this.timestamp = this.random.nextInt();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Add a participant to the conference. Its audio is mixed into everyone else's and it starts receiving the mix
+     * of everyone else on the next tick.
+     *
+     * @param session     Session where the participant is, which will also be used to send it the mix.
+     * @param participant Remote participant.
+     *
+     * @return <code>true</code> if added, <code>false</code> if the participant was already in the conference.
+     */
+    public boolean addParticipant(AbstractRtpSession session, RtpParticipant participant) {
+        Member member = new Member(session, participant);
+        synchronized (this.members) {
+            if (this.membersByInfo.containsKey(participant.getInfo())) {
+                return false;
+            }
+
+            if (!this.usesSession(session)) {
+                session.addDataListener(this);
+            }
+            this.membersByInfo.put(participant.getInfo(), member);
+            this.members.add(member);
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove a participant from the conference.
+     *
+     * @param participant Remote participant.
+     *
+     * @return <code>true</code> if removed, <code>false</code> if the participant was not in the conference.
+     */
+    public boolean removeParticipant(RtpParticipant participant) {
+        synchronized (this.members) {
+            Member member = this.membersByInfo.remove(participant.getInfo());
+            if (member == null) {
+                return false;
+            }
+
+            this.members.remove(member);
+            if (!this.usesSession(member.session)) {
+                member.session.removeDataListener(this);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Start mixing every {@value #FRAME_DURATION}ms on the given executor.
+     *
+     * @param executor Executor on which to run the mixer; can be a Netty event loop.
+     */
+    public synchronized void start(ScheduledExecutorService executor) {
+        if (this.tick != null) {
+            return;
+        }
+
+        this.tick = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mix();
+                } catch (Exception e) {
+                    LOG.error("Failed to mix conference audio.", e);
+                }
+            }
+        }, FRAME_DURATION, FRAME_DURATION, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop mixing. Participants are kept, so mixing can be resumed with {@link #start(ScheduledExecutorService)}.
+     */
+    public synchronized void stop() {
+        if (this.tick != null) {
+            this.tick.cancel(false);
+            this.tick = null;
+        }
+    }
+
+    /**
+     * Mix one frame and send each participant its share. Normally called every {@value #FRAME_DURATION}ms by the
+     * task created in {@link #start(ScheduledExecutorService)}.
+     */
+    public synchronized void mix() {
+        int samples = this.samplesPerFrame;
+        int[] mix = this.mix;
+        Arrays.fill(mix, 0);
+
+        int active = 0;
+        for (Member member : this.members) {
+            if (!member.pull()) {
+                continue;
+            }
+
+            short[] frame = member.frame;
+            for (int i = 0; i < samples; i++) {
+                mix[i] += frame[i];
+            }
+            if (active < this.contributors.length) {
+                this.contributors[active] = member;
+            }
+            active++;
+        }
+        this.ticks.incrementAndGet();
+
+        // Listeners all get the same mix, so it is only encoded (and its CSRC list built) once.
+        byte[] fullMix = null;
+        List<Long> fullMixSources = null;
+        for (Member member : this.members) {
+            if (active == (member.active ? 1 : 0)) {
+                member.silence();
+                continue;
+            }
+
+            byte[] payload;
+            List<Long> sources;
+            if (member.active) {
+                short[] frame = member.frame;
+                for (int i = 0; i < samples; i++) {
+                    this.output[i] = clip(mix[i] - frame[i]);
+                }
+                payload = this.encode(this.output);
+                sources = this.contributingSources(active, member);
+            } else {
+                if (fullMix == null) {
+                    for (int i = 0; i < samples; i++) {
+                        this.output[i] = clip(mix[i]);
+                    }
+                    fullMix = this.encode(this.output);
+                    fullMixSources = this.contributingSources(active, null);
+                }
+                payload = fullMix;
+                sources = fullMixSources;
+            }
+
+            if (member.send(payload, sources)) {
+                this.mixedPackets.incrementAndGet();
+            }
+        }
+
+        Arrays.fill(this.contributors, null);
+        this.timestamp += samples;
+    }
+
+    // RtpSessionDataListener -----------------------------------------------------------------------------------------
+
+    @Override
+    public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+        Member member = this.membersByInfo.get(participant);
+        if ((member == null) || (member.session != session) || (packet.getPayloadType() != this.payloadType)) {
+            return;
+        }
+
+        if (!member.write(packet)) {
+            this.latePackets.incrementAndGet();
+        }
+    }
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    private static int clip(int sample) {
+        if (sample > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        } else if (sample < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return sample;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private boolean usesSession(AbstractRtpSession session) {
+        for (Member member : this.members) {
+            if (member.session == session) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] encode(int[] samples) {
+        byte[] payload = new byte[this.samplesPerFrame * this.codec.getBytesPerSample()];
+        this.codec.encode(samples, this.samplesPerFrame, payload, 0);
+        return payload;
+    }
+
+    private List<Long> contributingSources(int active, Member excluded) {
+        List<Long> sources = new ArrayList<Long>(Math.min(active, MAX_CONTRIBUTING_SOURCES));
+        for (int i = 0; (i < active) && (i < this.contributors.length); i++) {
+            Member contributor = this.contributors[i];
+            if ((contributor != excluded) && (sources.size() < MAX_CONTRIBUTING_SOURCES)) {
+                sources.add(contributor.participant.getSsrc());
+            }
+        }
+        return sources;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public AudioCodec getCodec() {
+        return codec;
+    }
+
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    public int getSamplesPerFrame() {
+        return samplesPerFrame;
+    }
+
+    public int getParticipantCount() {
+        return this.members.size();
+    }
+
+    public long getTicks() {
+        return this.ticks.get();
+    }
+
+    /**
+     * @return Number of mixed packets sent to participants.
+     */
+    public long getMixedPackets() {
+        return this.mixedPackets.get();
+    }
+
+    /**
+     * @return Number of received packets discarded because their samples had already been mixed.
+     */
+    public long getLatePackets() {
+        return this.latePackets.get();
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    /**
+     * A participant in the conference: the receive ring where its audio waits to be mixed and the state of the stream
+     * it is sent, whose timestamps are the mixer's.
+     * <p/>
+     * RTP timestamps are kept as ints and only ever compared through their difference, so wrap around is harmless.
+     */
+    private class Member {
+
+        private final AbstractRtpSession session;
+        private final RtpParticipant participant;
+        private final short[] ring;
+        private final short[] frame;
+
+        // Receive side, guarded by this.
+        private boolean synced;
+        private int playout;
+        private int end;
+
+        // Send side, only touched by mix().
+        private boolean active;
+        private boolean talking;
+        private int sequenceNumber;
+
+        private Member(AbstractRtpSession session, RtpParticipant participant) {
+            this.session = session;
+            this.participant = participant;
+            this.ring = new short[bufferSize];
+            this.frame = new short[samplesPerFrame];
+            this.sequenceNumber = random.nextInt(0x10000);
+        }
+
+        private synchronized boolean write(DataPacket packet) {
+            ByteBuf data = packet.getData();
+            int bytesPerSample = codec.getBytesPerSample();
+            int count = Math.min(data.readableBytes() / bytesPerSample, this.ring.length);
+            if (count == 0) {
+                return true;
+            }
+
+            int timestamp = (int) packet.getTimestamp();
+            int ahead = timestamp - this.playout;
+            // (Re)align at the start of each talkspurt and whenever the packet is too far off to fit the ring.
+            boolean drained = (this.end - this.playout) <= 0;
+            if (!this.synced || (drained && ((ahead < 0) || (ahead > (PLAYOUT_DELAY * samplesPerFrame)))) ||
+                ((ahead + count) > this.ring.length) || (ahead < -this.ring.length)) {
+                Arrays.fill(this.ring, (short) 0);
+                this.playout = timestamp - (PLAYOUT_DELAY * samplesPerFrame);
+                this.end = this.playout;
+                this.synced = true;
+                ahead = timestamp - this.playout;
+            }
+
+            if ((ahead + count) <= 0) {
+                return false;
+            }
+
+            // Samples of a packet that straddles the playout point are partially usable.
+            int skip = (ahead < 0) ? -ahead : 0;
+            int index = data.readerIndex() + (skip * bytesPerSample);
+            int position = (timestamp + skip) & (this.ring.length - 1);
+            int remaining = count - skip;
+            int first = Math.min(remaining, this.ring.length - position);
+            codec.decode(data, index, this.ring, position, first);
+            if (first < remaining) {
+                codec.decode(data, index + (first * bytesPerSample), this.ring, 0, remaining - first);
+            }
+
+            if ((timestamp + count - this.end) > 0) {
+                this.end = timestamp + count;
+            }
+            return true;
+        }
+
+        private synchronized boolean pull() {
+            int samples = samplesPerFrame;
+            this.active = this.synced && ((this.end - this.playout) > 0);
+            if (this.active) {
+                // Slots are cleared as they are read, so that gaps play out as silence.
+                int position = this.playout & (this.ring.length - 1);
+                int first = Math.min(samples, this.ring.length - position);
+                System.arraycopy(this.ring, position, this.frame, 0, first);
+                Arrays.fill(this.ring, position, position + first, (short) 0);
+                if (first < samples) {
+                    System.arraycopy(this.ring, 0, this.frame, first, samples - first);
+                    Arrays.fill(this.ring, 0, samples - first, (short) 0);
+                }
+            }
+
+            this.playout += samples;
+            return this.active;
+        }
+
+        private void silence() {
+            this.talking = false;
+        }
+
+        private boolean send(byte[] payload, List<Long> sources) {
+            DataPacket packet = new DataPacket();
+            packet.setPayloadType(payloadType);
+            packet.setSequenceNumber(this.sequenceNumber);
+            packet.setTimestamp(timestamp & 0xffffffffL);
+            // RFC 3551: the first packet of a talkspurt is marked.
+            packet.setMarker(!this.talking);
+            packet.setData(payload);
+            if (!sources.isEmpty()) {
+                packet.setContributingSourceIds(sources);
+            }
+
+            this.sequenceNumber = (this.sequenceNumber + 1) & 0xffff;
+            this.talking = true;
+            return this.session.sendDataPacket(packet, this.participant);
+        }
+    }
+}
@@ -17,11 +17,13 @@
 package com.biasedbit.efflux.network;
 
 import com.biasedbit.efflux.packet.CompoundControlPacket;
+import io.netty.channel.AddressedEnvelope;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.SocketAddress;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -49,7 +51,15 @@ public class ControlHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object message) throws Exception {
-        if (message instanceof CompoundControlPacket) {
+        if (message instanceof AddressedEnvelope) {
+            @SuppressWarnings("unchecked")
+            AddressedEnvelope<Object, SocketAddress> envelope = (AddressedEnvelope<Object, SocketAddress>) message;
+            if (envelope.content() instanceof CompoundControlPacket) {
+                this.counter.incrementAndGet();
+                this.receiver.controlPacketReceived(envelope.sender(), (CompoundControlPacket) envelope.content());
+            }
+        } else if (message instanceof CompoundControlPacket) {
+            this.counter.incrementAndGet();
             this.receiver.controlPacketReceived(ctx.channel().remoteAddress(), (CompoundControlPacket) message);
         }
     }
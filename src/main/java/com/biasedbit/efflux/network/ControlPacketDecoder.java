@@ -16,18 +16,29 @@
 
 package com.biasedbit.efflux.network;
 
+import com.biasedbit.efflux.diagnostics.DiagnosticsListener;
 import com.biasedbit.efflux.packet.CompoundControlPacket;
 import com.biasedbit.efflux.packet.ControlPacket;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultAddressedEnvelope;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * Decodes compound RTCP packets.
+ * <p/>
+ * Before anything is decoded, the whole datagram goes through the header validity checks of RFC 3550, appendix A.2,
+ * which only walk the length fields of the packets (see {@link #isValidCompound(ByteBuf, boolean)}). Datagrams that
+ * fail them are discarded as a whole, without allocating anything.
+ *
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
  */
 public class ControlPacketDecoder extends ChannelInboundHandlerAdapter {
@@ -36,37 +47,172 @@ public class ControlPacketDecoder extends ChannelInboundHandlerAdapter {
 
     protected static final Logger LOG = LoggerFactory.getLogger(ControlPacketDecoder.class);
 
-    // ChannelUpstreamHandler -----------------------------------------------------------------------------------------
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final boolean acceptNonCompound;
+    private final String id;
+    private final DiagnosticsListener diagnostics;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public ControlPacketDecoder() {
+        this(true);
+    }
+
+    /**
+     * @param acceptNonCompound Whether datagrams that don't start with a sender or receiver report (e.g. a lone SDES
+     *                          or feedback packet, as allowed by RFC 5506) are accepted.
+     */
+    public ControlPacketDecoder(boolean acceptNonCompound) {
+        this(acceptNonCompound, null, null);
+    }
+
+    /**
+     * @param acceptNonCompound See {@link #ControlPacketDecoder(boolean)}.
+     * @param id                Id of the session the decoder belongs to, for diagnostics.
+     * @param diagnostics       Listener for decode failures, or <code>null</code>.
+     */
+    public ControlPacketDecoder(boolean acceptNonCompound, String id, DiagnosticsListener diagnostics) {
+        this.acceptNonCompound = acceptNonCompound;
+        this.id = id;
+        this.diagnostics = diagnostics;
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * Validates the headers of a compound RTCP packet, as per RFC 3550, appendix A.2: every packet must be version 2,
+     * only the last one may be padded (by a sane amount), the first one must be a sender or receiver report and the
+     * lengths of the packets must add up to the length of the datagram.
+     * <p/>
+     * Only the header of each packet is read (no decoding, no allocation) and the buffer's indexes are left untouched.
+     *
+     * @param buffer            Buffer with the datagram's contents.
+     * @param acceptNonCompound Whether the first packet may be of any other known RTCP type (RFC 5506).
+     *
+     * @return {@code true} if the compound packet is valid, {@code false} otherwise.
+     */
+    public static boolean isValidCompound(ByteBuf buffer, boolean acceptNonCompound) {
+        int index = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        if ((end - index) < 4) {
+            return false;
+        }
+
+        int firstType = buffer.getUnsignedByte(index + 1);
+        if (acceptNonCompound) {
+            if ((firstType < (ControlPacket.Type.SENDER_REPORT.getByte() & 0xff)) ||
+                (firstType > (ControlPacket.Type.PAYLOAD_SPECIFIC_FEEDBACK.getByte() & 0xff))) {
+                return false;
+            }
+        } else if ((firstType != (ControlPacket.Type.SENDER_REPORT.getByte() & 0xff)) &&
+                   (firstType != (ControlPacket.Type.RECEIVER_REPORT.getByte() & 0xff))) {
+            return false;
+        }
+
+        while (index < end) {
+            if ((end - index) < 4) {
+                return false;
+            }
+
+            byte b = buffer.getByte(index);
+            if ((b & 0xc0) != 0x80) {
+                // Version must be 2.
+                return false;
+            }
+
+            // Length is in 32bit words, minus one (the header).
+            int next = index + ((buffer.getUnsignedShort(index + 2) + 1) * 4);
+            if (next > end) {
+                return false;
+            }
+
+            if ((b & 0x20) != 0) {
+                // Only the last packet may be padded and not beyond its own body.
+                int padding = buffer.getUnsignedByte(end - 1);
+                if ((next != end) || (padding == 0) || (padding > (next - index - 4))) {
+                    return false;
+                }
+            }
+
+            index = next;
+        }
+
+        return true;
+    }
+
+    // ChannelInboundHandlerAdapter -----------------------------------------------------------------------------------
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object message) throws Exception {
-        // Only decode if it's a ByteBuf.
-        if (!(message instanceof ByteBuf)) {
+        // Only decode if it's a ByteBuf or a datagram (unconnected channels).
+        ByteBuf buffer;
+        if (message instanceof DatagramPacket) {
+            buffer = ((DatagramPacket) message).content();
+        } else if (message instanceof ByteBuf) {
+            buffer = (ByteBuf) message;
+        } else {
             return;
         }
 
-        ByteBuf buffer = (ByteBuf) message;
-        if ((buffer.readableBytes() % 4) != 0) {
-            LOG.debug("Invalid RTCP packet received: total length should be multiple of 4 but is {}",
-                      buffer.readableBytes());
-            return;
+        // Decoded packets that need the original bytes (APP payloads) hold their own reference to them.
+        try {
+            CompoundControlPacket compoundPacket = this.decode(buffer);
+            if (compoundPacket == null) {
+                return;
+            }
+
+            if (message instanceof DatagramPacket) {
+                DatagramPacket datagram = (DatagramPacket) message;
+                ctx.fireChannelRead(new DefaultAddressedEnvelope<CompoundControlPacket, SocketAddress>(
+                        compoundPacket, datagram.recipient(), datagram.sender()));
+            } else {
+                ctx.fireChannelRead(compoundPacket);
+            }
+        } finally {
+            ReferenceCountUtil.release(message);
+        }
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private CompoundControlPacket decode(ByteBuf buffer) {
+        if (!isValidCompound(buffer, this.acceptNonCompound)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Discarded invalid RTCP compound packet with {} bytes.", buffer.readableBytes());
+            }
+            if (this.diagnostics != null) {
+                this.diagnostics.decodeFailed(this.id, true, buffer.readableBytes(), null);
+            }
+            return null;
         }
 
         // Usually 2 packets per UDP frame...
         List<ControlPacket> controlPacketList = new ArrayList<ControlPacket>(2);
 
-        // While there's data to read, keep on decoding.
+        // While there's data to read, keep on decoding. Packet boundaries were validated, so each packet is decoded
+        // from its own slice and one that fails to decode (or isn't supported) can't spill into the following ones.
         while (buffer.readableBytes() > 0) {
+            int length = (buffer.getUnsignedShort(buffer.readerIndex() + 2) + 1) * 4;
             try {
-                controlPacketList.add(ControlPacket.decode(buffer));
+                ControlPacket controlPacket = ControlPacket.decode(buffer.slice(buffer.readerIndex(), length));
+                // Packets that aren't (yet) supported are consumed but not decoded.
+                if (controlPacket != null) {
+                    controlPacketList.add(controlPacket);
+                }
             } catch (Exception e1) {
                 LOG.debug("Exception caught while decoding RTCP packet.", e1);
+                if (this.diagnostics != null) {
+                    this.diagnostics.decodeFailed(this.id, true, length, e1);
+                }
             }
+            buffer.skipBytes(length);
         }
 
-        if (!controlPacketList.isEmpty()) {
-            // Only send upwards when there were more than one valid decoded packets.
-            // TODO shouldn't the whole compound packet be discarded when one of them has errors?!
-        	ctx.fireChannelRead(new CompoundControlPacket(controlPacketList));
+        if (controlPacketList.isEmpty()) {
+            return null;
         }
+
+        return new CompoundControlPacket(controlPacketList);
     }
 }
@@ -16,6 +16,7 @@
 
 package com.biasedbit.efflux.network;
 
+import com.biasedbit.efflux.packet.AppDataPacket;
 import com.biasedbit.efflux.packet.CompoundControlPacket;
 import com.biasedbit.efflux.packet.ControlPacket;
 
@@ -60,6 +61,12 @@ public class ControlPacketEncoder extends ChannelOutboundHandlerAdapter {
 
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (msg instanceof DatagramPacket) {
+            // Already encoded (e.g. periodic reports assembled from cached parts) go straight through.
+            ctx.write(msg, promise);
+            return;
+        }
+
         try {
         	if (msg instanceof AddressedEnvelope) {
         		@SuppressWarnings("unchecked")
@@ -68,17 +75,28 @@ public class ControlPacketEncoder extends ChannelOutboundHandlerAdapter {
         		Object packet = envelope.content();
         		
         		if (packet instanceof ControlPacket) {
-                	ctx.writeAndFlush(new DatagramPacket(((ControlPacket) packet).encode(),
-                			(InetSocketAddress) envelope.recipient()), promise);
+                    try {
+                        ctx.writeAndFlush(new DatagramPacket(((ControlPacket) packet).encode(),
+                                (InetSocketAddress) envelope.recipient()), promise);
+                    } finally {
+                        release((ControlPacket) packet);
+                    }
                 } else if (packet instanceof CompoundControlPacket) {
                     List<ControlPacket> packets = ((CompoundControlPacket) packet).getControlPackets();
-                    ByteBuf[] buffers = new ByteBuf[packets.size()];
-                    for (int i = 0; i < buffers.length; i++) {
-                        buffers[i] = packets.get(i).encode();
+                    try {
+                        ByteBuf[] buffers = new ByteBuf[packets.size()];
+                        for (int i = 0; i < buffers.length; i++) {
+                            buffers[i] = packets.get(i).encode();
+                        }
+
+                        ByteBuf compoundBuffer = Unpooled.wrappedBuffer(buffers);
+                        ctx.writeAndFlush(new DatagramPacket(compoundBuffer, (InetSocketAddress) envelope.recipient()),
+                                          promise);
+                    } finally {
+                        for (ControlPacket controlPacket : packets) {
+                            release(controlPacket);
+                        }
                     }
-                    
-                    ByteBuf compoundBuffer = Unpooled.wrappedBuffer(buffers);
-                    ctx.writeAndFlush(new DatagramPacket(compoundBuffer, (InetSocketAddress) envelope.recipient()), promise);
                 }
         	}
         } catch (Exception e1) {
@@ -88,6 +106,17 @@ public class ControlPacketEncoder extends ChannelOutboundHandlerAdapter {
         // Otherwise do nothing.
     }
 
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    /**
+     * Writing an APP packet consumes one reference to its data (encoding holds its own for as long as needed).
+     */
+    private static void release(ControlPacket packet) {
+        if (packet instanceof AppDataPacket) {
+            ((AppDataPacket) packet).release();
+        }
+    }
+
     // private classes ------------------------------------------------------------------------------------------------
 
     private static final class InstanceHolder {
@@ -17,11 +17,13 @@
 package com.biasedbit.efflux.network;
 
 import com.biasedbit.efflux.packet.DataPacket;
+import io.netty.channel.AddressedEnvelope;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.SocketAddress;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -49,11 +51,25 @@ public class DataHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        if (msg instanceof DataPacket) {
+        if (msg instanceof AddressedEnvelope) {
+            @SuppressWarnings("unchecked")
+            AddressedEnvelope<Object, SocketAddress> envelope = (AddressedEnvelope<Object, SocketAddress>) msg;
+            if (envelope.content() instanceof DataPacket) {
+                this.counter.incrementAndGet();
+                this.receiver.dataPacketReceived(envelope.sender(), (DataPacket) envelope.content());
+            }
+        } else if (msg instanceof DataPacket) {
+            this.counter.incrementAndGet();
             this.receiver.dataPacketReceived(ctx.channel().remoteAddress(), (DataPacket) msg);
         }
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        this.receiver.dataChannelWritabilityChanged(ctx.channel().isWritable());
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         // Just log and proceed...
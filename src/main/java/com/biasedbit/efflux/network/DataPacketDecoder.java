@@ -16,11 +16,15 @@
 
 package com.biasedbit.efflux.network;
 
+import java.net.SocketAddress;
 import java.util.List;
 
+import com.biasedbit.efflux.diagnostics.DiagnosticsListener;
 import com.biasedbit.efflux.packet.DataPacket;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultAddressedEnvelope;
+import io.netty.channel.socket.DatagramPacket;
 import io.netty.handler.codec.MessageToMessageDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,20 +32,58 @@ import org.slf4j.LoggerFactory;
 /**
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
  */
-public class DataPacketDecoder extends MessageToMessageDecoder<ByteBuf> {
+public class DataPacketDecoder extends MessageToMessageDecoder<Object> {
 
     // constants ------------------------------------------------------------------------------------------------------
 
     protected static final Logger LOG = LoggerFactory.getLogger(DataPacketDecoder.class);
 
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final String id;
+    private final DiagnosticsListener diagnostics;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public DataPacketDecoder() {
+        this(null, null);
+    }
+
+    /**
+     * @param id          Id of the session the decoder belongs to, for diagnostics.
+     * @param diagnostics Listener for decode failures, or <code>null</code>.
+     */
+    public DataPacketDecoder(String id, DiagnosticsListener diagnostics) {
+        this.id = id;
+        this.diagnostics = diagnostics;
+    }
+
     // MessageToMessageDecoder ------------------------------------------------------------------------------------------------
 
+    @Override
+    public boolean acceptInboundMessage(Object msg) throws Exception {
+        return (msg instanceof DatagramPacket) || (msg instanceof ByteBuf);
+    }
+
 	@Override
-	protected void decode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+	protected void decode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+        ByteBuf buffer = (msg instanceof DatagramPacket) ? ((DatagramPacket) msg).content() : (ByteBuf) msg;
+        int size = buffer.readableBytes();
 		try {
-            out.add(DataPacket.decode(msg));
+            if (msg instanceof DatagramPacket) {
+                // Unconnected datagram channels: keep track of where the packet came from.
+                DatagramPacket datagram = (DatagramPacket) msg;
+                out.add(new DefaultAddressedEnvelope<DataPacket, SocketAddress>(DataPacket.decode(buffer),
+                                                                                datagram.recipient(),
+                                                                                datagram.sender()));
+            } else {
+                out.add(DataPacket.decode(buffer));
+            }
         } catch (Exception e) {
             LOG.debug("Failed to decode RTP packet.", e);
+            if (this.diagnostics != null) {
+                this.diagnostics.decodeFailed(this.id, false, size, e);
+            }
         }
 	}
 }
@@ -47,6 +47,12 @@ public class DataPacketEncoder extends MessageToMessageEncoder<AddressedEnvelope
 
     // OneToOneEncoder ------------------------------------------------------------------------------------------------
 
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        // Already encoded packets (e.g. retransmissions) go straight through.
+        return (msg instanceof AddressedEnvelope) && (((AddressedEnvelope) msg).content() instanceof DataPacket);
+    }
+
 	@Override
 	protected void encode(ChannelHandlerContext ctx, AddressedEnvelope<DataPacket, SocketAddress> msg,
 			List<Object> out) throws Exception {
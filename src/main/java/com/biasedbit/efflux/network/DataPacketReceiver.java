@@ -26,4 +26,6 @@ import java.net.SocketAddress;
 public interface DataPacketReceiver {
 
     void dataPacketReceived(SocketAddress origin, DataPacket packet);
+
+    void dataChannelWritabilityChanged(boolean writable);
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.network;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a {@link NetworkImpairment} to the datagrams going through a channel. Must sit close to the socket, below
+ * the encoders and decoders, so it handles whole datagrams; anything that isn't a {@link DatagramPacket} goes through
+ * untouched.
+ * <p/>
+ * Anything closer to the socket, such as a packet capture, sees outbound datagrams after they are impaired but
+ * inbound datagrams before, exactly as they came off the socket.
+ * <p/>
+ * Delayed packets are scheduled on the channel's event loop, so no extra threads are involved. Written packets that
+ * are dropped have their promise succeed, as the sender of a real lossy network would never know otherwise; delayed
+ * ones only complete their promise once they are actually written.
+ * <p/>
+ * Not sharable: each instance keeps the random generator and the loss and rate cap state of its channel.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ImpairmentHandler extends ChannelDuplexHandler {
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final NetworkImpairment impairment;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final Random random;
+    private final Lane outbound;
+    private final Lane inbound;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public ImpairmentHandler(NetworkImpairment impairment) {
+        this.impairment = impairment;
+        this.random = new Random(impairment.getSeed());
+        this.outbound = new Lane();
+        this.inbound = new Lane();
+    }
+
+    // ChannelDuplexHandler -------------------------------------------------------------------------------------------
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!this.impairment.isImpairInbound() || !(msg instanceof DatagramPacket)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        final DatagramPacket packet = (DatagramPacket) msg;
+        long delay = this.inbound.admit(packet.content().readableBytes());
+        if (delay < 0) {
+            packet.release();
+            return;
+        }
+
+        if (this.shouldDuplicate()) {
+            this.deliver(ctx, packet.duplicate().retain(), delay);
+        }
+        this.deliver(ctx, packet, delay);
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, Object msg, final ChannelPromise promise) throws Exception {
+        if (!this.impairment.isImpairOutbound() || !(msg instanceof DatagramPacket)) {
+            ctx.write(msg, promise);
+            return;
+        }
+
+        final DatagramPacket packet = (DatagramPacket) msg;
+        long delay = this.outbound.admit(packet.content().readableBytes());
+        if (delay < 0) {
+            packet.release();
+            promise.setSuccess();
+            return;
+        }
+
+        if (this.shouldDuplicate()) {
+            this.send(ctx, packet.duplicate().retain(), null, delay);
+        }
+        this.send(ctx, packet, promise, delay);
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private boolean shouldDuplicate() {
+        double probability = this.impairment.getDuplicateProbability();
+        if ((probability > 0) && (this.random.nextDouble() < probability)) {
+            this.impairment.packetDuplicated();
+            return true;
+        }
+        return false;
+    }
+
+    private void deliver(final ChannelHandlerContext ctx, final DatagramPacket packet, long delay) {
+        if (delay == 0) {
+            ctx.fireChannelRead(packet);
+            return;
+        }
+
+        ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                ctx.fireChannelRead(packet);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void send(final ChannelHandlerContext ctx, final DatagramPacket packet, final ChannelPromise promise,
+                      long delay) {
+        if (delay == 0) {
+            if (promise == null) {
+                ctx.write(packet);
+            } else {
+                ctx.write(packet, promise);
+            }
+            return;
+        }
+
+        ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                // The original flush has long gone through, so each delayed packet needs its own.
+                if (promise == null) {
+                    ctx.writeAndFlush(packet);
+                } else {
+                    ctx.writeAndFlush(packet, promise);
+                }
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    /**
+     * Loss model and rate cap state for one direction of the channel.
+     */
+    private final class Lane {
+
+        private boolean badState;
+        private long nextDeparture;
+
+        /**
+         * @param size Size of the datagram, in bytes.
+         *
+         * @return Delay to apply to the packet in nanoseconds, or -1 if it should be dropped.
+         */
+        private long admit(int size) {
+            NetworkImpairment impairment = ImpairmentHandler.this.impairment;
+            Random random = ImpairmentHandler.this.random;
+
+            boolean lost = (impairment.getLossProbability() > 0) &&
+                           (random.nextDouble() < impairment.getLossProbability());
+            if (impairment.isGilbertElliottEnabled()) {
+                // Always step the chain, even when the packet is already lost, so bursts keep their length.
+                if (this.badState) {
+                    this.badState = random.nextDouble() >= impairment.getBadToGoodProbability();
+                } else {
+                    this.badState = random.nextDouble() < impairment.getGoodToBadProbability();
+                }
+                double stateLoss = this.badState ? impairment.getBadStateLossProbability() :
+                                   impairment.getGoodStateLossProbability();
+                lost |= (stateLoss > 0) && (random.nextDouble() < stateLoss);
+            }
+            if (lost) {
+                impairment.packetDropped();
+                return -1;
+            }
+
+            long delay = 0;
+            long rateLimit = impairment.getRateLimit();
+            if (rateLimit > 0) {
+                long now = System.nanoTime();
+                long backlog = Math.max(0, this.nextDeparture - now);
+                if ((impairment.getQueueLimit() > 0) &&
+                    (((backlog * rateLimit) / 8e9) + size > impairment.getQueueLimit())) {
+                    impairment.packetDropped();
+                    return -1;
+                }
+                long transmission = (size * 8000000000L) / rateLimit;
+                this.nextDeparture = now + backlog + transmission;
+                delay = backlog + transmission;
+            }
+
+            long latency = TimeUnit.MILLISECONDS.toNanos(impairment.getDelay());
+            if (impairment.getJitter() > 0) {
+                long jitter = TimeUnit.MILLISECONDS.toNanos(impairment.getJitter());
+                latency = Math.max(0, latency + (long) (((random.nextDouble() * 2) - 1) * jitter));
+            }
+            if ((impairment.getReorderProbability() > 0) &&
+                (random.nextDouble() < impairment.getReorderProbability())) {
+                latency += TimeUnit.MILLISECONDS.toNanos(impairment.getReorderDelay());
+                impairment.packetReordered();
+            }
+            delay += latency;
+
+            impairment.packetPassed();
+            if (delay > 0) {
+                impairment.packetDelayed();
+            }
+            return delay;
+        }
+    }
+}
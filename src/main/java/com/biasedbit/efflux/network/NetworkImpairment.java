@@ -0,0 +1,347 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Describes how an {@link ImpairmentHandler} degrades the datagrams going through a channel, so that loss recovery,
+ * reordering and pacing can be exercised on a single machine without any external network emulator.
+ * <p/>
+ * Impairments are applied in this order: loss (independent Bernoulli loss and/or a two-state Gilbert-Elliott model for
+ * bursty loss), rate cap (packets are serialised at the configured bit rate and tail-dropped when the backlog exceeds
+ * the queue limit), then delay (fixed delay plus uniform jitter, plus an extra delay for the packets picked for
+ * reordering). Surviving packets may finally be duplicated.
+ * <p/>
+ * Every handler created from the same configuration draws from its own random generator seeded with {@link #getSeed()},
+ * so a run with the same traffic always loses, delays and duplicates the same packets. Counters are shared by all the
+ * handlers using this configuration.
+ * <p/>
+ * Changes take effect for the next packet, but are not meant to be made concurrently with traffic.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class NetworkImpairment {
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private double lossProbability;
+    private double goodToBadProbability;
+    private double badToGoodProbability;
+    private double goodStateLossProbability;
+    private double badStateLossProbability;
+    private int delay;
+    private int jitter;
+    private double reorderProbability;
+    private int reorderDelay;
+    private double duplicateProbability;
+    private long rateLimit;
+    private int queueLimit;
+    private long seed;
+    private boolean impairOutbound;
+    private boolean impairInbound;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final AtomicLong passedPackets;
+    private final AtomicLong droppedPackets;
+    private final AtomicLong delayedPackets;
+    private final AtomicLong reorderedPackets;
+    private final AtomicLong duplicatedPackets;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public NetworkImpairment() {
+        this.badToGoodProbability = 1;
+        this.badStateLossProbability = 1;
+        this.reorderDelay = 10;
+        this.impairOutbound = true;
+        this.impairInbound = false;
+
+        this.passedPackets = new AtomicLong();
+        this.droppedPackets = new AtomicLong();
+        this.delayedPackets = new AtomicLong();
+        this.reorderedPackets = new AtomicLong();
+        this.duplicatedPackets = new AtomicLong();
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * @param probability Probability of losing each packet, in range [0;1].
+     * @param seed        Seed for the random generator.
+     *
+     * @return Configuration with independent (Bernoulli) loss only.
+     */
+    public static NetworkImpairment loss(double probability, long seed) {
+        NetworkImpairment impairment = new NetworkImpairment();
+        impairment.setLossProbability(probability);
+        impairment.setSeed(seed);
+        return impairment;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Configure the Gilbert-Elliott loss model. The channel starts in the good state; before each packet it moves from
+     * good to bad with probability {@code p} and from bad to good with probability {@code r}, then the packet is lost
+     * with the loss probability of the current state. With the default state loss probabilities (0 and 1) this is the
+     * simple Gilbert model, with mean burst length {@code 1/r} and mean loss rate {@code p/(p+r)}.
+     *
+     * @param p             Good to bad transition probability; 0 disables the model.
+     * @param r             Bad to good transition probability.
+     * @param goodStateLoss Loss probability while in the good state.
+     * @param badStateLoss  Loss probability while in the bad state.
+     */
+    public void setGilbertElliott(double p, double r, double goodStateLoss, double badStateLoss) {
+        this.goodToBadProbability = checkProbability(p);
+        this.badToGoodProbability = checkProbability(r);
+        this.goodStateLossProbability = checkProbability(goodStateLoss);
+        this.badStateLossProbability = checkProbability(badStateLoss);
+    }
+
+    public boolean isGilbertElliottEnabled() {
+        return this.goodToBadProbability > 0;
+    }
+
+    public void resetCounters() {
+        this.passedPackets.set(0);
+        this.droppedPackets.set(0);
+        this.delayedPackets.set(0);
+        this.reorderedPackets.set(0);
+        this.duplicatedPackets.set(0);
+    }
+
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    void packetPassed() {
+        this.passedPackets.incrementAndGet();
+    }
+
+    void packetDropped() {
+        this.droppedPackets.incrementAndGet();
+    }
+
+    void packetDelayed() {
+        this.delayedPackets.incrementAndGet();
+    }
+
+    void packetReordered() {
+        this.reorderedPackets.incrementAndGet();
+    }
+
+    void packetDuplicated() {
+        this.duplicatedPackets.incrementAndGet();
+    }
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    private static double checkProbability(double probability) {
+        if ((probability < 0) || (probability > 1)) {
+            throw new IllegalArgumentException("Probabilities must be in range [0;1]");
+        }
+        return probability;
+    }
+
+    private static int checkNotNegative(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Delays and limits cannot be negative");
+        }
+        return value;
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("NetworkImpairment{loss=").append(this.lossProbability)
+                .append(", gilbertElliott=[p=").append(this.goodToBadProbability)
+                .append(", r=").append(this.badToGoodProbability)
+                .append(", k=").append(this.goodStateLossProbability)
+                .append(", h=").append(this.badStateLossProbability)
+                .append("], delay=").append(this.delay)
+                .append("ms, jitter=").append(this.jitter)
+                .append("ms, reorder=").append(this.reorderProbability)
+                .append('/').append(this.reorderDelay)
+                .append("ms, duplicate=").append(this.duplicateProbability)
+                .append(", rateLimit=").append(this.rateLimit)
+                .append("bps, queueLimit=").append(this.queueLimit)
+                .append(", seed=").append(this.seed)
+                .append('}').toString();
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public double getLossProbability() {
+        return lossProbability;
+    }
+
+    /**
+     * @param lossProbability Probability of losing each packet independently of the others, in range [0;1].
+     */
+    public void setLossProbability(double lossProbability) {
+        this.lossProbability = checkProbability(lossProbability);
+    }
+
+    public double getGoodToBadProbability() {
+        return goodToBadProbability;
+    }
+
+    public double getBadToGoodProbability() {
+        return badToGoodProbability;
+    }
+
+    public double getGoodStateLossProbability() {
+        return goodStateLossProbability;
+    }
+
+    public double getBadStateLossProbability() {
+        return badStateLossProbability;
+    }
+
+    public int getDelay() {
+        return delay;
+    }
+
+    /**
+     * @param delay Fixed delay added to every packet, in milliseconds.
+     */
+    public void setDelay(int delay) {
+        this.delay = checkNotNegative(delay);
+    }
+
+    public int getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param jitter Maximum deviation from the fixed delay, in milliseconds. Each packet gets a uniformly distributed
+     *               offset in range [-jitter;jitter] (the resulting delay is never negative), which naturally
+     *               reorders packets sent less than the jitter apart.
+     */
+    public void setJitter(int jitter) {
+        this.jitter = checkNotNegative(jitter);
+    }
+
+    public double getReorderProbability() {
+        return reorderProbability;
+    }
+
+    /**
+     * @param reorderProbability Probability of holding back a packet for an extra {@link #getReorderDelay()}
+     *                           milliseconds, so that the packets sent right after it overtake it.
+     */
+    public void setReorderProbability(double reorderProbability) {
+        this.reorderProbability = checkProbability(reorderProbability);
+    }
+
+    public int getReorderDelay() {
+        return reorderDelay;
+    }
+
+    public void setReorderDelay(int reorderDelay) {
+        this.reorderDelay = checkNotNegative(reorderDelay);
+    }
+
+    public double getDuplicateProbability() {
+        return duplicateProbability;
+    }
+
+    /**
+     * @param duplicateProbability Probability of delivering a packet twice.
+     */
+    public void setDuplicateProbability(double duplicateProbability) {
+        this.duplicateProbability = checkProbability(duplicateProbability);
+    }
+
+    public long getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * @param rateLimit Bit rate at which packets are serialised, in bits per second; 0 means unlimited.
+     */
+    public void setRateLimit(long rateLimit) {
+        if (rateLimit < 0) {
+            throw new IllegalArgumentException("Rate limit cannot be negative");
+        }
+        this.rateLimit = rateLimit;
+    }
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * @param queueLimit Maximum number of bytes waiting to be serialised when a rate limit is set; packets that would
+     *                   exceed it are dropped. 0 means unlimited.
+     */
+    public void setQueueLimit(int queueLimit) {
+        this.queueLimit = checkNotNegative(queueLimit);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public boolean isImpairOutbound() {
+        return impairOutbound;
+    }
+
+    /**
+     * @param impairOutbound Whether datagrams written to the channel are impaired (the default).
+     */
+    public void setImpairOutbound(boolean impairOutbound) {
+        this.impairOutbound = impairOutbound;
+    }
+
+    public boolean isImpairInbound() {
+        return impairInbound;
+    }
+
+    /**
+     * @param impairInbound Whether datagrams read from the channel are impaired. Off by default; when both ends of a
+     *                      test are local, impairing only the outbound side of each avoids counting the network twice.
+     */
+    public void setImpairInbound(boolean impairInbound) {
+        this.impairInbound = impairInbound;
+    }
+
+    public long getPassedPackets() {
+        return passedPackets.get();
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    public long getDelayedPackets() {
+        return delayedPackets.get();
+    }
+
+    public long getReorderedPackets() {
+        return reorderedPackets.get();
+    }
+
+    public long getDuplicatedPackets() {
+        return duplicatedPackets.get();
+    }
+}
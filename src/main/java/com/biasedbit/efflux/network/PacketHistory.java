@@ -0,0 +1,185 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the last N encoded RTP packets sent by each local SSRC so that they can be retransmitted as-is when a remote
+ * participant reports them lost.
+ * <p/>
+ * Each SSRC gets a fixed-size ring indexed by sequence number; packets are copied into pooled buffers which are
+ * released as soon as their slot is reused.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PacketHistory {
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int size;
+    private final ByteBufAllocator allocator;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final ConcurrentMap<Long, Ring> rings;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PacketHistory(int size) {
+        this(size, PooledByteBufAllocator.DEFAULT);
+    }
+
+    public PacketHistory(int size, ByteBufAllocator allocator) {
+        if ((size <= 0) || (size > 32768) || ((size & (size - 1)) != 0)) {
+            throw new IllegalArgumentException("History size must be a power of 2 in range [1;32768]");
+        }
+
+        this.size = size;
+        this.allocator = allocator;
+        this.rings = new ConcurrentHashMap<Long, Ring>();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Record an encoded RTP packet. The SSRC and sequence number are read straight from the header, at their fixed
+     * offsets. The buffer's reader index is left untouched.
+     *
+     * @param packet Encoded RTP packet.
+     */
+    public void record(ByteBuf packet) {
+        if (packet.readableBytes() < 12) {
+            return;
+        }
+
+        int sequenceNumber = packet.getUnsignedShort(packet.readerIndex() + 2);
+        long ssrc = packet.getUnsignedInt(packet.readerIndex() + 8);
+        Ring ring = this.rings.get(ssrc);
+        if (ring == null) {
+            Ring newRing = new Ring(this.size);
+            ring = this.rings.putIfAbsent(ssrc, newRing);
+            if (ring == null) {
+                ring = newRing;
+            }
+        }
+
+        ring.store(sequenceNumber, packet, this.allocator);
+    }
+
+    /**
+     * Fetch a previously sent packet.
+     *
+     * @param ssrc           SSRC of the stream.
+     * @param sequenceNumber Sequence number of the packet.
+     *
+     * @return A retained duplicate of the encoded packet (which the caller must release or hand over to a channel) or
+     *         <code>null</code> if the packet is no longer (or was never) in the history.
+     */
+    public ByteBuf get(long ssrc, int sequenceNumber) {
+        Ring ring = this.rings.get(ssrc);
+        if (ring == null) {
+            return null;
+        }
+
+        return ring.get(sequenceNumber & 0xffff);
+    }
+
+    /**
+     * Drop the history of a given SSRC (e.g. after it changed due to a collision).
+     *
+     * @param ssrc SSRC to forget.
+     */
+    public void remove(long ssrc) {
+        Ring ring = this.rings.remove(ssrc);
+        if (ring != null) {
+            ring.clear();
+        }
+    }
+
+    /**
+     * Release all the buffers held.
+     */
+    public void clear() {
+        for (Long ssrc : this.rings.keySet()) {
+            this.remove(ssrc);
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getSize() {
+        return size;
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    private static final class Ring {
+
+        private final int mask;
+        private final int[] sequenceNumbers;
+        private final ByteBuf[] packets;
+
+        private Ring(int size) {
+            this.mask = size - 1;
+            this.sequenceNumbers = new int[size];
+            this.packets = new ByteBuf[size];
+        }
+
+        private synchronized void store(int sequenceNumber, ByteBuf packet, ByteBufAllocator allocator) {
+            int slot = sequenceNumber & this.mask;
+            ByteBuf previous = this.packets[slot];
+            if (previous != null) {
+                if ((this.sequenceNumbers[slot] == sequenceNumber) &&
+                    (previous.readableBytes() == packet.readableBytes())) {
+                    // Retransmission of a packet we already hold; nothing to do.
+                    return;
+                }
+                previous.release();
+            }
+
+            ByteBuf copy = allocator.buffer(packet.readableBytes());
+            copy.writeBytes(packet, packet.readerIndex(), packet.readableBytes());
+            this.sequenceNumbers[slot] = sequenceNumber;
+            this.packets[slot] = copy;
+        }
+
+        private synchronized ByteBuf get(int sequenceNumber) {
+            int slot = sequenceNumber & this.mask;
+            ByteBuf packet = this.packets[slot];
+            if ((packet == null) || (this.sequenceNumbers[slot] != sequenceNumber)) {
+                return null;
+            }
+
+            return packet.duplicate().retain();
+        }
+
+        private synchronized void clear() {
+            for (int i = 0; i < this.packets.length; i++) {
+                if (this.packets[i] != null) {
+                    this.packets[i].release();
+                    this.packets[i] = null;
+                }
+            }
+        }
+    }
+}
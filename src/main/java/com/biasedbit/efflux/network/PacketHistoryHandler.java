@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+
+/**
+ * Sits between the RTP encoder and the socket and records every encoded packet that goes out into a
+ * {@link PacketHistory}.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+@ChannelHandler.Sharable
+public class PacketHistoryHandler extends ChannelOutboundHandlerAdapter {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final PacketHistory history;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PacketHistoryHandler(PacketHistory history) {
+        this.history = history;
+    }
+
+    // ChannelOutboundHandlerAdapter ----------------------------------------------------------------------------------
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof DatagramPacket) {
+            this.history.record(((DatagramPacket) msg).content());
+        }
+
+        ctx.write(msg, promise);
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public PacketHistory getHistory() {
+        return history;
+    }
+}
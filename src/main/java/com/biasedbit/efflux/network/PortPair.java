@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.network;
+
+import io.netty.channel.socket.DatagramChannel;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A pair of bound datagram channels on consecutive ports, the even one for RTP and the odd one for RTCP, handed out by
+ * a {@link PortPairPool}.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PortPair {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final DatagramChannel dataChannel;
+    private final DatagramChannel controlChannel;
+    private final InetSocketAddress dataAddress;
+    private final InetSocketAddress controlAddress;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PortPair(DatagramChannel dataChannel, DatagramChannel controlChannel) {
+        this.dataChannel = dataChannel;
+        this.controlChannel = controlChannel;
+        // Kept, as closed channels no longer know their address.
+        this.dataAddress = dataChannel.localAddress();
+        this.controlAddress = controlChannel.localAddress();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public boolean isOpen() {
+        return this.dataChannel.isOpen() && this.controlChannel.isOpen();
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return "PortPair{" + this.getDataAddress() + '/' + this.getControlAddress().getPort() + '}';
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public DatagramChannel getDataChannel() {
+        return dataChannel;
+    }
+
+    public DatagramChannel getControlChannel() {
+        return controlChannel;
+    }
+
+    public InetSocketAddress getDataAddress() {
+        return dataAddress;
+    }
+
+    public InetSocketAddress getControlAddress() {
+        return controlAddress;
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.network;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a warm pool of pre-bound RTP/RTCP port pairs (even port for data, the next odd one for control) within a port
+ * range, so that sessions can start without binding, and without failing on ports someone else already took.
+ * <p/>
+ * Pairs are handed out with {@link #acquire()} and given back with {@link #release(PortPair)}, which strips whatever
+ * handlers the session added and puts them back at the end of the queue, so a port rests as long as possible before
+ * being reused and late packets from its previous call are simply dropped. Whenever a pair is taken, the pool is
+ * topped up again in the background.
+ * <p/>
+ * All the channels are registered on the pool's event loop group, shared by the sessions that use it.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PortPairPool {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final Logger LOG = LoggerFactory.getLogger(PortPairPool.class);
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final String host;
+    private final int minPort;
+    private final int maxPort;
+    private final int size;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final EventLoopGroup group;
+    private final boolean internalGroup;
+    private final Queue<PortPair> available;
+    private final AtomicInteger availableCount;
+    private final AtomicInteger inUse;
+    private final AtomicLong acquired;
+    private final AtomicLong exhausted;
+    private final AtomicLong bindFailures;
+    private final AtomicBoolean refilling;
+    private final Set<Integer> ports;
+    private final Runnable refillTask;
+    private int nextPort;
+    private volatile boolean running;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PortPairPool(String host, int minPort, int maxPort, int size) {
+        this(host, minPort, maxPort, size, null);
+    }
+
+    /**
+     * @param host    Address to bind to.
+     * @param minPort First port of the range; rounded up to an even number.
+     * @param maxPort Last port of the range (inclusive).
+     * @param size    Number of bound pairs to keep ready.
+     * @param group   Event loop group for the channels; if null the pool creates (and shuts down) its own.
+     */
+    public PortPairPool(String host, int minPort, int maxPort, int size, EventLoopGroup group) {
+        if ((minPort <= 0) || (maxPort > 65535) || (minPort >= maxPort)) {
+            throw new IllegalArgumentException("Port range must be within [1;65535] and span at least one pair");
+        }
+        if ((size <= 0) || (size > ((maxPort - minPort + 1) / 2))) {
+            throw new IllegalArgumentException("Pool size must be positive and fit in the port range");
+        }
+
+        this.host = host;
+        this.minPort = (minPort + 1) & ~1;
+        this.maxPort = maxPort;
+        this.size = size;
+        if (group == null) {
+            this.group = new NioEventLoopGroup();
+            this.internalGroup = true;
+        } else {
+            this.group = group;
+            this.internalGroup = false;
+        }
+
+        this.available = new ConcurrentLinkedQueue<PortPair>();
+        this.availableCount = new AtomicInteger();
+        this.inUse = new AtomicInteger();
+        this.acquired = new AtomicLong();
+        this.exhausted = new AtomicLong();
+        this.bindFailures = new AtomicLong();
+        this.refilling = new AtomicBoolean();
+        this.ports = new HashSet<Integer>();
+        this.nextPort = this.minPort;
+        this.refillTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fill();
+                } finally {
+                    refilling.set(false);
+                }
+                // Pairs may have been taken (or lost) in the meantime.
+                if (running && (availableCount.get() < PortPairPool.this.size)) {
+                    scheduleRefill();
+                }
+            }
+        };
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Bind the initial pairs, blocking until done.
+     *
+     * @return <code>true</code> if the pool was filled, <code>false</code> if the range ran out of free ports first.
+     */
+    public boolean init() {
+        this.running = true;
+        this.fill();
+        return this.availableCount.get() == this.size;
+    }
+
+    /**
+     * @return A bound pair, or <code>null</code> if the pool is empty.
+     */
+    public PortPair acquire() {
+        if (!this.running) {
+            return null;
+        }
+
+        PortPair pair;
+        while ((pair = this.available.poll()) != null) {
+            this.availableCount.decrementAndGet();
+            if (pair.isOpen()) {
+                break;
+            }
+            this.discard(pair);
+        }
+
+        this.scheduleRefill();
+        if (pair == null) {
+            this.exhausted.incrementAndGet();
+            LOG.warn("Port pair pool for {}:[{};{}] exhausted ({} in use).", this.host, this.minPort, this.maxPort,
+                     this.inUse.get());
+            return null;
+        }
+
+        this.inUse.incrementAndGet();
+        this.acquired.incrementAndGet();
+        return pair;
+    }
+
+    /**
+     * Give a pair back. Every handler in both pipelines is removed; closed pairs, and any pair released once the pool
+     * is shut down or full, have their ports freed instead.
+     */
+    public void release(PortPair pair) {
+        this.inUse.decrementAndGet();
+        strip(pair.getDataChannel().pipeline());
+        strip(pair.getControlChannel().pipeline());
+
+        if (!this.running || !pair.isOpen() || (this.availableCount.get() >= this.size)) {
+            this.discard(pair);
+            return;
+        }
+
+        this.available.offer(pair);
+        this.availableCount.incrementAndGet();
+    }
+
+    /**
+     * Close every pair in the pool; pairs still in use are closed as they're released.
+     */
+    public void shutdown() {
+        this.running = false;
+        PortPair pair;
+        while ((pair = this.available.poll()) != null) {
+            this.availableCount.decrementAndGet();
+            this.discard(pair);
+        }
+
+        if (this.internalGroup) {
+            this.group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    private static void strip(ChannelPipeline pipeline) {
+        for (String name : pipeline.toMap().keySet()) {
+            pipeline.remove(name);
+        }
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void scheduleRefill() {
+        // Binding blocks, so it mustn't happen on the event loops nor on the caller's thread.
+        if (this.running && this.refilling.compareAndSet(false, true)) {
+            GlobalEventExecutor.INSTANCE.execute(this.refillTask);
+        }
+    }
+
+    private void fill() {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(this.group)
+                .channel(NioDatagramChannel.class)
+                .handler(new ChannelInitializer<DatagramChannel>() {
+                    @Override
+                    protected void initChannel(DatagramChannel ch) throws Exception {
+                        // Nothing until a session adopts it.
+                    }
+                });
+
+        // Try each pair in the range at most once per fill.
+        int attempts = (this.maxPort - this.minPort + 1) / 2;
+        while (this.running && (this.availableCount.get() < this.size) && (attempts-- > 0)) {
+            int port = this.nextFreePort();
+            if (port < 0) {
+                return;
+            }
+
+            PortPair pair = this.bind(bootstrap, port);
+            if (pair == null) {
+                this.freePort(port);
+                continue;
+            }
+
+            this.available.offer(pair);
+            this.availableCount.incrementAndGet();
+        }
+    }
+
+    private PortPair bind(Bootstrap bootstrap, int port) {
+        Channel data = null;
+        try {
+            data = bootstrap.bind(new InetSocketAddress(this.host, port)).sync().channel();
+            Channel control = bootstrap.bind(new InetSocketAddress(this.host, port + 1)).sync().channel();
+            return new PortPair((DatagramChannel) data, (DatagramChannel) control);
+        } catch (Exception e) {
+            this.bindFailures.incrementAndGet();
+            LOG.debug("Failed to bind port pair {}/{} on {}.", port, port + 1, this.host);
+            if (data != null) {
+                data.close();
+            }
+            return null;
+        }
+    }
+
+    private synchronized int nextFreePort() {
+        int pairs = (this.maxPort - this.minPort + 1) / 2;
+        for (int i = 0; i < pairs; i++) {
+            int port = this.nextPort;
+            this.nextPort += 2;
+            if ((this.nextPort + 1) > this.maxPort) {
+                this.nextPort = this.minPort;
+            }
+            if (this.ports.add(port)) {
+                return port;
+            }
+        }
+
+        return -1;
+    }
+
+    private synchronized void freePort(int port) {
+        this.ports.remove(port);
+    }
+
+    private void discard(PortPair pair) {
+        pair.getDataChannel().close();
+        pair.getControlChannel().close();
+        this.freePort(pair.getDataAddress().getPort());
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("PortPairPool{").append(this.host)
+                .append(":[").append(this.minPort).append(';').append(this.maxPort)
+                .append("], available=").append(this.availableCount.get())
+                .append('/').append(this.size)
+                .append(", inUse=").append(this.inUse.get())
+                .append(", exhausted=").append(this.exhausted.get())
+                .append('}').toString();
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getMinPort() {
+        return minPort;
+    }
+
+    public int getMaxPort() {
+        return maxPort;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public EventLoopGroup getGroup() {
+        return group;
+    }
+
+    /**
+     * @return Number of bound pairs ready to be handed out.
+     */
+    public int getAvailable() {
+        return availableCount.get();
+    }
+
+    /**
+     * @return Number of pairs currently adopted by sessions.
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * @return Total number of pairs handed out.
+     */
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    /**
+     * @return Number of times a pair was requested while the pool was empty.
+     */
+    public long getExhausted() {
+        return exhausted.get();
+    }
+
+    /**
+     * @return Number of pairs that couldn't be bound, typically because some other process holds one of the ports.
+     */
+    public long getBindFailures() {
+        return bindFailures.get();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Common layout of RTCP feedback messages (RFC 4585, section 6.1): the 5 bit count field carries the feedback message
+ * type (FMT) and the header is followed by the SSRC of the packet sender, the SSRC of the media source and the
+ * FMT-specific Feedback Control Information (FCI).
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public abstract class AbstractFeedbackPacket extends ControlPacket {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    protected final int format;
+    protected long senderSsrc;
+    protected long mediaSsrc;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    protected AbstractFeedbackPacket(Type type, int format) {
+        super(type);
+        if ((format < 0) || (format > 31)) {
+            throw new IllegalArgumentException("Valid range for feedback message type is [0;31]");
+        }
+        this.format = format;
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    public static AbstractFeedbackPacket decode(ByteBuf buffer, Type type, boolean hasPadding, byte format,
+                                                int length) {
+        // Length is written in 32bit words, not octet count.
+        int end = buffer.readerIndex() + (length * 4);
+        int padding = hasPadding ? buffer.getUnsignedByte(end - 1) : 0;
+
+        long senderSsrc = buffer.readUnsignedInt();
+        long mediaSsrc = buffer.readUnsignedInt();
+        int fciLength = end - padding - buffer.readerIndex();
+
+        // Dispatch on the FMT before creating anything, so unknown feedback messages cost no allocations.
+        AbstractFeedbackPacket packet = null;
+        if (type == Type.TRANSPORT_FEEDBACK) {
+            switch (format) {
+                case GenericNackPacket.FORMAT:
+                    packet = GenericNackPacket.decodeFci(buffer, fciLength);
+                    break;
+                case TmmbrPacket.FORMAT:
+                    packet = TmmbrPacket.decodeFci(new TmmbrPacket(), buffer, fciLength);
+                    break;
+                case TmmbnPacket.FORMAT:
+                    packet = TmmbrPacket.decodeFci(new TmmbnPacket(), buffer, fciLength);
+                    break;
+                default:
+                    // unknown FMT, skipped below
+            }
+        } else {
+            switch (format) {
+                case PictureLossIndicationPacket.FORMAT:
+                    packet = new PictureLossIndicationPacket();
+                    break;
+                case FullIntraRequestPacket.FORMAT:
+                    packet = FullIntraRequestPacket.decodeFci(buffer, fciLength);
+                    break;
+                case ReceiverEstimatedMaxBitratePacket.FORMAT:
+                    // Application layer feedback; only REMB is understood.
+                    packet = ReceiverEstimatedMaxBitratePacket.decodeFci(buffer, fciLength);
+                    break;
+                default:
+                    // unknown FMT, skipped below
+            }
+        }
+
+        // Unknown feedback types are skipped altogether; same goes for the padding of known ones.
+        buffer.readerIndex(end);
+        if (packet != null) {
+            packet.setSenderSsrc(senderSsrc);
+            packet.setMediaSsrc(mediaSsrc);
+        }
+
+        return packet;
+    }
+
+    // ControlPacket --------------------------------------------------------------------------------------------------
+
+    @Override
+    public ByteBuf encode(int currentCompoundLength, int fixedBlockSize) {
+        if ((currentCompoundLength < 0) || ((currentCompoundLength % 4) > 0)) {
+            throw new IllegalArgumentException("Current compound length must be a non-negative multiple of 4");
+        }
+        if ((fixedBlockSize < 0) || ((fixedBlockSize % 4) > 0)) {
+            throw new IllegalArgumentException("Padding modulus must be a non-negative multiple of 4");
+        }
+
+        // Common header + sender ssrc + media source ssrc + FCI
+        int size = 4 + 8 + this.getFciLength();
+
+        // If packet was configured to have padding, calculate padding and add it.
+        int padding = 0;
+        if (fixedBlockSize > 0) {
+            // If padding modulus is > 0 then the padding is equal to:
+            // (global size of the compound RTCP packet) mod (block size)
+            // Block size alignment might be necessary for some encryption algorithms
+            // RFC section 6.4.1
+            padding = fixedBlockSize - ((size + currentCompoundLength) % fixedBlockSize);
+            if (padding == fixedBlockSize) {
+                padding = 0;
+            }
+        }
+        size += padding;
+
+        ByteBuf buffer = Unpooled.buffer(size);
+        // First byte: Version (2b), Padding (1b), feedback message type (5b)
+        byte b = this.getVersion().getByte();
+        if (padding > 0) {
+            b |= 0x20;
+        }
+        b |= this.format;
+        buffer.writeByte(b);
+        // Second byte: Packet Type
+        buffer.writeByte(this.type.getByte());
+        // Third byte: total length of the packet, in multiples of 4 bytes (32bit words) - 1
+        buffer.writeShort((size / 4) - 1);
+        buffer.writeInt((int) this.senderSsrc);
+        buffer.writeInt((int) this.mediaSsrc);
+        this.encodeFci(buffer);
+
+        if (padding > 0) {
+            // Final bytes: padding
+            for (int i = 0; i < (padding - 1); i++) {
+                buffer.writeByte(0x00);
+            }
+
+            // Final byte: the amount of padding bytes that should be discarded.
+            // Unless something's wrong, it will be a multiple of 4.
+            buffer.writeByte(padding);
+        }
+
+        return buffer;
+    }
+
+    @Override
+    public ByteBuf encode() {
+        return this.encode(0, 0);
+    }
+
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Length of the Feedback Control Information, in bytes; must be a multiple of 4.
+     */
+    protected abstract int getFciLength();
+
+    protected abstract void encodeFci(ByteBuf buffer);
+
+    /**
+     * Pack a bitrate in the exponent/mantissa notation used by REMB and TMMBR (6 bit exponent followed by a
+     * <code>mantissaBits</code> wide mantissa), rounding down when the value does not fit the mantissa.
+     */
+    protected static long encodeBitrate(long bitrate, int mantissaBits) {
+        long maxMantissa = (1L << mantissaBits) - 1;
+        int exponent = 0;
+        while ((bitrate >>> exponent) > maxMantissa) {
+            exponent++;
+        }
+
+        return ((long) exponent << mantissaBits) | (bitrate >>> exponent);
+    }
+
+    protected static long decodeBitrate(long encoded, int mantissaBits) {
+        long mantissa = encoded & ((1L << mantissaBits) - 1);
+        int exponent = (int) (encoded >>> mantissaBits) & 0x3f;
+
+        return mantissa << exponent;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getFormat() {
+        return format;
+    }
+
+    public long getSenderSsrc() {
+        return senderSsrc;
+    }
+
+    public void setSenderSsrc(long senderSsrc) {
+        if ((senderSsrc < 0) || (senderSsrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        this.senderSsrc = senderSsrc;
+    }
+
+    public long getMediaSsrc() {
+        return mediaSsrc;
+    }
+
+    public void setMediaSsrc(long mediaSsrc) {
+        if ((mediaSsrc < 0) || (mediaSsrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        this.mediaSsrc = mediaSsrc;
+    }
+}
@@ -17,22 +17,140 @@
 package com.biasedbit.efflux.packet;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
 
 /**
+ * Application-defined RTCP packet (RFC 3550, section 6.7).
+ * <p/>
+ * The application-dependent data is never copied: decoded packets carry a slice of the received datagram and encoded
+ * packets wrap the data buffer as is. A packet owns one reference to its data buffer; whoever holds on to a decoded
+ * packet past the listener callback must {@link #retain()} it, and whoever creates one must {@link #release()} it
+ * once done (except when handing it to a session for piggybacking, in which case the session releases it after
+ * sending).
+ *
  * @author <a:mailto="bruno.carvalho@wit-software.com" />Bruno de Carvalho</a>
  */
 public class AppDataPacket extends ControlPacket {
 
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private int subtype;
+    private long ssrc;
+    private String name;
+    private ByteBuf data;
+
     // constructors ---------------------------------------------------------------------------------------------------
 
+    public AppDataPacket() {
+        super(Type.APP_DATA);
+        this.name = "    ";
+        this.data = Unpooled.EMPTY_BUFFER;
+    }
+
     public AppDataPacket(Type type) {
-        super(type);
+        this();
+        if (type != Type.APP_DATA) {
+            throw new IllegalArgumentException("Type must be APP_DATA");
+        }
+    }
+
+    /**
+     * @param subtype Application-defined subtype, in range [0;31].
+     * @param ssrc    SSRC of the sender.
+     * @param name    4 ASCII characters.
+     * @param data    Application-dependent data, whose length must be a multiple of 4; ownership is transferred.
+     */
+    public AppDataPacket(int subtype, long ssrc, String name, ByteBuf data) {
+        this();
+        this.setSubtype(subtype);
+        this.setSsrc(ssrc);
+        this.setName(name);
+        this.setData(data);
     }
 
     // public static methods ------------------------------------------------------------------------------------------
 
+    public static AppDataPacket decode(ByteBuf buffer, boolean hasPadding, byte innerBlocks, int length) {
+        // Length is written in 32bit words, not octet count.
+        int end = buffer.readerIndex() + (length * 4);
+        int padding = hasPadding ? buffer.getUnsignedByte(end - 1) : 0;
+
+        AppDataPacket packet = new AppDataPacket();
+        packet.subtype = innerBlocks;
+        packet.ssrc = buffer.readUnsignedInt();
+        packet.name = buffer.toString(buffer.readerIndex(), 4, CharsetUtil.US_ASCII);
+        buffer.skipBytes(4);
+
+        int dataLength = end - padding - buffer.readerIndex();
+        if (dataLength > 0) {
+            // Zero copy: share the received bytes, keeping them alive for as long as this packet lives.
+            packet.data = buffer.slice(buffer.readerIndex(), dataLength).retain();
+        }
+        buffer.readerIndex(end);
+
+        return packet;
+    }
+
     public static ByteBuf encode(int currentCompoundLength, int fixedBlockSize, AppDataPacket packet) {
-        return null;
+        if ((currentCompoundLength < 0) || ((currentCompoundLength % 4) > 0)) {
+            throw new IllegalArgumentException("Current compound length must be a non-negative multiple of 4");
+        }
+        if ((fixedBlockSize < 0) || ((fixedBlockSize % 4) > 0)) {
+            throw new IllegalArgumentException("Padding modulus must be a non-negative multiple of 4");
+        }
+
+        // Common header + ssrc + name + data
+        int dataLength = packet.data.readableBytes();
+        int size = 12 + dataLength;
+
+        // If packet was configured to have padding, calculate padding and add it.
+        int padding = 0;
+        if (fixedBlockSize > 0) {
+            // If padding modulus is > 0 then the padding is equal to:
+            // (global size of the compound RTCP packet) mod (block size)
+            // Block size alignment might be necessary for some encryption algorithms
+            // RFC section 6.4.1
+            padding = fixedBlockSize - ((size + currentCompoundLength) % fixedBlockSize);
+            if (padding == fixedBlockSize) {
+                padding = 0;
+            }
+        }
+        size += padding;
+
+        ByteBuf header = Unpooled.buffer(12);
+        // First byte: Version (2b), Padding (1b), subtype (5b)
+        byte b = packet.getVersion().getByte();
+        if (padding > 0) {
+            b |= 0x20;
+        }
+        b |= packet.subtype;
+        header.writeByte(b);
+        // Second byte: Packet Type
+        header.writeByte(packet.type.getByte());
+        // Third byte: total length of the packet, in multiples of 4 bytes (32bit words) - 1
+        header.writeShort((size / 4) - 1);
+        header.writeInt((int) packet.ssrc);
+        header.writeBytes(packet.name.getBytes(CharsetUtil.US_ASCII));
+
+        if ((dataLength == 0) && (padding == 0)) {
+            return header;
+        }
+
+        // The data isn't copied; the resulting buffer holds an extra reference to it until it's written out.
+        ByteBuf data = packet.data.duplicate().retain();
+        if (padding == 0) {
+            return Unpooled.wrappedBuffer(header, data);
+        }
+
+        ByteBuf paddingBuffer = Unpooled.buffer(padding);
+        // Final bytes: padding
+        paddingBuffer.writeZero(padding - 1);
+        // Final byte: the amount of padding bytes that should be discarded.
+        // Unless something's wrong, it will be a multiple of 4.
+        paddingBuffer.writeByte(padding);
+
+        return Unpooled.wrappedBuffer(header, data, paddingBuffer);
     }
 
     // ControlPacket --------------------------------------------------------------------------------------------------
@@ -46,4 +164,100 @@ public class AppDataPacket extends ControlPacket {
     public ByteBuf encode() {
         return encode(0, 0, this);
     }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public AppDataPacket retain() {
+        this.data.retain();
+        return this;
+    }
+
+    public boolean release() {
+        return this.data.release();
+    }
+
+    /**
+     * @return Size, in bytes, of this packet once encoded (without padding).
+     */
+    public int getEncodedSize() {
+        return 12 + this.data.readableBytes();
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getSubtype() {
+        return subtype;
+    }
+
+    public void setSubtype(int subtype) {
+        if ((subtype < 0) || (subtype > 31)) {
+            throw new IllegalArgumentException("Valid range for subtype is [0;31]");
+        }
+        this.subtype = subtype;
+    }
+
+    public long getSsrc() {
+        return ssrc;
+    }
+
+    public void setSsrc(long ssrc) {
+        if ((ssrc < 0) || (ssrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        this.ssrc = ssrc;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        if ((name == null) || (name.length() != 4)) {
+            throw new IllegalArgumentException("Name must be 4 ASCII characters long");
+        }
+        for (int i = 0; i < 4; i++) {
+            if (name.charAt(i) > 0x7f) {
+                throw new IllegalArgumentException("Name must be 4 ASCII characters long");
+            }
+        }
+        this.name = name;
+    }
+
+    /**
+     * @return The application-dependent data; readable bytes only, never <code>null</code>.
+     */
+    public ByteBuf getData() {
+        return data;
+    }
+
+    /**
+     * @param data Application-dependent data, whose length must be a multiple of 4; the packet takes ownership of the
+     *             buffer (and releases the one it previously held).
+     */
+    public void setData(ByteBuf data) {
+        if (data == null) {
+            data = Unpooled.EMPTY_BUFFER;
+        }
+        if ((data.readableBytes() % 4) != 0) {
+            throw new IllegalArgumentException("Application-dependent data length must be a multiple of 4");
+        }
+        ByteBuf previous = this.data;
+        this.data = data;
+        if (previous != data) {
+            previous.release();
+        }
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("AppDataPacket{")
+                .append("subtype=").append(this.subtype)
+                .append(", ssrc=").append(this.ssrc)
+                .append(", name='").append(this.name)
+                .append("', dataLength=").append(this.data.readableBytes())
+                .append('}').toString();
+    }
 }
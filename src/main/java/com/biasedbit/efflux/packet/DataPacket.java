@@ -44,6 +44,9 @@ import java.util.List;
  * |                        header extension                       |
  * |                             ....                              |
  *
+ * The header extension follows the CSRC list and its length is expressed in 32 bit words. RFC 8285 extensions (one
+ * and two-byte forms) are available through {@link #getHeaderExtensions()}.
+ *
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
  */
 public class DataPacket {
@@ -58,7 +61,8 @@ public class DataPacket {
     private long ssrc;
 
     private short extensionHeaderData;
-    private byte[] extensionData;
+    private ByteBuf extensionData;
+    private HeaderExtensions headerExtensions;
 
     private List<Long> contributingSourceIds;
 
@@ -98,13 +102,6 @@ public class DataPacket {
         packet.timestamp = buffer.readUnsignedInt();
         packet.ssrc = buffer.readUnsignedInt();
 
-        // Read extension headers & data
-        if (extension) {
-            packet.extensionHeaderData = buffer.readShort();
-            packet.extensionData = new byte[buffer.readUnsignedShort()];
-            buffer.readBytes(packet.extensionData);
-        }
-
         // Read CCRC's
         if (contributingSourcesCount > 0) {
             packet.contributingSourceIds = new ArrayList<Long>(contributingSourcesCount);
@@ -114,19 +111,33 @@ public class DataPacket {
             }
         }
 
-        if (!padding) {
-            // No padding used, assume remaining data is the packet
-            byte[] remainingBytes = new byte[buffer.readableBytes()];
-            buffer.readBytes(remainingBytes);
-            packet.setData(remainingBytes);
+        // Read extension header; the extension itself is copied along with the payload.
+        int extensionLength = 0;
+        if (extension) {
+            packet.extensionHeaderData = buffer.readShort();
+            // Length is written in 32bit words, not octet count.
+            extensionLength = buffer.readUnsignedShort() * 4;
+        }
+
+        // Padding bit was set, so last byte contains the number of padding octets that should be discarded.
+        int paddingLength = padding ? buffer.getUnsignedByte(buffer.writerIndex() - 1) : 0;
+        int dataLength = buffer.readableBytes() - extensionLength - paddingLength;
+        if (dataLength < 0) {
+            throw new IllegalArgumentException("Header extension and padding exceed packet length");
+        }
+
+        // A single copy for both extension and payload; they're exposed as slices of it.
+        byte[] remainingBytes = new byte[extensionLength + dataLength];
+        buffer.readBytes(remainingBytes);
+        // Discard rest of buffer.
+        buffer.skipBytes(buffer.readableBytes());
+
+        ByteBuf remaining = Unpooled.wrappedBuffer(remainingBytes);
+        if (extension) {
+            packet.extensionData = remaining.slice(0, extensionLength);
+            packet.data = remaining.slice(extensionLength, dataLength);
         } else {
-            // Padding bit was set, so last byte contains the number of padding octets that should be discarded.
-            short lastByte = buffer.getUnsignedByte(buffer.readerIndex() + buffer.readableBytes() - 1);
-            byte[] dataBytes = new byte[buffer.readableBytes() - lastByte];
-            buffer.readBytes(dataBytes);
-            packet.setData(dataBytes);
-            // Discard rest of buffer.
-            buffer.skipBytes(buffer.readableBytes());
+            packet.data = remaining;
         }
 
         return packet;
@@ -134,10 +145,10 @@ public class DataPacket {
 
     public static ByteBuf encode(int fixedBlockSize, DataPacket packet) {
         int size = 12; // Fixed width
+        size += packet.getContributingSourcesCount() * 4;
         if (packet.hasExtension()) {
             size += 4 + packet.getExtensionDataSize();
         }
-        size += packet.getContributingSourcesCount() * 4;
         size += packet.getDataSize();
 
         // If packet was configured to have padding (fixed block size), calculate padding and add it.
@@ -178,13 +189,6 @@ public class DataPacket {
         buffer.writeInt((int) packet.timestamp);
         buffer.writeInt((int) packet.ssrc);
 
-        // Write extension headers & data
-        if (packet.hasExtension()) {
-            buffer.writeShort(packet.extensionHeaderData);
-            buffer.writeShort(packet.extensionData.length);
-            buffer.writeBytes(packet.extensionData);
-        }
-
         // Write CCRC's
         if (packet.getContributingSourcesCount() > 0) {
             for (Long contributingSourceId : packet.getContributingSourceIds()) {
@@ -192,9 +196,14 @@ public class DataPacket {
             }
         }
 
+        // Write extension headers & data
+        if (packet.hasExtension()) {
+            packet.encodeExtension(buffer);
+        }
+
         // Write RTP data
         if (packet.data != null) {
-            buffer.writeBytes(packet.data.array());
+            buffer.writeBytes(packet.data, packet.data.readerIndex(), packet.data.readableBytes());
         }
 
         if (padding > 0) {
@@ -229,20 +238,44 @@ public class DataPacket {
         this.contributingSourceIds.add(contributingSourceId);
     }
 
+    /**
+     * Write the header extension (4 byte header, data and padding to a 32 bit boundary) into the buffer.
+     */
+    public void encodeExtension(ByteBuf buffer) {
+        if (this.headerExtensions != null) {
+            buffer.writeShort(this.headerExtensions.getProfile());
+            buffer.writeShort(this.headerExtensions.getEncodedLength() / 4);
+            this.headerExtensions.encode(buffer);
+        } else if (this.extensionData != null) {
+            int length = this.getExtensionDataSize();
+            buffer.writeShort(this.extensionHeaderData);
+            buffer.writeShort(length / 4);
+            buffer.writeBytes(this.extensionData, this.extensionData.readerIndex(), this.extensionData.readableBytes());
+            buffer.writeZero(length - this.extensionData.readableBytes());
+        }
+    }
+
     public int getDataSize() {
         if (this.data == null) {
             return 0;
         }
 
-        return this.data.capacity();
+        return this.data.readableBytes();
     }
 
+    /**
+     * @return Size of the header extension data (excluding the 4 byte extension header) as written on the wire,
+     *         including padding to a 32 bit boundary.
+     */
     public int getExtensionDataSize() {
+        if (this.headerExtensions != null) {
+            return this.headerExtensions.getEncodedLength();
+        }
         if (this.extensionData == null) {
             return 0;
         }
 
-        return this.extensionData.length;
+        return (this.extensionData.readableBytes() + 3) & ~3;
     }
 
     public int getContributingSourcesCount() {
@@ -253,12 +286,38 @@ public class DataPacket {
         return this.contributingSourceIds.size();
     }
 
+    /**
+     * Set an opaque header extension. Data whose length is not a multiple of 4 is padded with zeroes when encoding.
+     */
     public void setExtensionHeader(short extensionHeaderData, byte[] extensionData) {
-        if (extensionData.length > 65536) {
-            throw new IllegalArgumentException("Extension data cannot exceed 65536 bytes");
+        if (extensionData.length > (65535 * 4)) {
+            throw new IllegalArgumentException("Extension data cannot exceed 262140 bytes");
         }
         this.extensionHeaderData = extensionHeaderData;
-        this.extensionData = extensionData;
+        this.extensionData = Unpooled.wrappedBuffer(extensionData);
+        this.headerExtensions = null;
+    }
+
+    /**
+     * @return The RFC 8285 extension elements (parsed on first lookup), <code>null</code> if this packet has no header
+     *         extension or one that does not follow RFC 8285.
+     */
+    public HeaderExtensions getHeaderExtensions() {
+        if ((this.headerExtensions == null) && (this.extensionData != null)) {
+            this.headerExtensions = HeaderExtensions.wrap(this.extensionHeaderData, this.extensionData);
+        }
+
+        return this.headerExtensions;
+    }
+
+    /**
+     * @param headerExtensions RFC 8285 extension elements to send, replacing any other header extension;
+     *                         <code>null</code> to remove them.
+     */
+    public void setHeaderExtensions(HeaderExtensions headerExtensions) {
+        this.headerExtensions = headerExtensions;
+        this.extensionHeaderData = 0;
+        this.extensionData = null;
     }
 
     // getters & setters ----------------------------------------------------------------------------------------------
@@ -275,7 +334,7 @@ public class DataPacket {
     }
 
     public boolean hasExtension() {
-        return this.extensionData != null;
+        return (this.extensionData != null) || (this.headerExtensions != null);
     }
 
     public boolean hasMarker() {
@@ -325,10 +384,26 @@ public class DataPacket {
     }
 
     public short getExtensionHeaderData() {
+        if (this.headerExtensions != null) {
+            return (short) this.headerExtensions.getProfile();
+        }
+
         return extensionHeaderData;
     }
 
+    /**
+     * @return A copy of the header extension data, padded to a 32 bit boundary, or <code>null</code>.
+     */
     public byte[] getExtensionData() {
+        if (!this.hasExtension()) {
+            return null;
+        }
+
+        ByteBuf buffer = Unpooled.buffer(4 + this.getExtensionDataSize());
+        this.encodeExtension(buffer);
+        byte[] extensionData = new byte[buffer.readableBytes() - 4];
+        buffer.getBytes(4, extensionData);
+
         return extensionData;
     }
 
@@ -349,7 +424,14 @@ public class DataPacket {
     }
 
     public byte[] getDataAsArray() {
-        return this.data.array();
+        if (this.data.hasArray() && (this.data.arrayOffset() == 0) && (this.data.readerIndex() == 0) &&
+            (this.data.readableBytes() == this.data.array().length)) {
+            return this.data.array();
+        }
+
+        byte[] array = new byte[this.data.readableBytes()];
+        this.data.getBytes(this.data.readerIndex(), array);
+        return array;
     }
 
     public void setData(byte[] data) {
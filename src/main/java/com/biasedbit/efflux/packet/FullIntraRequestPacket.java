@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Full Intra Request payload-specific feedback message (RFC 5104, section 4.3.1). The media source SSRC of the common
+ * header is unused (zero); the targeted sources are listed in the FCI entries instead.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FullIntraRequestPacket extends AbstractFeedbackPacket {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FORMAT = 4;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final List<Entry> entries;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public FullIntraRequestPacket() {
+        super(Type.PAYLOAD_SPECIFIC_FEEDBACK, FORMAT);
+        this.entries = new ArrayList<Entry>();
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    public static FullIntraRequestPacket decodeFci(ByteBuf buffer, int fciLength) {
+        FullIntraRequestPacket packet = new FullIntraRequestPacket();
+        for (int i = 0; i < (fciLength / 8); i++) {
+            long ssrc = buffer.readUnsignedInt();
+            short sequenceNumber = buffer.readUnsignedByte();
+            buffer.skipBytes(3); // reserved
+            packet.entries.add(new Entry(ssrc, sequenceNumber));
+        }
+
+        return packet;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * @param ssrc           SSRC of the media sender that should send a decoder refresh point.
+     * @param sequenceNumber Command sequence number; must be incremented for every new request to the same source.
+     */
+    public void addEntry(long ssrc, int sequenceNumber) {
+        if ((ssrc < 0) || (ssrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        this.entries.add(new Entry(ssrc, sequenceNumber & 0xff));
+    }
+
+    // AbstractFeedbackPacket -----------------------------------------------------------------------------------------
+
+    @Override
+    protected int getFciLength() {
+        return this.entries.size() * 8;
+    }
+
+    @Override
+    protected void encodeFci(ByteBuf buffer) {
+        for (Entry entry : this.entries) {
+            buffer.writeInt((int) entry.ssrc);
+            buffer.writeByte(entry.sequenceNumber);
+            buffer.writeMedium(0); // reserved
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(this.entries);
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("FullIntraRequestPacket{")
+                .append("senderSsrc=").append(this.senderSsrc)
+                .append(", entries=").append(this.entries)
+                .append('}').toString();
+    }
+
+    // public classes -------------------------------------------------------------------------------------------------
+
+    public static class Entry {
+
+        // internal vars ----------------------------------------------------------------------------------------------
+
+        private final long ssrc;
+        private final int sequenceNumber;
+
+        // constructors -----------------------------------------------------------------------------------------------
+
+        public Entry(long ssrc, int sequenceNumber) {
+            this.ssrc = ssrc;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        // getters & setters ------------------------------------------------------------------------------------------
+
+        public long getSsrc() {
+            return ssrc;
+        }
+
+        public int getSequenceNumber() {
+            return sequenceNumber;
+        }
+
+        // low level overrides ----------------------------------------------------------------------------------------
+
+        @Override
+        public String toString() {
+            return "{ssrc=" + this.ssrc + ", seqNr=" + this.sequenceNumber + '}';
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generic NACK transport layer feedback message (RFC 4585, section 6.2.1).
+ * <p/>
+ * Lost packets are kept as a plain list of sequence numbers; they're only packed into PID/BLP pairs when encoding.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class GenericNackPacket extends AbstractFeedbackPacket {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FORMAT = 1;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final List<Integer> lostSequenceNumbers;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public GenericNackPacket() {
+        super(Type.TRANSPORT_FEEDBACK, FORMAT);
+        this.lostSequenceNumbers = new ArrayList<Integer>();
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    public static GenericNackPacket decodeFci(ByteBuf buffer, int fciLength) {
+        GenericNackPacket packet = new GenericNackPacket();
+        for (int i = 0; i < (fciLength / 4); i++) {
+            int pid = buffer.readUnsignedShort();
+            int blp = buffer.readUnsignedShort();
+            packet.lostSequenceNumbers.add(pid);
+            for (int bit = 0; bit < 16; bit++) {
+                if ((blp & (1 << bit)) != 0) {
+                    packet.lostSequenceNumbers.add((pid + bit + 1) & 0xffff);
+                }
+            }
+        }
+
+        return packet;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public void addLostSequenceNumber(int sequenceNumber) {
+        this.lostSequenceNumbers.add(sequenceNumber & 0xffff);
+    }
+
+    // AbstractFeedbackPacket -----------------------------------------------------------------------------------------
+
+    @Override
+    protected int getFciLength() {
+        return this.countPairs() * 4;
+    }
+
+    @Override
+    protected void encodeFci(ByteBuf buffer) {
+        int pid = -1;
+        int blp = 0;
+        for (int sequenceNumber : this.lostSequenceNumbers) {
+            int distance = (sequenceNumber - pid) & 0xffff;
+            if ((pid >= 0) && (distance >= 1) && (distance <= 16)) {
+                blp |= 1 << (distance - 1);
+                continue;
+            }
+
+            if (pid >= 0) {
+                buffer.writeShort(pid);
+                buffer.writeShort(blp);
+            }
+            pid = sequenceNumber;
+            blp = 0;
+        }
+
+        if (pid >= 0) {
+            buffer.writeShort(pid);
+            buffer.writeShort(blp);
+        }
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private int countPairs() {
+        int pairs = 0;
+        int pid = -1;
+        for (int sequenceNumber : this.lostSequenceNumbers) {
+            int distance = (sequenceNumber - pid) & 0xffff;
+            if ((pid < 0) || (distance < 1) || (distance > 16)) {
+                pid = sequenceNumber;
+                pairs++;
+            }
+        }
+
+        return pairs;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public List<Integer> getLostSequenceNumbers() {
+        return Collections.unmodifiableList(this.lostSequenceNumbers);
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("GenericNackPacket{")
+                .append("senderSsrc=").append(this.senderSsrc)
+                .append(", mediaSsrc=").append(this.mediaSsrc)
+                .append(", lostSequenceNumbers=").append(this.lostSequenceNumbers)
+                .append('}').toString();
+    }
+}
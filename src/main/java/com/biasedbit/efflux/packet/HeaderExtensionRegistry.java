@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Negotiated mapping between RTP header extension element IDs and the URIs identifying them (RFC 8285, section 5),
+ * typically filled from SDP <code>a=extmap</code> attributes.
+ * <p/>
+ * Lookups by ID are plain array accesses and never lock; registration replaces the tables as a whole, so it is safe
+ * (if not cheap) to update the mapping while packets are flowing.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class HeaderExtensionRegistry {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private volatile String[] uris;
+    private volatile Map<String, Integer> ids;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public HeaderExtensionRegistry() {
+        this.uris = new String[HeaderExtensions.MAX_ID + 1];
+        this.ids = new HashMap<String, Integer>();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * @param id  Element ID, in range [1;255] (IDs above 14 force the two-byte form).
+     * @param uri URI of the extension, e.g. <code>urn:ietf:params:rtp-hdrext:ssrc-audio-level</code>.
+     */
+    public synchronized void register(int id, String uri) {
+        if ((id < 1) || (id > HeaderExtensions.MAX_ID)) {
+            throw new IllegalArgumentException("Valid range for extension element ID is [1;255]");
+        }
+        if (uri == null) {
+            throw new IllegalArgumentException("URI cannot be null");
+        }
+
+        String[] uris = this.uris.clone();
+        Map<String, Integer> ids = new HashMap<String, Integer>(this.ids);
+        if (uris[id] != null) {
+            ids.remove(uris[id]);
+        }
+        Integer previousId = ids.put(uri, id);
+        if (previousId != null) {
+            uris[previousId] = null;
+        }
+        uris[id] = uri;
+
+        this.uris = uris;
+        this.ids = ids;
+    }
+
+    public synchronized void unregister(int id) {
+        if ((id < 1) || (id > HeaderExtensions.MAX_ID) || (this.uris[id] == null)) {
+            return;
+        }
+
+        String[] uris = this.uris.clone();
+        Map<String, Integer> ids = new HashMap<String, Integer>(this.ids);
+        ids.remove(uris[id]);
+        uris[id] = null;
+
+        this.uris = uris;
+        this.ids = ids;
+    }
+
+    public synchronized void clear() {
+        this.uris = new String[HeaderExtensions.MAX_ID + 1];
+        this.ids = new HashMap<String, Integer>();
+    }
+
+    /**
+     * @return URI registered for the ID, or <code>null</code>.
+     */
+    public String getUri(int id) {
+        if ((id < 1) || (id > HeaderExtensions.MAX_ID)) {
+            return null;
+        }
+
+        return this.uris[id];
+    }
+
+    /**
+     * @return ID registered for the URI, or -1.
+     */
+    public int getId(String uri) {
+        Integer id = this.ids.get(uri);
+        return id == null ? -1 : id;
+    }
+}
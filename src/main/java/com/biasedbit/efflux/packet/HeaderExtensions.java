@@ -0,0 +1,374 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * RTP header extension elements, in either of the RFC 8285 forms: one-byte headers (profile <code>0xBEDE</code>, IDs
+ * 1 to 14, 1 to 16 bytes of data each) or two-byte headers (profile <code>0x100X</code>, IDs 1 to 255, 0 to 255 bytes
+ * of data each).
+ * <p/>
+ * Instances obtained from a received packet are a view over the received extension bytes: nothing is parsed until an
+ * element is first looked up, and that single pass fills a table indexed by ID so that every lookup afterwards is a
+ * plain array access. Elements are never copied; {@link #get(int)} returns a slice.
+ * <p/>
+ * Instances built locally (or received ones, once modified) are written straight into the outgoing packet buffer by
+ * {@link #encode(ByteBuf)}, picking the one-byte form whenever all elements fit it.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class HeaderExtensions {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int ONE_BYTE_PROFILE = 0xbede;
+    public static final int TWO_BYTE_PROFILE = 0x1000;
+    public static final int MAX_ID = 255;
+    public static final int MAX_ONE_BYTE_ID = 14;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    // Received form.
+    private final ByteBuf raw;
+    private final int profile;
+    private final boolean twoByte;
+    // Per ID: (offset << 16) | (length + 1), relative to the raw buffer's reader index; 0 when absent.
+    private int[] index;
+
+    // Built (or modified) form.
+    private ByteBuf[] values;
+    private int count;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public HeaderExtensions() {
+        this.raw = null;
+        this.profile = ONE_BYTE_PROFILE;
+        this.twoByte = false;
+        this.values = new ByteBuf[MAX_ID + 1];
+    }
+
+    private HeaderExtensions(ByteBuf raw, int profile) {
+        this.raw = raw;
+        this.profile = profile;
+        this.twoByte = profile != ONE_BYTE_PROFILE;
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * @param profile 16 bit "defined by profile" field of the RTP header extension.
+     *
+     * @return Whether the header extension uses one of the RFC 8285 forms.
+     */
+    public static boolean isSupported(int profile) {
+        profile &= 0xffff;
+        return (profile == ONE_BYTE_PROFILE) || ((profile & 0xfff0) == TWO_BYTE_PROFILE);
+    }
+
+    /**
+     * Wrap received header extension bytes, without parsing them.
+     *
+     * @param profile 16 bit "defined by profile" field of the RTP header extension.
+     * @param data    Header extension bytes (after the 4 byte extension header).
+     *
+     * @return A lazily parsed view over the data or <code>null</code> if the profile is not a RFC 8285 one.
+     */
+    public static HeaderExtensions wrap(int profile, ByteBuf data) {
+        if (!isSupported(profile)) {
+            return null;
+        }
+
+        return new HeaderExtensions(data, profile & 0xffff);
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public boolean contains(int id) {
+        return this.getLength(id) >= 0;
+    }
+
+    /**
+     * @return Length of the element with the given ID, -1 if absent.
+     */
+    public int getLength(int id) {
+        if ((id < 1) || (id > MAX_ID)) {
+            return -1;
+        }
+
+        if (this.values != null) {
+            ByteBuf value = this.values[id];
+            return value == null ? -1 : value.readableBytes();
+        }
+
+        int entry = this.entry(id);
+        return (entry & 0xffff) - 1;
+    }
+
+    /**
+     * @return A slice with the data of the element with the given ID, or <code>null</code> if absent.
+     */
+    public ByteBuf get(int id) {
+        if ((id < 1) || (id > MAX_ID)) {
+            return null;
+        }
+
+        if (this.values != null) {
+            ByteBuf value = this.values[id];
+            return value == null ? null : value.slice();
+        }
+
+        int entry = this.entry(id);
+        if (entry == 0) {
+            return null;
+        }
+
+        return this.raw.slice(this.raw.readerIndex() + (entry >>> 16), (entry & 0xffff) - 1);
+    }
+
+    /**
+     * @return The first byte of the element with the given ID or -1 if absent or empty; avoids creating a slice for
+     *         the common single byte elements (audio level, video orientation...).
+     */
+    public int getUnsignedByte(int id) {
+        if (this.values != null) {
+            ByteBuf value = ((id < 1) || (id > MAX_ID)) ? null : this.values[id];
+            return ((value == null) || !value.isReadable()) ? -1 : value.getUnsignedByte(value.readerIndex());
+        }
+
+        int entry = ((id < 1) || (id > MAX_ID)) ? 0 : this.entry(id);
+        if ((entry & 0xffff) <= 1) {
+            return -1;
+        }
+
+        return this.raw.getUnsignedByte(this.raw.readerIndex() + (entry >>> 16));
+    }
+
+    /**
+     * Add or replace an element.
+     *
+     * @param id    Element ID, in range [1;255].
+     * @param value Element data, up to 255 bytes; the buffer is referenced, not copied, so it must not be modified
+     *              until the packet is encoded.
+     */
+    public void set(int id, ByteBuf value) {
+        if ((id < 1) || (id > MAX_ID)) {
+            throw new IllegalArgumentException("Valid range for extension element ID is [1;255]");
+        }
+        if ((value == null) || (value.readableBytes() > 255)) {
+            throw new IllegalArgumentException("Extension element data must be non null and at most 255 bytes long");
+        }
+
+        this.materialize();
+        if (this.values[id] == null) {
+            this.count++;
+        }
+        this.values[id] = value;
+    }
+
+    public void set(int id, byte[] value) {
+        this.set(id, Unpooled.wrappedBuffer(value));
+    }
+
+    public void remove(int id) {
+        if ((id < 1) || (id > MAX_ID)) {
+            return;
+        }
+
+        this.materialize();
+        if (this.values[id] != null) {
+            this.values[id] = null;
+            this.count--;
+        }
+    }
+
+    /**
+     * @return Number of elements.
+     */
+    public int size() {
+        if (this.values != null) {
+            return this.count;
+        }
+
+        this.entry(1);
+        return this.count;
+    }
+
+    /**
+     * @return The "defined by profile" field to use when encoding. The two-byte form keeps the 4 "appbits" of the
+     *         profile it was received with.
+     */
+    public int getProfile() {
+        if (this.values == null) {
+            return this.profile;
+        }
+        if (this.fitsOneByteForm()) {
+            return ONE_BYTE_PROFILE;
+        }
+
+        return this.twoByte ? this.profile : TWO_BYTE_PROFILE;
+    }
+
+    /**
+     * @return Number of bytes {@link #encode(ByteBuf)} writes, always a multiple of 4.
+     */
+    public int getEncodedLength() {
+        if (this.values == null) {
+            return (this.raw.readableBytes() + 3) & ~3;
+        }
+
+        boolean oneByte = this.fitsOneByteForm();
+        int length = 0;
+        for (int id = 1; id <= MAX_ID; id++) {
+            if (this.values[id] != null) {
+                length += (oneByte ? 1 : 2) + this.values[id].readableBytes();
+            }
+        }
+
+        return (length + 3) & ~3;
+    }
+
+    /**
+     * Write the elements (not the 4 byte extension header) into the buffer, padded to a 32 bit boundary.
+     */
+    public void encode(ByteBuf buffer) {
+        int start = buffer.writerIndex();
+        if (this.values == null) {
+            // Untouched received extensions are written back as they came.
+            buffer.writeBytes(this.raw, this.raw.readerIndex(), this.raw.readableBytes());
+        } else {
+            boolean oneByte = this.fitsOneByteForm();
+            for (int id = 1; id <= MAX_ID; id++) {
+                ByteBuf value = this.values[id];
+                if (value == null) {
+                    continue;
+                }
+
+                if (oneByte) {
+                    buffer.writeByte((id << 4) | (value.readableBytes() - 1));
+                } else {
+                    buffer.writeByte(id);
+                    buffer.writeByte(value.readableBytes());
+                }
+                buffer.writeBytes(value, value.readerIndex(), value.readableBytes());
+            }
+        }
+
+        int written = buffer.writerIndex() - start;
+        buffer.writeZero(((written + 3) & ~3) - written);
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private int entry(int id) {
+        if (this.index == null) {
+            this.parse();
+        }
+
+        return this.index[id];
+    }
+
+    /**
+     * Single pass over the received bytes, recording where each element lives.
+     */
+    private void parse() {
+        this.index = new int[MAX_ID + 1];
+        int base = this.raw.readerIndex();
+        int end = this.raw.readableBytes();
+        int offset = 0;
+        while (offset < end) {
+            int b = this.raw.getUnsignedByte(base + offset);
+            if (b == 0) {
+                // Padding between elements.
+                offset++;
+                continue;
+            }
+
+            int id;
+            int length;
+            if (this.twoByte) {
+                if ((offset + 1) >= end) {
+                    break;
+                }
+                id = b;
+                length = this.raw.getUnsignedByte(base + offset + 1);
+                offset += 2;
+            } else {
+                id = b >>> 4;
+                if (id == 15) {
+                    // Reserved ID: stop processing.
+                    break;
+                } else if (id == 0) {
+                    // ID 0 is only ever padding, whatever its length says.
+                    offset++;
+                    continue;
+                }
+                length = (b & 0x0f) + 1;
+                offset += 1;
+            }
+
+            if (((offset + length) > end) || (offset > 0xffff)) {
+                // Truncated element (or way past any sane extension size); ignore it and whatever follows.
+                break;
+            }
+            if (this.index[id] == 0) {
+                this.count++;
+            }
+            this.index[id] = (offset << 16) | (length + 1);
+            offset += length;
+        }
+    }
+
+    /**
+     * Switch to the built form, keeping (slices of) whatever elements were received.
+     */
+    private void materialize() {
+        if (this.values != null) {
+            return;
+        }
+
+        this.values = new ByteBuf[MAX_ID + 1];
+        if (this.raw == null) {
+            return;
+        }
+
+        for (int id = 1; id <= MAX_ID; id++) {
+            int entry = this.entry(id);
+            if (entry != 0) {
+                this.values[id] = this.raw.slice(this.raw.readerIndex() + (entry >>> 16), (entry & 0xffff) - 1);
+            }
+        }
+    }
+
+    private boolean fitsOneByteForm() {
+        for (int id = MAX_ONE_BYTE_ID + 1; id <= MAX_ID; id++) {
+            if (this.values[id] != null) {
+                return false;
+            }
+        }
+        for (int id = 1; id <= MAX_ONE_BYTE_ID; id++) {
+            ByteBuf value = this.values[id];
+            if ((value != null) && ((value.readableBytes() < 1) || (value.readableBytes() > 16))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
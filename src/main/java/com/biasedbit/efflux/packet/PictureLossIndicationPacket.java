@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Picture Loss Indication payload-specific feedback message (RFC 4585, section 6.3.1). Carries no FCI.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PictureLossIndicationPacket extends AbstractFeedbackPacket {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FORMAT = 1;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public PictureLossIndicationPacket() {
+        super(Type.PAYLOAD_SPECIFIC_FEEDBACK, FORMAT);
+    }
+
+    // AbstractFeedbackPacket -----------------------------------------------------------------------------------------
+
+    @Override
+    protected int getFciLength() {
+        return 0;
+    }
+
+    @Override
+    protected void encodeFci(ByteBuf buffer) {
+        // no FCI
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("PictureLossIndicationPacket{")
+                .append("senderSsrc=").append(this.senderSsrc)
+                .append(", mediaSsrc=").append(this.mediaSsrc)
+                .append('}').toString();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Receiver Estimated Max Bitrate application layer feedback message (draft-alvestrand-rmcat-remb), carried as a
+ * payload-specific feedback message with FMT 15 and a "REMB" unique identifier. The media source SSRC of the common
+ * header is always zero; the sources the estimate applies to are listed in the FCI.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ReceiverEstimatedMaxBitratePacket extends AbstractFeedbackPacket {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FORMAT = 15;
+    public static final int IDENTIFIER = 0x52454d42; // "REMB"
+
+    private static final int MANTISSA_BITS = 18;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private long bitrate;
+    private final List<Long> ssrcs;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public ReceiverEstimatedMaxBitratePacket() {
+        super(Type.PAYLOAD_SPECIFIC_FEEDBACK, FORMAT);
+        this.ssrcs = new ArrayList<Long>();
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    /**
+     * @return The decoded packet or <code>null</code> if the application layer feedback is not a REMB message.
+     */
+    public static ReceiverEstimatedMaxBitratePacket decodeFci(ByteBuf buffer, int fciLength) {
+        if ((fciLength < 8) || (buffer.getInt(buffer.readerIndex()) != IDENTIFIER)) {
+            return null;
+        }
+
+        buffer.skipBytes(4);
+        int ssrcCount = buffer.readUnsignedByte();
+        if ((8 + (ssrcCount * 4)) > fciLength) {
+            return null;
+        }
+
+        ReceiverEstimatedMaxBitratePacket packet = new ReceiverEstimatedMaxBitratePacket();
+        packet.bitrate = decodeBitrate(buffer.readUnsignedMedium(), MANTISSA_BITS);
+        for (int i = 0; i < ssrcCount; i++) {
+            packet.ssrcs.add(buffer.readUnsignedInt());
+        }
+
+        return packet;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public void addSsrc(long ssrc) {
+        if ((ssrc < 0) || (ssrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        if (this.ssrcs.size() >= 255) {
+            throw new IllegalArgumentException("REMB can carry at most 255 SSRCs");
+        }
+        this.ssrcs.add(ssrc);
+    }
+
+    // AbstractFeedbackPacket -----------------------------------------------------------------------------------------
+
+    @Override
+    protected int getFciLength() {
+        return 8 + (this.ssrcs.size() * 4);
+    }
+
+    @Override
+    protected void encodeFci(ByteBuf buffer) {
+        buffer.writeInt(IDENTIFIER);
+        buffer.writeByte(this.ssrcs.size());
+        buffer.writeMedium((int) encodeBitrate(this.bitrate, MANTISSA_BITS));
+        for (Long ssrc : this.ssrcs) {
+            buffer.writeInt(ssrc.intValue());
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    /**
+     * @return Estimated maximum bitrate, in bits per second.
+     */
+    public long getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * @param bitrate Estimated maximum bitrate, in bits per second. Values that don't fit an 18 bit mantissa lose
+     *                precision (rounded down).
+     */
+    public void setBitrate(long bitrate) {
+        if (bitrate < 0) {
+            throw new IllegalArgumentException("Bitrate must be >= 0");
+        }
+        this.bitrate = bitrate;
+    }
+
+    public List<Long> getSsrcs() {
+        return Collections.unmodifiableList(this.ssrcs);
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("ReceiverEstimatedMaxBitratePacket{")
+                .append("senderSsrc=").append(this.senderSsrc)
+                .append(", bitrate=").append(this.bitrate)
+                .append(", ssrcs=").append(this.ssrcs)
+                .append('}').toString();
+    }
+}
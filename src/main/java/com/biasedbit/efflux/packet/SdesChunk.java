@@ -18,6 +18,7 @@ package com.biasedbit.efflux.packet;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -32,6 +33,9 @@ public class SdesChunk {
 
     private long ssrc;
     private List<SdesChunkItem> items;
+    private String cname;
+    private byte[] encodedItems;
+    private long fingerprint;
 
     // constructors ---------------------------------------------------------------------------------------------------
 
@@ -44,35 +48,64 @@ public class SdesChunk {
 
     // public static methods ------------------------------------------------------------------------------------------
 
+    /**
+     * Decodes a chunk lazily: only the CNAME is decoded straight away, the remaining items are kept in their encoded
+     * form and only decoded when first accessed. The {@linkplain #getFingerprint() fingerprint} of the chunk is
+     * computed along the way so that receivers can tell unchanged descriptions apart without decoding them.
+     *
+     * @param buffer Buffer positioned at the start of the chunk.
+     *
+     * @return Decoded chunk.
+     */
     public static SdesChunk decode(ByteBuf buffer) {
         SdesChunk chunk = new SdesChunk();
+        int start = buffer.readerIndex();
         chunk.ssrc = buffer.readUnsignedInt();
 
-        // Because some genious thought that 32bit alignment would be cool, we must count the amount of bytes remaining
-        // after decoding each SdesChunkItem so that when we read the end/null item, we know how many more bytes we
-        // must read to discard the padding bytes (hit the 32bit alignment barrier).
-        int read = 0;
+        // Walk the items without decoding them, only stopping at the CNAME. Because some genious thought that 32bit
+        // alignment would be cool, we must count the amount of bytes read so that when we read the end/null item, we
+        // know how many more bytes we must read to discard the padding bytes (hit the 32bit alignment barrier).
+        int itemsStart = buffer.readerIndex();
+        int itemsEnd;
         for (;;) {
             if (buffer.readableBytes() == 0) {
                 // Some implementations don't write the mandatory last item (end/null).
-                return chunk;
+                itemsEnd = buffer.readerIndex();
+                break;
             }
-            int remaining = buffer.readableBytes();
-            SdesChunkItem item = SdesChunkItems.decode(buffer);
-            read += remaining - buffer.readableBytes();
-            if (item.getType().equals(SdesChunkItem.Type.NULL)) {
-                int paddingBytes = 4 - (read % 4);
+
+            // Item types are still validated here, only their values are left encoded.
+            SdesChunkItem.Type type = SdesChunkItem.Type.fromByte(buffer.readByte());
+            if (type == SdesChunkItem.Type.NULL) {
+                itemsEnd = buffer.readerIndex() - 1;
+                int paddingBytes = 4 - ((buffer.readerIndex() - itemsStart) % 4);
                 if (paddingBytes != 4) {
                     buffer.skipBytes(paddingBytes);
                 }
-                return chunk;
+                break;
             }
 
-            chunk.addItem(item);
+            int length = buffer.readUnsignedByte();
+            if ((type == SdesChunkItem.Type.CNAME) && (chunk.cname == null)) {
+                chunk.cname = buffer.toString(buffer.readerIndex(), length, CharsetUtil.UTF_8);
+            } else if ((type == SdesChunkItem.Type.PRIV) &&
+                       ((length == 0) || (buffer.getUnsignedByte(buffer.readerIndex()) > (length - 1)))) {
+                throw new IllegalArgumentException("Invalid PRIV SDES item, prefix longer than item");
+            }
+            buffer.skipBytes(length);
         }
+
+        chunk.fingerprint = fingerprint(buffer, start, itemsEnd - start);
+        if (itemsEnd > itemsStart) {
+            chunk.encodedItems = new byte[itemsEnd - itemsStart];
+            buffer.getBytes(itemsStart, chunk.encodedItems);
+        }
+
+        return chunk;
     }
 
     public static ByteBuf encode(SdesChunk chunk) {
+        chunk.decodeItems();
         ByteBuf buffer;
         if (chunk.items == null) {
             // Allocate 8 bytes: 4 for ssrc, 1 for null item and other 3 null octets for 32 bit alignment
@@ -125,6 +158,8 @@ public class SdesChunk {
             throw new IllegalArgumentException("You don't need to manually add the null/end element");
         }
 
+        this.decodeItems();
+        this.fingerprint = 0;
         if (this.items == null) {
             this.items = new ArrayList<SdesChunkItem>();
         }
@@ -133,6 +168,11 @@ public class SdesChunk {
     }
 
     public String getItemValue(SdesChunkItem.Type type) {
+        if ((type == SdesChunkItem.Type.CNAME) && (this.encodedItems != null)) {
+            return this.cname;
+        }
+
+        this.decodeItems();
         if (this.items == null) {
             return null;
         }
@@ -146,6 +186,37 @@ public class SdesChunk {
         return null;
     }
 
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    /**
+     * 64 bit FNV-1a hash of a region of the buffer.
+     */
+    private static long fingerprint(ByteBuf buffer, int index, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = index; i < (index + length); i++) {
+            hash ^= buffer.getByte(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void decodeItems() {
+        if (this.encodedItems == null) {
+            return;
+        }
+
+        ByteBuf buffer = Unpooled.wrappedBuffer(this.encodedItems);
+        this.encodedItems = null;
+        this.cname = null;
+        this.items = new ArrayList<SdesChunkItem>();
+        while (buffer.readableBytes() > 0) {
+            this.items.add(SdesChunkItems.decode(buffer));
+        }
+    }
+
     // getters & setters ----------------------------------------------------------------------------------------------
 
     public long getSsrc() {
@@ -157,9 +228,21 @@ public class SdesChunk {
             throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
         }
         this.ssrc = ssrc;
+        this.fingerprint = 0;
+    }
+
+    /**
+     * Fingerprint of the encoded chunk (SSRC and items) this chunk was decoded from; two chunks with the same
+     * fingerprint carry the same description.
+     *
+     * @return Fingerprint of the encoded chunk or 0 if this chunk wasn't decoded or was modified since.
+     */
+    public long getFingerprint() {
+        return this.fingerprint;
     }
 
     public List<SdesChunkItem> getItems() {
+        this.decodeItems();
         if (this.items == null) {
             return null;
         }
@@ -168,6 +251,9 @@ public class SdesChunk {
     }
 
     public void setItems(List<SdesChunkItem> items) {
+        this.encodedItems = null;
+        this.cname = null;
+        this.fingerprint = 0;
         this.items = items;
     }
 
@@ -175,6 +261,7 @@ public class SdesChunk {
 
     @Override
     public String toString() {
+        this.decodeItems();
         return new StringBuilder()
                 .append("SdesChunk{")
                 .append("ssrc=").append(this.ssrc)
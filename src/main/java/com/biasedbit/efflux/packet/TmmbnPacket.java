@@ -0,0 +1,37 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+/**
+ * Temporary Maximum Media Stream Bit Rate Notification transport layer feedback message (RFC 5104, section 4.2.2),
+ * sent by a media sender in response to a {@link TmmbrPacket}. Same FCI layout as the request; entries list the
+ * current bounding set.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class TmmbnPacket extends TmmbrPacket {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FORMAT = 4;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public TmmbnPacket() {
+        super(FORMAT);
+    }
+}
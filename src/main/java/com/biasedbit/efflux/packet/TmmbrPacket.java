@@ -0,0 +1,160 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Temporary Maximum Media Stream Bit Rate Request transport layer feedback message (RFC 5104, section 4.2.1). The
+ * media source SSRC of the common header is unused (zero); the targeted sources are listed in the FCI entries.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class TmmbrPacket extends AbstractFeedbackPacket {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int FORMAT = 3;
+
+    private static final int MANTISSA_BITS = 17;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final List<Entry> entries;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public TmmbrPacket() {
+        this(FORMAT);
+    }
+
+    protected TmmbrPacket(int format) {
+        super(Type.TRANSPORT_FEEDBACK, format);
+        this.entries = new ArrayList<Entry>();
+    }
+
+    // public static methods ------------------------------------------------------------------------------------------
+
+    public static TmmbrPacket decodeFci(TmmbrPacket packet, ByteBuf buffer, int fciLength) {
+        for (int i = 0; i < (fciLength / 8); i++) {
+            long ssrc = buffer.readUnsignedInt();
+            long word = buffer.readUnsignedInt();
+            // MxTBR exponent (6b), MxTBR mantissa (17b), measured overhead (9b)
+            packet.entries.add(new Entry(ssrc, decodeBitrate(word >>> 9, MANTISSA_BITS), (int) (word & 0x1ff)));
+        }
+
+        return packet;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * @param ssrc             SSRC of the media sender the limit applies to.
+     * @param maxBitrate       Maximum total media bit rate, in bits per second. Values that don't fit a 17 bit
+     *                         mantissa lose precision (rounded down).
+     * @param measuredOverhead Per packet overhead, in bytes, in range [0;511].
+     */
+    public void addEntry(long ssrc, long maxBitrate, int measuredOverhead) {
+        if ((ssrc < 0) || (ssrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        if (maxBitrate < 0) {
+            throw new IllegalArgumentException("Bitrate must be >= 0");
+        }
+        if ((measuredOverhead < 0) || (measuredOverhead > 511)) {
+            throw new IllegalArgumentException("Valid range for measured overhead is [0;511]");
+        }
+        this.entries.add(new Entry(ssrc, maxBitrate, measuredOverhead));
+    }
+
+    // AbstractFeedbackPacket -----------------------------------------------------------------------------------------
+
+    @Override
+    protected int getFciLength() {
+        return this.entries.size() * 8;
+    }
+
+    @Override
+    protected void encodeFci(ByteBuf buffer) {
+        for (Entry entry : this.entries) {
+            buffer.writeInt((int) entry.ssrc);
+            buffer.writeInt((int) ((encodeBitrate(entry.maxBitrate, MANTISSA_BITS) << 9) | entry.measuredOverhead));
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(this.entries);
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append(this.getClass().getSimpleName()).append('{')
+                .append("senderSsrc=").append(this.senderSsrc)
+                .append(", entries=").append(this.entries)
+                .append('}').toString();
+    }
+
+    // public classes -------------------------------------------------------------------------------------------------
+
+    public static class Entry {
+
+        // internal vars ----------------------------------------------------------------------------------------------
+
+        private final long ssrc;
+        private final long maxBitrate;
+        private final int measuredOverhead;
+
+        // constructors -----------------------------------------------------------------------------------------------
+
+        public Entry(long ssrc, long maxBitrate, int measuredOverhead) {
+            this.ssrc = ssrc;
+            this.maxBitrate = maxBitrate;
+            this.measuredOverhead = measuredOverhead;
+        }
+
+        // getters & setters ------------------------------------------------------------------------------------------
+
+        public long getSsrc() {
+            return ssrc;
+        }
+
+        public long getMaxBitrate() {
+            return maxBitrate;
+        }
+
+        public int getMeasuredOverhead() {
+            return measuredOverhead;
+        }
+
+        // low level overrides ----------------------------------------------------------------------------------------
+
+        @Override
+        public String toString() {
+            return "{ssrc=" + this.ssrc + ", maxBitrate=" + this.maxBitrate + ", overhead=" + this.measuredOverhead +
+                   '}';
+        }
+    }
+}
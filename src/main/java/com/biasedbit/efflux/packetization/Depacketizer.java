@@ -0,0 +1,39 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+/**
+ * Turns the payload of a packet back into the bytes it contributes to a frame, for a payload format; the counterpart
+ * of {@link Packetizer}, used by {@link FrameAssembler}.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public interface Depacketizer {
+
+    /**
+     * Add the frame's bytes carried by a payload to a list, in order, without copying them: as slices of the payload
+     * or small buffers of their own (e.g. for headers the payload format strips). Every component added must hold a
+     * reference of its own (e.g. <code>payload.slice(...).retain()</code>), as all are released along with the frame.
+     *
+     * @param payload    Packet payload; its indexes must not be touched.
+     * @param components List to which the frame components are added.
+     */
+    void depacketize(ByteBuf payload, List<ByteBuf> components);
+}
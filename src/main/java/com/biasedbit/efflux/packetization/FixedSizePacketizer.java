@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+/**
+ * Cuts frames into consecutive chunks of at most the maximum payload size, setting the marker bit on the last one, for
+ * payload formats that need no payload headers.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FixedSizePacketizer implements Packetizer {
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int payloadType;
+    private final int maxPayloadSize;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param payloadType    Payload type of the packets.
+     * @param maxPayloadSize Maximum size of each packet's payload, in bytes.
+     */
+    public FixedSizePacketizer(int payloadType, int maxPayloadSize) {
+        if ((payloadType < 0) || (payloadType > 127)) {
+            throw new IllegalArgumentException("PayloadType must be in range [0;127]");
+        }
+        if (maxPayloadSize < 1) {
+            throw new IllegalArgumentException("Max payload size must be >= 1");
+        }
+
+        this.payloadType = payloadType;
+        this.maxPayloadSize = maxPayloadSize;
+    }
+
+    // Packetizer -----------------------------------------------------------------------------------------------------
+
+    @Override
+    public int packetize(ByteBuf frame, long timestamp, List<DataPacket> packets) {
+        int index = frame.readerIndex();
+        int end = frame.writerIndex();
+        int count = 0;
+        while (index < end) {
+            int length = Math.min(this.maxPayloadSize, end - index);
+            DataPacket packet = new DataPacket();
+            packet.setPayloadType(this.payloadType);
+            packet.setTimestamp(timestamp);
+            packet.setData(frame.slice(index, length));
+            index += length;
+            packet.setMarker(index == end);
+            packets.add(packet);
+            count++;
+        }
+
+        return count;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    public int getMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+}
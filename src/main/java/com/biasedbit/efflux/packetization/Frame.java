@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import io.netty.buffer.CompositeByteBuf;
+
+/**
+ * A frame put together from RTP packets by a {@link FrameAssembler}.
+ * <p/>
+ * Its data is a composite of the payload slices of its packets, as output by the {@link Depacketizer}. Incomplete
+ * frames (see {@link #isComplete()}) hold whatever was received, in order; it's up to the application to decide whether
+ * they're usable.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class Frame {
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final long ssrc;
+    private final long timestamp;
+    private final int payloadType;
+    private final CompositeByteBuf data;
+    private final int firstSequenceNumber;
+    private final int lastSequenceNumber;
+    private final int packets;
+    private final int missingPackets;
+    private final boolean complete;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public Frame(long ssrc, long timestamp, int payloadType, CompositeByteBuf data, int firstSequenceNumber,
+                 int lastSequenceNumber, int packets, int missingPackets, boolean complete) {
+        this.ssrc = ssrc;
+        this.timestamp = timestamp;
+        this.payloadType = payloadType;
+        this.data = data;
+        this.firstSequenceNumber = firstSequenceNumber;
+        this.lastSequenceNumber = lastSequenceNumber;
+        this.packets = packets;
+        this.missingPackets = missingPackets;
+        this.complete = complete;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public Frame retain() {
+        this.data.retain();
+        return this;
+    }
+
+    public boolean release() {
+        return this.data.release();
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("Frame{")
+                .append("ssrc=").append(this.ssrc)
+                .append(", timestamp=").append(this.timestamp)
+                .append(", PT=").append(this.payloadType)
+                .append(", SNs=[").append(this.firstSequenceNumber).append(';').append(this.lastSequenceNumber)
+                .append("], packets=").append(this.packets)
+                .append(", missing=").append(this.missingPackets)
+                .append(", complete=").append(this.complete)
+                .append(", data=").append(this.data.readableBytes()).append(" bytes")
+                .append('}').toString();
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public long getSsrc() {
+        return ssrc;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    public CompositeByteBuf getData() {
+        return data;
+    }
+
+    public int getFirstSequenceNumber() {
+        return firstSequenceNumber;
+    }
+
+    public int getLastSequenceNumber() {
+        return lastSequenceNumber;
+    }
+
+    /**
+     * @return Number of packets the frame was put together from.
+     */
+    public int getPackets() {
+        return packets;
+    }
+
+    /**
+     * @return Number of packets known to be missing: gaps in sequence numbers since the previous frame, up to the last
+     *         packet received. Packets missing at the end of a frame whose last packet was never received can't be
+     *         counted.
+     */
+    public int getMissingPackets() {
+        return missingPackets;
+    }
+
+    /**
+     * @return <code>true</code> if every packet of the frame, up to the one with the marker bit, was received.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
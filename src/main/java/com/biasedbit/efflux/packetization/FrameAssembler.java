@@ -0,0 +1,360 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.RtpSession;
+import com.biasedbit.efflux.session.RtpSessionDataListener;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Puts frames back together from the RTP packets received in a session, the receiving end of a {@link Packetizer}.
+ * <p/>
+ * Packets of each source are grouped into frames by RTP timestamp and ordered by (extended) sequence number; a frame
+ * is complete once every packet up to the one with the marker bit is in and nothing is missing since the previous
+ * frame. Frames are handed to the {@link FrameListener}s in order, as soon as they're complete: when a frame is stuck
+ * waiting for lost packets, the frames behind it wait as well, until it is older than the frame timeout (or too many
+ * frames pile up behind it) and is handed out as it is, flagged as incomplete and with a count of missing packets.
+ * Packets that arrive for frames that were already handed out are discarded and counted as late.
+ * <p/>
+ * Frame data is never copied: the {@link Depacketizer} slices the payload of each packet into the pieces that make up
+ * the frame, which end up as the components of a {@link CompositeByteBuf}.
+ * <p/>
+ * Timeouts are checked whenever a packet of the same source is received; for sources that may just stop sending,
+ * {@link #expire()} should also be called periodically. The assembler is added to sessions as a data listener and one
+ * instance can serve any number of sessions (sources are told apart by SSRC).
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FrameAssembler implements RtpSessionDataListener {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final long DEFAULT_FRAME_TIMEOUT = 200;
+    protected static final int MAX_PENDING_FRAMES = 32;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final Depacketizer depacketizer;
+    private final long frameTimeout;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final List<FrameListener> listeners;
+    private final Map<Long, Source> sources;
+    private final AtomicLong frames;
+    private final AtomicLong incompleteFrames;
+    private final AtomicLong latePackets;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public FrameAssembler(Depacketizer depacketizer) {
+        this(depacketizer, DEFAULT_FRAME_TIMEOUT);
+    }
+
+    /**
+     * @param depacketizer Depacketizer for the payload format of the frames.
+     * @param frameTimeout Time, in milliseconds, an incomplete frame is held waiting for its missing packets.
+     */
+    public FrameAssembler(Depacketizer depacketizer, long frameTimeout) {
+        if (depacketizer == null) {
+            throw new IllegalArgumentException("Depacketizer cannot be null");
+        }
+        if (frameTimeout <= 0) {
+            throw new IllegalArgumentException("Frame timeout must be > 0");
+        }
+
+        this.depacketizer = depacketizer;
+        this.frameTimeout = TimeUnit.MILLISECONDS.toNanos(frameTimeout);
+
+        this.listeners = new CopyOnWriteArrayList<FrameListener>();
+        this.sources = new HashMap<Long, Source>();
+        this.frames = new AtomicLong();
+        this.incompleteFrames = new AtomicLong();
+        this.latePackets = new AtomicLong();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public void addFrameListener(FrameListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeFrameListener(FrameListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Hands out every frame that timed out waiting for its missing packets, in all sources.
+     */
+    public synchronized void expire() {
+        long now = System.nanoTime();
+        for (Source source : this.sources.values()) {
+            this.emitReady(source, now);
+        }
+    }
+
+    /**
+     * Hands out every pending frame, complete or not, and forgets about all sources.
+     */
+    public synchronized void flush() {
+        for (Source source : this.sources.values()) {
+            while (!source.pending.isEmpty()) {
+                this.emit(source, source.pending.removeFirst());
+            }
+        }
+        this.sources.clear();
+    }
+
+    // RtpSessionDataListener -----------------------------------------------------------------------------------------
+
+    @Override
+    public synchronized void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+        Source source = this.sources.get(packet.getSsrc());
+        if (source == null) {
+            source = new Source(packet.getSsrc());
+            this.sources.put(packet.getSsrc(), source);
+        }
+        source.session = session;
+        source.participant = participant;
+
+        long sequence = source.extend(packet.getSequenceNumber());
+        long timestamp = packet.getTimestamp();
+        if ((source.hasNext && (sequence < source.next)) ||
+            (source.hasLastTimestamp && (timestamp == source.lastTimestamp))) {
+            this.latePackets.incrementAndGet();
+            return;
+        }
+
+        PendingFrame frame = source.getOrCreateFrame(timestamp, sequence, packet.getPayloadType());
+        if (frame.add(sequence, packet.getData()) && packet.hasMarker()) {
+            frame.marker = true;
+            frame.markerSequence = sequence;
+        }
+
+        this.emitReady(source, System.nanoTime());
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void emitReady(Source source, long now) {
+        while (!source.pending.isEmpty()) {
+            PendingFrame head = source.pending.getFirst();
+            boolean ready = head.isComplete(source) ||
+                            ((now - head.created) >= this.frameTimeout) ||
+                            (source.pending.size() > MAX_PENDING_FRAMES);
+            if (!ready) {
+                return;
+            }
+
+            source.pending.removeFirst();
+            this.emit(source, head);
+        }
+    }
+
+    private void emit(Source source, PendingFrame pending) {
+        boolean complete = pending.isComplete(source);
+        int missing = (int) (pending.last() - pending.first() + 1 - pending.entries.size());
+        if (source.hasNext) {
+            missing += (int) (pending.first() - source.next);
+        }
+
+        List<ByteBuf> components = new ArrayList<ByteBuf>();
+        for (Entry entry : pending.entries) {
+            this.depacketizer.depacketize(entry.payload, components);
+            entry.payload.release();
+        }
+        CompositeByteBuf data = Unpooled.compositeBuffer(Math.max(2, components.size()));
+        data.addComponents(components);
+        data.writerIndex(data.capacity());
+
+        source.next = pending.last() + 1;
+        source.hasNext = true;
+        source.lastTimestamp = pending.timestamp;
+        source.hasLastTimestamp = true;
+
+        this.frames.incrementAndGet();
+        if (!complete) {
+            this.incompleteFrames.incrementAndGet();
+        }
+
+        Frame frame = new Frame(source.ssrc, pending.timestamp, pending.payloadType, data,
+                                (int) (pending.first() & 0xffff), (int) (pending.last() & 0xffff),
+                                pending.entries.size(), missing, complete);
+        try {
+            for (FrameListener listener : this.listeners) {
+                listener.frameReceived(source.session, source.participant, frame);
+            }
+        } finally {
+            data.release();
+        }
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public Depacketizer getDepacketizer() {
+        return depacketizer;
+    }
+
+    public long getFrameTimeout() {
+        return TimeUnit.NANOSECONDS.toMillis(frameTimeout);
+    }
+
+    public long getFrames() {
+        return frames.get();
+    }
+
+    public long getIncompleteFrames() {
+        return incompleteFrames.get();
+    }
+
+    public long getLatePackets() {
+        return latePackets.get();
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    private static final class Source {
+
+        private final long ssrc;
+        private final LinkedList<PendingFrame> pending;
+        private RtpSession session;
+        private RtpParticipantInfo participant;
+        private boolean started;
+        private long highest;
+        private boolean hasNext;
+        private long next;
+        private boolean hasLastTimestamp;
+        private long lastTimestamp;
+
+        private Source(long ssrc) {
+            this.ssrc = ssrc;
+            this.pending = new LinkedList<PendingFrame>();
+        }
+
+        private long extend(int sequenceNumber) {
+            if (!this.started) {
+                // Start one cycle in so that packets reordered around the first one don't go negative.
+                this.started = true;
+                this.highest = 0x10000 + sequenceNumber;
+                return this.highest;
+            }
+
+            long extended = this.highest + (short) (sequenceNumber - (this.highest & 0xffff));
+            if (extended > this.highest) {
+                this.highest = extended;
+            }
+            return extended;
+        }
+
+        private PendingFrame getOrCreateFrame(long timestamp, long sequence, int payloadType) {
+            ListIterator<PendingFrame> iterator = this.pending.listIterator();
+            while (iterator.hasNext()) {
+                PendingFrame frame = iterator.next();
+                if (frame.timestamp == timestamp) {
+                    return frame;
+                }
+            }
+
+            // Keep frames ordered by sequence number; frames normally arrive in order, so look from the end.
+            PendingFrame frame = new PendingFrame(timestamp, payloadType);
+            iterator = this.pending.listIterator(this.pending.size());
+            while (iterator.hasPrevious()) {
+                if (iterator.previous().first() < sequence) {
+                    iterator.next();
+                    break;
+                }
+            }
+            iterator.add(frame);
+            return frame;
+        }
+    }
+
+    private static final class PendingFrame {
+
+        private final long timestamp;
+        private final int payloadType;
+        private final long created;
+        private final LinkedList<Entry> entries;
+        private boolean marker;
+        private long markerSequence;
+
+        private PendingFrame(long timestamp, int payloadType) {
+            this.timestamp = timestamp;
+            this.payloadType = payloadType;
+            this.created = System.nanoTime();
+            this.entries = new LinkedList<Entry>();
+        }
+
+        private long first() {
+            return this.entries.getFirst().sequence;
+        }
+
+        private long last() {
+            return this.entries.getLast().sequence;
+        }
+
+        private boolean add(long sequence, ByteBuf payload) {
+            ListIterator<Entry> iterator = this.entries.listIterator(this.entries.size());
+            while (iterator.hasPrevious()) {
+                long previous = iterator.previous().sequence;
+                if (previous == sequence) {
+                    // Duplicate.
+                    return false;
+                } else if (previous < sequence) {
+                    iterator.next();
+                    break;
+                }
+            }
+            iterator.add(new Entry(sequence, payload.retain()));
+            return true;
+        }
+
+        private boolean isComplete(Source source) {
+            if (!this.marker || (this.last() != this.markerSequence)) {
+                return false;
+            }
+            if ((this.last() - this.first() + 1) != this.entries.size()) {
+                return false;
+            }
+            return !source.hasNext || (this.first() == source.next);
+        }
+    }
+
+    private static final class Entry {
+
+        private final long sequence;
+        private final ByteBuf payload;
+
+        private Entry(long sequence, ByteBuf payload) {
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+    }
+}
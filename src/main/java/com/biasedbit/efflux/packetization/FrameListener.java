@@ -0,0 +1,35 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.RtpSession;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public interface FrameListener {
+
+    /**
+     * Called for every frame put together by a {@link FrameAssembler}, in timestamp order for each source.
+     *
+     * @param session     Session where the frame's packets were received.
+     * @param participant Participant that sent the frame.
+     * @param frame       Frame; its data is released once this method returns, so {@link Frame#retain()} it to hold
+     *                    on to it any longer.
+     */
+    void frameReceived(RtpSession session, RtpParticipantInfo participant, Frame frame);
+}
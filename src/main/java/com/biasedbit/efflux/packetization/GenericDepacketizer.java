@@ -0,0 +1,38 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+/**
+ * Depacketizer for payload formats without payload headers, where frames are just the concatenation of the payloads
+ * (the counterpart of {@link FixedSizePacketizer}).
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class GenericDepacketizer implements Depacketizer {
+
+    // Depacketizer ---------------------------------------------------------------------------------------------------
+
+    @Override
+    public void depacketize(ByteBuf payload, List<ByteBuf> components) {
+        if (payload.isReadable()) {
+            components.add(payload.slice().retain());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.List;
+
+/**
+ * H.264 depacketizer for the non-interleaved mode of RFC 6184 (the counterpart of {@link H264Packetizer}).
+ * <p/>
+ * Frames come out as access units in Annex B byte stream format, each NAL unit preceded by a 4 byte start code. Single
+ * NAL unit packets are passed through, STAP-A packets are split into their units and FU-A fragments are joined, with
+ * the NAL unit header rebuilt from the FU indicator and header of the start fragment. Packet types of the interleaved
+ * mode (STAP-B, MTAP, FU-B) are ignored.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class H264Depacketizer implements Depacketizer {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    // Depacketizer ---------------------------------------------------------------------------------------------------
+
+    @Override
+    public void depacketize(ByteBuf payload, List<ByteBuf> components) {
+        int index = payload.readerIndex();
+        int end = payload.writerIndex();
+        if (index >= end) {
+            return;
+        }
+
+        int indicator = payload.getUnsignedByte(index);
+        int type = indicator & 0x1f;
+        if ((type > 0) && (type < H264Packetizer.STAP_A)) {
+            components.add(Unpooled.wrappedBuffer(START_CODE));
+            components.add(payload.slice().retain());
+        } else if (type == H264Packetizer.STAP_A) {
+            index++;
+            while ((index + 2) <= end) {
+                int size = payload.getUnsignedShort(index);
+                index += 2;
+                if ((size == 0) || ((index + size) > end)) {
+                    // Malformed; keep whatever came before.
+                    return;
+                }
+                components.add(Unpooled.wrappedBuffer(START_CODE));
+                components.add(payload.slice(index, size).retain());
+                index += size;
+            }
+        } else if ((type == H264Packetizer.FU_A) && ((end - index) > 2)) {
+            int header = payload.getUnsignedByte(index + 1);
+            if ((header & 0x80) != 0) {
+                components.add(Unpooled.wrappedBuffer(START_CODE));
+                components.add(Unpooled.wrappedBuffer(new byte[]{(byte) ((indicator & 0xe0) | (header & 0x1f))}));
+            }
+            components.add(payload.slice(index + 2, end - index - 2).retain());
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * H.264 packetizer, for the non-interleaved mode of RFC 6184.
+ * <p/>
+ * Frames are access units in Annex B byte stream format (NAL units preceded by 0x000001 or 0x00000001 start codes); a
+ * frame without any start code is taken as a single NAL unit. Each NAL unit that doesn't fit a packet is fragmented
+ * into FU-A packets. Consecutive NAL units that fit a packet together (e.g. SPS, PPS and a small slice) are aggregated
+ * into STAP-A packets, unless aggregation is disabled; any other NAL unit goes in a packet of its own. The last packet
+ * of the access unit carries the marker bit.
+ * <p/>
+ * This class is not thread safe; use one instance per stream.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class H264Packetizer implements Packetizer {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    public static final int STAP_A = 24;
+    public static final int FU_A = 28;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int payloadType;
+    private final int maxPayloadSize;
+    private boolean aggregation;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private int[] units;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param payloadType    Payload type of the packets (dynamic, as negotiated).
+     * @param maxPayloadSize Maximum size of each packet's payload, in bytes.
+     */
+    public H264Packetizer(int payloadType, int maxPayloadSize) {
+        if ((payloadType < 0) || (payloadType > 127)) {
+            throw new IllegalArgumentException("PayloadType must be in range [0;127]");
+        }
+        if (maxPayloadSize < 3) {
+            throw new IllegalArgumentException("Max payload size must be >= 3");
+        }
+
+        this.payloadType = payloadType;
+        this.maxPayloadSize = maxPayloadSize;
+        this.aggregation = true;
+        this.units = new int[32];
+    }
+
+    // Packetizer -----------------------------------------------------------------------------------------------------
+
+    @Override
+    public int packetize(ByteBuf frame, long timestamp, List<DataPacket> packets) {
+        int count = this.findNalUnits(frame);
+        int[] units = this.units;
+
+        int initialSize = packets.size();
+        int i = 0;
+        while (i < count) {
+            int index = units[i * 2];
+            int length = units[(i * 2) + 1];
+            if (length > this.maxPayloadSize) {
+                this.fragment(frame, index, length, timestamp, packets);
+                i++;
+                continue;
+            }
+
+            // STAP-A header, then a 16 bit size before each unit.
+            int size = 3 + length;
+            int j = i + 1;
+            while (this.aggregation && (j < count) && ((size + 2 + units[(j * 2) + 1]) <= this.maxPayloadSize)) {
+                size += 2 + units[(j * 2) + 1];
+                j++;
+            }
+
+            if ((j - i) == 1) {
+                packets.add(this.createPacket(timestamp, frame.slice(index, length)));
+            } else {
+                packets.add(this.createPacket(timestamp, this.aggregate(frame, units, i, j)));
+            }
+            i = j;
+        }
+
+        if (packets.size() > initialSize) {
+            packets.get(packets.size() - 1).setMarker(true);
+        }
+        return packets.size() - initialSize;
+    }
+
+    // private static helpers -----------------------------------------------------------------------------------------
+
+    private static int findStartCode(ByteBuf buffer, int from, int to) {
+        for (int i = from; (i + 2) < to; i++) {
+            int b = buffer.getUnsignedByte(i + 2);
+            if (b > 1) {
+                // No start code can begin at i, i + 1 or i + 2.
+                i += 2;
+            } else if ((b == 1) && (buffer.getByte(i + 1) == 0) && (buffer.getByte(i) == 0)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static ByteBuf compose(ByteBuf... components) {
+        CompositeByteBuf composite = Unpooled.compositeBuffer(components.length);
+        composite.addComponents(components);
+        // Adding components doesn't move the writer index.
+        return composite.writerIndex(composite.capacity());
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    /**
+     * Find the NAL units in an Annex B byte stream and store the index and length of each, in pairs, in {@link #units}.
+     */
+    private int findNalUnits(ByteBuf frame) {
+        int end = frame.writerIndex();
+        int startCode = findStartCode(frame, frame.readerIndex(), end);
+        if (startCode < 0) {
+            return frame.isReadable() ? this.addUnit(0, frame.readerIndex(), frame.readableBytes()) : 0;
+        }
+
+        int count = 0;
+        while (startCode >= 0) {
+            int start = startCode + 3;
+            startCode = findStartCode(frame, start, end);
+            // Trailing zeros are either padding or the first byte of a 4 byte start code.
+            int unitEnd = (startCode < 0) ? end : startCode;
+            while ((unitEnd > start) && (frame.getByte(unitEnd - 1) == 0)) {
+                unitEnd--;
+            }
+            if (unitEnd > start) {
+                count = this.addUnit(count, start, unitEnd - start);
+            }
+        }
+
+        return count;
+    }
+
+    private int addUnit(int count, int index, int length) {
+        if (((count * 2) + 2) > this.units.length) {
+            this.units = Arrays.copyOf(this.units, this.units.length * 2);
+        }
+        this.units[count * 2] = index;
+        this.units[(count * 2) + 1] = length;
+        return count + 1;
+    }
+
+    private DataPacket createPacket(long timestamp, ByteBuf data) {
+        DataPacket packet = new DataPacket();
+        packet.setPayloadType(this.payloadType);
+        packet.setTimestamp(timestamp);
+        packet.setData(data);
+        return packet;
+    }
+
+    private void fragment(ByteBuf frame, int index, int length, long timestamp, List<DataPacket> packets) {
+        int header = frame.getUnsignedByte(index);
+        byte indicator = (byte) ((header & 0xe0) | FU_A);
+        int type = header & 0x1f;
+
+        // The NAL unit header itself isn't sent, it's rebuilt from the FU indicator and header.
+        int offset = index + 1;
+        int remaining = length - 1;
+        boolean first = true;
+        while (remaining > 0) {
+            int chunk = Math.min(this.maxPayloadSize - 2, remaining);
+            remaining -= chunk;
+            int fuHeader = type | (first ? 0x80 : 0) | ((remaining == 0) ? 0x40 : 0);
+            ByteBuf prefix = Unpooled.wrappedBuffer(new byte[]{indicator, (byte) fuHeader});
+            packets.add(this.createPacket(timestamp, compose(prefix, frame.slice(offset, chunk))));
+            offset += chunk;
+            first = false;
+        }
+    }
+
+    private ByteBuf aggregate(ByteBuf frame, int[] units, int from, int to) {
+        ByteBuf[] components = new ByteBuf[(to - from) * 2];
+        int forbidden = 0;
+        int nri = 0;
+        for (int k = from; k < to; k++) {
+            int index = units[k * 2];
+            int length = units[(k * 2) + 1];
+            int header = frame.getUnsignedByte(index);
+            forbidden |= header & 0x80;
+            nri = Math.max(nri, header & 0x60);
+
+            // The STAP-A header goes along with the first size.
+            int slot = (k - from) * 2;
+            components[slot] = (k == from) ?
+                               Unpooled.wrappedBuffer(new byte[]{0, (byte) (length >> 8), (byte) length}) :
+                               Unpooled.wrappedBuffer(new byte[]{(byte) (length >> 8), (byte) length});
+            components[slot + 1] = frame.slice(index, length);
+        }
+        components[0].setByte(0, forbidden | nri | STAP_A);
+
+        return compose(components);
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    public int getMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+
+    public boolean isAggregation() {
+        return aggregation;
+    }
+
+    /**
+     * @param aggregation Whether small consecutive NAL units are aggregated in STAP-A packets (true, the default) or
+     *                    sent in packets of their own.
+     */
+    public void setAggregation(boolean aggregation) {
+        this.aggregation = aggregation;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+/**
+ * Splits whole media frames into RTP packets that fit a maximum payload size, according to a payload format.
+ * <p/>
+ * Payloads are never copied: each packet's data is a slice of the frame or, when the payload format prepends headers
+ * to it, a composite of a few header bytes and slices of the frame. The frame's contents therefore must not change
+ * (nor its memory be released) until the packets are encoded; the only copy left is the one into the outgoing
+ * datagram, made by {@link DataPacket#encode()}. The future returned by {@link
+ * com.biasedbit.efflux.session.AbstractRtpSession#sendFrame(Packetizer, ByteBuf, long)} tells when that is.
+ * <p/>
+ * Packets come out with payload type, timestamp, marker and data set; SSRC and sequence number are left for the
+ * session (see {@link com.biasedbit.efflux.session.AbstractRtpSession#sendFrame(Packetizer, ByteBuf, long)}).
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public interface Packetizer {
+
+    /**
+     * Packetize the readable bytes of a frame, without touching its indexes.
+     *
+     * @param frame     Whole frame.
+     * @param timestamp RTP timestamp of the frame, which every packet carries.
+     * @param packets   List to which packets are added, in sending order.
+     *
+     * @return Number of packets added.
+     */
+    int packetize(ByteBuf frame, long timestamp, List<DataPacket> packets);
+}
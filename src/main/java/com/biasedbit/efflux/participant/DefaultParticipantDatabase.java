@@ -16,9 +16,11 @@
 
 package com.biasedbit.efflux.participant;
 
+import com.biasedbit.efflux.diagnostics.DiagnosticsListener;
 import com.biasedbit.efflux.packet.DataPacket;
 import com.biasedbit.efflux.packet.SdesChunk;
 import com.biasedbit.efflux.packet.SdesChunkItem;
+import com.biasedbit.efflux.util.ExpiryWheel;
 import com.biasedbit.efflux.util.TimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,11 +30,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * Participant database for sessions with any number of members.
+ * <p/>
+ * Members are removed once they've been silent (no RTP nor RTCP) for {@link #getTimeoutAfterNoPacketsReceived()}
+ * seconds or, after sending a BYE, for {@link #getTimeoutAfterByeAndNoPacketsReceived()} seconds. Explicitly added
+ * receivers are only ever removed after a BYE. Deadlines are kept in an {@link ExpiryWheel} and only re-evaluated when
+ * they come due (packet reception just updates the participant's last reception instant), so {@link #cleanup()} costs
+ * time proportional to the number of members due rather than to the size of the session and can run every second.
+ *
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
  */
 public class DefaultParticipantDatabase implements ParticipantDatabase {
@@ -40,8 +49,13 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
     // constants ------------------------------------------------------------------------------------------------------
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultParticipantDatabase.class);
-    private static final int TIMEOUT_AFTER_NO_PACKETS_RECEIVED = 60;
+    /**
+     * RFC 3550, section 6.3.5: M * Td, with M = 5 and the 5 second minimum reporting interval used by the sessions.
+     */
+    private static final int TIMEOUT_AFTER_NO_PACKETS_RECEIVED = 25;
     private static final int TIMEOUT_AFTER_BYE_AND_NO_PACKETS_RECEIVED = 5;
+    private static final long EXPIRY_TICK_DURATION = 1000;
+    private static final int EXPIRY_TICKS_PER_WHEEL = 64;
 
     // configuration --------------------------------------------------------------------------------------------------
 
@@ -49,6 +63,7 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
     private final ParticipantEventListener listener;
     private int timeoutAfterNoPacketsReceived;
     private int timeoutAfterByeAndNoPacketsReceived;
+    private DiagnosticsListener diagnostics;
 
     // internal vars --------------------------------------------------------------------------------------------------
 
@@ -61,6 +76,7 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
      * List of existing members.
      */
     private final Map<Long, RtpParticipant> members;
+    private final ExpiryWheel<RtpParticipant> expiryWheel;
     private final ReentrantReadWriteLock lock;
 
     // constructors ---------------------------------------------------------------------------------------------------
@@ -71,6 +87,8 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
 
         this.receivers = new ArrayList<RtpParticipant>();
         this.members = new HashMap<Long, RtpParticipant>();
+        this.expiryWheel = new ExpiryWheel<RtpParticipant>(EXPIRY_TICK_DURATION, EXPIRY_TICKS_PER_WHEEL,
+                                                           TimeUtils.now());
 
         this.lock = new ReentrantReadWriteLock();
 
@@ -187,10 +205,15 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
             if (participant == null) {
                 // Iterate through the receivers, trying to find a match for this participant through the RTP ports.
                 boolean isReceiver = false;
+                long now = TimeUtils.now();
                 for (RtpParticipant receiver : this.receivers) {
+                    if (this.isBound(receiver, now)) {
+                        // Already receiving another stream from this receiver, so this is a new source at its end.
+                        continue;
+                    }
                     if (receiver.getDataDestination().equals(origin)) {
                         // Will be added to the members list.
-                        receiver.getInfo().setSsrc(packet.getSsrc());
+                        this.bind(receiver, packet.getSsrc());
                         participant = receiver;
                         participant.setLastDataOrigin(origin);
                         isReceiver = true;
@@ -206,6 +229,7 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
                 }
 
                 this.members.put(packet.getSsrc(), participant);
+                this.memberAdded(participant);
 
                 if (created) {
                     this.listener.participantCreatedFromDataPacket(participant);
@@ -228,7 +252,12 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
                 // Iterate through the receivers, trying to find a match for this participant through the RTCP ports or
                 // CNAME.
                 boolean isReceiver = false;
+                long now = TimeUtils.now();
                 for (RtpParticipant receiver : this.receivers) {
+                    if (this.isBound(receiver, now)) {
+                        continue;
+                    }
+
                     // Verify if CNAME is the same
                     boolean equalCname = false;
                     String chunkCname = chunk.getItemValue(SdesChunkItem.Type.CNAME);
@@ -240,7 +269,7 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
                     // receivers list.
                     if (receiver.getControlDestination().equals(origin) || equalCname) {
                         // Will be added to the members list.
-                        receiver.getInfo().setSsrc(chunk.getSsrc());
+                        this.bind(receiver, chunk.getSsrc());
                         participant = receiver;
                         participant.setLastControlOrigin(origin);
                         participant.receivedSdes();
@@ -258,6 +287,7 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
                 }
 
                 this.members.put(chunk.getSsrc(), participant);
+                this.memberAdded(participant);
                 if (created) {
                     this.listener.participantCreatedFromSdesChunk(participant);
                 }
@@ -279,37 +309,162 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
         return this.members.size();
     }
 
+    @Override
+    public void byeReceived(RtpParticipant participant) {
+        this.lock.writeLock().lock();
+        try {
+            participant.byeReceived();
+            if (this.members.get(participant.getSsrc()) == participant) {
+                this.expiryWheel.schedule(participant, this.getExpiryDeadline(participant));
+                if (this.receivers.contains(participant)) {
+                    this.rebindToNewSource(participant);
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
     @Override
     public void cleanup() {
+        this.cleanup(TimeUtils.now());
+    }
+
+    /**
+     * Remove every member whose inactivity (or post-BYE) timeout has passed at the given instant.
+     *
+     * @param now Current instant.
+     */
+    public void cleanup(long now) {
         this.lock.writeLock().lock();
-        long now = TimeUtils.now();
         try {
-            Iterator<RtpParticipant> iterator = this.members.values().iterator();
-            while (iterator.hasNext()) {
-                RtpParticipant participant = iterator.next();
-                int timeout = this.timeoutAfterByeAndNoPacketsReceived * 1000;
-                if (participant.receivedBye() && TimeUtils
-                        .hasExpired(now, participant.getLastReceptionInstant(), timeout)) {
+            for (RtpParticipant participant : this.expiryWheel.expire(now)) {
+                if (this.members.get(participant.getSsrc()) != participant) {
+                    // SSRC changed meanwhile or no longer a member.
+                    continue;
+                }
+
+                long deadline = this.getExpiryDeadline(participant);
+                if (deadline > now) {
+                    // Heard from since it was scheduled.
+                    this.expiryWheel.schedule(participant, deadline);
+                    continue;
+                }
+
+                if (participant.receivedBye()) {
                     LOG.trace("Removed {} from session with id '{}' after reception of BYE and {}s of inactivity.",
                               participant, this.id, this.timeoutAfterByeAndNoPacketsReceived);
-                    iterator.remove();
-                    if (participant.isReceiver()) {
-                        this.receivers.remove(participant);
-                    }
-                    this.listener.participantDeleted(participant);
+                } else {
+                    LOG.trace("Removed {} from session with id '{}' after {}s of inactivity.",
+                              participant, this.id, this.timeoutAfterNoPacketsReceived);
+                }
+                this.members.remove(participant.getSsrc());
+                if (participant.isReceiver()) {
+                    this.receivers.remove(participant);
                 }
+                if (this.diagnostics != null) {
+                    this.diagnostics.participantExpired(this.id, participant, participant.receivedBye());
+                }
+                this.listener.participantDeleted(participant);
             }
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void memberAdded(RtpParticipant participant) {
+        // Whatever made it a member was just received.
+        participant.packetReceived();
+        this.expiryWheel.schedule(participant, this.getExpiryDeadline(participant));
+        if (this.diagnostics != null) {
+            this.diagnostics.participantCreated(this.id, participant);
+        }
+    }
+
+    /**
+     * @return Whether the receiver is a live member under its current SSRC, in which case packets from its address with
+     *         other SSRCs belong to other sources (e.g. the remote end sends audio and video in the same session). Once
+     *         its source sent a BYE or went silent, a new source from its address takes it over instead.
+     */
+    private boolean isBound(RtpParticipant receiver, long now) {
+        return (this.members.get(receiver.getSsrc()) == receiver) && !receiver.receivedBye() &&
+               !TimeUtils.hasExpired(now, receiver.getLastReceptionInstant(), this.timeoutAfterNoPacketsReceived);
+    }
+
+    /**
+     * Point a receiver at a new SSRC, dropping the member entry of the source it previously stood for. The caller adds
+     * it back as a member under the new SSRC.
+     */
+    private void bind(RtpParticipant receiver, long ssrc) {
+        if (this.members.get(receiver.getSsrc()) == receiver) {
+            this.members.remove(receiver.getSsrc());
+            this.expiryWheel.cancel(receiver);
+            receiver.sourceChanged();
+        }
+        receiver.getInfo().setSsrc(ssrc);
+    }
+
+    /**
+     * After the source of a receiver left, hand the receiver to a source from its address that is already a member, as
+     * when the remote end changes SSRC (RFC 3550, section 8.2) and the new SSRC is heard before the BYE for the old
+     * one.
+     */
+    private void rebindToNewSource(RtpParticipant receiver) {
+        RtpParticipant replaced = null;
+        for (RtpParticipant member : this.members.values()) {
+            if (member.isReceiver() || member.receivedBye()) {
+                continue;
+            }
+            if (receiver.getDataDestination().equals(member.getLastDataOrigin()) ||
+                receiver.getControlDestination().equals(member.getLastControlOrigin())) {
+                replaced = member;
+                break;
+            }
+        }
+        if (replaced == null) {
+            return;
+        }
+
+        this.members.remove(replaced.getSsrc());
+        this.expiryWheel.cancel(replaced);
+        this.bind(receiver, replaced.getSsrc());
+        if (replaced.getLastDataOrigin() != null) {
+            receiver.setLastDataOrigin(replaced.getLastDataOrigin());
+        }
+        if (replaced.getLastControlOrigin() != null) {
+            receiver.setLastControlOrigin(replaced.getLastControlOrigin());
+        }
+        this.members.put(receiver.getSsrc(), receiver);
+        this.memberAdded(receiver);
+        this.listener.participantDeleted(replaced);
+    }
+
+    private long getExpiryDeadline(RtpParticipant participant) {
+        if (participant.receivedBye()) {
+            long lastActivity = Math.max(participant.getLastReceptionInstant(), participant.getByeReceptionInstant());
+            return lastActivity + (this.timeoutAfterByeAndNoPacketsReceived * 1000L);
+        }
+
+        long deadline = participant.getLastReceptionInstant() + (this.timeoutAfterNoPacketsReceived * 1000L);
+        if (participant.isReceiver()) {
+            // Explicitly added receivers never time out, only check back on them to catch a BYE.
+            return Math.max(deadline, TimeUtils.now() + (this.timeoutAfterNoPacketsReceived * 1000L));
+        }
+        return deadline;
+    }
+
     // getters & setters ----------------------------------------------------------------------------------------------
 
     public int getTimeoutAfterNoPacketsReceived() {
         return timeoutAfterNoPacketsReceived;
     }
 
+    /**
+     * @param timeoutAfterNoPacketsReceived Seconds without receiving RTP or RTCP after which a member is removed;
+     *                                      only applies to deadlines computed from then on.
+     */
     public void setTimeoutAfterNoPacketsReceived(int timeoutAfterNoPacketsReceived) {
         this.timeoutAfterNoPacketsReceived = timeoutAfterNoPacketsReceived;
     }
@@ -321,4 +476,12 @@ public class DefaultParticipantDatabase implements ParticipantDatabase {
     public void setTimeoutAfterByeAndNoPacketsReceived(int timeoutAfterByeAndNoPacketsReceived) {
         this.timeoutAfterByeAndNoPacketsReceived = timeoutAfterByeAndNoPacketsReceived;
     }
+
+    public DiagnosticsListener getDiagnostics() {
+        return diagnostics;
+    }
+
+    public void setDiagnostics(DiagnosticsListener diagnostics) {
+        this.diagnostics = diagnostics;
+    }
 }
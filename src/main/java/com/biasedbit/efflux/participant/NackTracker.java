@@ -0,0 +1,252 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.participant;
+
+/**
+ * Receiver side loss tracking for a single remote stream, used to drive Generic NACK (RFC 4585) generation.
+ * <p/>
+ * Gaps in the sequence numbers are recorded in a fixed-size table indexed by sequence number. Each missing packet is
+ * NACKed right away and then retried once per estimated round trip time, up to a maximum number of attempts or until
+ * it becomes too old to be useful. Batches of NACKs are also rate limited so that a burst of loss doesn't turn into a
+ * burst of feedback.
+ * <p/>
+ * The round trip time is estimated from the time between NACKing a packet and receiving its retransmission.
+ * <p/>
+ * All the methods are synchronized; in practice they're always called from the thread that receives data packets so
+ * the lock is uncontended.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class NackTracker {
+
+    // constants ------------------------------------------------------------------------------------------------------
+
+    private static final int CAPACITY = 512;
+    private static final int MAX_RETRIES = 3;
+    private static final long MAX_AGE = 1000;
+    private static final long MIN_INTERVAL = 10;
+    private static final long INITIAL_ROUND_TRIP_TIME = 100;
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final int mask;
+    private int maxRetries;
+    private long maxAge;
+    private long minInterval;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final int[] sequenceNumbers;
+    private final long[] detectedAt;
+    private final long[] lastNackAt;
+    private final int[] retries;
+    private int missingCount;
+    private int highestSequenceNumber;
+    private long lastBatchAt;
+    private long roundTripTime;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    public NackTracker() {
+        this(CAPACITY);
+    }
+
+    public NackTracker(int capacity) {
+        if ((capacity <= 0) || ((capacity & (capacity - 1)) != 0)) {
+            throw new IllegalArgumentException("Capacity must be a power of 2");
+        }
+
+        this.mask = capacity - 1;
+        this.sequenceNumbers = new int[capacity];
+        this.detectedAt = new long[capacity];
+        this.lastNackAt = new long[capacity];
+        this.retries = new int[capacity];
+        this.highestSequenceNumber = -1;
+        this.roundTripTime = INITIAL_ROUND_TRIP_TIME;
+
+        this.maxRetries = MAX_RETRIES;
+        this.maxAge = MAX_AGE;
+        this.minInterval = MIN_INTERVAL;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Update the tracking state with a newly received packet.
+     *
+     * @param sequenceNumber Sequence number of the packet.
+     * @param now            Current instant, in milliseconds.
+     *
+     * @return <code>true</code> if this packet was previously considered lost (i.e. it is either late or a
+     *         retransmission), <code>false</code> otherwise.
+     */
+    public synchronized boolean packetReceived(int sequenceNumber, long now) {
+        sequenceNumber &= 0xffff;
+        if (this.highestSequenceNumber < 0) {
+            this.highestSequenceNumber = sequenceNumber;
+            return false;
+        }
+
+        int delta = (sequenceNumber - this.highestSequenceNumber) & 0xffff;
+        if (delta == 0) {
+            return false;
+        }
+
+        if (delta < 0x8000) {
+            // Newer packet; everything in between is missing. Huge jumps (a restarted sender, for instance) aren't
+            // worth recovering, so only the most recent gaps that fit the table are tracked.
+            int missing = delta - 1;
+            if (missing > this.sequenceNumbers.length) {
+                this.reset();
+                missing = 0;
+            }
+            for (int i = missing; i > 0; i--) {
+                this.markMissing((sequenceNumber - i) & 0xffff, now);
+            }
+            this.highestSequenceNumber = sequenceNumber;
+            return false;
+        }
+
+        // Older packet; was it one we were waiting for?
+        int slot = sequenceNumber & this.mask;
+        if ((this.detectedAt[slot] == 0) || (this.sequenceNumbers[slot] != sequenceNumber)) {
+            return false;
+        }
+
+        if (this.lastNackAt[slot] > 0) {
+            this.updateRoundTripTime(now - this.lastNackAt[slot]);
+        }
+        this.clearSlot(slot);
+        return true;
+    }
+
+    /**
+     * Collect the sequence numbers that should be NACKed now.
+     *
+     * @param now    Current instant, in milliseconds.
+     * @param output Array where the sequence numbers will be written.
+     *
+     * @return Number of sequence numbers written to <code>output</code>.
+     */
+    public synchronized int collectNacks(long now, int[] output) {
+        if ((this.missingCount == 0) || ((now - this.lastBatchAt) < this.minInterval)) {
+            return 0;
+        }
+
+        int count = 0;
+        for (int slot = 0; (slot < this.detectedAt.length) && (this.missingCount > 0); slot++) {
+            if (this.detectedAt[slot] == 0) {
+                continue;
+            }
+
+            if ((this.retries[slot] >= this.maxRetries) || ((now - this.detectedAt[slot]) > this.maxAge)) {
+                // Give up on this one.
+                this.clearSlot(slot);
+                continue;
+            }
+
+            if ((this.lastNackAt[slot] == 0) || ((now - this.lastNackAt[slot]) >= this.roundTripTime)) {
+                if (count == output.length) {
+                    break;
+                }
+                output[count++] = this.sequenceNumbers[slot];
+                this.lastNackAt[slot] = now;
+                this.retries[slot]++;
+            }
+        }
+
+        if (count > 0) {
+            this.lastBatchAt = now;
+        }
+
+        return count;
+    }
+
+    public synchronized void reset() {
+        for (int slot = 0; slot < this.detectedAt.length; slot++) {
+            this.clearSlot(slot);
+        }
+        this.missingCount = 0;
+        this.highestSequenceNumber = -1;
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private void markMissing(int sequenceNumber, long now) {
+        int slot = sequenceNumber & this.mask;
+        if (this.detectedAt[slot] == 0) {
+            this.missingCount++;
+        }
+        this.sequenceNumbers[slot] = sequenceNumber;
+        // Make sure an instant of 0 never gets confused with an empty slot.
+        this.detectedAt[slot] = Math.max(now, 1);
+        this.lastNackAt[slot] = 0;
+        this.retries[slot] = 0;
+    }
+
+    private void clearSlot(int slot) {
+        if (this.detectedAt[slot] != 0) {
+            this.missingCount--;
+        }
+        this.detectedAt[slot] = 0;
+        this.lastNackAt[slot] = 0;
+        this.retries[slot] = 0;
+    }
+
+    private void updateRoundTripTime(long sample) {
+        // Same smoothing factor as TCP's SRTT (RFC 6298).
+        this.roundTripTime = ((7 * this.roundTripTime) + Math.max(sample, 1)) / 8;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public synchronized int getMissingCount() {
+        return missingCount;
+    }
+
+    public synchronized long getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    public synchronized void setRoundTripTime(long roundTripTime) {
+        this.roundTripTime = roundTripTime;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public long getMinInterval() {
+        return minInterval;
+    }
+
+    public void setMinInterval(long minInterval) {
+        this.minInterval = minInterval;
+    }
+}
@@ -52,5 +52,13 @@ public interface ParticipantDatabase {
 
     int getParticipantCount();
 
+    /**
+     * Mark a participant as having left the session (BYE received), so that it can be removed once the post-BYE
+     * timeout elapses.
+     *
+     * @param participant Participant that sent the BYE.
+     */
+    void byeReceived(RtpParticipant participant);
+
     void cleanup();
 }
@@ -16,6 +16,7 @@
 
 package com.biasedbit.efflux.participant;
 
+import com.biasedbit.efflux.fec.FecDecoder;
 import com.biasedbit.efflux.packet.DataPacket;
 import com.biasedbit.efflux.packet.SdesChunk;
 import com.biasedbit.efflux.util.TimeUtils;
@@ -49,9 +50,15 @@ public class RtpParticipant {
     protected long byeReceptionInstant;
     protected int lastSequenceNumber;
     protected boolean receivedSdes;
+    protected long sdesFingerprint;
+    protected long lastSenderReport;
+    protected long lastSenderReportInstant;
+    protected volatile long roundTripDelay;
     protected final AtomicLong receivedByteCounter;
     protected final AtomicLong receivedPacketCounter;
     protected final AtomicInteger validPacketCounter;
+    protected NackTracker nackTracker;
+    protected FecDecoder fecDecoder;
 
     // constructors ---------------------------------------------------------------------------------------------------
 
@@ -60,6 +67,7 @@ public class RtpParticipant {
         this.info = info;
 
         this.lastSequenceNumber = -1;
+        this.roundTripDelay = -1;
         this.lastReceptionInstant = 0;
         this.byeReceptionInstant = 0;
 
@@ -145,14 +153,99 @@ public class RtpParticipant {
         this.byeReceptionInstant = TimeUtils.now();
     }
 
+    /**
+     * Forget the state of the source this participant stood for, as it now stands for another SSRC (e.g. the remote
+     * end changed SSRC after a collision, RFC 3550, section 8.2).
+     */
+    public void sourceChanged() {
+        this.byeReceptionInstant = 0;
+        this.lastSequenceNumber = -1;
+        this.receivedSdes = false;
+        this.sdesFingerprint = 0;
+        this.lastSenderReport = 0;
+        this.lastSenderReportInstant = 0;
+        this.validPacketCounter.set(0);
+        this.nackTracker = null;
+    }
+
     public void receivedSdes() {
         this.receivedSdes = true;
     }
 
+    /**
+     * Same as {@link #receivedSdes()}, also keeping the fingerprint of the SDES chunk received.
+     *
+     * @param fingerprint {@linkplain SdesChunk#getFingerprint() Fingerprint} of the chunk received.
+     *
+     * @return {@code false} if the fingerprint is known to match the last chunk received, meaning its contents don't
+     *         need to be looked at, {@code true} otherwise.
+     */
+    public boolean receivedSdes(long fingerprint) {
+        this.receivedSdes = true;
+        if ((fingerprint != 0) && (fingerprint == this.sdesFingerprint)) {
+            return false;
+        }
+
+        this.sdesFingerprint = fingerprint;
+        return true;
+    }
+
     public void packetReceived() {
         this.lastReceptionInstant = TimeUtils.now();
     }
 
+    /**
+     * Same as {@link #packetReceived()}, also accounting for the packet in the reception counters.
+     *
+     * @param payloadSize Size of the packet's payload, in bytes.
+     */
+    public void packetReceived(int payloadSize) {
+        this.packetReceived();
+        this.receivedPacketCounter.incrementAndGet();
+        this.receivedByteCounter.addAndGet(payloadSize);
+    }
+
+    /**
+     * Remember the last sender report received from this participant, to be echoed back (LSR/DLSR) in the reception
+     * reports about it.
+     *
+     * @param ntpTimestamp NTP timestamp of the sender report.
+     */
+    public void senderReportReceived(long ntpTimestamp) {
+        this.lastSenderReport = (ntpTimestamp >>> 16) & 0xffffffffL;
+        this.lastSenderReportInstant = TimeUtils.now();
+    }
+
+    /**
+     * Loss tracking state for this participant's stream, created on first use (only sessions with NACK generation
+     * enabled ever call this, always from the thread that receives data packets).
+     *
+     * @return The loss tracker for this participant.
+     */
+    public NackTracker getNackTracker() {
+        if (this.nackTracker == null) {
+            this.nackTracker = new NackTracker();
+        }
+
+        return this.nackTracker;
+    }
+
+    /**
+     * FEC recovery state for this participant's stream, created on first use (only sessions with a FEC payload type
+     * configured ever call this, always from the thread that receives data packets).
+     *
+     * @param payloadType Payload type of the parity packets.
+     *
+     * @return The FEC decoder for this participant.
+     */
+    public FecDecoder getFecDecoder(int payloadType) {
+        if (this.fecDecoder == null) {
+            this.fecDecoder = new FecDecoder(payloadType);
+        }
+
+        return this.fecDecoder;
+    }
+
     public boolean isReceiver() {
         return (this.dataDestination != null) && (this.controlDestination != null);
     }
@@ -199,6 +292,29 @@ public class RtpParticipant {
         return receivedSdes;
     }
 
+    /**
+     * @return Middle 32 bits of the NTP timestamp of the last sender report received from this participant, 0 if none.
+     */
+    public long getLastSenderReport() {
+        return lastSenderReport;
+    }
+
+    public long getLastSenderReportInstant() {
+        return lastSenderReportInstant;
+    }
+
+    /**
+     * @return Round trip delay to this participant, in milliseconds, as measured from its last reception report about
+     *         the local participant (RFC 3550, section 6.4.1); -1 if unknown.
+     */
+    public long getRoundTripDelay() {
+        return roundTripDelay;
+    }
+
+    public void setRoundTripDelay(long roundTripDelay) {
+        this.roundTripDelay = roundTripDelay;
+    }
+
     public SocketAddress getDataDestination() {
         return dataDestination;
     }
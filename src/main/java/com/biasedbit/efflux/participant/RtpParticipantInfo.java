@@ -21,6 +21,7 @@ import com.biasedbit.efflux.packet.SdesChunkItem;
 import com.biasedbit.efflux.packet.SdesChunkPrivItem;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
@@ -43,6 +44,7 @@ public class RtpParticipantInfo {
     private String note;
     private String privPrefix;
     private String priv;
+    private final AtomicInteger version = new AtomicInteger();
 
     // constructors ---------------------------------------------------------------------------------------------------
 
@@ -80,6 +82,7 @@ public class RtpParticipantInfo {
         boolean modified = false;
         if (this.ssrc != chunk.getSsrc()) {
             this.ssrc = chunk.getSsrc();
+            this.version.incrementAndGet();
             modified = true;
         }
         if (chunk.getItems() == null) {
@@ -170,6 +173,17 @@ public class RtpParticipantInfo {
         }
 
         this.ssrc = ssrc;
+        this.version.incrementAndGet();
+    }
+
+    /**
+     * Incremented every time any of the fields changes, so that encoded forms of this information (e.g. the SDES chunk
+     * sent on every RTCP interval) can be cached and only rebuilt when it changes.
+     *
+     * @return Current version of this information.
+     */
+    public int getVersion() {
+        return this.version.get();
     }
 
     public String getCname() {
@@ -178,6 +192,7 @@ public class RtpParticipantInfo {
 
     public void setCname(String cname) {
         this.cname = cname;
+        this.version.incrementAndGet();
     }
 
     public String getName() {
@@ -186,6 +201,7 @@ public class RtpParticipantInfo {
 
     public void setName(String name) {
         this.name = name;
+        this.version.incrementAndGet();
     }
 
     public String getEmail() {
@@ -194,6 +210,7 @@ public class RtpParticipantInfo {
 
     public void setEmail(String email) {
         this.email = email;
+        this.version.incrementAndGet();
     }
 
     public String getPhone() {
@@ -202,6 +219,7 @@ public class RtpParticipantInfo {
 
     public void setPhone(String phone) {
         this.phone = phone;
+        this.version.incrementAndGet();
     }
 
     public String getLocation() {
@@ -210,6 +228,7 @@ public class RtpParticipantInfo {
 
     public void setLocation(String location) {
         this.location = location;
+        this.version.incrementAndGet();
     }
 
     public String getTool() {
@@ -218,6 +237,7 @@ public class RtpParticipantInfo {
 
     public void setTool(String tool) {
         this.tool = tool;
+        this.version.incrementAndGet();
     }
 
     public String getNote() {
@@ -226,6 +246,7 @@ public class RtpParticipantInfo {
 
     public void setNote(String note) {
         this.note = note;
+        this.version.incrementAndGet();
     }
 
     public String getPrivPrefix() {
@@ -239,6 +260,7 @@ public class RtpParticipantInfo {
     public void setPriv(String prefix, String priv) {
         this.privPrefix = prefix;
         this.priv = priv;
+        this.version.incrementAndGet();
     }
 
     // low level overrides --------------------------------------------------------------------------------------------
@@ -132,6 +132,12 @@ public class SingleParticipantDatabase implements ParticipantDatabase {
         return 1;
     }
 
+    @Override
+    public void byeReceived(RtpParticipant participant) {
+        // The one participant is never removed, just flag it.
+        participant.byeReceived();
+    }
+
     @Override
     public void cleanup() {
         // Nothing to do here.
@@ -16,56 +16,96 @@
 
 package com.biasedbit.efflux.session;
 
+import com.biasedbit.efflux.capture.PcapCaptureHandler;
+import com.biasedbit.efflux.capture.FlightRecorderHandler;
+import com.biasedbit.efflux.capture.PacketFlightRecorder;
+import com.biasedbit.efflux.capture.PcapWriter;
+import com.biasedbit.efflux.diagnostics.DiagnosticsListener;
+import com.biasedbit.efflux.fec.FecDecoder;
+import com.biasedbit.efflux.fec.FecEncoder;
+import com.biasedbit.efflux.forwarding.ForwardingHandler;
+import com.biasedbit.efflux.forwarding.RtpForwarder;
 import com.biasedbit.efflux.network.ControlHandler;
 import com.biasedbit.efflux.network.ControlPacketDecoder;
 import com.biasedbit.efflux.network.ControlPacketEncoder;
 import com.biasedbit.efflux.network.DataHandler;
 import com.biasedbit.efflux.network.DataPacketDecoder;
 import com.biasedbit.efflux.network.DataPacketEncoder;
+import com.biasedbit.efflux.network.ImpairmentHandler;
+import com.biasedbit.efflux.network.NetworkImpairment;
+import com.biasedbit.efflux.network.PacketHistory;
+import com.biasedbit.efflux.network.PacketHistoryHandler;
+import com.biasedbit.efflux.network.PortPair;
+import com.biasedbit.efflux.network.PortPairPool;
+import com.biasedbit.efflux.packet.AbstractFeedbackPacket;
 import com.biasedbit.efflux.packet.AbstractReportPacket;
 import com.biasedbit.efflux.packet.AppDataPacket;
 import com.biasedbit.efflux.packet.ByePacket;
 import com.biasedbit.efflux.packet.CompoundControlPacket;
 import com.biasedbit.efflux.packet.ControlPacket;
 import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.GenericNackPacket;
+import com.biasedbit.efflux.packet.HeaderExtensionRegistry;
 import com.biasedbit.efflux.packet.ReceiverReportPacket;
 import com.biasedbit.efflux.packet.ReceptionReport;
 import com.biasedbit.efflux.packet.SdesChunk;
 import com.biasedbit.efflux.packet.SdesChunkItems;
 import com.biasedbit.efflux.packet.SenderReportPacket;
 import com.biasedbit.efflux.packet.SourceDescriptionPacket;
+import com.biasedbit.efflux.packetization.Packetizer;
+import com.biasedbit.efflux.participant.DefaultParticipantDatabase;
+import com.biasedbit.efflux.participant.NackTracker;
 import com.biasedbit.efflux.participant.ParticipantDatabase;
 import com.biasedbit.efflux.participant.ParticipantOperation;
 import com.biasedbit.efflux.participant.RtpParticipant;
 import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.util.TimeUtils;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.DefaultAddressedEnvelope;
 import io.netty.channel.DefaultMessageSizeEstimator;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.oio.OioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.DatagramPacket;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.oio.OioDatagramChannel;
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timeout;
 import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.Collections;
+import java.util.Queue;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Collection;
@@ -90,13 +130,28 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
     protected static final int MAX_COLLISIONS_BEFORE_CONSIDERING_LOOP = 3;
     protected static final boolean AUTOMATED_RTCP_HANDLING = true;
     protected static final boolean TRY_TO_UPDATE_ON_EVERY_SDES = true;
-    protected static final int PARTICIPANT_DATABASE_CLEANUP = 10;
+    protected static final int PARTICIPANT_DATABASE_CLEANUP = 1;
+    protected static final int WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+    protected static final int WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+    protected static final OutboundDropPolicy OUTBOUND_DROP_POLICY = OutboundDropPolicy.QUEUE;
+    protected static final boolean NACK_ENABLED = false;
+    protected static final int RETRANSMISSION_HISTORY_SIZE = 0;
+    protected static final int MAX_NACKS_PER_PACKET = 64;
+    protected static final int FEC_PAYLOAD_TYPE = -1;
+    protected static final int FEC_GROUP_SIZE = 0;
+    protected static final int FEC_INTERLEAVE = 1;
+    protected static final int MAX_PENDING_APP_DATA_SIZE = 1024;
+    protected static final boolean ACCEPT_NON_COMPOUND_RTCP = true;
+    protected static final int BYE_FLUSH_TIMEOUT = 200;
+    protected static final int DIAGNOSTICS_SAMPLING_INTERVAL = 100;
+    protected static final int FLIGHT_RECORDER_SIZE = 512;
 
     // configuration --------------------------------------------------------------------------------------------------
 
     protected final String id;
     protected final Set<Integer> payloadTypes = new HashSet<Integer>();
-    protected final HashedWheelTimer timer;
+    protected final HeaderExtensionRegistry headerExtensionRegistry = new HeaderExtensionRegistry();
+    protected HashedWheelTimer timer;
     protected String host;
     protected boolean useNio;
     protected boolean discardOutOfOrder;
@@ -107,6 +162,26 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
     protected boolean automatedRtcpHandling;
     protected boolean tryToUpdateOnEverySdes;
     protected int participantDatabaseCleanup;
+    protected int writeBufferHighWaterMark;
+    protected int writeBufferLowWaterMark;
+    protected OutboundDropPolicy outboundDropPolicy;
+    protected boolean nackEnabled;
+    protected int retransmissionHistorySize;
+    protected int fecPayloadType;
+    protected int fecGroupSize;
+    protected int fecInterleave;
+    protected int maxPendingAppDataSize;
+    protected boolean acceptNonCompoundRtcp;
+    protected int byeFlushTimeout;
+    protected PcapWriter pcapWriter;
+    protected PortPairPool portPairPool;
+    protected EventLoop eventLoop;
+    protected NetworkImpairment dataImpairment;
+    protected NetworkImpairment controlImpairment;
+    protected RtpForwarder forwarder;
+    protected DiagnosticsListener diagnostics;
+    protected int diagnosticsSamplingInterval;
+    protected int flightRecorderSize;
 
     // internal vars --------------------------------------------------------------------------------------------------
 
@@ -125,8 +200,30 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
     protected final AtomicInteger collisions;
     protected final AtomicLong sentByteCounter;
     protected final AtomicLong sentPacketCounter;
+    protected volatile long lastSentTimestamp;
+    protected final AtomicLong droppedPacketCounter;
+    protected final ChannelFutureListener dataWriteListener;
+    protected final AtomicLong retransmittedPacketCounter;
+    protected PacketHistory packetHistory;
+    protected FecEncoder fecEncoder;
+    protected final Queue<AppDataPacket> pendingAppData;
+    protected final List<LocalStream> localStreams;
+    protected final List<DataPacket> framePackets = new ArrayList<DataPacket>();
+    protected final AtomicInteger pendingAppDataSize;
+    protected ByteBuf encodedSdes;
+    protected long encodedSdesSsrc;
+    protected int encodedSdesVersion;
     protected int periodicRtcpSendInterval;
     protected final boolean internalTimer;
+    protected Promise<Boolean> initPromise;
+    protected Promise<Void> terminatePromise;
+    protected volatile ChannelFuture lastControlWrite;
+    protected PortPair portPair;
+    protected final AtomicInteger readSuspensions;
+    protected int packetsUntilSample;
+    protected long initStartTime;
+    protected long terminateStartTime;
+    protected PacketFlightRecorder flightRecorder;
 
     // constructors ---------------------------------------------------------------------------------------------------
 
@@ -153,13 +250,9 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         this.payloadTypes.addAll(payloadTypes);
         this.localParticipant = local;
         this.participantDatabase = this.createDatabase();
-        if (timer == null) {
-            this.timer = new HashedWheelTimer(1, TimeUnit.SECONDS);
-            this.internalTimer = true;
-        } else {
-            this.timer = timer;
-            this.internalTimer = false;
-        }
+        // Without a timer, one is created on initialisation, unless the session is pinned to an event loop.
+        this.timer = timer;
+        this.internalTimer = timer == null;
 
         this.running = new AtomicBoolean(false);
         this.dataListeners = new CopyOnWriteArrayList<RtpSessionDataListener>();
@@ -170,6 +263,23 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         this.collisions = new AtomicInteger(0);
         this.sentPacketCounter = new AtomicLong(0);
         this.sentByteCounter = new AtomicLong(0);
+        this.droppedPacketCounter = new AtomicLong(0);
+        this.retransmittedPacketCounter = new AtomicLong(0);
+        this.pendingAppData = new ConcurrentLinkedQueue<AppDataPacket>();
+        this.localStreams = new CopyOnWriteArrayList<LocalStream>();
+        this.pendingAppDataSize = new AtomicInteger();
+        this.readSuspensions = new AtomicInteger();
+        // Shared by every data write so that checking the outcome of a send doesn't cost an allocation per packet.
+        this.dataWriteListener = new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    droppedPacketCounter.incrementAndGet();
+                    LOG.trace("Failed to write RTP packet in session with id {}.", AbstractRtpSession.this.id,
+                              future.cause());
+                }
+            }
+        };
 
         this.useNio = USE_NIO;
         this.discardOutOfOrder = DISCARD_OUT_OF_ORDER;
@@ -180,6 +290,19 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         this.automatedRtcpHandling = AUTOMATED_RTCP_HANDLING;
         this.tryToUpdateOnEverySdes = TRY_TO_UPDATE_ON_EVERY_SDES;
         this.participantDatabaseCleanup = PARTICIPANT_DATABASE_CLEANUP;
+        this.writeBufferHighWaterMark = WRITE_BUFFER_HIGH_WATER_MARK;
+        this.writeBufferLowWaterMark = WRITE_BUFFER_LOW_WATER_MARK;
+        this.outboundDropPolicy = OUTBOUND_DROP_POLICY;
+        this.nackEnabled = NACK_ENABLED;
+        this.retransmissionHistorySize = RETRANSMISSION_HISTORY_SIZE;
+        this.fecPayloadType = FEC_PAYLOAD_TYPE;
+        this.fecGroupSize = FEC_GROUP_SIZE;
+        this.fecInterleave = FEC_INTERLEAVE;
+        this.maxPendingAppDataSize = MAX_PENDING_APP_DATA_SIZE;
+        this.acceptNonCompoundRtcp = ACCEPT_NON_COMPOUND_RTCP;
+        this.byeFlushTimeout = BYE_FLUSH_TIMEOUT;
+        this.diagnosticsSamplingInterval = DIAGNOSTICS_SAMPLING_INTERVAL;
+        this.flightRecorderSize = FLIGHT_RECORDER_SIZE;
     }
 
     // RtpSession -----------------------------------------------------------------------------------------------------
@@ -195,14 +318,72 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
     }
 
     @Override
-    public synchronized boolean init() {
-        if (this.running.get()) {
-            return true;
+    public boolean init() {
+        if ((this.eventLoop != null) && this.eventLoop.inEventLoop()) {
+            throw new IllegalStateException("Cannot block the session's own event loop, use initAsync() instead");
+        }
+        return Boolean.TRUE.equals(this.initAsync().awaitUninterruptibly().getNow());
+    }
+
+    @Override
+    public synchronized Future<Boolean> initAsync() {
+        if (this.initPromise != null) {
+            // Either running or still binding.
+            return this.initPromise;
+        }
+
+        final Promise<Boolean> promise = new DefaultPromise<Boolean>(GlobalEventExecutor.INSTANCE);
+        this.initPromise = promise;
+        this.initStartTime = System.nanoTime();
+
+        if (this.retransmissionHistorySize > 0) {
+            this.packetHistory = new PacketHistory(this.retransmissionHistorySize);
+        }
+        if (this.flightRecorderSize > 0) {
+            this.flightRecorder = new PacketFlightRecorder(this.flightRecorderSize);
         }
-        
+        if ((this.fecPayloadType >= 0) && (this.fecGroupSize > 0)) {
+            this.fecEncoder = new FecEncoder(this.fecPayloadType, this.fecGroupSize, this.fecInterleave);
+        }
+
+        if (this.portPairPool != null) {
+            // Adopt channels that are already bound instead of binding new ones.
+            PortPair pair = this.portPairPool.acquire();
+            if (pair == null) {
+                LOG.error("No port pair available in {} for session with id {}.", this.portPairPool, this.id);
+                this.initPromise = null;
+                this.completeInit(promise, false);
+                return promise;
+            }
+
+            this.portPair = pair;
+            this.localParticipant.setDataDestination(pair.getDataAddress());
+            this.localParticipant.setControlDestination(pair.getControlAddress());
+            try {
+                this.configureAdoptedChannel(pair.getDataChannel());
+                this.configureAdoptedChannel(pair.getControlChannel());
+            } catch (RuntimeException e) {
+                // Fail like a bind would, which hands the pair back to the pool.
+                this.bindComplete(promise, pair.getDataChannel().newFailedFuture(e),
+                                  pair.getControlChannel().newSucceededFuture(), null, null);
+                return promise;
+            }
+            this.initDataPipeline(pair.getDataChannel().pipeline());
+            this.initControlPipeline(pair.getControlChannel().pipeline());
+            this.bindComplete(promise, pair.getDataChannel().newSucceededFuture(),
+                              pair.getControlChannel().newSucceededFuture(), null, null);
+            return promise;
+        }
+
         Bootstrap dataBootstrap = new Bootstrap();
     	Bootstrap controlBootstrap = new Bootstrap();
-    	if (this.useNio) {
+    	if (this.eventLoop != null) {
+    	    // Both channels on the given loop, which the session doesn't own.
+    	    this.dataGroup = null;
+    	    this.controlGroup = null;
+    	    dataBootstrap.channel(NioDatagramChannel.class);
+    	    controlBootstrap.channel(NioDatagramChannel.class);
+    	} else if (this.useNio) {
     		this.dataGroup = new NioEventLoopGroup();
         	this.controlGroup = new NioEventLoopGroup();
     		dataBootstrap.channel(NioDatagramChannel.class);
@@ -215,87 +396,63 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
     		controlBootstrap.channel(OioDatagramChannel.class);
     	}
     	
-    	dataBootstrap.group(dataGroup)
+    	dataBootstrap.group(this.eventLoop != null ? this.eventLoop : this.dataGroup)
     		.option(ChannelOption.SO_SNDBUF, this.sendBufferSize)
     		.option(ChannelOption.SO_RCVBUF, this.receiveBufferSize)
     		.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, new DefaultMessageSizeEstimator(this.receiveBufferSize))
     		.handler(new ChannelInitializer<DatagramChannel>() {
 				@Override
 				protected void initChannel(DatagramChannel ch) throws Exception {
-					ChannelPipeline pipeline = ch.pipeline();
-	                pipeline.addLast("decoder", new DataPacketDecoder());
-	                pipeline.addLast("encoder", DataPacketEncoder.getInstance());
-	                pipeline.addLast("handler", new DataHandler(AbstractRtpSession.this));
+                    configureWriteBufferWaterMarks(ch.config());
+                    initDataPipeline(ch.pipeline());
 				}
     		});
     	
-        controlBootstrap.group(controlGroup)
+        controlBootstrap.group(this.eventLoop != null ? this.eventLoop : this.controlGroup)
 			.option(ChannelOption.SO_SNDBUF, this.sendBufferSize)
 			.option(ChannelOption.SO_RCVBUF, this.receiveBufferSize)
 			.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, new DefaultMessageSizeEstimator(this.receiveBufferSize))
 			.handler(new ChannelInitializer<DatagramChannel>() {
 				@Override
 				protected void initChannel(DatagramChannel ch) throws Exception {
-					ChannelPipeline pipeline = ch.pipeline();
-					pipeline.addLast("decoder", new ControlPacketDecoder());
-	                pipeline.addLast("encoder", ControlPacketEncoder.getInstance());
-	                pipeline.addLast("handler", new ControlHandler(AbstractRtpSession.this));
+                    configureWriteBufferWaterMarks(ch.config());
+                    initControlPipeline(ch.pipeline());
 				}
     		});
 
-        SocketAddress dataAddress = this.localParticipant.getDataDestination();
-        SocketAddress controlAddress = this.localParticipant.getControlDestination();
-
-        try {
-            this.dataChannel = (DatagramChannel) dataBootstrap.bind(dataAddress).sync().channel();
-        } catch (Exception e) {
-            LOG.error("Failed to bind data channel for session with id " + this.id, e);
-            dataGroup.shutdownGracefully().syncUninterruptibly();
-            controlGroup.shutdownGracefully().syncUninterruptibly();
-            return false;
-        }
-        try {
-            this.controlChannel = (DatagramChannel) controlBootstrap.bind(controlAddress).sync().channel();
-        } catch (Exception e) {
-            LOG.error("Failed to bind control channel for session with id " + this.id, e);
-            this.dataChannel.close().syncUninterruptibly();
-            dataGroup.shutdownGracefully().syncUninterruptibly();
-            controlGroup.shutdownGracefully().syncUninterruptibly();
-            return false;
-        }
-
-        LOG.debug("Data & Control channels bound for RtpSession with id {}.", this.id);
-        // Send first RTCP packet.
-        this.joinSession(this.localParticipant.getSsrc());
-        this.running.set(true);
+        // Bind both channels in parallel; whichever finishes last completes the initialisation.
+        final ChannelFuture dataBind = dataBootstrap.bind(this.localParticipant.getDataDestination());
+        final ChannelFuture controlBind = controlBootstrap.bind(this.localParticipant.getControlDestination());
+        final EventLoopGroup dataGroup = this.dataGroup;
+        final EventLoopGroup controlGroup = this.controlGroup;
+        ChannelFutureListener bindListener = new ChannelFutureListener() {
+            private final AtomicInteger pending = new AtomicInteger(2);
 
-        // Add the cleaner.
-        this.timer.newTimeout(new TimerTask() {
             @Override
-            public void run(Timeout timeout) throws Exception {
-                if (!running.get()) {
-                    return;
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (this.pending.decrementAndGet() == 0) {
+                    bindComplete(promise, dataBind, controlBind, dataGroup, controlGroup);
                 }
-
-                participantDatabase.cleanup();
-                timer.newTimeout(this, participantDatabaseCleanup, TimeUnit.SECONDS);
             }
-        }, this.participantDatabaseCleanup, TimeUnit.SECONDS);
-        // Add the RTCP generator.
-        if (this.automatedRtcpHandling) {
-            this.timer.newTimeout(this, this.updatePeriodicRtcpSendInterval(), TimeUnit.SECONDS);
-        }
-
-        if (this.internalTimer) {
-            this.timer.start();
-        }
+        };
+        dataBind.addListener(bindListener);
+        controlBind.addListener(bindListener);
 
-        return true;
+        return promise;
     }
 
     @Override
     public void terminate() {
-        this.terminate(RtpSessionEventListener.TERMINATE_CALLED);
+        Future<Void> future = this.terminate(RtpSessionEventListener.TERMINATE_CALLED);
+        // Waiting from within one of the session's own threads (e.g. a listener) would never return.
+        if (!this.isInSessionThread()) {
+            future.awaitUninterruptibly();
+        }
+    }
+
+    @Override
+    public Future<Void> terminateAsync() {
+        return this.terminate(RtpSessionEventListener.TERMINATE_CALLED);
     }
 
     @Override
@@ -313,32 +470,288 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         return this.sendDataPacket(packet);
     }
 
+    @Override
+    public boolean trySendData(byte[] data, long timestamp, boolean marked) {
+        if (!this.running.get()) {
+            return false;
+        }
+
+        DataPacket packet = new DataPacket();
+        // Other fields will be set by trySendDataPacket()
+        packet.setTimestamp(timestamp);
+        packet.setData(data);
+        packet.setMarker(marked);
+
+        return this.trySendDataPacket(packet);
+    }
+
     @Override
     public boolean sendDataPacket(DataPacket packet) {
         if (!this.running.get()) {
             return false;
         }
+
+        if ((this.outboundDropPolicy == OutboundDropPolicy.DROP) && !this.dataChannel.isWritable()) {
+            this.droppedPacketCounter.incrementAndGet();
+            return false;
+        }
+
+        return this.doSendDataPacket(packet);
+    }
+
+    @Override
+    public boolean trySendDataPacket(DataPacket packet) {
+        if (!this.running.get() || !this.dataChannel.isWritable()) {
+            return false;
+        }
+
+        return this.doSendDataPacket(packet);
+    }
+
+    /**
+     * Split a frame into packets with a packetizer and send them all, as {@link #sendDataPacket(DataPacket)} would.
+     * <p/>
+     * The packets point into the frame (see {@link Packetizer}) until they are encoded on the data channel's event
+     * loop, which happens later when called from any other thread. The frame must therefore not be modified nor
+     * released until the returned future completes.
+     *
+     * @param packetizer Packetizer for the frame's payload format.
+     * @param frame      Whole frame.
+     * @param timestamp  RTP timestamp of the frame.
+     *
+     * @return Future that completes once no packet refers to the frame anymore, with the number of packets sent;
+     *         lower than the number of packets the frame was split into if the session is not running or packets were
+     *         dropped.
+     */
+    public Future<Integer> sendFrame(Packetizer packetizer, ByteBuf frame, long timestamp) {
+        int sent = 0;
+        // Reused by every frame; senders of different streams just take turns.
+        synchronized (this.framePackets) {
+            try {
+                packetizer.packetize(frame, timestamp, this.framePackets);
+                for (DataPacket packet : this.framePackets) {
+                    if (this.sendDataPacket(packet)) {
+                        sent++;
+                    }
+                }
+            } finally {
+                this.framePackets.clear();
+            }
+        }
+
+        final Promise<Integer> promise = new DefaultPromise<Integer>(GlobalEventExecutor.INSTANCE);
+        DatagramChannel channel = this.dataChannel;
+        if ((sent == 0) || (channel == null) || channel.eventLoop().inEventLoop()) {
+            // Nothing was written or, from the loop itself, everything was encoded already.
+            promise.setSuccess(sent);
+            return promise;
+        }
+
+        // Writes from other threads are queued on the loop and encoded (i.e. copied) in order, so a task queued after
+        // them runs once they're all done with the frame.
+        final int result = sent;
+        try {
+            channel.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    promise.setSuccess(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The loop is gone, and so are the writes that were queued on it.
+            promise.setSuccess(result);
+        }
+        return promise;
+    }
+
+    /**
+     * Send a packet to a single participant rather than to every receiver in the session.
+     * <p/>
+     * Meant for components that produce a different stream for each participant (such as a conference mixer), so the
+     * packet's sequence number and timestamp are left untouched and numbering them is up to the caller. The SSRC is
+     * always set to the local participant's. These packets are not protected by FEC and, as each participant may get
+     * a different stream, are not counted in the sender statistics reported in RTCP sender reports.
+     *
+     * @param packet      Packet to send.
+     * @param participant Participant to send it to.
+     *
+     * @return <code>true</code> if the packet was written, <code>false</code> otherwise.
+     */
+    public boolean sendDataPacket(DataPacket packet, RtpParticipant participant) {
+        if (!this.running.get() || !participant.isReceiver() || participant.receivedBye()) {
+            return false;
+        }
+
+        if ((this.outboundDropPolicy == OutboundDropPolicy.DROP) && !this.dataChannel.isWritable()) {
+            this.droppedPacketCounter.incrementAndGet();
+            return false;
+        }
+
+        packet.setSsrc(this.localParticipant.getSsrc());
+        try {
+            this.writeToData(packet, this.resolveDataDestination(participant));
+        } catch (Exception e) {
+            LOG.error("Failed to send RTP packet to " + participant + " in session with id " + this.id + ".", e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Send an already encoded RTP packet to a single participant, as is. Meant for forwarding packets of other streams
+     * (see {@link RtpForwarder}), so neither the packet nor the sender statistics of this session are touched.
+     *
+     * @param packet      Encoded packet; its reference is handed over to the channel.
+     * @param participant Participant to send it to.
+     *
+     * @return <code>true</code> if the packet was written, <code>false</code> (and the packet released) otherwise.
+     */
+    public boolean forwardDataPacket(ByteBuf packet, RtpParticipant participant) {
+        SocketAddress destination = null;
+        if (this.running.get() && participant.isReceiver() && !participant.receivedBye()) {
+            destination = this.resolveDataDestination(participant);
+        }
+        if (destination == null) {
+            packet.release();
+            return false;
+        }
+
+        if ((this.outboundDropPolicy == OutboundDropPolicy.DROP) && !this.dataChannel.isWritable()) {
+            this.droppedPacketCounter.incrementAndGet();
+            packet.release();
+            return false;
+        }
+
+        this.dataChannel.writeAndFlush(new DatagramPacket(packet, (InetSocketAddress) destination))
+                .addListener(this.dataWriteListener);
+        return true;
+    }
+
+    /**
+     * Send an RTCP packet produced on behalf of another stream (see {@link RtpForwarder}) to a single participant,
+     * regardless of whether RTCP is handled automatically, as a regular compound packet: reports are followed by the
+     * SDES of the local participant; anything else (i.e. feedback) follows an empty receiver report and that SDES.
+     *
+     * @param packet      Packet to send.
+     * @param participant Participant to send it to.
+     *
+     * @return <code>true</code> if the packet was written, <code>false</code> otherwise.
+     */
+    public boolean forwardControlPacket(ControlPacket packet, RtpParticipant participant) {
+        if (!this.running.get()) {
+            return false;
+        }
+
+        if ((packet.getType() == ControlPacket.Type.SENDER_REPORT) ||
+            (packet.getType() == ControlPacket.Type.RECEIVER_REPORT)) {
+            ByteBuf sdes = this.getEncodedSdes(this.localParticipant.getSsrc()).duplicate();
+            this.internalSendControl(Unpooled.wrappedBuffer(packet.encode(), sdes), participant);
+            return true;
+        }
+
+        this.sendFeedback(packet, participant);
+        return true;
+    }
+
+    protected boolean doSendDataPacket(DataPacket packet) {
         if (!this.payloadTypes.contains(packet.getPayloadType()) && this.payloadTypes.size() == 1) {
         	packet.setPayloadType(this.payloadTypes.iterator().next());
         }
         		
         packet.setSsrc(this.localParticipant.getSsrc());
-        packet.setSequenceNumber(this.sequence.incrementAndGet());
+        if (this.fecEncoder == null) {
+            packet.setSequenceNumber(this.sequence.incrementAndGet());
+            this.internalSendData(packet);
+            this.packetSent(packet);
+            return true;
+        }
+
+        // Parity packets share the media stream's SSRC and sequence number space, so numbering and protection must
+        // happen atomically.
+        DataPacket parity;
+        synchronized (this.fecEncoder) {
+            packet.setSequenceNumber(this.sequence.incrementAndGet());
+            parity = this.fecEncoder.protect(packet);
+            if (parity != null) {
+                parity.setSsrc(packet.getSsrc());
+                parity.setSequenceNumber(this.sequence.incrementAndGet());
+            }
+        }
+
+        this.internalSendData(packet);
+        this.packetSent(packet);
+        if (parity != null) {
+            this.internalSendData(parity);
+            this.packetSent(parity);
+        }
+        return true;
+    }
+
+    /**
+     * Send a packet on one of the additional local streams; mirrors {@link #sendDataPacket(DataPacket)} and {@link
+     * #trySendDataPacket(DataPacket)}, without FEC protection.
+     */
+    protected boolean sendStreamPacket(LocalStream stream, DataPacket packet, boolean tryOnly) {
+        if (!this.running.get() || !this.localStreams.contains(stream)) {
+            return false;
+        }
+
+        if (!this.dataChannel.isWritable()) {
+            if (tryOnly) {
+                return false;
+            }
+            if (this.outboundDropPolicy == OutboundDropPolicy.DROP) {
+                this.droppedPacketCounter.incrementAndGet();
+                return false;
+            }
+        }
+
+        packet.setPayloadType(stream.getPayloadType());
+        packet.setSsrc(stream.getSsrc());
+        packet.setSequenceNumber(stream.nextSequenceNumber());
         this.internalSendData(packet);
+        stream.packetSent(packet);
         return true;
     }
 
+    /**
+     * Account for a sent packet in the sender statistics reported in RTCP sender reports.
+     */
+    protected void packetSent(DataPacket packet) {
+        this.incrementSentPackets();
+        this.incrementSentBytes(packet.getDataSize());
+        this.lastSentTimestamp = packet.getTimestamp();
+    }
+
     @Override
     public boolean sendControlPacket(ControlPacket packet) {
         // Only allow sending explicit RTCP packets if all the following conditions are met:
         // 1. session is running
         // 2. automated rtcp handling is disabled (except for APP_DATA packets) 
+        boolean appData = ControlPacket.Type.APP_DATA.equals(packet.getType());
         if (!this.running.get()) {
+            if (appData) {
+                ((AppDataPacket) packet).release();
+            }
             return false;
         }
 
-        if (ControlPacket.Type.APP_DATA.equals(packet.getType()) || !this.automatedRtcpHandling) {
+        if (appData && this.automatedRtcpHandling) {
+            // Piggyback on the next compound packet instead of sending a standalone (and non-compliant) APP packet;
+            // send that compound early if there's too much pending.
+            AppDataPacket appDataPacket = (AppDataPacket) packet;
+            this.pendingAppData.add(appDataPacket);
+            if (this.pendingAppDataSize.addAndGet(appDataPacket.getEncodedSize()) >= this.maxPendingAppDataSize) {
+                this.sendReports();
+            }
+            return true;
+        }
+
+        if (appData || !this.automatedRtcpHandling) {
             this.internalSendControl(packet);
+            if (appData) {
+                ((AppDataPacket) packet).release();
+            }
             return true;
         }
 
@@ -349,9 +762,11 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
     public boolean sendControlPacket(CompoundControlPacket packet) {
         if (this.running.get() && !this.automatedRtcpHandling) {
             this.internalSendControl(packet);
+            releaseAppData(packet.getControlPackets());
             return true;
         }
 
+        releaseAppData(packet.getControlPackets());
         return false;
     }
 
@@ -360,6 +775,94 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         return this.localParticipant;
     }
 
+    /**
+     * Add a local stream with a random SSRC; see {@link #addLocalStream(long, int)}.
+     */
+    public LocalStream addLocalStream(int payloadType) {
+        synchronized (this.localStreams) {
+            long ssrc;
+            do {
+                ssrc = RtpParticipantInfo.generateNewSsrc();
+            } while (this.isLocalSsrc(ssrc) || (this.participantDatabase.getParticipant(ssrc) != null));
+
+            return this.addLocalStream(ssrc, payloadType);
+        }
+    }
+
+    /**
+     * Add another local stream, with its own SSRC and sequence numbering, sent through this session's channels and
+     * described in its RTCP (sender reports and SDES, under the local participant's CNAME).
+     *
+     * @param ssrc        SSRC of the stream; must differ from the local participant's and every other stream's.
+     * @param payloadType Payload type of the packets sent on the stream.
+     *
+     * @return The new stream.
+     */
+    public LocalStream addLocalStream(long ssrc, int payloadType) {
+        if ((ssrc < 0) || (ssrc > 0xffffffffL)) {
+            throw new IllegalArgumentException("Valid range for SSRC is [0;0xffffffff]");
+        }
+        if ((payloadType < 0) || (payloadType > 127)) {
+            throw new IllegalArgumentException("PayloadType must be in range [0;127]");
+        }
+
+        synchronized (this.localStreams) {
+            if (this.isLocalSsrc(ssrc)) {
+                throw new IllegalArgumentException("SSRC " + ssrc + " is already used by a local stream");
+            }
+
+            LocalStream stream = new LocalStream(this, ssrc, payloadType);
+            this.localStreams.add(stream);
+            this.invalidateEncodedSdes();
+            return stream;
+        }
+    }
+
+    /**
+     * Remove a local stream, sending a BYE for its SSRC if the session is running.
+     *
+     * @param stream Stream to remove.
+     *
+     * @return {@code true} if the stream belonged to this session, {@code false} otherwise.
+     */
+    public boolean removeLocalStream(LocalStream stream) {
+        if (!this.localStreams.remove(stream)) {
+            return false;
+        }
+
+        this.invalidateEncodedSdes();
+        if (this.running.get()) {
+            this.leaveSession(stream.getSsrc(), "Stream removed.");
+        }
+        return true;
+    }
+
+    public List<LocalStream> getLocalStreams() {
+        return Collections.unmodifiableList(this.localStreams);
+    }
+
+    /**
+     * Stop reading from the data channel, so that RTP packets queue up in the socket's receive buffer (and are dropped
+     * by the OS once it fills up) rather than in the application. Reading resumes once every call to this method was
+     * matched by a call to {@link #resumeDataReading()}. Can be called from any thread, even before initialisation.
+     * <p/>
+     * Packets already read when this is called may still be delivered to listeners.
+     */
+    public void suspendDataReading() {
+        if (this.readSuspensions.getAndIncrement() == 0) {
+            this.updateDataAutoRead();
+        }
+    }
+
+    /**
+     * Undo a call to {@link #suspendDataReading()}.
+     */
+    public void resumeDataReading() {
+        if (this.readSuspensions.decrementAndGet() == 0) {
+            this.updateDataAutoRead();
+        }
+    }
+
     @Override
     public boolean addReceiver(RtpParticipant remoteParticipant) {
         return (remoteParticipant.getSsrc() != this.localParticipant.getSsrc()) &&
@@ -415,21 +918,49 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
 
     @Override
     public void dataPacketReceived(SocketAddress origin, DataPacket packet) {
+        // Called from the data channel's event loop; the sampling countdown is a plain field, racing at worst skews it.
+        DiagnosticsListener diagnostics = this.diagnostics;
+        if ((diagnostics == null) || (--this.packetsUntilSample > 0)) {
+            this.handleDataPacket(origin, packet, false);
+            return;
+        }
+
+        this.packetsUntilSample = this.diagnosticsSamplingInterval;
+        long start = System.nanoTime();
+        try {
+            this.handleDataPacket(origin, packet, false);
+        } finally {
+            diagnostics.packetProcessed(this.id, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param origin  Where the packet came from.
+     * @param packet  Received (or rebuilt) data packet.
+     * @param rebuilt Whether the packet was rebuilt from FEC rather than received from the network.
+     */
+    protected void handleDataPacket(SocketAddress origin, DataPacket packet, boolean rebuilt) {
         if (!this.running.get()) {
             return;
         }
 
-        if (!this.payloadTypes.contains(packet.getPayloadType())) {
+        boolean parity = (this.fecPayloadType >= 0) && (packet.getPayloadType() == this.fecPayloadType);
+        if (!parity && !this.payloadTypes.contains(packet.getPayloadType())) {
             // Silently discard packets of wrong payload.
+            this.dataDropped(PacketFlightRecorder.DropReason.PAYLOAD_TYPE, rebuilt);
             return;
         }
 
         if (packet.getSsrc() == this.localParticipant.getSsrc()) {
             // Sending data to ourselves? Consider this a loop and bail out!
             if (origin.equals(this.localParticipant.getDataDestination())) {
+                this.dataDropped(PacketFlightRecorder.DropReason.LOOP, rebuilt);
+                this.loopDetected(packet.getSsrc());
                 this.terminate(new Throwable("Loop detected: session is directly receiving its own packets"));
                 return;
             } else if (this.collisions.incrementAndGet() > this.maxCollisionsBeforeConsideringLoop) {
+                this.dataDropped(PacketFlightRecorder.DropReason.LOOP, rebuilt);
+                this.loopDetected(packet.getSsrc());
                 this.terminate(new Throwable("Loop detected after " + this.collisions.get() + " SSRC collisions"));
                 return;
             }
@@ -449,11 +980,24 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
                 this.joinSession(newSsrc);
             }
 
+            if (this.packetHistory != null) {
+                this.packetHistory.remove(oldSsrc);
+            }
+
             LOG.warn("SSRC collision with remote end detected on session with id {}; updating SSRC from {} to {}.",
                      this.id, oldSsrc, newSsrc);
+            if (this.diagnostics != null) {
+                this.diagnostics.ssrcCollided(this.id, oldSsrc, newSsrc);
+            }
             for (RtpSessionEventListener listener : this.eventListeners) {
                 listener.resolvedSsrcConflict(this, oldSsrc, newSsrc);
             }
+        } else if (!this.localStreams.isEmpty()) {
+            LocalStream stream = this.getLocalStream(packet.getSsrc());
+            if ((stream != null) && !this.resolveStreamSsrcConflict(origin, stream)) {
+                this.dataDropped(PacketFlightRecorder.DropReason.LOOP, rebuilt);
+                return;
+            }
         }
 
         // Associate the packet with a participant or create one.
@@ -461,39 +1005,160 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         if (participant == null) {
             // Depending on database implementation, it may chose not to create anything, in which case this packet
             // must be discarded.
+            this.dataDropped(PacketFlightRecorder.DropReason.UNKNOWN_SOURCE, rebuilt);
+            return;
+        }
+
+        // Packets that fill a previously detected gap (late or retransmitted) are never out of order.
+        boolean recovered = this.nackEnabled &&
+                            participant.getNackTracker().packetReceived(packet.getSequenceNumber(), TimeUtils.now());
+        recovered |= rebuilt;
+
+        if (parity) {
+            // Parity packets take up sequence numbers in the media stream but are never handed to the listeners.
+            if (!recovered && (participant.getLastSequenceNumber() < packet.getSequenceNumber())) {
+                participant.setLastSequenceNumber(packet.getSequenceNumber());
+            }
+            FecDecoder decoder = participant.getFecDecoder(this.fecPayloadType);
+            this.handleRebuiltPackets(origin, decoder.fecPacketReceived(packet));
+            if (this.nackEnabled) {
+                this.sendNacks(participant);
+            }
             return;
         }
 
         // Should the packet be discarded due to out of order SN?
-        if ((participant.getLastSequenceNumber() >= packet.getSequenceNumber()) && this.discardOutOfOrder) {
+        if (!recovered && (participant.getLastSequenceNumber() >= packet.getSequenceNumber()) &&
+            this.discardOutOfOrder) {
             LOG.trace("Discarded out of order packet from {} in session with id {} (last SN was {}, packet SN was {}).",
                       participant, this.id, participant.getLastSequenceNumber(), packet.getSequenceNumber());
+            this.dataDropped(PacketFlightRecorder.DropReason.OUT_OF_ORDER, rebuilt);
             return;
         }
 
         // Update last SN for participant.
-        participant.setLastSequenceNumber(packet.getSequenceNumber());
+        if (!recovered) {
+            participant.setLastSequenceNumber(packet.getSequenceNumber());
+        }
         participant.setLastDataOrigin(origin);
+        participant.packetReceived(packet.getDataSize());
 
         // Finally, dispatch the event to the data listeners.
         for (RtpSessionDataListener listener : this.dataListeners) {
             listener.dataPacketReceived(this, participant.getInfo(), packet);
         }
+
+        // Rebuilt packets are already known to the decoder.
+        if ((this.fecPayloadType >= 0) && !rebuilt) {
+            FecDecoder decoder = participant.getFecDecoder(this.fecPayloadType);
+            this.handleRebuiltPackets(origin, decoder.mediaPacketReceived(packet));
+        }
+
+        if (this.nackEnabled && !rebuilt) {
+            this.sendNacks(participant);
+        }
+    }
+
+    /**
+     * Same as the handling of collisions with the local participant's SSRC, for one of the local streams.
+     *
+     * @return {@code false} if a loop was detected (and the session terminated), {@code true} otherwise.
+     */
+    protected boolean resolveStreamSsrcConflict(SocketAddress origin, LocalStream stream) {
+        if (origin.equals(this.localParticipant.getDataDestination())) {
+            this.loopDetected(stream.getSsrc());
+            this.terminate(new Throwable("Loop detected: session is directly receiving its own packets"));
+            return false;
+        } else if (this.collisions.incrementAndGet() > this.maxCollisionsBeforeConsideringLoop) {
+            this.loopDetected(stream.getSsrc());
+            this.terminate(new Throwable("Loop detected after " + this.collisions.get() + " SSRC collisions"));
+            return false;
+        }
+
+        long oldSsrc = stream.getSsrc();
+        long newSsrc;
+        synchronized (this.localStreams) {
+            do {
+                newSsrc = RtpParticipantInfo.generateNewSsrc();
+            } while (this.isLocalSsrc(newSsrc) || (this.participantDatabase.getParticipant(newSsrc) != null));
+            stream.setSsrc(newSsrc);
+        }
+        this.invalidateEncodedSdes();
+
+        // http://tools.ietf.org/html/rfc3550#section-8.2
+        if (stream.getSentPackets() > 0) {
+            this.leaveSession(oldSsrc, "SSRC collision detected; rejoining with new SSRC.");
+        }
+        if (this.packetHistory != null) {
+            this.packetHistory.remove(oldSsrc);
+        }
+
+        LOG.warn("SSRC collision with remote end detected on session with id {}; updating SSRC of local stream " +
+                 "from {} to {}.", this.id, oldSsrc, newSsrc);
+        if (this.diagnostics != null) {
+            this.diagnostics.ssrcCollided(this.id, oldSsrc, newSsrc);
+        }
+        for (RtpSessionEventListener listener : this.eventListeners) {
+            listener.resolvedSsrcConflict(this, oldSsrc, newSsrc);
+        }
+        return true;
+    }
+
+    protected void handleRebuiltPackets(SocketAddress origin, List<DataPacket> packets) {
+        for (DataPacket packet : packets) {
+            LOG.trace("Recovered packet with SN {} from FEC in session with id {}.",
+                      packet.getSequenceNumber(), this.id);
+            this.handleDataPacket(origin, packet, true);
+        }
+    }
+
+    @Override
+    public void dataChannelWritabilityChanged(boolean writable) {
+        if (!this.running.get()) {
+            return;
+        }
+
+        LOG.trace("Data channel for session with id {} is now {}.", this.id, writable ? "writable" : "saturated");
+        for (RtpSessionEventListener listener : this.eventListeners) {
+            listener.writabilityChanged(this, writable);
+        }
     }
 
     // ControlPacketReceiver ------------------------------------------------------------------------------------------
 
     @Override
     public void controlPacketReceived(SocketAddress origin, CompoundControlPacket packet) {
+        try {
+            this.handleControlPacket(origin, packet);
+        } finally {
+            // APP payloads share the received datagram; listeners that want to keep them must retain them.
+            releaseAppData(packet.getControlPackets());
+        }
+    }
+
+    protected void handleControlPacket(SocketAddress origin, CompoundControlPacket packet) {
         if (!this.running.get()) {
             return;
         }
 
+        if (this.forwarder != null) {
+            this.forwarder.controlPacketReceived(this, packet);
+        }
+
         if (!this.automatedRtcpHandling) {
             for (RtpSessionControlListener listener : this.controlListeners) {
                 listener.controlPacketReceived(this, packet);
             }
 
+            // Retransmissions were explicitly enabled, so keep answering NACKs even with manual RTCP handling.
+            if (this.packetHistory != null) {
+                for (ControlPacket controlPacket : packet.getControlPackets()) {
+                    if (controlPacket.getType() == ControlPacket.Type.TRANSPORT_FEEDBACK) {
+                        this.handleTransportFeedback(origin, (AbstractFeedbackPacket) controlPacket);
+                    }
+                }
+            }
+
             return;
         }
 
@@ -513,6 +1178,18 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
                     for (RtpSessionControlListener listener : this.controlListeners) {
                         listener.appDataReceived(this, (AppDataPacket) controlPacket);
                     }
+                    break;
+                case TRANSPORT_FEEDBACK:
+                    this.handleTransportFeedback(origin, (AbstractFeedbackPacket) controlPacket);
+                    for (RtpSessionControlListener listener : this.controlListeners) {
+                        listener.feedbackReceived(this, (AbstractFeedbackPacket) controlPacket);
+                    }
+                    break;
+                case PAYLOAD_SPECIFIC_FEEDBACK:
+                    for (RtpSessionControlListener listener : this.controlListeners) {
+                        listener.feedbackReceived(this, (AbstractFeedbackPacket) controlPacket);
+                    }
+                    break;
                 default:
                     // do nothing, unknown case
             }
@@ -527,48 +1204,191 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
             return;
         }
 
-        final long currentSsrc = this.localParticipant.getSsrc();
-        final SourceDescriptionPacket sdesPacket = buildSdesPacket(currentSsrc);
-        this.participantDatabase.doWithReceivers(new ParticipantOperation() {
-            @Override
-            public void doWithParticipant(RtpParticipant participant) throws Exception {
-                AbstractReportPacket report = buildReportPacket(currentSsrc, participant);
-                internalSendControl(new CompoundControlPacket(report, sdesPacket));
+        try {
+            this.sendReports();
+        } finally {
+            // A failure to build or send reports must not stop the periodic RTCP generator.
+            if (this.running.get()) {
+                long interval = this.updatePeriodicRtcpSendInterval();
+                this.schedule(this, interval, TimeUnit.SECONDS);
+                if (this.diagnostics != null) {
+                    this.diagnostics.reportsSent(this.id, TimeUnit.SECONDS.toMillis(interval));
+                }
             }
-        });
-
-        if (!this.running.get()) {
-            return;
         }
-        this.timer.newTimeout(this, this.updatePeriodicRtcpSendInterval(), TimeUnit.SECONDS);
     }
 
     // protected helpers ----------------------------------------------------------------------------------------------
 
-    protected void handleReportPacket(SocketAddress origin, AbstractReportPacket abstractReportPacket) {
-        if (abstractReportPacket.getReceptionReportCount() == 0) {
-            return;
+    protected static void releaseAppData(List<ControlPacket> packets) {
+        for (ControlPacket packet : packets) {
+            if (packet instanceof AppDataPacket) {
+                ((AppDataPacket) packet).release();
+            }
+        }
+    }
+
+    /**
+     * Send a report and SDES compound packet to every receiver, carrying along any pending APP packets.
+     * <p/>
+     * Only the report is encoded per receiver; the sender reports of the {@linkplain #addLocalStream(int) local
+     * streams}, the SDES (see {@link #getEncodedSdes(long)}) and APP packets are encoded once and shared by every
+     * compound packet, which is assembled as a composite buffer.
+     */
+    protected void sendReports() {
+        final List<AppDataPacket> appData = new ArrayList<AppDataPacket>();
+        AppDataPacket appDataPacket;
+        while ((appDataPacket = this.pendingAppData.poll()) != null) {
+            this.pendingAppDataSize.addAndGet(-appDataPacket.getEncodedSize());
+            appData.add(appDataPacket);
+        }
+
+        final long currentSsrc = this.localParticipant.getSsrc();
+        final ByteBuf sdes = this.getEncodedSdes(currentSsrc);
+        final List<ByteBuf> streamReports = this.buildStreamReports();
+        final ByteBuf[] encodedAppData = new ByteBuf[appData.size()];
+        try {
+            for (int i = 0; i < encodedAppData.length; i++) {
+                encodedAppData[i] = appData.get(i).encode();
+            }
+
+            this.participantDatabase.doWithReceivers(new ParticipantOperation() {
+                @Override
+                public void doWithParticipant(RtpParticipant participant) throws Exception {
+                    ByteBuf[] buffers = new ByteBuf[2 + streamReports.size() + encodedAppData.length];
+                    int index = 0;
+                    buffers[index++] = buildReportPacket(currentSsrc, participant).encode();
+                    for (ByteBuf streamReport : streamReports) {
+                        buffers[index++] = streamReport.duplicate().retain();
+                    }
+                    buffers[index++] = sdes.duplicate();
+                    for (ByteBuf appDataBuffer : encodedAppData) {
+                        buffers[index++] = appDataBuffer.duplicate().retain();
+                    }
+                    internalSendControl(Unpooled.wrappedBuffer(buffers), participant);
+                }
+
+                @Override
+                public String toString() {
+                    return "sendReports() for session with id " + id;
+                }
+            });
+        } finally {
+            for (ByteBuf buffer : streamReports) {
+                buffer.release();
+            }
+            for (ByteBuf buffer : encodedAppData) {
+                if (buffer != null) {
+                    buffer.release();
+                }
+            }
+            for (AppDataPacket packet : appData) {
+                packet.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the encoded SDES packet describing the local participant, only encoding it again when its SSRC or any of
+     * its {@link RtpParticipantInfo} fields changed since the last call.
+     * <p/>
+     * The returned buffer is shared and can't be released; callers must only ever write {@linkplain
+     * ByteBuf#duplicate() duplicates} of it.
+     *
+     * @param currentSsrc SSRC to describe.
+     *
+     * @return Encoded SDES packet.
+     */
+    protected synchronized ByteBuf getEncodedSdes(long currentSsrc) {
+        int version = this.localParticipant.getInfo().getVersion();
+        if ((this.encodedSdes != null) && (this.encodedSdesSsrc == currentSsrc) &&
+            (this.encodedSdesVersion == version)) {
+            return this.encodedSdes;
+        }
+
+        // Read the version before building, so that a concurrent change is never cached as the current version.
+        this.encodedSdes = Unpooled.unreleasableBuffer(this.buildSdesPacket(currentSsrc).encode());
+        this.encodedSdesSsrc = currentSsrc;
+        this.encodedSdesVersion = version;
+        return this.encodedSdes;
+    }
+
+    /**
+     * Sender reports for every local stream that has sent data; reception reports go only in the session's own report.
+     */
+    protected List<ByteBuf> buildStreamReports() {
+        if (this.localStreams.isEmpty()) {
+            return Collections.emptyList();
         }
 
+        List<ByteBuf> reports = new ArrayList<ByteBuf>(this.localStreams.size());
+        long ntpTimestamp = TimeUtils.toNtpTimestamp(TimeUtils.now());
+        for (LocalStream stream : this.localStreams) {
+            if (stream.getSentPackets() == 0) {
+                continue;
+            }
+
+            SenderReportPacket report = new SenderReportPacket();
+            report.setSenderSsrc(stream.getSsrc());
+            report.setNtpTimestamp(ntpTimestamp);
+            report.setRtpTimestamp(stream.getLastSentTimestamp());
+            report.setSenderPacketCount(stream.getSentPackets());
+            report.setSenderOctetCount(stream.getSentBytes());
+            reports.add(report.encode());
+        }
+
+        return reports;
+    }
+
+    protected synchronized void invalidateEncodedSdes() {
+        this.encodedSdes = null;
+    }
+
+    protected boolean isLocalSsrc(long ssrc) {
+        return (ssrc == this.localParticipant.getSsrc()) || (this.getLocalStream(ssrc) != null);
+    }
+
+    protected LocalStream getLocalStream(long ssrc) {
+        for (LocalStream stream : this.localStreams) {
+            if (stream.getSsrc() == ssrc) {
+                return stream;
+            }
+        }
+
+        return null;
+    }
+
+    protected void handleReportPacket(SocketAddress origin, AbstractReportPacket abstractReportPacket) {
         RtpParticipant context = this.participantDatabase.getParticipant(abstractReportPacket.getSenderSsrc());
         if (context == null) {
             // Ignore; RTCP-SDES or RTP packet must first be received.
             return;
         }
 
-        for (ReceptionReport receptionReport : abstractReportPacket.getReceptionReports()) {
-            // Ignore all reception reports except for the one who pertains to the local participant (only data that
-            // matters here is the link between this participant and ourselves).
-            if (receptionReport.getSsrc() == this.localParticipant.getSsrc()) {
-                // TODO
-            }
-        }
+        context.packetReceived();
 
         // For sender reports, also handle the sender information.
         if (abstractReportPacket.getType().equals(ControlPacket.Type.SENDER_REPORT)) {
-            @SuppressWarnings("unused")
-			SenderReportPacket senderReport = (SenderReportPacket) abstractReportPacket;
-            // TODO
+            SenderReportPacket senderReport = (SenderReportPacket) abstractReportPacket;
+            context.senderReportReceived(senderReport.getNtpTimestamp());
+        }
+
+        if (abstractReportPacket.getReceptionReportCount() == 0) {
+            return;
+        }
+
+        for (ReceptionReport receptionReport : abstractReportPacket.getReceptionReports()) {
+            // Ignore all reception reports except for the ones that pertain to the local participant or its streams
+            // (only data that matters here is the link between this participant and ourselves).
+            if (this.isLocalSsrc(receptionReport.getSsrc()) &&
+                (receptionReport.getLastSenderReport() != 0)) {
+                long delay = TimeUtils.roundTripDelay(TimeUtils.toCompactNtpTimestamp(TimeUtils.now()),
+                                                      receptionReport.getLastSenderReport(),
+                                                      receptionReport.getDelaySinceLastSenderReport());
+                if (delay >= 0) {
+                    context.setRoundTripDelay(delay);
+                }
+            }
         }
     }
 
@@ -580,8 +1400,10 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
                 // must be discarded.
                 return;
             }
-            if (!participant.hasReceivedSdes() || this.tryToUpdateOnEverySdes) {
-                participant.receivedSdes();
+            participant.packetReceived();
+            // Chunks identical to the last one received from this participant aren't even decoded.
+            if ((!participant.hasReceivedSdes() || this.tryToUpdateOnEverySdes) &&
+                participant.receivedSdes(chunk.getFingerprint())) {
                 // If this participant wasn't created from an SDES packet, then update its participant's description.
                 if (participant.getInfo().updateFromSdesChunk(chunk)) {
                     for (RtpSessionEventListener listener : this.eventListeners) {
@@ -596,7 +1418,7 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         for (Long ssrc : packet.getSsrcList()) {
             RtpParticipant participant = this.participantDatabase.getParticipant(ssrc);
             if (participant != null) {
-                participant.byeReceived();
+                this.participantDatabase.byeReceived(participant);
                 for (RtpSessionEventListener listener : eventListeners) {
                     listener.participantLeft(this, participant);
                 }
@@ -606,6 +1428,79 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
                   packet.getSsrcList(), this.id, packet. getReasonForLeaving());
     }
 
+    protected void handleTransportFeedback(SocketAddress origin, AbstractFeedbackPacket packet) {
+        if ((this.packetHistory == null) || (packet.getFormat() != GenericNackPacket.FORMAT)) {
+            return;
+        }
+
+        long ssrc = packet.getMediaSsrc();
+        if (!this.isLocalSsrc(ssrc)) {
+            return;
+        }
+
+        RtpParticipant participant = this.participantDatabase.getParticipant(packet.getSenderSsrc());
+        SocketAddress destination = (participant == null) ? null : this.resolveDataDestination(participant);
+        if (destination == null) {
+            LOG.trace("Ignoring NACK from unknown participant with SSRC {} in session with id {}.",
+                      packet.getSenderSsrc(), this.id);
+            return;
+        }
+
+        for (int sequenceNumber : ((GenericNackPacket) packet).getLostSequenceNumbers()) {
+            ByteBuf encoded = this.packetHistory.get(ssrc, sequenceNumber);
+            if (encoded == null) {
+                continue;
+            }
+
+            this.dataChannel.writeAndFlush(new DatagramPacket(encoded, (InetSocketAddress) destination))
+                    .addListener(this.dataWriteListener);
+            this.retransmittedPacketCounter.incrementAndGet();
+        }
+    }
+
+    protected void sendNacks(RtpParticipant participant) {
+        NackTracker tracker = participant.getNackTracker();
+        if (tracker.getMissingCount() == 0) {
+            return;
+        }
+
+        int[] lost = new int[MAX_NACKS_PER_PACKET];
+        int count = tracker.collectNacks(TimeUtils.now(), lost);
+        if (count == 0) {
+            return;
+        }
+
+        long currentSsrc = this.localParticipant.getSsrc();
+        GenericNackPacket nack = new GenericNackPacket();
+        nack.setSenderSsrc(currentSsrc);
+        nack.setMediaSsrc(participant.getSsrc());
+        for (int i = 0; i < count; i++) {
+            nack.addLostSequenceNumber(lost[i]);
+        }
+
+        this.sendFeedback(nack, participant);
+    }
+
+    /**
+     * Send a feedback packet in a regular compound packet (RFC 4585, section 3.1), after an empty receiver report and
+     * the {@linkplain #getEncodedSdes(long) cached SDES} of the local participant.
+     */
+    protected void sendFeedback(ControlPacket feedback, RtpParticipant participant) {
+        long currentSsrc = this.localParticipant.getSsrc();
+        ReceiverReportPacket receiverReport = new ReceiverReportPacket();
+        receiverReport.setSenderSsrc(currentSsrc);
+        ByteBuf sdes = this.getEncodedSdes(currentSsrc).duplicate();
+        this.internalSendControl(Unpooled.wrappedBuffer(receiverReport.encode(), sdes, feedback.encode()), participant);
+    }
+
+    protected SocketAddress resolveDataDestination(RtpParticipant participant) {
+        if (participant.getDataDestination() != null) {
+            return participant.getDataDestination();
+        }
+
+        return participant.getLastDataOrigin();
+    }
+
     protected abstract ParticipantDatabase createDatabase();
 
     protected void internalSendData(final DataPacket packet) {
@@ -653,6 +1548,22 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         }
     }
 
+    /**
+     * Send an already encoded (compound) RTCP packet to a participant. The buffer is always released.
+     */
+    protected void internalSendControl(ByteBuf packet, RtpParticipant participant) {
+        if (!participant.isReceiver() || participant.receivedBye()) {
+            packet.release();
+            return;
+        }
+
+        try {
+            this.writeToControl(packet, participant.getControlDestination());
+        } catch (Exception e) {
+            LOG.error("Failed to send RTCP compound packet to {} in session with id {}.", participant, this.id);
+        }
+    }
+
     protected void internalSendControl(final ControlPacket packet) {
         this.participantDatabase.doWithReceivers(new ParticipantOperation() {
             @Override
@@ -696,15 +1607,32 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
     }
 
     protected void writeToData(DataPacket packet, SocketAddress destination) {
-        this.dataChannel.writeAndFlush(new DefaultAddressedEnvelope<DataPacket, SocketAddress>(packet, destination));
+        this.dataChannel.writeAndFlush(new DefaultAddressedEnvelope<DataPacket, SocketAddress>(packet, destination))
+                .addListener(this.dataWriteListener);
     }
 
     protected void writeToControl(ControlPacket packet, SocketAddress destination) {
-        this.controlChannel.writeAndFlush(new DefaultAddressedEnvelope<ControlPacket, SocketAddress>(packet, destination));
+        // Every write consumes a reference to APP data, released by the encoder.
+        if (packet instanceof AppDataPacket) {
+            ((AppDataPacket) packet).retain();
+        }
+        this.lastControlWrite = this.controlChannel
+                .writeAndFlush(new DefaultAddressedEnvelope<ControlPacket, SocketAddress>(packet, destination));
     }
 
     protected void writeToControl(CompoundControlPacket packet, SocketAddress destination) {
-        this.controlChannel.writeAndFlush(new DefaultAddressedEnvelope<CompoundControlPacket, SocketAddress>(packet, destination));
+        for (ControlPacket controlPacket : packet.getControlPackets()) {
+            if (controlPacket instanceof AppDataPacket) {
+                ((AppDataPacket) controlPacket).retain();
+            }
+        }
+        this.lastControlWrite = this.controlChannel
+                .writeAndFlush(new DefaultAddressedEnvelope<CompoundControlPacket, SocketAddress>(packet, destination));
+    }
+
+    protected void writeToControl(ByteBuf packet, SocketAddress destination) {
+        this.lastControlWrite = this.controlChannel
+                .writeAndFlush(new DatagramPacket(packet, (InetSocketAddress) destination));
     }
 
     protected void joinSession(long currentSsrc) {
@@ -721,7 +1649,16 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         this.internalSendControl(compoundPacket);
     }
 
-    protected void leaveSession(final long currentSsrc, String motive) {
+    protected void leaveSession(long currentSsrc, String motive) {
+        this.leaveSession(currentSsrc, Collections.<Long>emptyList(), motive);
+    }
+
+    /**
+     * @param currentSsrc SSRC that leaves the session.
+     * @param otherSsrcs  Other SSRCs (e.g. of local streams) that leave along with it, listed in the same BYE.
+     * @param motive      Reason for leaving.
+     */
+    protected void leaveSession(long currentSsrc, Collection<Long> otherSsrcs, String motive) {
         if (!this.automatedRtcpHandling) {
             return;
         }
@@ -729,11 +1666,22 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         final SourceDescriptionPacket sdesPacket = this.buildSdesPacket(currentSsrc);
         final ByePacket byePacket = new ByePacket();
         byePacket.addSsrc(currentSsrc);
+        for (Long ssrc : otherSsrcs) {
+            byePacket.addSsrc(ssrc);
+        }
         byePacket.setReasonForLeaving(motive);
 
         this.internalSendControl(new CompoundControlPacket(sdesPacket, byePacket));
     }
 
+    /**
+     * Build the report about a participant: a sender report if anything was sent (see {@link #packetSent(DataPacket)})
+     * or a receiver report otherwise, with a reception report block if that participant sent data.
+     * <p/>
+     * The RTP timestamp of a sender report is the one of the last packet sent, not extrapolated to the instant of its
+     * NTP timestamp as RFC 3550 asks for, as the session doesn't know the clock rate of its payload types. Receivers
+     * syncing streams with it will be off by up to the time since that packet was sent.
+     */
     protected AbstractReportPacket buildReportPacket(long currentSsrc, RtpParticipant context) {
         AbstractReportPacket packet;
         if (this.getSentPackets() == 0) {
@@ -742,8 +1690,8 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         } else {
             // Otherwise, build a sender report.
             SenderReportPacket senderPacket = new SenderReportPacket();
-            senderPacket.setNtpTimestamp(0); // FIXME
-            senderPacket.setRtpTimestamp(System.currentTimeMillis()); // FIXME
+            senderPacket.setNtpTimestamp(TimeUtils.toNtpTimestamp(TimeUtils.now()));
+            senderPacket.setRtpTimestamp(this.lastSentTimestamp);
             senderPacket.setSenderPacketCount(this.getSentPackets());
             senderPacket.setSenderOctetCount(this.getSentBytes());
             packet = senderPacket;
@@ -754,7 +1702,11 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         if (context.getReceivedPackets() > 0) {
             ReceptionReport block = new ReceptionReport();
             block.setSsrc(context.getInfo().getSsrc());
-            block.setDelaySinceLastSenderReport(0); // FIXME
+            if (context.getLastSenderReport() != 0) {
+                long delay = TimeUtils.now() - context.getLastSenderReportInstant();
+                block.setLastSenderReport(context.getLastSenderReport());
+                block.setDelaySinceLastSenderReport(Math.min((delay << 16) / 1000, 0xffffffffL));
+            }
             block.setFractionLost((short) 0); // FIXME
             block.setExtendedHighestSequenceNumberReceived(0); // FIXME
             block.setInterArrivalJitter(0); // FIXME
@@ -803,28 +1755,333 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         }
         sdesPacket.addItem(chunk);
 
+        // Every local stream is bound to the local participant through its CNAME (RFC 3550, section 6.5.1).
+        for (LocalStream stream : this.localStreams) {
+            SdesChunk streamChunk = new SdesChunk(stream.getSsrc());
+            streamChunk.addItem(SdesChunkItems.createCnameItem(info.getCname()));
+            sdesPacket.addItem(streamChunk);
+        }
+
         return sdesPacket;
     }
 
-    protected synchronized void terminate(Throwable cause) {
+    /**
+     * Schedule a task on the session's event loop when pinned to one, on the timer otherwise.
+     */
+    protected void schedule(final TimerTask task, long delay, TimeUnit unit) {
+        if (this.eventLoop == null) {
+            this.timer.newTimeout(task, delay, unit);
+            return;
+        }
+
+        this.eventLoop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run(null);
+                } catch (Throwable t) {
+                    LOG.warn("Periodic task failed in session with id {}.", id, t);
+                }
+            }
+        }, delay, unit);
+    }
+
+    protected void initDataPipeline(ChannelPipeline pipeline) {
+        pipeline.addLast("decoder", new DataPacketDecoder(this.id, this.diagnostics));
+        pipeline.addLast("encoder", DataPacketEncoder.getInstance());
+        pipeline.addLast("handler", new DataHandler(this));
+        if (this.forwarder != null) {
+            // Right before the decoder, so forwarded packets are never decoded unless they're also delivered here.
+            pipeline.addBefore("decoder", "forwarding", new ForwardingHandler(this.forwarder, this));
+        }
+        if (this.flightRecorder != null) {
+            // Below forwarding, so forwarded packets are recorded too, but above impairment, which plays the network.
+            pipeline.addFirst("recorder", new FlightRecorderHandler(this.flightRecorder, false));
+        }
+        if (this.packetHistory != null) {
+            // Closest to the socket, so it sees the encoded packets.
+            pipeline.addFirst("history", new PacketHistoryHandler(this.packetHistory));
+        }
+        if (this.dataImpairment != null) {
+            // Below the history, so retransmissions keep the original packets even if these were lost.
+            pipeline.addFirst("impairment", new ImpairmentHandler(this.dataImpairment));
+        }
+        if (this.pcapWriter != null) {
+            // On the wire side of impairment: captures show outgoing packets impaired, incoming ones as received.
+            pipeline.addFirst("capture", new PcapCaptureHandler(this.pcapWriter));
+        }
+    }
+
+    protected void initControlPipeline(ChannelPipeline pipeline) {
+        pipeline.addLast("decoder", new ControlPacketDecoder(this.acceptNonCompoundRtcp, this.id, this.diagnostics));
+        pipeline.addLast("encoder", ControlPacketEncoder.getInstance());
+        pipeline.addLast("handler", new ControlHandler(this));
+        if (this.flightRecorder != null) {
+            pipeline.addFirst("recorder", new FlightRecorderHandler(this.flightRecorder, true));
+        }
+        if (this.controlImpairment != null) {
+            pipeline.addFirst("impairment", new ImpairmentHandler(this.controlImpairment));
+        }
+        if (this.pcapWriter != null) {
+            pipeline.addFirst("capture", new PcapCaptureHandler(this.pcapWriter));
+        }
+    }
+
+    /**
+     * Apply to a channel adopted from a {@link PortPairPool} the same options a channel bound by the session gets.
+     */
+    protected void configureAdoptedChannel(DatagramChannel channel) {
+        channel.config().setOption(ChannelOption.SO_SNDBUF, this.sendBufferSize);
+        channel.config().setOption(ChannelOption.SO_RCVBUF, this.receiveBufferSize);
+        channel.config().setMessageSizeEstimator(new DefaultMessageSizeEstimator(this.receiveBufferSize));
+        this.configureWriteBufferWaterMarks(channel.config());
+    }
+
+    /**
+     * Apply the write buffer water marks in an order that never leaves the high mark below the low one, which Netty
+     * rejects (the channel starts off with a 32KB low mark).
+     */
+    protected void configureWriteBufferWaterMarks(ChannelConfig config) {
+        if (this.writeBufferHighWaterMark < config.getWriteBufferLowWaterMark()) {
+            config.setWriteBufferLowWaterMark(this.writeBufferLowWaterMark);
+            config.setWriteBufferHighWaterMark(this.writeBufferHighWaterMark);
+        } else {
+            config.setWriteBufferHighWaterMark(this.writeBufferHighWaterMark);
+            config.setWriteBufferLowWaterMark(this.writeBufferLowWaterMark);
+        }
+    }
+
+    /**
+     * Called once both channels are done binding, from one of their event loops.
+     */
+    protected synchronized void bindComplete(Promise<Boolean> promise, ChannelFuture dataBind,
+                                             ChannelFuture controlBind, EventLoopGroup dataGroup,
+                                             EventLoopGroup controlGroup) {
+        if (!dataBind.isSuccess() || !controlBind.isSuccess() || (promise != this.initPromise)) {
+            if (promise != this.initPromise) {
+                LOG.debug("RtpSession with id {} terminated while binding.", this.id);
+            } else {
+                Throwable cause = dataBind.isSuccess() ? controlBind.cause() : dataBind.cause();
+                LOG.error("Failed to bind " + (dataBind.isSuccess() ? "control" : "data") +
+                          " channel for session with id " + this.id, cause);
+                // Allow another attempt.
+                this.initPromise = null;
+            }
+            if (this.portPair != null) {
+                this.portPairPool.release(this.portPair);
+                this.portPair = null;
+                this.completeInit(promise, false);
+                return;
+            }
+            if (dataBind.isSuccess()) {
+                dataBind.channel().close();
+            }
+            if (controlBind.isSuccess()) {
+                controlBind.channel().close();
+            }
+            if (dataGroup != null) {
+                dataGroup.shutdownGracefully(0, this.byeFlushTimeout, TimeUnit.MILLISECONDS);
+                controlGroup.shutdownGracefully(0, this.byeFlushTimeout, TimeUnit.MILLISECONDS);
+            }
+            this.completeInit(promise, false);
+            return;
+        }
+
+        this.dataChannel = (DatagramChannel) dataBind.channel();
+        this.controlChannel = (DatagramChannel) controlBind.channel();
+        if (this.internalTimer && (this.eventLoop == null)) {
+            this.timer = new HashedWheelTimer(1, TimeUnit.SECONDS);
+        }
+        this.updateDataAutoRead();
+        LOG.debug("Data & Control channels bound for RtpSession with id {}.", this.id);
+        // Send first RTCP packet.
+        this.joinSession(this.localParticipant.getSsrc());
+        this.running.set(true);
+
+        // Add the cleaner.
+        this.schedule(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                if (!running.get()) {
+                    return;
+                }
+
+                participantDatabase.cleanup();
+                schedule(this, participantDatabaseCleanup, TimeUnit.SECONDS);
+            }
+        }, this.participantDatabaseCleanup, TimeUnit.SECONDS);
+        // Add the RTCP generator.
+        if (this.automatedRtcpHandling) {
+            this.schedule(this, this.updatePeriodicRtcpSendInterval(), TimeUnit.SECONDS);
+        }
+
+        if (this.internalTimer && (this.eventLoop == null)) {
+            this.timer.start();
+        }
+
+        this.completeInit(promise, true);
+    }
+
+    protected void completeInit(Promise<Boolean> promise, boolean success) {
+        if (this.diagnostics != null) {
+            this.diagnostics.sessionInitialised(this.id, System.nanoTime() - this.initStartTime, success);
+        }
+        promise.setSuccess(success);
+    }
+
+    /**
+     * Leave the session and tear it down without blocking: the data channel is closed right away, the control channel
+     * as soon as the BYE is out (or {@link #getByeFlushTimeout()} milliseconds have passed) and the event loops are
+     * then shut down without a quiet period. Listeners are notified once everything is released.
+     *
+     * @return Future that completes once the session is fully terminated.
+     */
+    protected synchronized Future<Void> terminate(final Throwable cause) {
         // Always set to false, even it if was already set at false.
         if (!this.running.getAndSet(false)) {
-            return;
+            if (this.terminatePromise != null) {
+                return this.terminatePromise;
+            }
+            // Terminating while binding makes the initialisation fail; either way there's nothing left to wait for.
+            this.initPromise = null;
+            return GlobalEventExecutor.INSTANCE.newSucceededFuture(null);
         }
 
-        if (this.internalTimer) {
+        final Promise<Void> promise = new DefaultPromise<Void>(GlobalEventExecutor.INSTANCE);
+        this.terminatePromise = promise;
+        this.terminateStartTime = System.nanoTime();
+        this.initPromise = null;
+
+        if (this.internalTimer && (this.timer != null)) {
             this.timer.stop();
         }
 
         this.dataListeners.clear();
         this.controlListeners.clear();
 
+        List<Long> streamSsrcs = new ArrayList<Long>(this.localStreams.size());
+        for (LocalStream stream : this.localStreams) {
+            streamSsrcs.add(stream.getSsrc());
+        }
+
+        if (this.portPair != null) {
+            // Send BYE RTCP packets and hand the channels back to the pool, still bound.
+            final PortPair pair = this.portPair;
+            this.portPair = null;
+            this.leaveSession(this.localParticipant.getSsrc(), streamSsrcs, "Session terminated.");
+            this.whenControlFlushed(this.lastControlWrite, new Runnable() {
+                @Override
+                public void run() {
+                    portPairPool.release(pair);
+                    terminated(cause);
+                    promise.setSuccess(null);
+                }
+            });
+            return promise;
+        }
+
         // Close data channel, send BYE RTCP packets and close control channel.
-        this.leaveSession(this.localParticipant.getSsrc(), "Session terminated.");
+        this.dataChannel.close();
+        this.leaveSession(this.localParticipant.getSsrc(), streamSsrcs, "Session terminated.");
+        final DatagramChannel controlChannel = this.controlChannel;
+        this.whenControlFlushed(this.lastControlWrite, new Runnable() {
+            @Override
+            public void run() {
+                controlChannel.close();
+            }
+        });
+
+        if (this.dataGroup == null) {
+            // Pinned to an event loop that outlives the session.
+            controlChannel.closeFuture().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    terminated(cause);
+                    promise.setSuccess(null);
+                }
+            });
+            return promise;
+        }
+
+        final EventLoopGroup dataGroup = this.dataGroup;
+        final EventLoopGroup controlGroup = this.controlGroup;
+        dataGroup.shutdownGracefully(0, this.byeFlushTimeout, TimeUnit.MILLISECONDS);
+        controlChannel.closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                controlGroup.shutdownGracefully(0, byeFlushTimeout, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        GenericFutureListener<Future<Object>> terminationListener = new GenericFutureListener<Future<Object>>() {
+            private final AtomicInteger pending = new AtomicInteger(2);
+
+            @Override
+            public void operationComplete(Future<Object> future) throws Exception {
+                if (this.pending.decrementAndGet() == 0) {
+                    terminated(cause);
+                    promise.setSuccess(null);
+                }
+            }
+        };
+        dataGroup.terminationFuture().addListener(terminationListener);
+        controlGroup.terminationFuture().addListener(terminationListener);
+
+        return promise;
+    }
 
-        this.dataGroup.shutdownGracefully().syncUninterruptibly();
-        this.controlGroup.shutdownGracefully().syncUninterruptibly();
+    /**
+     * Run an action once a control write completes, or after {@link #getByeFlushTimeout()} milliseconds if that takes
+     * too long. Writes complete in order, so waiting for the last one means all previous ones went out too.
+     */
+    protected void whenControlFlushed(ChannelFuture lastWrite, final Runnable action) {
+        if ((lastWrite == null) || lastWrite.isDone()) {
+            action.run();
+            return;
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final ScheduledFuture<?> timeout = this.controlChannel.eventLoop().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (done.compareAndSet(false, true)) {
+                    LOG.debug("Timed out flushing BYE for session with id {}.", id);
+                    action.run();
+                }
+            }
+        }, this.byeFlushTimeout, TimeUnit.MILLISECONDS);
+        lastWrite.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (done.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    action.run();
+                }
+            }
+        });
+    }
+
+    protected void terminated(Throwable cause) {
+        if (this.packetHistory != null) {
+            this.packetHistory.clear();
+        }
+        if (this.fecEncoder != null) {
+            synchronized (this.fecEncoder) {
+                this.fecEncoder.reset();
+            }
+        }
+        AppDataPacket appDataPacket;
+        while ((appDataPacket = this.pendingAppData.poll()) != null) {
+            appDataPacket.release();
+        }
+        this.pendingAppDataSize.set(0);
+        synchronized (this) {
+            this.terminatePromise = null;
+        }
         LOG.debug("RtpSession with id {} terminated.", this.id);
+        if (this.diagnostics != null) {
+            this.diagnostics.sessionTerminated(this.id, System.nanoTime() - this.terminateStartTime, cause);
+        }
 
         for (RtpSessionEventListener listener : this.eventListeners) {
             listener.sessionTerminated(this, cause);
@@ -832,6 +2089,16 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         this.eventListeners.clear();
     }
 
+    /**
+     * @return {@code true} if the current thread is one of the event loops of the session's channels.
+     */
+    protected boolean isInSessionThread() {
+        DatagramChannel data = this.dataChannel;
+        DatagramChannel control = this.controlChannel;
+        return ((data != null) && data.eventLoop().inEventLoop()) ||
+               ((control != null) && control.eventLoop().inEventLoop());
+    }
+
     protected void resetSendStats() {
         this.sentByteCounter.set(0);
         this.sentPacketCounter.set(0);
@@ -854,6 +2121,47 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         return (this.periodicRtcpSendInterval = 5);
     }
 
+    /**
+     * Flag the inbound RTP packet being handled as discarded in the flight recorder. Packets rebuilt from FEC were
+     * never recorded, so they're left alone.
+     */
+    protected void dataDropped(PacketFlightRecorder.DropReason reason, boolean rebuilt) {
+        if ((this.flightRecorder != null) && !rebuilt) {
+            this.flightRecorder.dataDropped(reason);
+        }
+    }
+
+    protected void loopDetected(long ssrc) {
+        if (this.diagnostics != null) {
+            this.diagnostics.loopDetected(this.id, ssrc, this.collisions.get());
+        }
+    }
+
+    protected void updateDataAutoRead() {
+        final DatagramChannel channel = this.dataChannel;
+        if ((channel == null) || !channel.isOpen()) {
+            return;
+        }
+
+        // Always applied from the event loop, with the count at that time, so that racing suspend/resume calls from
+        // different threads can't leave the channel in the wrong state.
+        Runnable update = new Runnable() {
+            @Override
+            public void run() {
+                channel.config().setAutoRead(readSuspensions.get() <= 0);
+            }
+        };
+        if (channel.eventLoop().inEventLoop()) {
+            update.run();
+        } else {
+            try {
+                channel.eventLoop().execute(update);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, nothing left to read anyway.
+            }
+        }
+    }
+
     // getters & setters ----------------------------------------------------------------------------------------------
 
     public boolean isRunning() {
@@ -967,14 +2275,390 @@ public abstract class AbstractRtpSession implements RtpSession, TimerTask {
         return this.sentPacketCounter.get();
     }
 
+    public long getDroppedPackets() {
+        return this.droppedPacketCounter.get();
+    }
+
+    public long getRetransmittedPackets() {
+        return this.retransmittedPacketCounter.get();
+    }
+
+    /**
+     * @return The negotiated header extension ID to URI mapping for this session, to be filled by whoever handles
+     *         signalling and used to look up elements in {@link DataPacket#getHeaderExtensions()}.
+     */
+    public HeaderExtensionRegistry getHeaderExtensionRegistry() {
+        return this.headerExtensionRegistry;
+    }
+
+    public long getFecPacketsSent() {
+        return this.fecEncoder == null ? 0 : this.fecEncoder.getParityPacketsGenerated();
+    }
+
+    public boolean isDataReadingSuspended() {
+        return readSuspensions.get() > 0;
+    }
+
+    public boolean isWritable() {
+        return this.running.get() && this.dataChannel.isWritable();
+    }
+
     public int getParticipantDatabaseCleanup() {
         return participantDatabaseCleanup;
     }
 
+    /**
+     * @param participantDatabaseCleanup Interval, in seconds, between runs of the participant database cleanup that
+     *                                   removes timed out members; cheap enough to run every second.
+     */
     public void setParticipantDatabaseCleanup(int participantDatabaseCleanup) {
         if (this.running.get()) {
             throw new IllegalArgumentException("Cannot modify property after initialisation");
         }
         this.participantDatabaseCleanup = participantDatabaseCleanup;
     }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    /**
+     * @param writeBufferHighWaterMark Must not be below the low water mark; when lowering both, set the low one
+     *                                 first.
+     */
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        if (writeBufferHighWaterMark < this.writeBufferLowWaterMark) {
+            throw new IllegalArgumentException("High water mark (" + writeBufferHighWaterMark +
+                                               ") cannot be below the low water mark (" +
+                                               this.writeBufferLowWaterMark + ")");
+        }
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * @param writeBufferLowWaterMark Must be between 0 and the high water mark; when raising both, set the high one
+     *                                first.
+     */
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        if ((writeBufferLowWaterMark < 0) || (writeBufferLowWaterMark > this.writeBufferHighWaterMark)) {
+            throw new IllegalArgumentException("Low water mark (" + writeBufferLowWaterMark +
+                                               ") must be between 0 and the high water mark (" +
+                                               this.writeBufferHighWaterMark + ")");
+        }
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public OutboundDropPolicy getOutboundDropPolicy() {
+        return outboundDropPolicy;
+    }
+
+    public void setOutboundDropPolicy(OutboundDropPolicy outboundDropPolicy) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.outboundDropPolicy = outboundDropPolicy;
+    }
+
+    public boolean isNackEnabled() {
+        return nackEnabled;
+    }
+
+    public void setNackEnabled(boolean nackEnabled) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.nackEnabled = nackEnabled;
+    }
+
+    public int getRetransmissionHistorySize() {
+        return retransmissionHistorySize;
+    }
+
+    /**
+     * @param retransmissionHistorySize Number of sent packets to keep around (per local SSRC) for retransmission upon
+     *                                  reception of a Generic NACK; must be a power of 2, 0 disables retransmissions.
+     */
+    public void setRetransmissionHistorySize(int retransmissionHistorySize) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.retransmissionHistorySize = retransmissionHistorySize;
+    }
+
+    public int getFecPayloadType() {
+        return fecPayloadType;
+    }
+
+    /**
+     * @param fecPayloadType Payload type of the RFC 5109 parity packets, both sent and received; -1 disables FEC.
+     *                       Must not be one of the media payload types.
+     */
+    public void setFecPayloadType(int fecPayloadType) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.fecPayloadType = fecPayloadType;
+    }
+
+    public int getFecGroupSize() {
+        return fecGroupSize;
+    }
+
+    /**
+     * @param fecGroupSize Number of sent media packets protected by each parity packet; 0 disables parity generation
+     *                     (received parity packets are still used as long as a FEC payload type is set).
+     */
+    public void setFecGroupSize(int fecGroupSize) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.fecGroupSize = fecGroupSize;
+    }
+
+    public int getFecInterleave() {
+        return fecInterleave;
+    }
+
+    /**
+     * @param fecInterleave Number of parity groups filled in round-robin; 1 protects consecutive packets together,
+     *                      higher values protect against burst losses at the cost of recovery latency.
+     */
+    public void setFecInterleave(int fecInterleave) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.fecInterleave = fecInterleave;
+    }
+
+    public int getMaxPendingAppDataSize() {
+        return maxPendingAppDataSize;
+    }
+
+    /**
+     * @param maxPendingAppDataSize Amount of APP data, in bytes, that can wait for the next periodic compound RTCP
+     *                              packet; once reached, reports are sent right away along with the pending APP packets.
+     */
+    public void setMaxPendingAppDataSize(int maxPendingAppDataSize) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.maxPendingAppDataSize = maxPendingAppDataSize;
+    }
+
+    public boolean isAcceptNonCompoundRtcp() {
+        return acceptNonCompoundRtcp;
+    }
+
+    /**
+     * @param acceptNonCompoundRtcp Whether RTCP datagrams that don't start with a sender or receiver report are
+     *                              accepted (RFC 5506); when false, they're discarded as required by RFC 3550.
+     */
+    public void setAcceptNonCompoundRtcp(boolean acceptNonCompoundRtcp) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.acceptNonCompoundRtcp = acceptNonCompoundRtcp;
+    }
+
+    public PcapWriter getPcapWriter() {
+        return pcapWriter;
+    }
+
+    /**
+     * @param pcapWriter Writer that receives a copy of every RTP and RTCP datagram sent and received by this session;
+     *                   null disables capture. The session neither opens nor closes the writer, so a single writer can
+     *                   be shared by several sessions.
+     */
+    public void setPcapWriter(PcapWriter pcapWriter) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.pcapWriter = pcapWriter;
+    }
+
+    public NetworkImpairment getDataImpairment() {
+        return dataImpairment;
+    }
+
+    /**
+     * @param dataImpairment Impairment applied to the RTP datagrams of this session, for testing; null (the default)
+     *                       leaves the data channel untouched. Packet captures sit on the wire side of the
+     *                       impairment, so they record outgoing packets as impaired but incoming packets as they
+     *                       arrived, before any loss or delay is applied.
+     */
+    public void setDataImpairment(NetworkImpairment dataImpairment) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.dataImpairment = dataImpairment;
+    }
+
+    public NetworkImpairment getControlImpairment() {
+        return controlImpairment;
+    }
+
+    /**
+     * @param controlImpairment Impairment applied to the RTCP datagrams of this session, for testing; null (the
+     *                          default) leaves the control channel untouched. As with data, packet captures record
+     *                          outgoing packets as impaired and incoming packets before impairment.
+     */
+    public void setControlImpairment(NetworkImpairment controlImpairment) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.controlImpairment = controlImpairment;
+    }
+
+    public int getByeFlushTimeout() {
+        return byeFlushTimeout;
+    }
+
+    /**
+     * @param byeFlushTimeout Maximum time, in milliseconds, that termination waits for the BYE to be sent before
+     *                        closing the control channel anyway. Also bounds the shutdown of the event loops.
+     */
+    public void setByeFlushTimeout(int byeFlushTimeout) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        if (byeFlushTimeout < 0) {
+            throw new IllegalArgumentException("BYE flush timeout cannot be negative");
+        }
+        this.byeFlushTimeout = byeFlushTimeout;
+    }
+
+    public PortPairPool getPortPairPool() {
+        return portPairPool;
+    }
+
+    /**
+     * @param portPairPool Pool from which to adopt already bound data and control channels instead of binding the
+     *                     local participant's addresses; null (the default) binds as usual. When set, the local
+     *                     participant's data and control destinations are replaced with the adopted pair's and the
+     *                     pair goes back to the pool on termination. Initialisation fails if the pool is empty.
+     *                     Cannot be combined with {@link #setEventLoop(EventLoop)}.
+     */
+    public void setPortPairPool(PortPairPool portPairPool) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        if ((portPairPool != null) && (this.eventLoop != null)) {
+            throw new IllegalArgumentException("Cannot adopt pooled channels in a session pinned to an event loop");
+        }
+        this.portPairPool = portPairPool;
+    }
+
+    public EventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    /**
+     * Pin the session to a single event loop, typically one of a group shared by many sessions. Both channels are
+     * registered on it and the periodic RTCP and participant cleanup tasks are scheduled on it rather than on the
+     * timer, so everything the session does on its own happens on that one thread: no thread hops to send RTCP, and no
+     * contention on the session's state as long as the application also sends from the loop. The loop is not shut
+     * down on termination.
+     * <p/>
+     * When set, the blocking {@link #init()} cannot be called from the loop itself; use {@link #initAsync()} there.
+     * Cannot be combined with {@link #setPortPairPool(PortPairPool)}, whose channels are already registered on the
+     * pool's own loops.
+     *
+     * @param eventLoop Loop to pin the session to; null (the default) gives the session its own event loop groups.
+     */
+    public void setEventLoop(EventLoop eventLoop) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        if ((eventLoop != null) && (this.portPairPool != null)) {
+            throw new IllegalArgumentException("Cannot pin a session that adopts channels from a port pair pool");
+        }
+        this.eventLoop = eventLoop;
+    }
+
+    public RtpForwarder getForwarder() {
+        return forwarder;
+    }
+
+    /**
+     * @param forwarder Forwarder through which streams received by this session are forwarded to other sessions and
+     *                  RTCP about forwarded streams is translated; null (the default) for none.
+     */
+    public void setForwarder(RtpForwarder forwarder) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.forwarder = forwarder;
+    }
+
+    public DiagnosticsListener getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * @param diagnostics Listener for the session's internal events (initialisation, termination, collisions, decode
+     *                    failures, sampled packet processing times...); null (the default) for none.
+     */
+    public void setDiagnostics(DiagnosticsListener diagnostics) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        this.diagnostics = diagnostics;
+        if (this.participantDatabase instanceof DefaultParticipantDatabase) {
+            ((DefaultParticipantDatabase) this.participantDatabase).setDiagnostics(diagnostics);
+        }
+    }
+
+    public int getDiagnosticsSamplingInterval() {
+        return diagnosticsSamplingInterval;
+    }
+
+    /**
+     * @param diagnosticsSamplingInterval Time the processing of one in every this many received RTP packets, when a
+     *                                    diagnostics listener is set.
+     */
+    public void setDiagnosticsSamplingInterval(int diagnosticsSamplingInterval) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        if (diagnosticsSamplingInterval <= 0) {
+            throw new IllegalArgumentException("Diagnostics sampling interval must be > 0");
+        }
+        this.diagnosticsSamplingInterval = diagnosticsSamplingInterval;
+    }
+
+    /**
+     * @return Flight recorder of the session's last packets; created on initialisation and kept after termination, so
+     *         it can be dumped when the session terminates. Null if disabled or never initialised.
+     */
+    public PacketFlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    public int getFlightRecorderSize() {
+        return flightRecorderSize;
+    }
+
+    /**
+     * @param flightRecorderSize Number of RTP packets, and of RTCP packets, the session's flight recorder keeps (each
+     *                           takes {@value PacketFlightRecorder#RECORD_SIZE} bytes off-heap); 0 to disable it.
+     */
+    public void setFlightRecorderSize(int flightRecorderSize) {
+        if (this.running.get()) {
+            throw new IllegalArgumentException("Cannot modify property after initialisation");
+        }
+        if (flightRecorderSize < 0) {
+            throw new IllegalArgumentException("Flight recorder size must be >= 0");
+        }
+        this.flightRecorderSize = flightRecorderSize;
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+import com.biasedbit.efflux.packet.DataPacket;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An additional local RTP stream (e.g. video alongside the session's audio) sent through the channels of the session
+ * that created it.
+ * <p/>
+ * Each stream has its own SSRC, sequence numbering and sender statistics, but it shares the local participant's CNAME
+ * and the session's RTCP: every periodic compound packet carries a sender report for each stream that sent data and an
+ * SDES chunk for each of them.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ * @see AbstractRtpSession#addLocalStream(int)
+ */
+public class LocalStream {
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final AbstractRtpSession session;
+    private final int payloadType;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private volatile long ssrc;
+    private final AtomicInteger sequence;
+    private final AtomicLong sentPacketCounter;
+    private final AtomicLong sentByteCounter;
+    private volatile long lastSentTimestamp;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    LocalStream(AbstractRtpSession session, long ssrc, int payloadType) {
+        this.session = session;
+        this.ssrc = ssrc;
+        this.payloadType = payloadType;
+
+        this.sequence = new AtomicInteger(0);
+        this.sentPacketCounter = new AtomicLong();
+        this.sentByteCounter = new AtomicLong();
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    public boolean sendData(byte[] data, long timestamp, boolean marked) {
+        DataPacket packet = new DataPacket();
+        // Other fields will be set by sendDataPacket()
+        packet.setTimestamp(timestamp);
+        packet.setData(data);
+        packet.setMarker(marked);
+
+        return this.sendDataPacket(packet);
+    }
+
+    /**
+     * Send a packet on this stream; its SSRC, sequence number and payload type are overwritten with this stream's.
+     *
+     * @param packet Packet to send.
+     *
+     * @return {@code true} if the packet was sent, {@code false} if the session isn't running, this stream was removed
+     *         or the packet was dropped as per the session's {@link OutboundDropPolicy}.
+     */
+    public boolean sendDataPacket(DataPacket packet) {
+        return this.session.sendStreamPacket(this, packet, false);
+    }
+
+    /**
+     * Same as {@link #sendDataPacket(DataPacket)} but never queues data past the data channel's high water mark.
+     */
+    public boolean trySendDataPacket(DataPacket packet) {
+        return this.session.sendStreamPacket(this, packet, true);
+    }
+
+    // protected helpers ----------------------------------------------------------------------------------------------
+
+    int nextSequenceNumber() {
+        return this.sequence.incrementAndGet();
+    }
+
+    void packetSent(DataPacket packet) {
+        this.sentPacketCounter.incrementAndGet();
+        this.sentByteCounter.addAndGet(packet.getDataSize());
+        this.lastSentTimestamp = packet.getTimestamp();
+    }
+
+    void setSsrc(long ssrc) {
+        this.ssrc = ssrc;
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public AbstractRtpSession getSession() {
+        return session;
+    }
+
+    public long getSsrc() {
+        return ssrc;
+    }
+
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    public long getSentPackets() {
+        return this.sentPacketCounter.get();
+    }
+
+    public long getSentBytes() {
+        return this.sentByteCounter.get();
+    }
+
+    public long getLastSentTimestamp() {
+        return lastSentTimestamp;
+    }
+
+    // low level overrides --------------------------------------------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return new StringBuilder()
+                .append("LocalStream{")
+                .append("ssrc=").append(this.ssrc)
+                .append(", payloadType=").append(this.payloadType)
+                .append(", sentPackets=").append(this.sentPacketCounter.get())
+                .append('}').toString();
+    }
+}
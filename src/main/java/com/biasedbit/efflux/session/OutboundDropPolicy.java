@@ -0,0 +1,36 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.session;
+
+/**
+ * What a session does with outgoing RTP packets once the data channel's outbound buffer goes above its high water mark
+ * (i.e. the channel is no longer writable).
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public enum OutboundDropPolicy {
+
+    /**
+     * Keep queueing packets regardless of the amount of data already pending; the caller is responsible for watching
+     * {@link RtpSessionEventListener#writabilityChanged(RtpSession, boolean)} and backing off.
+     */
+    QUEUE,
+    /**
+     * Discard packets (without consuming a sequence number) while the channel is not writable.
+     */
+    DROP
+}
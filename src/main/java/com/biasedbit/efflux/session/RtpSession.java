@@ -22,6 +22,8 @@ import com.biasedbit.efflux.packet.CompoundControlPacket;
 import com.biasedbit.efflux.packet.ControlPacket;
 import com.biasedbit.efflux.packet.DataPacket;
 import com.biasedbit.efflux.participant.RtpParticipant;
+import io.netty.util.concurrent.Future;
+
 import java.util.Set;
 import java.util.Map;
 
@@ -36,14 +38,61 @@ public interface RtpSession extends DataPacketReceiver, ControlPacketReceiver {
 
     boolean init();
 
+    /**
+     * Same as {@link #init()} but doesn't wait for the data and control channels to be bound, which happens in
+     * parallel. Calling it again while binding, or once running, returns the same future.
+     *
+     * @return Future that completes with <code>true</code> if the session is up and running, <code>false</code> if
+     *         binding either channel failed.
+     */
+    Future<Boolean> initAsync();
+
     void terminate();
 
+    /**
+     * Same as {@link #terminate()} but doesn't wait for the session's resources to be released.
+     *
+     * @return Future that completes once the BYE went out (or timed out), both channels are closed and the session's
+     *         threads are gone.
+     */
+    Future<Void> terminateAsync();
+
     boolean sendData(byte[] data, long timestamp, boolean marked);
 
     boolean sendDataPacket(DataPacket packet);
 
+    /**
+     * Same as {@link #sendData(byte[], long, boolean)} but never queues data past the data channel's high water mark.
+     *
+     * @return <code>true</code> if the packet was queued for sending, <code>false</code> if the session isn't running
+     *         or the outbound buffer is full.
+     */
+    boolean trySendData(byte[] data, long timestamp, boolean marked);
+
+    /**
+     * Same as {@link #sendDataPacket(DataPacket)} but never queues data past the data channel's high water mark.
+     *
+     * @return <code>true</code> if the packet was queued for sending, <code>false</code> if the session isn't running
+     *         or the outbound buffer is full.
+     */
+    boolean trySendDataPacket(DataPacket packet);
+
+    /**
+     * Send a RTCP packet. Only APP packets are accepted when RTCP is handled automatically; those are piggybacked on
+     * the next compound packet sent by the session rather than sent standalone.
+     * <p/>
+     * The session takes ownership of APP packets (and their data) and releases them once sent, even when refused.
+     *
+     * @return <code>true</code> if the packet was sent or queued for sending, <code>false</code> otherwise.
+     */
     boolean sendControlPacket(ControlPacket packet);
 
+    /**
+     * Send a compound RTCP packet; only accepted when RTCP is not handled automatically. Ownership of any APP packets
+     * is taken as with {@link #sendControlPacket(ControlPacket)}.
+     *
+     * @return <code>true</code> if the packet was sent, <code>false</code> otherwise.
+     */
     boolean sendControlPacket(CompoundControlPacket packet);
 
     RtpParticipant getLocalParticipant();
@@ -16,6 +16,7 @@
 
 package com.biasedbit.efflux.session;
 
+import com.biasedbit.efflux.packet.AbstractFeedbackPacket;
 import com.biasedbit.efflux.packet.AppDataPacket;
 import com.biasedbit.efflux.packet.CompoundControlPacket;
 
@@ -26,5 +27,22 @@ public interface RtpSessionControlListener {
 
     void controlPacketReceived(RtpSession session, CompoundControlPacket packet);
 
+    /**
+     * Called for every APP packet received, when the session is handling RTCP automatically.
+     *
+     * @param session       Session where the packet was received.
+     * @param appDataPacket Received packet; its data is a slice of the received datagram and is released once this
+     *                      method returns, so {@link AppDataPacket#retain()} it to hold on to it any longer.
+     */
     void appDataReceived(RtpSession session, AppDataPacket appDataPacket);
+
+    /**
+     * Called for every RTPFB/PSFB feedback message (NACK, PLI, FIR, REMB, TMMBR, ...) understood by the decoder, when
+     * the session is handling RTCP automatically. Without automated handling, feedback messages are delivered as part
+     * of {@link #controlPacketReceived(RtpSession, CompoundControlPacket)}.
+     *
+     * @param session Session where the packet was received.
+     * @param packet  Feedback packet; subclasses identify the message type.
+     */
+    void feedbackReceived(RtpSession session, AbstractFeedbackPacket packet);
 }
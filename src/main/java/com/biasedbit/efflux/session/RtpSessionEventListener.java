@@ -37,5 +37,7 @@ public interface RtpSessionEventListener {
 
     void resolvedSsrcConflict(RtpSession session, long oldSsrc, long newSsrc);
 
+    void writabilityChanged(RtpSession session, boolean writable);
+
     void sessionTerminated(RtpSession session, Throwable cause);
 }
@@ -16,12 +16,14 @@
 
 package com.biasedbit.efflux.session;
 
+import com.biasedbit.efflux.capture.PacketFlightRecorder;
 import com.biasedbit.efflux.packet.CompoundControlPacket;
 import com.biasedbit.efflux.packet.ControlPacket;
 import com.biasedbit.efflux.packet.DataPacket;
 import com.biasedbit.efflux.participant.ParticipantDatabase;
 import com.biasedbit.efflux.participant.RtpParticipant;
 import com.biasedbit.efflux.participant.SingleParticipantDatabase;
+import io.netty.buffer.ByteBuf;
 import io.netty.util.HashedWheelTimer;
 
 import java.net.SocketAddress;
@@ -134,22 +136,25 @@ public class SingleParticipantSession extends AbstractRtpSession {
     @Override
     protected void internalSendData(DataPacket packet) {
         try {
-            // This assumes that the sender is sending is sending from the same ports where its expecting to receive.
-            // Can be dangerous if the other end fully respects the RFC and supports ICE, but this is nearly the only
-            // workaround that will work if the other end doesn't support ICE and is behind a NAT.
-            SocketAddress destination;
-            if (this.sendToLastOrigin && (this.receiver.getLastDataOrigin() != null)) {
-                destination = this.receiver.getLastDataOrigin();
-            } else {
-                destination = this.receiver.getDataDestination();
-            }
-            this.writeToData(packet, destination);
+            this.writeToData(packet, this.resolveDataDestination(this.receiver));
             this.sentOrReceivedPackets.set(true);
         } catch (Exception e) {
             LOG.error("Failed to send {} to {} in session with id {}.", this.id, this.receiver.getInfo());
         }
     }
 
+    @Override
+    protected SocketAddress resolveDataDestination(RtpParticipant participant) {
+        // This assumes that the sender is sending is sending from the same ports where its expecting to receive.
+        // Can be dangerous if the other end fully respects the RFC and supports ICE, but this is nearly the only
+        // workaround that will work if the other end doesn't support ICE and is behind a NAT.
+        if (this.sendToLastOrigin && (participant.getLastDataOrigin() != null)) {
+            return participant.getLastDataOrigin();
+        }
+
+        return participant.getDataDestination();
+    }
+
     @Override
     protected void internalSendControl(ControlPacket packet) {
         try {
@@ -181,6 +186,17 @@ public class SingleParticipantSession extends AbstractRtpSession {
         }
     }
 
+    @Override
+    protected void internalSendControl(ByteBuf packet, RtpParticipant participant) {
+        try {
+            this.writeToControl(packet, this.receiver.getControlDestination());
+            this.sentOrReceivedPackets.set(true);
+        } catch (Exception e) {
+            LOG.error("Failed to send compound RTCP packet to {} in session with id {}.",
+                      this.receiver.getInfo(), this.id);
+        }
+    }
+
     // DataPacketReceiver ---------------------------------------------------------------------------------------------
 
     @Override
@@ -192,6 +208,7 @@ public class SingleParticipantSession extends AbstractRtpSession {
         } else if (this.ignoreFromUnknownSsrc && (packet.getSsrc() != this.receiver.getInfo().getSsrc())) {
             LOG.trace("Discarded packet from unexpected SSRC: {} (expected was {}).",
                       packet.getSsrc(), this.receiver.getInfo().getSsrc());
+            this.dataDropped(PacketFlightRecorder.DropReason.UNKNOWN_SOURCE, false);
             return;
         }
 
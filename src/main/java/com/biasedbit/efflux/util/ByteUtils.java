@@ -16,6 +16,8 @@
 
 package com.biasedbit.efflux.util;
 
+import io.netty.buffer.ByteBuf;
+
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -138,4 +140,26 @@ public class ByteUtils {
         }
         return stringBuffer.toString();
     }
+
+    /**
+     * XOR <code>length</code> bytes of <code>source</code> into <code>destination</code>, 8 bytes at a time (falling
+     * back to single bytes only for the tail). Reader and writer indexes of both buffers are left untouched.
+     *
+     * @param destination      Buffer to update.
+     * @param destinationIndex Absolute index of the first byte to update in the destination buffer.
+     * @param source           Buffer to XOR with.
+     * @param sourceIndex      Absolute index of the first byte to read from the source buffer.
+     * @param length           Number of bytes to XOR.
+     */
+    public static void xor(ByteBuf destination, int destinationIndex, ByteBuf source, int sourceIndex, int length) {
+        int i = 0;
+        for (; (i + 8) <= length; i += 8) {
+            destination.setLong(destinationIndex + i,
+                                destination.getLong(destinationIndex + i) ^ source.getLong(sourceIndex + i));
+        }
+        for (; i < length; i++) {
+            destination.setByte(destinationIndex + i,
+                                destination.getByte(destinationIndex + i) ^ source.getByte(sourceIndex + i));
+        }
+    }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashed timing wheel that tracks a deadline per item, so that finding which items have expired costs time
+ * proportional to the number of elapsed ticks and expired items rather than to the number of items tracked.
+ * <p/>
+ * Deadlines are rounded up to the tick duration, so items never expire early and expire at most one tick late
+ * (assuming {@link #expire(long)} is called at least once per tick). Rescheduling an item simply supersedes its
+ * previous deadline; stale bucket entries are discarded when their bucket is visited.
+ * <p/>
+ * This class is not thread safe.
+ *
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ExpiryWheel<T> {
+
+    // configuration --------------------------------------------------------------------------------------------------
+
+    private final long tickDuration;
+    private final int mask;
+
+    // internal vars --------------------------------------------------------------------------------------------------
+
+    private final List<List<Entry<T>>> buckets;
+    private final Map<T, Long> deadlines;
+    private long lastTick;
+
+    // constructors ---------------------------------------------------------------------------------------------------
+
+    /**
+     * @param tickDuration  Duration of a tick, in the same unit as the deadlines (usually milliseconds).
+     * @param ticksPerWheel Number of buckets; must be a power of 2. Deadlines further away than a full revolution are
+     *                      still handled, at the cost of being looked at once per revolution.
+     * @param now           Current instant.
+     */
+    public ExpiryWheel(long tickDuration, int ticksPerWheel, long now) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be > 0");
+        }
+        if ((ticksPerWheel <= 0) || ((ticksPerWheel & (ticksPerWheel - 1)) != 0)) {
+            throw new IllegalArgumentException("Ticks per wheel must be a power of 2");
+        }
+
+        this.tickDuration = tickDuration;
+        this.mask = ticksPerWheel - 1;
+        this.buckets = new ArrayList<List<Entry<T>>>(ticksPerWheel);
+        for (int i = 0; i < ticksPerWheel; i++) {
+            this.buckets.add(new ArrayList<Entry<T>>());
+        }
+        this.deadlines = new IdentityHashMap<T, Long>();
+        this.lastTick = now / tickDuration;
+    }
+
+    // public methods -------------------------------------------------------------------------------------------------
+
+    /**
+     * Schedule an item to expire at a given instant, replacing any deadline it previously had.
+     *
+     * @param item     Item to schedule.
+     * @param deadline Instant at which the item expires.
+     */
+    public void schedule(T item, long deadline) {
+        long tick = Math.max((deadline + this.tickDuration - 1) / this.tickDuration, this.lastTick + 1);
+        this.deadlines.put(item, tick);
+        this.buckets.get((int) (tick & this.mask)).add(new Entry<T>(item, tick));
+    }
+
+    /**
+     * @param item Item to stop tracking.
+     *
+     * @return <code>true</code> if the item was scheduled.
+     */
+    public boolean cancel(T item) {
+        return this.deadlines.remove(item) != null;
+    }
+
+    public boolean isScheduled(T item) {
+        return this.deadlines.containsKey(item);
+    }
+
+    /**
+     * Advance the wheel up to the given instant, collecting every item whose deadline has passed. Expired items are no
+     * longer tracked; reschedule them to keep tracking them.
+     *
+     * @param now Current instant.
+     *
+     * @return Items that expired since the last call, in no particular order.
+     */
+    public List<T> expire(long now) {
+        long currentTick = now / this.tickDuration;
+        if (currentTick <= this.lastTick) {
+            return Collections.emptyList();
+        }
+
+        List<T> expired = new ArrayList<T>();
+        // Past a full revolution every bucket has been visited, no point in going around again.
+        long lastTickToVisit = this.lastTick + Math.min(currentTick - this.lastTick, this.buckets.size());
+        for (long tick = this.lastTick + 1; tick <= lastTickToVisit; tick++) {
+            List<Entry<T>> bucket = this.buckets.get((int) (tick & this.mask));
+            int kept = 0;
+            for (int i = 0; i < bucket.size(); i++) {
+                Entry<T> entry = bucket.get(i);
+                Long scheduled = this.deadlines.get(entry.item);
+                if ((scheduled == null) || (scheduled != entry.tick)) {
+                    // Cancelled or rescheduled meanwhile.
+                    continue;
+                }
+                if (entry.tick <= currentTick) {
+                    this.deadlines.remove(entry.item);
+                    expired.add(entry.item);
+                    continue;
+                }
+                // Due in a later revolution.
+                bucket.set(kept++, entry);
+            }
+            bucket.subList(kept, bucket.size()).clear();
+        }
+        this.lastTick = currentTick;
+
+        return expired;
+    }
+
+    public void clear() {
+        for (List<Entry<T>> bucket : this.buckets) {
+            bucket.clear();
+        }
+        this.deadlines.clear();
+    }
+
+    // getters & setters ----------------------------------------------------------------------------------------------
+
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+    /**
+     * @return Number of items currently scheduled.
+     */
+    public int size() {
+        return this.deadlines.size();
+    }
+
+    // private classes ------------------------------------------------------------------------------------------------
+
+    private static final class Entry<T> {
+
+        private final T item;
+        private final long tick;
+
+        private Entry(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+}
@@ -21,6 +21,13 @@ package com.biasedbit.efflux.util;
  */
 public class TimeUtils {
 
+    // constants ------------------------------------------------------------------------------------------------------
+
+    /**
+     * Seconds between the NTP epoch (1900) and the Unix epoch (1970).
+     */
+    public static final long NTP_EPOCH_OFFSET = 2208988800L;
+
     // constructors ---------------------------------------------------------------------------------------------------
 
     private TimeUtils() {
@@ -71,4 +78,47 @@ public class TimeUtils {
     public static boolean hasExpiredMillis(long now, long eventTime, long timeBuffer) {
         return (eventTime + timeBuffer) < now;
     }
+
+    /**
+     * Convert a wall clock instant to a 64-bit NTP timestamp, as carried by RTCP sender reports.
+     *
+     * @param millis Instant, in milliseconds since the Unix epoch.
+     *
+     * @return NTP timestamp; seconds since 1900 on the upper 32 bits, fraction of a second on the lower 32 bits.
+     */
+    public static long toNtpTimestamp(long millis) {
+        long seconds = (millis / 1000) + NTP_EPOCH_OFFSET;
+        long fraction = ((millis % 1000) << 32) / 1000;
+        return (seconds << 32) | fraction;
+    }
+
+    /**
+     * Convert a wall clock instant to the middle 32 bits of its NTP timestamp (units of 1/65536 seconds), the format
+     * used by the LSR and DLSR fields of RTCP reception reports.
+     *
+     * @param millis Instant, in milliseconds since the Unix epoch.
+     *
+     * @return Compact NTP timestamp.
+     */
+    public static long toCompactNtpTimestamp(long millis) {
+        return (toNtpTimestamp(millis) >>> 16) & 0xffffffffL;
+    }
+
+    /**
+     * Compute the round trip delay from a reception report, as described in RFC 3550, section 6.4.1: arrival - LSR -
+     * DLSR. All three are compact NTP timestamps, so the subtraction is done modulo 2^32.
+     *
+     * @param arrival                    Compact NTP timestamp of the instant the reception report arrived.
+     * @param lastSenderReport           LSR field of the reception report.
+     * @param delaySinceLastSenderReport DLSR field of the reception report.
+     *
+     * @return Round trip delay in milliseconds, or -1 if negative (i.e. clocks or fields are off).
+     */
+    public static long roundTripDelay(long arrival, long lastSenderReport, long delaySinceLastSenderReport) {
+        long delay = (arrival - lastSenderReport - delaySinceLastSenderReport) & 0xffffffffL;
+        if (delay >= 0x80000000L) {
+            return -1;
+        }
+        return (delay * 1000) >>> 16;
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.capture;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.ReceiverReportPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PacketFlightRecorderTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        this.file = File.createTempFile("efflux", ".flight");
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Test
+    public void testRecordsBothDirections() throws Exception {
+        PacketFlightRecorder recorder = new PacketFlightRecorder(4);
+        EmbeddedChannel data = new EmbeddedChannel(new FlightRecorderHandler(recorder, false));
+        EmbeddedChannel control = new EmbeddedChannel(new FlightRecorderHandler(recorder, true));
+
+        data.writeInbound(createPacket(69, 1, true));
+        recorder.dataDropped(PacketFlightRecorder.DropReason.OUT_OF_ORDER);
+        data.writeOutbound(createPacket(70, 65535, false));
+        ReceiverReportPacket report = new ReceiverReportPacket();
+        report.setSenderSsrc(70);
+        control.writeOutbound(report.encode());
+        data.writeInbound(Unpooled.wrappedBuffer(new byte[]{0x00, 0x01}));
+
+        // Recording goes through untouched.
+        ByteBuf passed = (ByteBuf) data.readInbound();
+        assertEquals(0, passed.readerIndex());
+        assertEquals(4, recorder.getRecordedPackets());
+
+        String[] lines = this.dump(recorder);
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" IN  RTP  ssrc=69 seq=1 ts=1000 pt=8 M size=14 dropped=OUT_OF_ORDER"));
+        assertTrue(lines[1], lines[1].endsWith(" OUT RTP  ssrc=70 seq=65535 ts=1000 pt=8 size=14"));
+        assertTrue(lines[2], lines[2].endsWith(" OUT RTCP ssrc=70 type=201 size=8"));
+        assertTrue(lines[3], lines[3].endsWith(" IN  RTP  ssrc=0 seq=0 ts=0 pt=0 size=2 dropped=MALFORMED"));
+    }
+
+    @Test
+    public void testUnknownDropReasonDoesNotAbortDump() throws Exception {
+        assertEquals(PacketFlightRecorder.DropReason.UNKNOWN, PacketFlightRecorder.DropReason.fromByte((byte) 42));
+        assertEquals(PacketFlightRecorder.DropReason.LOOP, PacketFlightRecorder.DropReason.fromByte((byte) 3));
+
+        // Stands for whatever garbage a torn record may hold.
+        PacketFlightRecorder recorder = new PacketFlightRecorder(2);
+        recorder.recordData(false, createPacket(69, 1, false));
+        recorder.dataDropped(PacketFlightRecorder.DropReason.UNKNOWN);
+        recorder.recordData(false, createPacket(69, 2, false));
+
+        String[] lines = this.dump(recorder);
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" seq=1 ts=1000 pt=8 size=14 dropped=UNKNOWN(255)"));
+        assertTrue(lines[1], lines[1].endsWith(" seq=2 ts=1000 pt=8 size=14"));
+    }
+
+    @Test
+    public void testOldestRecordsAreOverwritten() throws Exception {
+        PacketFlightRecorder recorder = new PacketFlightRecorder(3);
+        assertEquals(4, recorder.getCapacity());
+        for (int i = 0; i < 10; i++) {
+            recorder.recordData(false, createPacket(69, i, false));
+        }
+        recorder.dataDropped(PacketFlightRecorder.DropReason.PAYLOAD_TYPE);
+
+        String[] lines = this.dump(recorder);
+        assertEquals(4, lines.length);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(lines[i], lines[i].contains(" seq=" + (i + 6) + " "));
+        }
+        assertTrue(lines[3].endsWith("dropped=PAYLOAD_TYPE"));
+
+        recorder.dumpBinary(this.file);
+        assertEquals(12 + (4 * PacketFlightRecorder.RECORD_SIZE), this.file.length());
+        DataInputStream input = new DataInputStream(new FileInputStream(this.file));
+        try {
+            assertEquals(PacketFlightRecorder.BINARY_MAGIC, input.readInt());
+            assertEquals(PacketFlightRecorder.BINARY_VERSION, input.readShort());
+            assertEquals(PacketFlightRecorder.RECORD_SIZE, input.readShort());
+            assertEquals(4, input.readInt());
+            input.readLong();
+            assertEquals(69, input.readInt());
+            assertEquals(1000, input.readInt());
+            assertEquals(14, input.readInt());
+            assertEquals(6, input.readShort());
+        } finally {
+            input.close();
+        }
+    }
+
+    private String[] dump(PacketFlightRecorder recorder) throws Exception {
+        StringWriter writer = new StringWriter();
+        recorder.dumpText(writer);
+        return writer.toString().split("\n");
+    }
+
+    private static ByteBuf createPacket(long ssrc, int sequenceNumber, boolean marker) {
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(ssrc);
+        packet.setPayloadType(8);
+        packet.setSequenceNumber(sequenceNumber);
+        packet.setTimestamp(1000);
+        packet.setMarker(marker);
+        packet.setData(new byte[]{0x45, 0x45});
+        return packet.encode();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.capture;
+
+import com.biasedbit.efflux.network.DataPacketDecoder;
+import com.biasedbit.efflux.packet.DataPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PcapTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        this.file = File.createTempFile("efflux", ".pcap");
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        InetSocketAddress a = new InetSocketAddress("127.0.0.1", 6000);
+        InetSocketAddress b = new InetSocketAddress("10.0.0.2", 7001);
+        InetSocketAddress c = new InetSocketAddress("::1", 8000);
+
+        PcapWriter writer = new PcapWriter(this.file);
+        writer.open();
+        assertTrue(writer.capture(a, b, Unpooled.wrappedBuffer(new byte[]{1, 2, 3})));
+        assertTrue(writer.capture(b, c, Unpooled.wrappedBuffer(new byte[]{4, 5})));
+        writer.close();
+        assertEquals(2, writer.getCapturedPackets());
+        assertEquals(0, writer.getDroppedPackets());
+        assertFalse(writer.capture(a, b, Unpooled.wrappedBuffer(new byte[]{6})));
+
+        PcapReader reader = new PcapReader(this.file);
+        try {
+            assertEquals(PcapWriter.LINKTYPE_RAW, reader.getLinkType());
+
+            PcapRecord first = reader.next();
+            assertEquals(a, first.getSource());
+            assertEquals(b, first.getDestination());
+            assertEquals(Unpooled.wrappedBuffer(new byte[]{1, 2, 3}), first.getPayload());
+            long now = System.currentTimeMillis() * 1000000L;
+            assertTrue(Math.abs(now - first.getTimestamp()) < 60000000000L);
+
+            // Mixed families are written as IPv6 with an IPv4-mapped address.
+            PcapRecord second = reader.next();
+            assertEquals(b.getPort(), second.getSource().getPort());
+            assertEquals(c, second.getDestination());
+            assertEquals(Unpooled.wrappedBuffer(new byte[]{4, 5}), second.getPayload());
+
+            assertNull(reader.next());
+            assertEquals(2, reader.getRecordsRead());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testReplayIntoDecoder() throws Exception {
+        InetSocketAddress sender = new InetSocketAddress("127.0.0.1", 6000);
+        InetSocketAddress recipient = new InetSocketAddress("127.0.0.1", 7000);
+
+        PcapWriter writer = new PcapWriter(this.file);
+        writer.open();
+        for (int i = 0; i < 10; i++) {
+            DataPacket packet = new DataPacket();
+            packet.setSsrc(0x45);
+            packet.setSequenceNumber(i);
+            packet.setPayloadType(8);
+            packet.setData(new byte[]{(byte) i, 0x45});
+            ByteBuf encoded = packet.encode();
+            writer.capture(sender, recipient, encoded);
+            encoded.release();
+        }
+        // RTCP traffic on the next port is filtered out.
+        writer.capture(sender, new InetSocketAddress("127.0.0.1", 7001), Unpooled.wrappedBuffer(new byte[8]));
+        writer.close();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new DataPacketDecoder());
+        PcapReader reader = new PcapReader(this.file);
+        try {
+            PcapReplayer replayer = new PcapReplayer(reader, PcapReplayer.toPipeline(channel));
+            replayer.setDestinationPort(7000);
+            assertEquals(10, replayer.replay());
+            assertEquals(20, replayer.getBytesReplayed() - (10 * 12));
+        } finally {
+            reader.close();
+        }
+
+        for (int i = 0; i < 10; i++) {
+            @SuppressWarnings("unchecked")
+            AddressedEnvelope<DataPacket, SocketAddress> envelope =
+                    (AddressedEnvelope<DataPacket, SocketAddress>) channel.readInbound();
+            assertEquals(sender, envelope.sender());
+            assertEquals(i, envelope.content().getSequenceNumber());
+            assertEquals(0x45, envelope.content().getSsrc());
+        }
+        assertNull(channel.readInbound());
+    }
+}
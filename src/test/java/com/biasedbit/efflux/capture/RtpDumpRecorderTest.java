@@ -0,0 +1,146 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.capture;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpDumpRecorderTest {
+
+    private static final byte[] MAGIC = "#!rtpplay1.0 0.0.0.0/0\n".getBytes();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        this.directory = File.createTempFile("efflux", "-rtpdump");
+        this.directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    @Test
+    public void testOneFilePerSsrc() throws Exception {
+        RtpDumpRecorder recorder = new RtpDumpRecorder(this.directory);
+        recorder.start();
+        for (int i = 0; i < 10; i++) {
+            recorder.dataPacketReceived(null, null, this.packet(0x1111, i, 100));
+            recorder.dataPacketReceived(null, null, this.packet(0x2222, i, 50));
+        }
+        recorder.close();
+
+        assertEquals(20, recorder.getRecordedPackets());
+        assertEquals(0, recorder.getDroppedPackets());
+        assertEquals(2, recorder.getFilesCreated());
+
+        ByteBuf first = this.read(new File(this.directory, "00001111-0.rtpdump"));
+        for (int i = 0; i < 10; i++) {
+            int length = first.readUnsignedShort();
+            assertEquals(12 + 100, first.readUnsignedShort());
+            assertEquals(8 + 12 + 100, length);
+            assertTrue(first.readInt() >= 0);
+            DataPacket packet = DataPacket.decode(first.readSlice(length - 8));
+            assertEquals(0x1111, packet.getSsrc());
+            assertEquals(i, packet.getSequenceNumber());
+        }
+        assertFalse(first.isReadable());
+
+        ByteBuf second = this.read(new File(this.directory, "00002222-1.rtpdump"));
+        assertEquals(10 * (8 + 12 + 50), second.readableBytes());
+    }
+
+    @Test
+    public void testRotateBySize() throws Exception {
+        RtpDumpRecorder recorder = new RtpDumpRecorder(this.directory);
+        // Header (23 + 16) plus three 1020 byte records per file.
+        recorder.setMaxFileSize(39 + (3 * 1020));
+        recorder.start();
+        for (int i = 0; i < 10; i++) {
+            recorder.dataPacketReceived(null, null, this.packet(0x1111, i, 1000));
+        }
+        recorder.close();
+
+        assertEquals(4, recorder.getFilesCreated());
+        assertEquals(39 + (3 * 1020), new File(this.directory, "00001111-0.rtpdump").length());
+        assertEquals(39 + 1020, new File(this.directory, "00001111-3.rtpdump").length());
+        assertEquals((4 * 39) + (10 * 1020), recorder.getWrittenBytes());
+    }
+
+    @Test
+    public void testDropWhenPendingLimitReached() throws Exception {
+        RtpDumpRecorder recorder = new RtpDumpRecorder(this.directory);
+        recorder.setMaxPendingBytes(0);
+        recorder.start();
+        recorder.dataPacketReceived(null, new RtpParticipantInfo(0x1111), this.packet(0x1111, 0, 10));
+        recorder.close();
+
+        assertEquals(0, recorder.getRecordedPackets());
+        assertEquals(1, recorder.getDroppedPackets());
+        assertEquals(0, recorder.getFilesCreated());
+    }
+
+    private DataPacket packet(long ssrc, int sequenceNumber, int size) {
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(ssrc);
+        packet.setSequenceNumber(sequenceNumber);
+        packet.setPayloadType(0);
+        packet.setData(new byte[size]);
+        return packet;
+    }
+
+    private ByteBuf read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                read += in.read(bytes, read, bytes.length - read);
+            }
+        } finally {
+            in.close();
+        }
+
+        ByteBuf buffer = Unpooled.wrappedBuffer(bytes);
+        assertTrue(Arrays.equals(MAGIC, Arrays.copyOf(bytes, MAGIC.length)));
+        buffer.skipBytes(MAGIC.length + 16);
+        return buffer;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.fec;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FecDecoderTest {
+
+    private static final int FEC_PAYLOAD_TYPE = 127;
+
+    @Test
+    public void testRecoverSingleLoss() throws Exception {
+        FecEncoder encoder = new FecEncoder(FEC_PAYLOAD_TYPE, 4, 1);
+        FecDecoder decoder = new FecDecoder(FEC_PAYLOAD_TYPE);
+        List<DataPacket> stream = this.protect(encoder, 4);
+        assertEquals(5, stream.size());
+
+        DataPacket lost = stream.get(2);
+        List<DataPacket> recovered = new ArrayList<DataPacket>();
+        for (DataPacket packet : stream) {
+            if (packet == lost) {
+                continue;
+            }
+            recovered.addAll(this.receive(decoder, packet));
+        }
+
+        assertEquals(1, recovered.size());
+        this.assertSamePacket(lost, recovered.get(0));
+        assertEquals(1, decoder.getPacketsRecovered());
+        assertEquals(0, decoder.getPendingFecPackets());
+    }
+
+    @Test
+    public void testRecoverWhenParityArrivesFirst() throws Exception {
+        FecEncoder encoder = new FecEncoder(FEC_PAYLOAD_TYPE, 3, 1);
+        FecDecoder decoder = new FecDecoder(FEC_PAYLOAD_TYPE);
+        List<DataPacket> stream = this.protect(encoder, 3);
+
+        // Parity first, then two of the three media packets.
+        assertTrue(this.receive(decoder, stream.get(3)).isEmpty());
+        assertTrue(this.receive(decoder, stream.get(0)).isEmpty());
+        List<DataPacket> recovered = this.receive(decoder, stream.get(2));
+
+        assertEquals(1, recovered.size());
+        this.assertSamePacket(stream.get(1), recovered.get(0));
+    }
+
+    @Test
+    public void testInterleavedBurstLoss() throws Exception {
+        // Two interleaved groups of 3: a burst of two consecutive losses hits each group once.
+        FecEncoder encoder = new FecEncoder(FEC_PAYLOAD_TYPE, 3, 2);
+        FecDecoder decoder = new FecDecoder(FEC_PAYLOAD_TYPE);
+        List<DataPacket> stream = this.protect(encoder, 6);
+        assertEquals(8, stream.size());
+
+        List<DataPacket> lost = Arrays.asList(stream.get(1), stream.get(2));
+        List<DataPacket> recovered = new ArrayList<DataPacket>();
+        for (DataPacket packet : stream) {
+            if (!lost.contains(packet)) {
+                recovered.addAll(this.receive(decoder, packet));
+            }
+        }
+
+        assertEquals(2, recovered.size());
+        for (DataPacket packet : recovered) {
+            this.assertSamePacket(lost.get(packet.getSequenceNumber() - 1), packet);
+        }
+    }
+
+    @Test
+    public void testTwoLossesInSameGroupAreNotRecovered() throws Exception {
+        FecEncoder encoder = new FecEncoder(FEC_PAYLOAD_TYPE, 4, 1);
+        FecDecoder decoder = new FecDecoder(FEC_PAYLOAD_TYPE);
+        List<DataPacket> stream = this.protect(encoder, 4);
+
+        this.receive(decoder, stream.get(0));
+        this.receive(decoder, stream.get(3));
+        assertTrue(this.receive(decoder, stream.get(4)).isEmpty());
+        assertEquals(1, decoder.getPendingFecPackets());
+
+        // A late arrival turns it into a single loss.
+        List<DataPacket> recovered = this.receive(decoder, stream.get(1));
+        assertEquals(1, recovered.size());
+        this.assertSamePacket(stream.get(2), recovered.get(0));
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    /**
+     * Build a stream of media packets of varying sizes, markers, CSRCs and extensions, with parity packets inserted
+     * (and numbered) the way a session would send them.
+     */
+    private List<DataPacket> protect(FecEncoder encoder, int count) {
+        List<DataPacket> stream = new ArrayList<DataPacket>();
+        int sequenceNumber = 0;
+        for (int i = 0; i < count; i++) {
+            DataPacket packet = new DataPacket();
+            packet.setSsrc(0x11223344L);
+            packet.setPayloadType(8);
+            packet.setSequenceNumber(sequenceNumber++);
+            packet.setTimestamp(160 * i);
+            packet.setMarker((i % 3) == 0);
+            byte[] data = new byte[20 + (i * 7)];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte) (i + j);
+            }
+            packet.setData(data);
+            if ((i % 2) == 1) {
+                packet.addContributingSourceId(0x0a0b0c0dL + i);
+            }
+            if (i == 1) {
+                packet.setExtensionHeader((short) 0xbede, new byte[]{1, 2, 3, 4});
+            }
+            stream.add(packet);
+
+            DataPacket parity = encoder.protect(packet);
+            if (parity != null) {
+                parity.setSsrc(packet.getSsrc());
+                parity.setSequenceNumber(sequenceNumber++);
+                stream.add(parity);
+            }
+        }
+
+        return stream;
+    }
+
+    private List<DataPacket> receive(FecDecoder decoder, DataPacket packet) {
+        // Go through the wire format, as the session would.
+        DataPacket received = DataPacket.decode(packet.encode());
+        if (received.getPayloadType() == FEC_PAYLOAD_TYPE) {
+            return decoder.fecPacketReceived(received);
+        }
+
+        return decoder.mediaPacketReceived(received);
+    }
+
+    private void assertSamePacket(DataPacket expected, DataPacket actual) {
+        assertEquals(expected.getSequenceNumber(), actual.getSequenceNumber());
+        assertEquals(expected.getSsrc(), actual.getSsrc());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getPayloadType(), actual.getPayloadType());
+        assertEquals(expected.hasMarker(), actual.hasMarker());
+        assertEquals(expected.getContributingSourcesCount(), actual.getContributingSourcesCount());
+        assertEquals(expected.hasExtension(), actual.hasExtension());
+        assertArrayEquals(expected.getDataAsArray(), actual.getDataAsArray());
+        assertArrayEquals(expected.encode().array(), actual.encode().array());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.flow;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.session.MultiParticipantSession;
+import com.biasedbit.efflux.session.RtpSessionEventListener;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class DataPacketPublisherTest {
+
+    private MultiParticipantSession session;
+    private RtpParticipant alice;
+    private RtpParticipant bob;
+    private TestSubscriber subscriber;
+
+    @Before
+    public void setUp() {
+        RtpParticipant local = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        local.getInfo().setSsrc(1);
+        this.session = new MultiParticipantSession("id", 8, local);
+        this.alice = RtpParticipant.createReceiver("localhost", 9000, 9001);
+        this.alice.getInfo().setSsrc(2);
+        this.bob = RtpParticipant.createReceiver("localhost", 9002, 9003);
+        this.bob.getInfo().setSsrc(3);
+        this.subscriber = new TestSubscriber();
+    }
+
+    @Test
+    public void testReadingFollowsDemand() throws Exception {
+        DataPacketPublisher publisher = new DataPacketPublisher(this.session);
+        publisher.subscribe(this.subscriber);
+        assertEquals(1, publisher.getSubscriberCount());
+        assertTrue(this.session.isDataReadingSuspended());
+
+        this.subscriber.subscription.request(2);
+        assertFalse(this.session.isDataReadingSuspended());
+        for (int i = 0; i < 3; i++) {
+            publisher.dataPacketReceived(this.session, this.alice.getInfo(), createPacket(i));
+        }
+        // Third packet was already read when demand ran out; it's held until asked for.
+        assertEquals(2, this.subscriber.packets.size());
+        assertTrue(this.session.isDataReadingSuspended());
+
+        this.subscriber.subscription.request(1);
+        assertEquals(3, this.subscriber.packets.size());
+        assertEquals(2, this.subscriber.packets.get(2).getSequenceNumber());
+        assertTrue(this.session.isDataReadingSuspended());
+
+        this.subscriber.subscription.cancel();
+        assertFalse(this.session.isDataReadingSuspended());
+        assertEquals(0, publisher.getSubscriberCount());
+        assertEquals(0, publisher.getDroppedPackets());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        DataPacketPublisher publisher = new DataPacketPublisher(this.session, null, 2, OverflowPolicy.DROP_OLDEST);
+        publisher.subscribe(this.subscriber);
+        for (int i = 0; i < 4; i++) {
+            publisher.dataPacketReceived(this.session, this.alice.getInfo(), createPacket(i));
+        }
+        assertFalse(this.session.isDataReadingSuspended());
+        assertEquals(2, publisher.getDroppedPackets());
+
+        this.subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, this.subscriber.packets.size());
+        assertEquals(2, this.subscriber.packets.get(0).getSequenceNumber());
+        assertEquals(3, this.subscriber.packets.get(1).getSequenceNumber());
+    }
+
+    @Test
+    public void testParticipantPublisherCompletesWhenParticipantLeaves() throws Exception {
+        DataPacketPublisher publisher = new DataPacketPublisher(this.session, this.alice);
+        publisher.subscribe(this.subscriber);
+        publisher.dataPacketReceived(this.session, this.bob.getInfo(), createPacket(0));
+        publisher.dataPacketReceived(this.session, this.alice.getInfo(), createPacket(1));
+
+        // Completion waits for what was buffered.
+        publisher.participantLeft(this.session, this.bob);
+        publisher.participantLeft(this.session, this.alice);
+        assertFalse(this.subscriber.completed);
+
+        this.subscriber.subscription.request(10);
+        assertEquals(1, this.subscriber.packets.size());
+        assertEquals(1, this.subscriber.packets.get(0).getSequenceNumber());
+        assertTrue(this.subscriber.completed);
+        assertNull(this.subscriber.error);
+        assertFalse(this.session.isDataReadingSuspended());
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        DataPacketPublisher publisher = new DataPacketPublisher(this.session);
+        publisher.subscribe(this.subscriber);
+        publisher.sessionTerminated(this.session, new Throwable("Loop detected"));
+        assertEquals("Loop detected", this.subscriber.error.getMessage());
+
+        TestSubscriber other = new TestSubscriber();
+        publisher.subscribe(other);
+        other.subscription.request(0);
+        assertTrue(other.error instanceof IllegalArgumentException);
+
+        TestSubscriber last = new TestSubscriber();
+        publisher.subscribe(last);
+        publisher.sessionTerminated(this.session, RtpSessionEventListener.TERMINATE_CALLED);
+        assertTrue(last.completed);
+        assertFalse(this.session.isDataReadingSuspended());
+    }
+
+    private static DataPacket createPacket(int sequenceNumber) {
+        DataPacket packet = new DataPacket();
+        packet.setPayloadType(8);
+        packet.setSequenceNumber(sequenceNumber);
+        packet.setData(new byte[]{0x45});
+        return packet;
+    }
+
+    private static class TestSubscriber implements Subscriber<DataPacket> {
+
+        private final List<DataPacket> packets = new ArrayList<DataPacket>();
+        private Subscription subscription;
+        private boolean completed;
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(DataPacket item) {
+            this.packets.add(item);
+        }
+
+        @Override
+        public void onError(Throwable cause) {
+            this.error = cause;
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+        }
+    }
+}
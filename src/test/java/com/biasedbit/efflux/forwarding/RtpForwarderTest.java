@@ -0,0 +1,224 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.forwarding;
+
+import com.biasedbit.efflux.packet.AbstractFeedbackPacket;
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.GenericNackPacket;
+import com.biasedbit.efflux.packet.HeaderExtensions;
+import com.biasedbit.efflux.packet.SenderReportPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.AbstractRtpSession;
+import com.biasedbit.efflux.session.SingleParticipantSession;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class RtpForwarderTest {
+
+    private RtpForwarder forwarder;
+    private AbstractRtpSession firstSource;
+    private AbstractRtpSession secondSource;
+    private AbstractRtpSession subscriberSession;
+    private RtpParticipant subscriber;
+    private List<DataPacket> forwarded;
+
+    @Before
+    public void setUp() {
+        this.forwarder = new RtpForwarder();
+        this.forwarded = new ArrayList<DataPacket>();
+        this.firstSource = this.createSession(1);
+        this.secondSource = this.createSession(2);
+        this.subscriber = RtpParticipant.createReceiver(new RtpParticipantInfo(50), "localhost", 9000, 9001);
+        this.subscriberSession = new SingleParticipantSession("subscriber", 96, this.createParticipant(3),
+                                                              this.subscriber) {
+            @Override
+            public boolean forwardDataPacket(ByteBuf packet, RtpParticipant participant) {
+                assertSame(subscriber, participant);
+                forwarded.add(DataPacket.decode(packet.copy()));
+                packet.release();
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void testContinuityAcrossSourceSwitch() throws Exception {
+        ForwardedStream stream = this.forwarder.subscribe(this.firstSource, 10, this.subscriberSession,
+                                                          this.subscriber, 8000);
+        for (int i = 0; i < 5; i++) {
+            this.receive(this.firstSource, 10, 65533 + i, 1000 + (i * 160));
+        }
+
+        assertTrue(this.forwarder.switchSource(stream, this.secondSource, 20));
+        this.receive(this.firstSource, 10, 2, 1800);
+        this.receive(this.secondSource, 20, 5000, 900000);
+        this.receive(this.secondSource, 20, 5001, 900160);
+        // Reordered, but from before the switch.
+        this.receive(this.secondSource, 20, 4999, 899840);
+        this.receive(this.secondSource, 20, 5003, 900480);
+
+        assertEquals(8, this.forwarded.size());
+        assertEquals(8, this.forwarder.getForwardedPackets());
+        // Packets of the old source are no longer routed; only the straggler of the new one is discarded.
+        assertEquals(1, this.forwarder.getDiscardedPackets());
+        assertEquals(8, stream.getForwardedPackets());
+        assertEquals(8 * 20, stream.getForwardedBytes());
+
+        DataPacket first = this.forwarded.get(0);
+        for (int i = 0; i < 5; i++) {
+            DataPacket packet = this.forwarded.get(i);
+            assertEquals(stream.getSsrc(), packet.getSsrc());
+            assertEquals((65533 + i) & 0xffff, packet.getSequenceNumber());
+            assertEquals(1000 + (i * 160), packet.getTimestamp());
+            assertEquals(10, packet.getData().getByte(0));
+        }
+
+        // Numbering carries on from the last packet of the previous source, gaps included.
+        assertEquals(2, this.forwarded.get(5).getSequenceNumber());
+        assertEquals(3, this.forwarded.get(6).getSequenceNumber());
+        assertEquals(5, this.forwarded.get(7).getSequenceNumber());
+        long switchTimestamp = this.forwarded.get(5).getTimestamp();
+        assertTrue(switchTimestamp > first.getTimestamp() + (4 * 160));
+        assertEquals(switchTimestamp + 160, this.forwarded.get(6).getTimestamp());
+        assertEquals(switchTimestamp + 480, this.forwarded.get(7).getTimestamp());
+        for (int i = 5; i < 8; i++) {
+            assertEquals(stream.getSsrc(), this.forwarded.get(i).getSsrc());
+            assertEquals(20, this.forwarded.get(i).getData().getByte(0));
+        }
+
+        assertTrue(this.forwarder.unsubscribe(stream));
+        assertFalse(this.forwarder.unsubscribe(stream));
+        assertFalse(this.forwarder.switchSource(stream, this.firstSource, 10));
+        assertNull(this.forwarder.getRoute(this.secondSource, 20));
+    }
+
+    @Test
+    public void testEverySubscriberGetsItsOwnHeader() throws Exception {
+        ForwardedStream first = this.forwarder.subscribe(this.firstSource, 10, this.subscriberSession,
+                                                         this.subscriber, 8000);
+        ForwardedStream second = this.forwarder.subscribe(this.firstSource, 10, this.subscriberSession,
+                                                          this.subscriber, 8000);
+        assertFalse(first.getSsrc() == second.getSsrc());
+        assertSame(first, this.forwarder.getStream(first.getSsrc()));
+
+        ByteBuf packet = this.receive(this.firstSource, 10, 7, 1234);
+
+        assertEquals(2, this.forwarded.size());
+        assertEquals(first.getSsrc(), this.forwarded.get(0).getSsrc());
+        assertEquals(second.getSsrc(), this.forwarded.get(1).getSsrc());
+        for (DataPacket forwarded : this.forwarded) {
+            assertEquals(7, forwarded.getSequenceNumber());
+            assertEquals(1234, forwarded.getTimestamp());
+            assertEquals(96, forwarded.getPayloadType());
+            assertEquals(20, forwarded.getDataSize());
+        }
+        // The last subscriber got the received buffer itself.
+        assertEquals(second.getSsrc(), packet.getUnsignedInt(8));
+        assertEquals(1, packet.refCnt());
+    }
+
+    @Test
+    public void testControlTranslation() throws Exception {
+        ForwardedStream stream = this.forwarder.subscribe(this.firstSource, 10, this.subscriberSession,
+                                                          this.subscriber, 8000);
+        this.receive(this.firstSource, 10, 100, 5000);
+        this.forwarder.switchSource(stream, this.secondSource, 20);
+        this.receive(this.secondSource, 20, 7000, 80000);
+
+        GenericNackPacket nack = new GenericNackPacket();
+        nack.setSenderSsrc(50);
+        nack.setMediaSsrc(stream.getSsrc());
+        nack.addLostSequenceNumber(101);
+        AbstractFeedbackPacket translated = stream.translate(nack, 2);
+        assertEquals(2, translated.getSenderSsrc());
+        assertEquals(20, translated.getMediaSsrc());
+        assertEquals(Arrays.asList(7000), ((GenericNackPacket) translated).getLostSequenceNumbers());
+
+        SenderReportPacket report = new SenderReportPacket();
+        report.setSenderSsrc(20);
+        report.setNtpTimestamp(0x1122334455667788L);
+        report.setRtpTimestamp(80160);
+        report.setSenderPacketCount(1000);
+        report.setSenderOctetCount(20000);
+        SenderReportPacket translatedReport = stream.translate(report);
+        assertEquals(stream.getSsrc(), translatedReport.getSenderSsrc());
+        assertEquals(0x1122334455667788L, translatedReport.getNtpTimestamp());
+        assertEquals(this.forwarded.get(1).getTimestamp() + 160, translatedReport.getRtpTimestamp());
+        assertEquals(2, translatedReport.getSenderPacketCount());
+        assertEquals(40, translatedReport.getSenderOctetCount());
+    }
+
+    @Test
+    public void testOctetCountOnlyCountsPayload() throws Exception {
+        ForwardedStream stream = this.forwarder.subscribe(this.firstSource, 10, this.subscriberSession,
+                                                          this.subscriber, 8000);
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(10);
+        packet.setPayloadType(96);
+        packet.addContributingSourceId(77);
+        HeaderExtensions extensions = new HeaderExtensions();
+        extensions.set(1, new byte[]{0x01, 0x02});
+        packet.setHeaderExtensions(extensions);
+        packet.setData(new byte[21]);
+        // 12 + 4 (CSRC) + 8 (extension) + 21, padded to 48.
+        ByteBuf encoded = packet.encode(16);
+        assertEquals(48, encoded.readableBytes());
+        this.forwarder.forward(this.firstSource, 10, this.forwarder.getRoute(this.firstSource, 10), encoded,
+                               encoded.readerIndex(), encoded.readableBytes());
+
+        assertEquals(1, stream.getForwardedPackets());
+        assertEquals(21, stream.getForwardedBytes());
+    }
+
+    private ByteBuf receive(AbstractRtpSession session, long ssrc, int sequenceNumber, long timestamp) {
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(ssrc);
+        packet.setPayloadType(96);
+        packet.setSequenceNumber(sequenceNumber & 0xffff);
+        packet.setTimestamp(timestamp);
+        byte[] payload = new byte[20];
+        Arrays.fill(payload, (byte) ssrc);
+        packet.setData(payload);
+
+        ByteBuf encoded = packet.encode();
+        List<ForwardedStream> route = this.forwarder.getRoute(session, ssrc);
+        if (route != null) {
+            this.forwarder.forward(session, ssrc, route, encoded, encoded.readerIndex(), encoded.readableBytes());
+        }
+        return encoded;
+    }
+
+    private RtpParticipant createParticipant(long ssrc) {
+        return RtpParticipant.createReceiver(new RtpParticipantInfo(ssrc), "localhost", 8000, 8001);
+    }
+
+    private AbstractRtpSession createSession(long ssrc) {
+        return new SingleParticipantSession("source" + ssrc, 96, this.createParticipant(ssrc),
+                                            this.createParticipant(ssrc + 100));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.mixer;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.SingleParticipantSession;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class AudioMixerTest {
+
+    private static final int SAMPLES = 160;
+
+    private Map<Long, List<DataPacket>> sent;
+    private SingleParticipantSession session;
+    private RtpParticipant[] participants;
+
+    @Before
+    public void setUp() {
+        this.sent = new HashMap<Long, List<DataPacket>>();
+        RtpParticipant local = RtpParticipant.createReceiver(new RtpParticipantInfo(99), "localhost", 6000, 6001);
+        this.participants = new RtpParticipant[3];
+        for (int i = 0; i < this.participants.length; i++) {
+            this.participants[i] = RtpParticipant.createReceiver(new RtpParticipantInfo(i + 1), "localhost",
+                                                                 7000 + (i * 2), 7001 + (i * 2));
+            this.sent.put(i + 1L, new ArrayList<DataPacket>());
+        }
+        this.session = new SingleParticipantSession("mixer", 11, local, this.participants[0]) {
+            @Override
+            public boolean sendDataPacket(DataPacket packet, RtpParticipant participant) {
+                sent.get(participant.getSsrc()).add(packet);
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void testG711RoundTrip() throws Exception {
+        for (AudioCodec codec : Arrays.asList(AudioCodec.PCMU, AudioCodec.PCMA)) {
+            byte[] encoded = new byte[256];
+            for (int i = 0; i < 256; i++) {
+                encoded[i] = (byte) i;
+            }
+            short[] decoded = new short[256];
+            codec.decode(Unpooled.wrappedBuffer(encoded), 0, decoded, 0, 256);
+
+            int[] samples = new int[256];
+            for (int i = 0; i < 256; i++) {
+                samples[i] = decoded[i];
+            }
+            byte[] reencoded = new byte[256];
+            codec.encode(samples, 256, reencoded, 0);
+            short[] redecoded = new short[256];
+            codec.decode(Unpooled.wrappedBuffer(reencoded), 0, redecoded, 0, 256);
+            assertArrayEquals(codec.name(), decoded, redecoded);
+        }
+
+        short[] silence = new short[2];
+        AudioCodec.PCMU.decode(Unpooled.wrappedBuffer(new byte[]{(byte) 0xff, 0x00}), 0, silence, 0, 2);
+        assertEquals(0, silence[0]);
+        assertEquals(-32124, silence[1]);
+        AudioCodec.PCMA.decode(Unpooled.wrappedBuffer(new byte[]{(byte) 0xd5, (byte) 0xaa}), 0, silence, 0, 2);
+        assertEquals(8, silence[0]);
+        assertEquals(32256, silence[1]);
+    }
+
+    @Test
+    public void testEveryoneHearsEveryoneElse() throws Exception {
+        AudioMixer mixer = this.createMixer();
+        // Participant 3 only listens.
+        for (int frame = 0; frame < 5; frame++) {
+            this.receive(mixer, 0, frame, 1000);
+            this.receive(mixer, 1, frame, 200);
+        }
+        for (int tick = 0; tick < 8; tick++) {
+            mixer.mix();
+            if (tick == 4) {
+                // Its samples were mixed already.
+                this.receive(mixer, 0, 0, 1000);
+            }
+        }
+
+        // Two frames of playout delay, five frames of audio and then nothing, as nobody is talking anymore.
+        for (long ssrc = 1; ssrc <= 3; ssrc++) {
+            assertEquals(7, this.sent.get(ssrc).size());
+        }
+        this.assertMix(1, 200, 2L);
+        this.assertMix(2, 1000, 1L);
+        this.assertMix(3, 1200, 1L, 2L);
+        // Everyone's packets are on the mixer's timeline.
+        for (int i = 0; i < 7; i++) {
+            long timestamp = this.sent.get(1L).get(i).getTimestamp();
+            assertEquals(timestamp, this.sent.get(2L).get(i).getTimestamp());
+            assertEquals(timestamp, this.sent.get(3L).get(i).getTimestamp());
+        }
+        assertEquals(21, mixer.getMixedPackets());
+        assertEquals(8, mixer.getTicks());
+        assertEquals(1, mixer.getLatePackets());
+    }
+
+    @Test
+    public void testOutputIsClipped() throws Exception {
+        AudioMixer mixer = this.createMixer();
+        for (int frame = 0; frame < 3; frame++) {
+            this.receive(mixer, 0, frame, 30000);
+            this.receive(mixer, 1, frame, 30000);
+        }
+        for (int tick = 0; tick < 3; tick++) {
+            mixer.mix();
+        }
+
+        assertEquals(Short.MAX_VALUE, this.sent.get(3L).get(2).getData().getShort(0));
+        assertEquals(30000, this.sent.get(1L).get(2).getData().getShort(0));
+    }
+
+    @Test
+    public void testRemovedParticipantIsNotMixed() throws Exception {
+        AudioMixer mixer = this.createMixer();
+        assertFalse(mixer.addParticipant(this.session, this.participants[0]));
+        assertTrue(mixer.removeParticipant(this.participants[1]));
+        assertFalse(mixer.removeParticipant(this.participants[1]));
+        assertEquals(2, mixer.getParticipantCount());
+
+        for (int frame = 0; frame < 3; frame++) {
+            this.receive(mixer, 1, frame, 500);
+        }
+        for (int tick = 0; tick < 3; tick++) {
+            mixer.mix();
+        }
+        assertTrue(this.sent.get(1L).isEmpty());
+        assertTrue(this.sent.get(2L).isEmpty());
+        assertTrue(this.sent.get(3L).isEmpty());
+    }
+
+    private AudioMixer createMixer() {
+        AudioMixer mixer = new AudioMixer(AudioCodec.L16, 8000);
+        assertEquals(SAMPLES, mixer.getSamplesPerFrame());
+        for (RtpParticipant participant : this.participants) {
+            assertTrue(mixer.addParticipant(this.session, participant));
+        }
+        return mixer;
+    }
+
+    private void receive(AudioMixer mixer, int participant, int frame, int value) {
+        ByteBuf data = Unpooled.buffer(SAMPLES * 2);
+        for (int i = 0; i < SAMPLES; i++) {
+            data.writeShort(value);
+        }
+        DataPacket packet = new DataPacket();
+        packet.setPayloadType(11);
+        packet.setSequenceNumber(frame);
+        packet.setTimestamp(100000L + (frame * SAMPLES));
+        packet.setData(data);
+        mixer.dataPacketReceived(this.session, this.participants[participant].getInfo(), packet);
+    }
+
+    private void assertMix(long ssrc, int value, Long... contributors) {
+        List<DataPacket> packets = this.sent.get(ssrc);
+        DataPacket first = packets.get(0);
+        for (int i = 0; i < packets.size(); i++) {
+            DataPacket packet = packets.get(i);
+            assertEquals(i == 0, packet.hasMarker());
+            assertEquals((first.getSequenceNumber() + i) & 0xffff, packet.getSequenceNumber());
+            assertEquals((first.getTimestamp() + (i * SAMPLES)) & 0xffffffffL, packet.getTimestamp());
+            assertEquals(11, packet.getPayloadType());
+            assertEquals(Arrays.asList(contributors), packet.getContributingSourceIds());
+
+            // Playout starts two frames behind the first packet received.
+            ByteBuf data = packet.getData();
+            assertEquals(SAMPLES * 2, data.readableBytes());
+            int expected = (i < 2) ? 0 : value;
+            for (int j = 0; j < SAMPLES; j++) {
+                assertEquals(expected, data.getShort(j * 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.network;
+
+import com.biasedbit.efflux.packet.ByePacket;
+import com.biasedbit.efflux.packet.CompoundControlPacket;
+import com.biasedbit.efflux.packet.ControlPacket;
+import com.biasedbit.efflux.packet.ReceiverReportPacket;
+import com.biasedbit.efflux.packet.SdesChunk;
+import com.biasedbit.efflux.packet.SdesChunkItems;
+import com.biasedbit.efflux.packet.SourceDescriptionPacket;
+import com.biasedbit.efflux.util.ByteUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ControlPacketDecoderTest {
+
+    @Test
+    public void testValidCompound() throws Exception {
+        ByteBuf compound = this.compound();
+        assertTrue(ControlPacketDecoder.isValidCompound(compound, false));
+        assertTrue(ControlPacketDecoder.isValidCompound(compound, true));
+        assertEquals(0, compound.readerIndex());
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ControlPacketDecoder(false));
+        channel.writeInbound(compound);
+        CompoundControlPacket decoded = (CompoundControlPacket) channel.readInbound();
+        assertNotNull(decoded);
+        assertEquals(3, decoded.getControlPackets().size());
+        assertEquals(ControlPacket.Type.RECEIVER_REPORT, decoded.getControlPackets().get(0).getType());
+        assertEquals(ControlPacket.Type.SOURCE_DESCRIPTION, decoded.getControlPackets().get(1).getType());
+        assertEquals(ControlPacket.Type.BYE, decoded.getControlPackets().get(2).getType());
+    }
+
+    @Test
+    public void testInvalidCompounds() throws Exception {
+        // Not a report first, only accepted as non-compound.
+        ByteBuf buffer = this.sdes().encode();
+        assertFalse(ControlPacketDecoder.isValidCompound(buffer, false));
+        assertTrue(ControlPacketDecoder.isValidCompound(buffer, true));
+
+        // Version 1 on the second packet.
+        buffer = this.compound();
+        int second = (buffer.getUnsignedShort(2) + 1) * 4;
+        buffer.setByte(second, buffer.getByte(second) & 0x3f | 0x40);
+        assertFalse(ControlPacketDecoder.isValidCompound(buffer, true));
+
+        // Padding on a packet other than the last.
+        buffer = this.compound();
+        buffer.setByte(0, buffer.getByte(0) | 0x20);
+        assertFalse(ControlPacketDecoder.isValidCompound(buffer, true));
+
+        // Length of the last packet going past the end of the datagram.
+        buffer = this.compound();
+        int last = buffer.writerIndex() - 8;
+        buffer.setShort(last + 2, 2);
+        assertFalse(ControlPacketDecoder.isValidCompound(buffer, true));
+
+        // Lengths not adding up to the datagram's.
+        buffer = Unpooled.wrappedBuffer(this.compound(), Unpooled.wrappedBuffer(new byte[4]));
+        assertFalse(ControlPacketDecoder.isValidCompound(buffer, true));
+        buffer = this.compound();
+        buffer.writerIndex(buffer.writerIndex() - 4);
+        assertFalse(ControlPacketDecoder.isValidCompound(buffer, true));
+
+        // Unknown first packet type.
+        assertFalse(ControlPacketDecoder.isValidCompound(
+                Unpooled.wrappedBuffer(ByteUtils.convertHexStringToByteArray("80cf000100000045")), true));
+
+        // Discarded as a whole, nothing goes upstream.
+        EmbeddedChannel channel = new EmbeddedChannel(new ControlPacketDecoder());
+        buffer = this.compound();
+        buffer.setByte(0, buffer.getByte(0) | 0x20);
+        channel.writeInbound(buffer);
+        assertNull(channel.readInbound());
+        assertEquals(0, buffer.refCnt());
+    }
+
+    @Test
+    public void testPacketFailingToDecodeIsSkipped() throws Exception {
+        // Valid structure but unknown type in the middle (XR, not supported).
+        ByteBuf xr = Unpooled.wrappedBuffer(ByteUtils.convertHexStringToByteArray("80cf000100000045"));
+        ReceiverReportPacket report = new ReceiverReportPacket();
+        report.setSenderSsrc(0x45);
+        ByteBuf buffer = Unpooled.wrappedBuffer(report.encode(), xr, this.bye().encode());
+        assertTrue(ControlPacketDecoder.isValidCompound(buffer, false));
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ControlPacketDecoder());
+        channel.writeInbound(buffer);
+        CompoundControlPacket decoded = (CompoundControlPacket) channel.readInbound();
+        assertEquals(2, decoded.getControlPackets().size());
+        assertEquals(ControlPacket.Type.RECEIVER_REPORT, decoded.getControlPackets().get(0).getType());
+        assertEquals(ControlPacket.Type.BYE, decoded.getControlPackets().get(1).getType());
+    }
+
+    // private helpers ------------------------------------------------------------------------------------------------
+
+    private ByteBuf compound() {
+        ReceiverReportPacket report = new ReceiverReportPacket();
+        report.setSenderSsrc(0x45);
+        return Unpooled.copiedBuffer(report.encode(), this.sdes().encode(), this.bye().encode());
+    }
+
+    private SourceDescriptionPacket sdes() {
+        SdesChunk chunk = new SdesChunk(0x45);
+        chunk.addItem(SdesChunkItems.createCnameItem("efflux@localhost"));
+        SourceDescriptionPacket packet = new SourceDescriptionPacket();
+        packet.addItem(chunk);
+        return packet;
+    }
+
+    private ByePacket bye() {
+        ByePacket packet = new ByePacket();
+        packet.addSsrc(0x45);
+        return packet;
+    }
+}
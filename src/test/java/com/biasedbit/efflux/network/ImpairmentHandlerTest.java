@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.network;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ImpairmentHandlerTest {
+
+    private static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 6000);
+
+    @Test
+    public void testBernoulliLossIsReproducible() throws Exception {
+        NetworkImpairment impairment = NetworkImpairment.loss(0.3, 42);
+        List<Integer> first = this.writeThrough(new ImpairmentHandler(impairment), 1000);
+        List<Integer> second = this.writeThrough(new ImpairmentHandler(impairment), 1000);
+
+        assertEquals(first, second);
+        assertTrue(first.size() > 650);
+        assertTrue(first.size() < 750);
+        assertEquals(2000, impairment.getPassedPackets() + impairment.getDroppedPackets());
+        assertEquals(2000 - first.size() * 2, impairment.getDroppedPackets());
+
+        impairment.setSeed(43);
+        assertFalse(first.equals(this.writeThrough(new ImpairmentHandler(impairment), 1000)));
+    }
+
+    @Test
+    public void testGilbertElliottLossComesInBursts() throws Exception {
+        NetworkImpairment impairment = new NetworkImpairment();
+        // Mean loss of p/(p+r) = 10%, in bursts averaging 1/r = 5 packets.
+        impairment.setGilbertElliott(0.0222, 0.2, 0, 1);
+        impairment.setSeed(7);
+        List<Integer> passed = this.writeThrough(new ImpairmentHandler(impairment), 10000);
+
+        int lost = 10000 - passed.size();
+        assertTrue(lost > 700);
+        assertTrue(lost < 1300);
+
+        int bursts = 0;
+        int previous = -1;
+        for (int index : passed) {
+            if (index != previous + 1) {
+                bursts++;
+            }
+            previous = index;
+        }
+        assertTrue(((double) lost / bursts) > 3);
+    }
+
+    @Test
+    public void testDuplication() throws Exception {
+        NetworkImpairment impairment = new NetworkImpairment();
+        impairment.setDuplicateProbability(1);
+        List<Integer> passed = this.writeThrough(new ImpairmentHandler(impairment), 10);
+
+        assertEquals(20, passed.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, (int) passed.get(i * 2));
+            assertEquals(i, (int) passed.get((i * 2) + 1));
+        }
+        assertEquals(10, impairment.getDuplicatedPackets());
+    }
+
+    @Test
+    public void testDirections() throws Exception {
+        NetworkImpairment impairment = NetworkImpairment.loss(1, 0);
+        EmbeddedChannel channel = new EmbeddedChannel(new ImpairmentHandler(impairment));
+        DatagramPacket packet = this.packet(1);
+        channel.writeInbound(packet);
+        assertSame(packet, channel.readInbound());
+        packet.release();
+
+        impairment.setImpairInbound(true);
+        impairment.setImpairOutbound(false);
+        packet = this.packet(2);
+        channel.writeInbound(packet);
+        assertNull(channel.readInbound());
+        assertEquals(0, packet.refCnt());
+
+        packet = this.packet(3);
+        channel.writeOutbound(packet);
+        assertSame(packet, channel.readOutbound());
+        packet.release();
+
+        // Anything other than a datagram goes through.
+        impairment.setImpairOutbound(true);
+        channel.writeOutbound("not a datagram");
+        assertEquals("not a datagram", channel.readOutbound());
+    }
+
+    private List<Integer> writeThrough(ImpairmentHandler handler, int count) {
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        for (int i = 0; i < count; i++) {
+            channel.writeOutbound(this.packet(i));
+        }
+
+        List<Integer> passed = new ArrayList<Integer>();
+        DatagramPacket packet;
+        while ((packet = (DatagramPacket) channel.readOutbound()) != null) {
+            passed.add(packet.content().getInt(0));
+            packet.release();
+        }
+        return passed;
+    }
+
+    private DatagramPacket packet(int index) {
+        return new DatagramPacket(Unpooled.buffer(4).writeInt(index), ADDRESS);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.network;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipant;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.RtpSession;
+import com.biasedbit.efflux.session.RtpSessionDataListener;
+import com.biasedbit.efflux.session.SingleParticipantSession;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class PortPairPoolTest {
+
+    private PortPairPool pool;
+
+    @After
+    public void tearDown() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testAcquireAndRelease() throws Exception {
+        this.pool = new PortPairPool("127.0.0.1", 31001, 31020, 4);
+        assertTrue(this.pool.init());
+        assertEquals(4, this.pool.getAvailable());
+
+        List<PortPair> pairs = new ArrayList<PortPair>();
+        Set<Integer> ports = new HashSet<Integer>();
+        for (int i = 0; i < 4; i++) {
+            PortPair pair = this.pool.acquire();
+            int port = pair.getDataAddress().getPort();
+            assertEquals(0, port % 2);
+            assertEquals(port + 1, pair.getControlAddress().getPort());
+            assertTrue((port >= 31002) && (port < 31020));
+            assertTrue(ports.add(port));
+            pairs.add(pair);
+        }
+        assertEquals(4, this.pool.getInUse());
+        assertEquals(4, this.pool.getAcquired());
+
+        // Refilled in the background.
+        this.waitForAvailable(4);
+        for (PortPair pair : pairs) {
+            this.pool.release(pair);
+        }
+        assertEquals(0, this.pool.getInUse());
+        // Already full, so the released pairs were closed rather than pooled.
+        assertEquals(4, this.pool.getAvailable());
+        for (PortPair pair : pairs) {
+            assertTrue(pair.getDataChannel().closeFuture().await(1000));
+            assertTrue(pair.getControlChannel().closeFuture().await(1000));
+        }
+    }
+
+    @Test
+    public void testExhaustionAndBusyPorts() throws Exception {
+        // Someone else holds the first pair's control port.
+        DatagramSocket squatter = new DatagramSocket(new InetSocketAddress("127.0.0.1", 31031));
+        try {
+            this.pool = new PortPairPool("127.0.0.1", 31030, 31035, 2);
+            assertTrue(this.pool.init());
+            assertEquals(1, this.pool.getBindFailures());
+
+            PortPair first = this.pool.acquire();
+            PortPair second = this.pool.acquire();
+            assertNotNull(first);
+            assertNotNull(second);
+            assertNull(this.pool.acquire());
+            assertEquals(1, this.pool.getExhausted());
+
+            this.pool.release(first);
+            assertEquals(1, this.pool.getAvailable());
+            assertSame(first, this.pool.acquire());
+        } finally {
+            squatter.close();
+        }
+    }
+
+    @Test
+    public void testSessionAdoptsAndRecyclesPair() throws Exception {
+        this.pool = new PortPairPool("127.0.0.1", 31040, 31049, 1);
+        assertTrue(this.pool.init());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        RtpParticipant remote = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 31050, 31051);
+        // The local ports are replaced with the adopted pair's.
+        RtpParticipant local = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 1, 2);
+        SingleParticipantSession session = new SingleParticipantSession("pooled", 8, local, remote);
+        session.setPortPairPool(this.pool);
+        assertTrue(session.init());
+        assertEquals(1, this.pool.getInUse());
+        InetSocketAddress data = (InetSocketAddress) local.getDataDestination();
+        InetSocketAddress control = (InetSocketAddress) local.getControlDestination();
+        assertTrue((data.getPort() >= 31040) && (data.getPort() < 31049));
+        assertEquals(data.getPort() + 1, control.getPort());
+
+        RtpParticipant local2 = RtpParticipant.createReceiver(new RtpParticipantInfo(2), "127.0.0.1", 31050, 31051);
+        RtpParticipant remote2 = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", data.getPort(),
+                                                               control.getPort());
+        SingleParticipantSession session2 = new SingleParticipantSession("bound", 8, local2, remote2);
+        session2.addDataListener(new RtpSessionDataListener() {
+            @Override
+            public void dataPacketReceived(RtpSession session, RtpParticipantInfo participant, DataPacket packet) {
+                latch.countDown();
+            }
+        });
+
+        try {
+            assertTrue(session2.init());
+            assertTrue(session.sendData(new byte[]{0x45, 0x45}, 0, false));
+            assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+        } finally {
+            session.terminate();
+            session2.terminate();
+        }
+
+        assertEquals(0, this.pool.getInUse());
+        this.waitForAvailable(1);
+    }
+
+    private void waitForAvailable(int available) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((this.pool.getAvailable() < available) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertEquals(available, this.pool.getAvailable());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import com.biasedbit.efflux.util.ByteUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class AppDataPacketTest {
+
+    @Test
+    public void testDecode() throws Exception {
+        // APP, subtype=3, length=3; ssrc 0x01020304, name "TELE", data 0xdeadbeef
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("83cc00030102030454454c45deadbeef");
+
+        ByteBuf buffer = Unpooled.wrappedBuffer(packetBytes);
+        AppDataPacket packet = (AppDataPacket) ControlPacket.decode(buffer);
+
+        assertEquals(0, buffer.readableBytes());
+        assertEquals(3, packet.getSubtype());
+        assertEquals(0x01020304L, packet.getSsrc());
+        assertEquals("TELE", packet.getName());
+        assertEquals(4, packet.getData().readableBytes());
+        assertEquals(0xdeadbeef, packet.getData().getInt(packet.getData().readerIndex()));
+
+        // Zero copy: the payload shares the received buffer, and keeps it alive.
+        assertEquals(2, buffer.refCnt());
+        packetBytes[12] = 0x00;
+        assertEquals(0x00adbeef, packet.getData().getInt(packet.getData().readerIndex()));
+        ByteBuf encoded = packet.encode();
+        assertArrayEquals(ByteUtils.convertHexStringToByteArray("83cc00030102030454454c4500adbeef"),
+                          this.toArray(encoded));
+        encoded.release();
+
+        assertFalse(packet.release());
+        assertEquals(1, buffer.refCnt());
+    }
+
+    @Test
+    public void testEncodeWithPadding() throws Exception {
+        ByteBuf data = Unpooled.wrappedBuffer(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        AppDataPacket packet = new AppDataPacket(31, 0xffffffffL, "abcd", data);
+
+        ByteBuf encoded = packet.encode(4, 16);
+        // 12 + 8 = 20, +4 of previous compound packets = 24 -> 8 bytes of padding to reach 32.
+        assertEquals(28, encoded.readableBytes());
+        // Encoding holds its own reference to the data until the encoded buffer is released.
+        assertEquals(2, data.refCnt());
+
+        AppDataPacket decoded = (AppDataPacket) ControlPacket.decode(encoded);
+        assertEquals(0, encoded.readableBytes());
+        assertEquals(31, decoded.getSubtype());
+        assertEquals(0xffffffffL, decoded.getSsrc());
+        assertEquals("abcd", decoded.getName());
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, this.toArray(decoded.getData()));
+
+        decoded.release();
+        encoded.release();
+        assertEquals(1, data.refCnt());
+        assertTrue(packet.release());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDataMustBeWordAligned() throws Exception {
+        new AppDataPacket(0, 1, "abcd", Unpooled.wrappedBuffer(new byte[]{1, 2, 3}));
+    }
+
+    private byte[] toArray(ByteBuf buffer) {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import com.biasedbit.efflux.util.ByteUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FeedbackPacketTest {
+
+    @Test
+    public void testDecodePictureLossIndication() throws Exception {
+        // PSFB, FMT=1, length=2; sender 0x01020304, media 0x0a0b0c0d
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("81ce0002010203040a0b0c0d");
+
+        ByteBuf buffer = Unpooled.wrappedBuffer(packetBytes);
+        ControlPacket controlPacket = ControlPacket.decode(buffer);
+
+        assertEquals(ControlPacket.Type.PAYLOAD_SPECIFIC_FEEDBACK, controlPacket.getType());
+        PictureLossIndicationPacket pli = (PictureLossIndicationPacket) controlPacket;
+        assertEquals(0x01020304L, pli.getSenderSsrc());
+        assertEquals(0x0a0b0c0dL, pli.getMediaSsrc());
+        assertEquals(0, buffer.readableBytes());
+
+        assertArrayEquals(packetBytes, pli.encode().array());
+    }
+
+    @Test
+    public void testDecodeReceiverEstimatedMaxBitrate() throws Exception {
+        // PSFB, FMT=15, length=5; sender 1, media 0; "REMB", 1 SSRC, exp=2 mantissa=250000 (1Mbps), SSRC 0x0a0b0c0d
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("8fce00050000000100000000" +
+                                                                   "52454d42010bd0900a0b0c0d");
+
+        ByteBuf buffer = Unpooled.wrappedBuffer(packetBytes);
+        ReceiverEstimatedMaxBitratePacket remb = (ReceiverEstimatedMaxBitratePacket) ControlPacket.decode(buffer);
+
+        assertEquals(1L, remb.getSenderSsrc());
+        assertEquals(1000000L, remb.getBitrate());
+        assertEquals(Arrays.asList(0x0a0b0c0dL), remb.getSsrcs());
+        assertEquals(0, buffer.readableBytes());
+
+        assertArrayEquals(packetBytes, remb.encode().array());
+    }
+
+    @Test
+    public void testEncodeDecodeFullIntraRequest() throws Exception {
+        FullIntraRequestPacket fir = new FullIntraRequestPacket();
+        fir.setSenderSsrc(0x01020304L);
+        fir.addEntry(0x0a0b0c0dL, 7);
+        fir.addEntry(0xffffffffL, 300);
+
+        ByteBuf encoded = fir.encode();
+        assertEquals(4 + 8 + 16, encoded.readableBytes());
+
+        FullIntraRequestPacket decoded = (FullIntraRequestPacket) ControlPacket.decode(encoded);
+        assertEquals(0x01020304L, decoded.getSenderSsrc());
+        assertEquals(0L, decoded.getMediaSsrc());
+        assertEquals(2, decoded.getEntries().size());
+        assertEquals(0x0a0b0c0dL, decoded.getEntries().get(0).getSsrc());
+        assertEquals(7, decoded.getEntries().get(0).getSequenceNumber());
+        assertEquals(0xffffffffL, decoded.getEntries().get(1).getSsrc());
+        assertEquals(300 & 0xff, decoded.getEntries().get(1).getSequenceNumber());
+    }
+
+    @Test
+    public void testEncodeDecodeTmmbrWithPadding() throws Exception {
+        TmmbrPacket tmmbr = new TmmbrPacket();
+        tmmbr.setSenderSsrc(1);
+        tmmbr.addEntry(0x0a0b0c0dL, 256000, 40);
+
+        ByteBuf encoded = tmmbr.encode(0, 32);
+        assertEquals(32, encoded.readableBytes());
+
+        ControlPacket decoded = ControlPacket.decode(encoded);
+        assertEquals(0, encoded.readableBytes());
+        assertFalse(decoded instanceof TmmbnPacket);
+        TmmbrPacket.Entry entry = ((TmmbrPacket) decoded).getEntries().get(0);
+        assertEquals(0x0a0b0c0dL, entry.getSsrc());
+        assertEquals(256000L, entry.getMaxBitrate());
+        assertEquals(40, entry.getMeasuredOverhead());
+
+        TmmbnPacket tmmbn = new TmmbnPacket();
+        tmmbn.addEntry(0x0a0b0c0dL, 256000, 40);
+        assertTrue(ControlPacket.decode(tmmbn.encode()) instanceof TmmbnPacket);
+    }
+
+    @Test
+    public void testUnknownPayloadSpecificFormatIsSkipped() throws Exception {
+        // PSFB, FMT=15 but not REMB ("ABCD"), followed by a PLI in the same buffer
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("8fce00040000000100000000414243440000000" +
+                                                                   "081ce0002010203040a0b0c0d");
+
+        ByteBuf buffer = Unpooled.wrappedBuffer(packetBytes);
+        assertNull(ControlPacket.decode(buffer.readSlice(20)));
+        assertTrue(ControlPacket.decode(buffer) instanceof PictureLossIndicationPacket);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import com.biasedbit.efflux.util.ByteUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class GenericNackPacketTest {
+
+    @Test
+    public void testDecode() throws Exception {
+        // RTPFB, FMT=1, length=3; sender 0x01020304, media 0x0a0b0c0d; PID=100, BLP=0x0005 (101 and 103 lost)
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("81cd0003010203040a0b0c0d00640005");
+
+        ByteBuf buffer = Unpooled.wrappedBuffer(packetBytes);
+        ControlPacket controlPacket = ControlPacket.decode(buffer);
+
+        assertEquals(ControlPacket.Type.TRANSPORT_FEEDBACK, controlPacket.getType());
+        GenericNackPacket nack = (GenericNackPacket) controlPacket;
+        assertEquals(GenericNackPacket.FORMAT, nack.getFormat());
+        assertEquals(0x01020304L, nack.getSenderSsrc());
+        assertEquals(0x0a0b0c0dL, nack.getMediaSsrc());
+        assertEquals(Arrays.asList(100, 101, 103), nack.getLostSequenceNumbers());
+
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    public void testDecodeUnknownFormatIsSkipped() throws Exception {
+        // RTPFB, FMT=15 (unassigned), length=3
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("8fcd0003010203040a0b0c0d00640005");
+
+        ByteBuf buffer = Unpooled.wrappedBuffer(packetBytes);
+        assertNull(ControlPacket.decode(buffer));
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        GenericNackPacket packet = new GenericNackPacket();
+        packet.setSenderSsrc(0x45);
+        packet.setMediaSsrc(0x46);
+        // 65534..65535, 0 and 2 fit a single PID/BLP pair across the wrap; 100 needs another one.
+        packet.addLostSequenceNumber(65534);
+        packet.addLostSequenceNumber(65535);
+        packet.addLostSequenceNumber(0);
+        packet.addLostSequenceNumber(2);
+        packet.addLostSequenceNumber(100);
+
+        ByteBuf buffer = packet.encode();
+        assertEquals(12 + 8, buffer.readableBytes());
+
+        GenericNackPacket nack = (GenericNackPacket) ControlPacket.decode(buffer);
+        assertEquals(0x45, nack.getSenderSsrc());
+        assertEquals(0x46, nack.getMediaSsrc());
+        assertEquals(Arrays.asList(65534, 65535, 0, 2, 100), nack.getLostSequenceNumbers());
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    public void testEncodeDecodeWithFixedBlockSize64() throws Exception {
+        GenericNackPacket packet = new GenericNackPacket();
+        packet.setSenderSsrc(0x45);
+        packet.setMediaSsrc(0x46);
+        packet.addLostSequenceNumber(10);
+
+        ByteBuf buffer = packet.encode(0, 64);
+        assertEquals(64, buffer.readableBytes());
+        byte[] bufferArray = buffer.array();
+        assertEquals(64 - 16, bufferArray[bufferArray.length - 1]);
+
+        GenericNackPacket nack = (GenericNackPacket) ControlPacket.decode(buffer);
+        assertEquals(Arrays.asList(10), nack.getLostSequenceNumbers());
+        assertEquals(0, buffer.readableBytes());
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.packet;
+
+import com.biasedbit.efflux.util.ByteUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class HeaderExtensionsTest {
+
+    @Test
+    public void testDecodeOneByteForm() throws Exception {
+        // V=2, X=1, PT=111, SN=1, TS=2, SSRC=3; extension 0xBEDE, 2 words:
+        // ID 1 (L=0) audio level 0x85, padding byte, ID 3 (L=2) 0x010203, padding; payload 0xcafe
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("906f00010000000200000003" +
+                                                                   "bede0002" + "1085" + "00" + "32010203" + "00" +
+                                                                   "cafe");
+
+        DataPacket packet = DataPacket.decode(packetBytes);
+        assertTrue(packet.hasExtension());
+        assertEquals((short) 0xbede, packet.getExtensionHeaderData());
+        assertEquals(8, packet.getExtensionDataSize());
+        assertArrayEquals(new byte[]{(byte) 0xca, (byte) 0xfe}, packet.getDataAsArray());
+
+        HeaderExtensions extensions = packet.getHeaderExtensions();
+        assertNotNull(extensions);
+        assertEquals(2, extensions.size());
+        assertEquals(0x85, extensions.getUnsignedByte(1));
+        assertFalse(extensions.contains(2));
+        assertEquals(3, extensions.getLength(3));
+        assertEquals(0x010203, extensions.get(3).readUnsignedMedium());
+        assertNull(extensions.get(14));
+
+        // Untouched extensions are written back as received.
+        assertArrayEquals(packetBytes, packet.encode().array());
+    }
+
+    @Test
+    public void testDecodeTwoByteForm() throws Exception {
+        // Extension 0x1000, 2 words: ID 200 (L=0), ID 2 (L=3) 0xaabbcc, padding
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("906f00010000000200000003" +
+                                                                   "10000002" + "c800" + "0203aabbcc" + "00");
+
+        HeaderExtensions extensions = DataPacket.decode(packetBytes).getHeaderExtensions();
+        assertEquals(2, extensions.size());
+        assertEquals(0, extensions.getLength(200));
+        assertEquals(-1, extensions.getUnsignedByte(200));
+        assertEquals(0xaabbcc, extensions.get(2).readUnsignedMedium());
+    }
+
+    @Test
+    public void testOpaqueExtensionIsNotParsed() throws Exception {
+        DataPacket packet = new DataPacket();
+        packet.setExtensionHeader((short) 0x8080, new byte[]{0x70, 0x70, 0x70, 0x70});
+        assertNull(packet.getHeaderExtensions());
+    }
+
+    @Test
+    public void testEncodePicksSmallestForm() throws Exception {
+        HeaderExtensions extensions = new HeaderExtensions();
+        extensions.set(1, new byte[]{(byte) 0x85});
+        extensions.set(5, new byte[]{1, 2, 3, 4, 5});
+
+        DataPacket packet = new DataPacket();
+        packet.setPayloadType(111);
+        packet.setHeaderExtensions(extensions);
+        packet.setData(new byte[]{0x01});
+
+        // 1+1 + 1+5 = 8 bytes, no padding needed.
+        ByteBuf encoded = packet.encode();
+        assertEquals(12 + 4 + 8 + 1, encoded.readableBytes());
+        assertEquals(0xbede, encoded.getUnsignedShort(12));
+        assertEquals(2, encoded.getUnsignedShort(14));
+
+        HeaderExtensions decoded = DataPacket.decode(encoded).getHeaderExtensions();
+        assertEquals(0x85, decoded.getUnsignedByte(1));
+        assertEquals(Unpooled.wrappedBuffer(new byte[]{1, 2, 3, 4, 5}), decoded.get(5));
+
+        // An ID above 14 (or an empty element) forces the two-byte form.
+        extensions.set(20, new byte[0]);
+        encoded = packet.encode();
+        assertEquals(HeaderExtensions.TWO_BYTE_PROFILE, encoded.getUnsignedShort(12));
+        decoded = DataPacket.decode(encoded).getHeaderExtensions();
+        assertEquals(3, decoded.size());
+        assertEquals(0, decoded.getLength(20));
+        assertEquals(0x85, decoded.getUnsignedByte(1));
+    }
+
+    @Test
+    public void testLocallyBuiltInstance() throws Exception {
+        HeaderExtensions extensions = new HeaderExtensions();
+        assertEquals(0, extensions.size());
+        assertFalse(extensions.contains(1));
+        assertNull(extensions.get(1));
+        assertEquals(-1, extensions.getUnsignedByte(1));
+        assertEquals(0, extensions.getEncodedLength());
+
+        DataPacket packet = new DataPacket();
+        packet.setPayloadType(111);
+        packet.setHeaderExtensions(extensions);
+        packet.setData(new byte[]{0x01});
+        ByteBuf encoded = packet.encode();
+        assertEquals(12 + 4 + 1, encoded.readableBytes());
+        assertEquals(0, DataPacket.decode(encoded.duplicate()).getHeaderExtensions().size());
+
+        // Filled after being attached to the packet.
+        extensions.set(3, new byte[]{0x45, 0x46});
+        extensions.set(4, new byte[]{0x47});
+        extensions.remove(4);
+        assertEquals(1, extensions.size());
+        assertEquals(4, extensions.getEncodedLength());
+        HeaderExtensions decoded = DataPacket.decode(packet.encode()).getHeaderExtensions();
+        assertEquals(1, decoded.size());
+        assertEquals(Unpooled.wrappedBuffer(new byte[]{0x45, 0x46}), decoded.get(3));
+    }
+
+    @Test
+    public void testTwoByteProfileKeepsAppBits() throws Exception {
+        // Extension 0x1005, 1 word: ID 2 (L=1) 0xaa, padding
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("906f00010000000200000003" +
+                                                                   "10050001" + "0201aa00");
+
+        DataPacket packet = DataPacket.decode(packetBytes);
+        assertEquals(0x1005, DataPacket.decode(packet.encode()).getExtensionHeaderData() & 0xffff);
+
+        // Still two-byte once modified, as long as it has to be.
+        packet.getHeaderExtensions().set(20, new byte[]{0x01});
+        assertEquals(0x1005, packet.encode().getUnsignedShort(12));
+        packet.getHeaderExtensions().remove(20);
+        assertEquals(0xbede, packet.encode().getUnsignedShort(12));
+    }
+
+    @Test
+    public void testOneByteIdZeroIsPadding() throws Exception {
+        // Extension 0xBEDE, 1 word: a zero ID with a non-zero length nibble, ID 1 (L=0) 0x85, padding
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("906f00010000000200000003" +
+                                                                   "bede0001" + "03108500");
+
+        HeaderExtensions extensions = DataPacket.decode(packetBytes).getHeaderExtensions();
+        assertEquals(1, extensions.size());
+        assertEquals(0x85, extensions.getUnsignedByte(1));
+    }
+
+    @Test
+    public void testModifyReceivedExtensions() throws Exception {
+        byte[] packetBytes = ByteUtils.convertHexStringToByteArray("906f00010000000200000003" +
+                                                                   "bede0001" + "10853201");
+
+        DataPacket packet = DataPacket.decode(packetBytes);
+        packet.getHeaderExtensions().remove(3);
+        packet.getHeaderExtensions().set(2, new byte[]{0x7f});
+
+        HeaderExtensions decoded = DataPacket.decode(packet.encode()).getHeaderExtensions();
+        assertEquals(2, decoded.size());
+        assertEquals(0x85, decoded.getUnsignedByte(1));
+        assertEquals(0x7f, decoded.getUnsignedByte(2));
+        assertFalse(decoded.contains(3));
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        HeaderExtensionRegistry registry = new HeaderExtensionRegistry();
+        registry.register(1, "urn:ietf:params:rtp-hdrext:ssrc-audio-level");
+        registry.register(3, "urn:ietf:params:rtp-hdrext:sdes:mid");
+        assertEquals(1, registry.getId("urn:ietf:params:rtp-hdrext:ssrc-audio-level"));
+        assertEquals("urn:ietf:params:rtp-hdrext:sdes:mid", registry.getUri(3));
+
+        // Re-negotiation moves the URI to another ID.
+        registry.register(4, "urn:ietf:params:rtp-hdrext:sdes:mid");
+        assertNull(registry.getUri(3));
+        assertEquals(4, registry.getId("urn:ietf:params:rtp-hdrext:sdes:mid"));
+        assertEquals(-1, registry.getId("urn:3gpp:video-orientation"));
+    }
+}
@@ -52,4 +52,36 @@ public class SourceChunkTest {
 
         assertEquals(0, encoded.readableBytes());
     }
+
+    @Test
+    public void testFingerprint() throws Exception {
+        SdesChunk chunk = new SdesChunk(0x45);
+        chunk.addItem(SdesChunkItems.createCnameItem("cname"));
+        chunk.addItem(SdesChunkItems.createNameItem("name"));
+        assertEquals(0, chunk.getFingerprint());
+
+        SdesChunk first = SdesChunk.decode(chunk.encode());
+        SdesChunk second = SdesChunk.decode(chunk.encode());
+        assertTrue(first.getFingerprint() != 0);
+        assertEquals(first.getFingerprint(), second.getFingerprint());
+        // CNAME is available without decoding the remaining items, which doesn't change the fingerprint.
+        assertEquals("cname", first.getItemValue(SdesChunkItem.Type.CNAME));
+        assertEquals("name", first.getItemValue(SdesChunkItem.Type.NAME));
+        assertEquals(second.getFingerprint(), first.getFingerprint());
+
+        chunk.addItem(SdesChunkItems.createNoteItem("note"));
+        SdesChunk changed = SdesChunk.decode(chunk.encode());
+        assertTrue(changed.getFingerprint() != first.getFingerprint());
+
+        chunk.setSsrc(0x46);
+        chunk.setItems(null);
+        chunk.addItem(SdesChunkItems.createCnameItem("cname"));
+        chunk.addItem(SdesChunkItems.createNameItem("name"));
+        assertTrue(SdesChunk.decode(chunk.encode()).getFingerprint() != first.getFingerprint());
+
+        // Modifying a decoded chunk invalidates its fingerprint.
+        first.addItem(SdesChunkItems.createNoteItem("note"));
+        assertEquals(0, first.getFingerprint());
+        assertEquals(3, first.getItems().size());
+    }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FixedSizePacketizerTest {
+
+    @Test
+    public void testPacketize() throws Exception {
+        byte[] data = new byte[2500];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteBuf frame = Unpooled.wrappedBuffer(data);
+        frame.readerIndex(100);
+        List<DataPacket> packets = new ArrayList<DataPacket>();
+
+        assertEquals(3, new FixedSizePacketizer(8, 1000).packetize(frame, 160, packets));
+        int[] sizes = {1000, 1000, 400};
+        int offset = 100;
+        for (int i = 0; i < 3; i++) {
+            DataPacket packet = packets.get(i);
+            assertEquals(8, packet.getPayloadType());
+            assertEquals(160, packet.getTimestamp());
+            assertEquals(i == 2, packet.hasMarker());
+            assertEquals(Unpooled.wrappedBuffer(data, offset, sizes[i]), packet.getData());
+            offset += sizes[i];
+        }
+        assertEquals(100, frame.readerIndex());
+
+        // Slices, not copies.
+        data[100] = 0x45;
+        assertEquals(0x45, packets.get(0).getData().getByte(0));
+
+        assertEquals(0, new FixedSizePacketizer(8, 1000).packetize(Unpooled.EMPTY_BUFFER, 0, packets));
+    }
+}
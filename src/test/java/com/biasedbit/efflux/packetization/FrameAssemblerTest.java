@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.session.RtpSession;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class FrameAssemblerTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xc0, 0x1e, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+    private static final byte[] PPS = {0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+
+    private List<Frame> frames;
+    private List<ByteBuf> data;
+    private FrameListener listener;
+
+    @Before
+    public void setUp() {
+        this.frames = new ArrayList<Frame>();
+        this.data = new ArrayList<ByteBuf>();
+        this.listener = new FrameListener() {
+            @Override
+            public void frameReceived(RtpSession session, RtpParticipantInfo participant, Frame frame) {
+                frames.add(frame);
+                data.add(Unpooled.copiedBuffer(frame.getData()));
+            }
+        };
+    }
+
+    @Test
+    public void testH264RoundTrip() throws Exception {
+        byte[] slice = new byte[3000];
+        slice[0] = 0x65;
+        for (int i = 1; i < slice.length; i++) {
+            slice[i] = (byte) ((i % 250) + 2);
+        }
+        ByteBuf expected = Unpooled.buffer();
+        for (byte[] unit : new byte[][]{SPS, PPS, slice}) {
+            expected.writeBytes(new byte[]{0, 0, 0, 1}).writeBytes(unit);
+        }
+
+        List<DataPacket> packets = new ArrayList<DataPacket>();
+        new H264Packetizer(96, 1200).packetize(expected.duplicate(), 9000, packets);
+        assertEquals(4, packets.size());
+        for (int i = 0; i < packets.size(); i++) {
+            packets.get(i).setSsrc(69);
+            packets.get(i).setSequenceNumber(65534 + i);
+        }
+
+        FrameAssembler assembler = new FrameAssembler(new H264Depacketizer());
+        assembler.addFrameListener(this.listener);
+        // Reordered, across a sequence number wrap, with a duplicate.
+        for (int i : new int[]{0, 2, 1, 2, 3}) {
+            assembler.dataPacketReceived(null, null, packets.get(i));
+        }
+
+        assertEquals(1, this.frames.size());
+        Frame frame = this.frames.get(0);
+        assertTrue(frame.isComplete());
+        assertEquals(0, frame.getMissingPackets());
+        assertEquals(4, frame.getPackets());
+        assertEquals(65534, frame.getFirstSequenceNumber());
+        assertEquals(1, frame.getLastSequenceNumber());
+        assertEquals(9000, frame.getTimestamp());
+        assertTrue(frame.getData() instanceof CompositeByteBuf);
+        assertEquals(expected, this.data.get(0));
+        // Released once listeners are done.
+        assertEquals(0, frame.getData().refCnt());
+        assertEquals(1, packets.get(1).getData().refCnt());
+    }
+
+    @Test
+    public void testIncompleteFrameTimesOut() throws Exception {
+        FrameAssembler assembler = new FrameAssembler(new GenericDepacketizer(), 20);
+        assembler.addFrameListener(this.listener);
+
+        // Frame 1 misses its second packet; frame 2 is complete but must wait behind it.
+        assembler.dataPacketReceived(null, null, createPacket(10, 1000, false, "a"));
+        assembler.dataPacketReceived(null, null, createPacket(12, 1000, true, "c"));
+        assembler.dataPacketReceived(null, null, createPacket(13, 2000, true, "d"));
+        assertEquals(0, this.frames.size());
+
+        Thread.sleep(40);
+        assembler.expire();
+        assertEquals(2, this.frames.size());
+        assertFalse(this.frames.get(0).isComplete());
+        assertEquals(1, this.frames.get(0).getMissingPackets());
+        assertEquals(Unpooled.copiedBuffer("ac".getBytes()), this.data.get(0));
+        assertTrue(this.frames.get(1).isComplete());
+        assertEquals(Unpooled.copiedBuffer("d".getBytes()), this.data.get(1));
+        assertEquals(1, assembler.getIncompleteFrames());
+
+        // The missing packet finally shows up, too late.
+        assembler.dataPacketReceived(null, null, createPacket(11, 1000, false, "b"));
+        assertEquals(1, assembler.getLatePackets());
+
+        // A gap between frames is a loss as well.
+        assembler.dataPacketReceived(null, null, createPacket(15, 3000, true, "f"));
+        Thread.sleep(40);
+        assembler.expire();
+        assertEquals(3, this.frames.size());
+        assertFalse(this.frames.get(2).isComplete());
+        assertEquals(1, this.frames.get(2).getMissingPackets());
+        assertEquals(3, assembler.getFrames());
+    }
+
+    private static DataPacket createPacket(int sequenceNumber, long timestamp, boolean marker, String data) {
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(69);
+        packet.setPayloadType(96);
+        packet.setSequenceNumber(sequenceNumber);
+        packet.setTimestamp(timestamp);
+        packet.setMarker(marker);
+        packet.setData(data.getBytes());
+        return packet;
+    }
+}
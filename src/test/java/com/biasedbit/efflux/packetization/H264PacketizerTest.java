@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.biasedbit.efflux.packetization;
+
+import com.biasedbit.efflux.packet.DataPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class H264PacketizerTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xc0, 0x1e, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66};
+    private static final byte[] PPS = {0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+
+    @Test
+    public void testAggregationAndFragmentation() throws Exception {
+        byte[] slice = createNalUnit(0x65, 3000);
+        ByteBuf frame = annexB(SPS, PPS, slice);
+        List<DataPacket> packets = new ArrayList<DataPacket>();
+
+        assertEquals(4, new H264Packetizer(96, 1200).packetize(frame, 9000, packets));
+        assertEquals(4, packets.size());
+        for (int i = 0; i < packets.size(); i++) {
+            assertEquals(96, packets.get(i).getPayloadType());
+            assertEquals(9000, packets.get(i).getTimestamp());
+            assertEquals(i == 3, packets.get(i).hasMarker());
+            assertTrue(packets.get(i).getDataSize() <= 1200);
+        }
+
+        // STAP-A with the highest NRI of its units, then each unit prefixed by its size.
+        ByteBuf stap = packets.get(0).getData();
+        assertEquals(1 + 2 + SPS.length + 2 + PPS.length, stap.readableBytes());
+        assertEquals(0x60 | H264Packetizer.STAP_A, stap.getUnsignedByte(0));
+        assertEquals(SPS.length, stap.getUnsignedShort(1));
+        assertEquals(Unpooled.wrappedBuffer(SPS), stap.slice(3, SPS.length));
+        assertEquals(PPS.length, stap.getUnsignedShort(3 + SPS.length));
+        assertEquals(Unpooled.wrappedBuffer(PPS), stap.slice(5 + SPS.length, PPS.length));
+
+        // FU-A: start, middle and end fragments, which put back together give the unit minus its header.
+        int[] fuHeaders = {0x85, 0x05, 0x45};
+        ByteBuf body = Unpooled.buffer();
+        for (int i = 0; i < 3; i++) {
+            ByteBuf fragment = packets.get(i + 1).getData();
+            assertEquals(0x60 | H264Packetizer.FU_A, fragment.getUnsignedByte(0));
+            assertEquals(fuHeaders[i], fragment.getUnsignedByte(1));
+            body.writeBytes(fragment, 2, fragment.readableBytes() - 2);
+        }
+        assertEquals(Unpooled.wrappedBuffer(slice, 1, slice.length - 1), body);
+
+        // Indexes untouched.
+        assertEquals(0, frame.readerIndex());
+    }
+
+    @Test
+    public void testPayloadsShareTheFrame() throws Exception {
+        byte[] slice = createNalUnit(0x41, 2000);
+        ByteBuf frame = annexB(slice);
+        List<DataPacket> packets = new ArrayList<DataPacket>();
+        new H264Packetizer(96, 1000).packetize(frame, 0, packets);
+        assertEquals(3, packets.size());
+
+        // Start code, NAL unit header, then the first byte of the first fragment.
+        frame.setByte(5, 0x7f);
+        assertEquals(0x7f, packets.get(0).getData().getByte(2));
+    }
+
+    @Test
+    public void testSingleNalUnitPackets() throws Exception {
+        H264Packetizer packetizer = new H264Packetizer(97, 1200);
+        packetizer.setAggregation(false);
+        List<DataPacket> packets = new ArrayList<DataPacket>();
+        assertEquals(2, packetizer.packetize(annexB(SPS, PPS), 1, packets));
+        assertEquals(Unpooled.wrappedBuffer(SPS), packets.get(0).getData());
+        assertEquals(Unpooled.wrappedBuffer(PPS), packets.get(1).getData());
+        assertFalse(packets.get(0).hasMarker());
+        assertTrue(packets.get(1).hasMarker());
+
+        // No start code at all: the whole frame is a single NAL unit.
+        packets.clear();
+        assertEquals(1, packetizer.packetize(Unpooled.wrappedBuffer(PPS), 1, packets));
+        assertEquals(Unpooled.wrappedBuffer(PPS), packets.get(0).getData());
+    }
+
+    private static byte[] createNalUnit(int header, int length) {
+        byte[] unit = new byte[length];
+        unit[0] = (byte) header;
+        for (int i = 1; i < length; i++) {
+            // Never zero, so it can't be mistaken for a start code or trailing zeros.
+            unit[i] = (byte) ((i % 250) + 2);
+        }
+        return unit;
+    }
+
+    private static ByteBuf annexB(byte[]... units) {
+        ByteBuf frame = Unpooled.buffer();
+        for (int i = 0; i < units.length; i++) {
+            // Mix 4 and 3 byte start codes.
+            if ((i % 2) == 0) {
+                frame.writeByte(0);
+            }
+            frame.writeBytes(new byte[]{0, 0, 1});
+            frame.writeBytes(units[i]);
+        }
+        return frame;
+    }
+}
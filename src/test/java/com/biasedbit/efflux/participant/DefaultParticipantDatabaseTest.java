@@ -18,6 +18,7 @@ package com.biasedbit.efflux.participant;
 
 import com.biasedbit.efflux.packet.DataPacket;
 import com.biasedbit.efflux.packet.SdesChunk;
+import com.biasedbit.efflux.util.TimeUtils;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -196,8 +197,130 @@ public class DefaultParticipantDatabaseTest {
         assertEquals(0, this.listener.getDeletions());
     }
 
+    @Test
+    public void testSecondStreamFromReceiver() throws Exception {
+        RtpParticipant receiver = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        assertTrue(this.database.addReceiver(receiver));
+
+        DataPacket audio = new DataPacket();
+        audio.setSsrc(0x45);
+        DataPacket video = new DataPacket();
+        video.setSsrc(0x46);
+        SocketAddress address = new InetSocketAddress("localhost", 8000);
+
+        assertSame(receiver, this.database.getOrCreateParticipantFromDataPacket(address, audio));
+        // Same address, another SSRC: a separate member, the receiver keeps its SSRC.
+        RtpParticipant participant = this.database.getOrCreateParticipantFromDataPacket(address, video);
+        assertNotSame(receiver, participant);
+        assertEquals(0x45, receiver.getSsrc());
+        assertEquals(0x46, participant.getSsrc());
+        assertEquals(2, this.database.getParticipantCount());
+        assertEquals(1, this.database.getReceiverCount());
+        assertSame(receiver, this.database.getOrCreateParticipantFromDataPacket(address, audio));
+    }
+
+    @Test
+    public void testReceiverFollowsNewSsrc() throws Exception {
+        RtpParticipant receiver = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        assertTrue(this.database.addReceiver(receiver));
+        SocketAddress address = new InetSocketAddress("localhost", 8000);
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(0x45);
+        assertSame(receiver, this.database.getOrCreateParticipantFromDataPacket(address, packet));
+
+        // Source left: the next one from the same address takes the receiver over.
+        this.database.byeReceived(receiver);
+        packet.setSsrc(0x47);
+        assertSame(receiver, this.database.getOrCreateParticipantFromDataPacket(address, packet));
+        assertEquals(0x47, receiver.getSsrc());
+        assertFalse(receiver.receivedBye());
+        assertNull(this.database.getParticipant(0x45));
+        assertEquals(1, this.database.getParticipantCount());
+
+        // Source went silent.
+        receiver.lastReceptionInstant = TimeUtils.now() - (this.database.getTimeoutAfterNoPacketsReceived() * 1000L) -
+                                        1000;
+        packet.setSsrc(0x48);
+        assertSame(receiver, this.database.getOrCreateParticipantFromDataPacket(address, packet));
+        assertNull(this.database.getParticipant(0x47));
+        assertEquals(1, this.database.getParticipantCount());
+        assertEquals(0, this.listener.getDataPacketCreations());
+    }
+
+    @Test
+    public void testNewSsrcHeardBeforeBye() throws Exception {
+        RtpParticipant receiver = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        assertTrue(this.database.addReceiver(receiver));
+        SocketAddress address = new InetSocketAddress("localhost", 8000);
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(0x45);
+        assertSame(receiver, this.database.getOrCreateParticipantFromDataPacket(address, packet));
+
+        // RFC 3550, section 8.2: after a collision the remote picks a new SSRC and says BYE for the old one.
+        packet.setSsrc(0x47);
+        RtpParticipant newSource = this.database.getOrCreateParticipantFromDataPacket(address, packet);
+        assertNotSame(receiver, newSource);
+        this.database.byeReceived(receiver);
+
+        assertSame(receiver, this.database.getParticipant(0x47));
+        assertEquals(0x47, receiver.getSsrc());
+        assertFalse(receiver.receivedBye());
+        assertNull(this.database.getParticipant(0x45));
+        assertEquals(1, this.database.getParticipantCount());
+        assertEquals(1, this.database.getReceiverCount());
+        assertEquals(1, this.listener.getDeletions());
+        assertSame(receiver, this.database.getOrCreateParticipantFromDataPacket(address, packet));
+    }
+
     @Test
     public void testCleanup() throws Exception {
+        DataPacket packet = new DataPacket();
+        SocketAddress address = new InetSocketAddress("localhost", 8000);
+        packet.setSsrc(0x45);
+        RtpParticipant silent = this.database.getOrCreateParticipantFromDataPacket(address, packet);
+        packet.setSsrc(0x46);
+        RtpParticipant active = this.database.getOrCreateParticipantFromDataPacket(address, packet);
+        RtpParticipant receiver = RtpParticipant.createReceiver("localhost", 9000, 9001);
+        assertTrue(this.database.addReceiver(receiver));
+        assertEquals(2, this.database.getParticipantCount());
+
+        long now = TimeUtils.now();
+        long timeout = this.database.getTimeoutAfterNoPacketsReceived() * 1000L;
+        this.database.cleanup(now + timeout - 1000);
+        assertEquals(2, this.database.getParticipantCount());
+        assertEquals(0, this.listener.getDeletions());
+
+        // Being heard from only pushes the deadline back, it's picked up when the old one comes due.
+        active.lastReceptionInstant = now + 10000;
+        this.database.cleanup(now + timeout + 1000);
+        assertEquals(1, this.database.getParticipantCount());
+        assertNull(this.database.getParticipant(silent.getSsrc()));
+        assertSame(active, this.database.getParticipant(active.getSsrc()));
+        assertEquals(1, this.listener.getDeletions());
+
+        this.database.cleanup(now + timeout + 11000);
+        assertEquals(0, this.database.getParticipantCount());
+        assertEquals(2, this.listener.getDeletions());
+        // Explicitly added receivers never time out.
+        assertEquals(1, this.database.getReceiverCount());
+    }
+
+    @Test
+    public void testCleanupAfterBye() throws Exception {
+        DataPacket packet = new DataPacket();
+        packet.setSsrc(0x45);
+        RtpParticipant participant =
+                this.database.getOrCreateParticipantFromDataPacket(new InetSocketAddress("localhost", 8000), packet);
+        this.database.byeReceived(participant);
+        assertTrue(participant.receivedBye());
+
+        long now = TimeUtils.now();
+        long timeout = this.database.getTimeoutAfterByeAndNoPacketsReceived() * 1000L;
+        this.database.cleanup(now + timeout - 1000);
+        assertEquals(1, this.database.getParticipantCount());
+        this.database.cleanup(now + timeout + 1000);
+        assertEquals(0, this.database.getParticipantCount());
+        assertEquals(1, this.listener.getDeletions());
     }
 
     // private classes ------------------------------------------------------------------------------------------------
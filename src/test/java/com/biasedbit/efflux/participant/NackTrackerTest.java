@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.participant;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class NackTrackerTest {
+
+    @Test
+    public void testGapDetectionAndRecovery() throws Exception {
+        NackTracker tracker = new NackTracker();
+        int[] output = new int[16];
+
+        assertFalse(tracker.packetReceived(10, 1000));
+        assertFalse(tracker.packetReceived(14, 1000));
+        assertEquals(3, tracker.getMissingCount());
+
+        assertEquals(3, tracker.collectNacks(1000, output));
+        assertEquals(11, output[0]);
+        assertEquals(12, output[1]);
+        assertEquals(13, output[2]);
+
+        // Retransmission arrives 40ms later.
+        assertTrue(tracker.packetReceived(12, 1040));
+        assertEquals(2, tracker.getMissingCount());
+        // Duplicate of a packet that was never lost.
+        assertFalse(tracker.packetReceived(10, 1040));
+    }
+
+    @Test
+    public void testRetriesAreSpacedByRoundTripTime() throws Exception {
+        NackTracker tracker = new NackTracker();
+        tracker.setRoundTripTime(50);
+        int[] output = new int[16];
+
+        tracker.packetReceived(1, 1000);
+        tracker.packetReceived(3, 1000);
+        assertEquals(1, tracker.collectNacks(1000, output));
+        assertEquals(0, tracker.collectNacks(1020, output));
+        assertEquals(1, tracker.collectNacks(1050, output));
+        assertEquals(1, tracker.collectNacks(1100, output));
+        // Max retries reached, gives up.
+        assertEquals(0, tracker.collectNacks(1150, output));
+        assertEquals(0, tracker.getMissingCount());
+    }
+
+    @Test
+    public void testSequenceNumberWrap() throws Exception {
+        NackTracker tracker = new NackTracker();
+        int[] output = new int[16];
+
+        tracker.packetReceived(65534, 1000);
+        tracker.packetReceived(1, 1000);
+        assertEquals(2, tracker.collectNacks(1000, output));
+        assertTrue(tracker.packetReceived(0, 1010));
+        assertTrue(tracker.packetReceived(65535, 1010));
+        assertEquals(0, tracker.getMissingCount());
+    }
+
+    @Test
+    public void testHugeJumpResets() throws Exception {
+        NackTracker tracker = new NackTracker();
+
+        tracker.packetReceived(0, 1000);
+        tracker.packetReceived(5000, 1000);
+        assertEquals(0, tracker.getMissingCount());
+    }
+}
@@ -16,18 +16,46 @@
 
 package com.biasedbit.efflux.session;
 
+import com.biasedbit.efflux.diagnostics.DiagnosticsListener;
+import com.biasedbit.efflux.network.PortPairPool;
+import com.biasedbit.efflux.packet.AbstractReportPacket;
+import com.biasedbit.efflux.packet.ControlPacket;
 import com.biasedbit.efflux.packet.DataPacket;
+import com.biasedbit.efflux.packet.ReceiverReportPacket;
+import com.biasedbit.efflux.packet.ReceptionReport;
+import com.biasedbit.efflux.packet.SdesChunkItem;
+import com.biasedbit.efflux.packet.SenderReportPacket;
+import com.biasedbit.efflux.packet.SourceDescriptionPacket;
+import com.biasedbit.efflux.packetization.FixedSizePacketizer;
 import com.biasedbit.efflux.participant.RtpParticipant;
 import com.biasedbit.efflux.participant.RtpParticipantInfo;
+import com.biasedbit.efflux.util.TimeUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.Future;
 import org.junit.After;
 import org.junit.Test;
 
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author <a:mailto="bruno.carvalho@wit-software.com" />Bruno de Carvalho</a>
@@ -76,6 +104,10 @@ public class MultiParticipantSessionTest {
             public void resolvedSsrcConflict(RtpSession session, long oldSsrc, long newSsrc) {
             }
 
+            @Override
+            public void writabilityChanged(RtpSession session, boolean writable) {
+            }
+
             @Override
             public void sessionTerminated(RtpSession session, Throwable cause) {
                 System.err.println("Session terminated: " + cause.getMessage());
@@ -120,4 +152,320 @@ public class MultiParticipantSessionTest {
 
         assertEquals(2, counter.get());
     }
+
+    @Test
+    public void testEncodedSdesIsOnlyRebuiltOnChange() throws Exception {
+        RtpParticipant participant = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        participant.getInfo().setSsrc(6969);
+        this.session = new MultiParticipantSession("id", 8, participant);
+        assertTrue(this.session.init());
+
+        ByteBuf sdes = this.session.getEncodedSdes(6969);
+        assertSame(sdes, this.session.getEncodedSdes(6969));
+
+        participant.getInfo().setName("karma");
+        ByteBuf updated = this.session.getEncodedSdes(6969);
+        assertNotSame(sdes, updated);
+        assertSame(updated, this.session.getEncodedSdes(6969));
+        assertNotSame(updated, this.session.getEncodedSdes(6970));
+
+        SourceDescriptionPacket decoded = (SourceDescriptionPacket) ControlPacket.decode(updated.duplicate());
+        assertEquals(6969, decoded.getChunks().get(0).getSsrc());
+        assertEquals("karma", decoded.getChunks().get(0).getItemValue(SdesChunkItem.Type.NAME));
+
+        // Cached buffer is shared by every report sent, so releasing whatever wraps it can't free it.
+        updated.release();
+        assertEquals(1, updated.refCnt());
+    }
+
+    @Test
+    public void testLocalStreams() throws Exception {
+        RtpParticipant participant = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        participant.getInfo().setSsrc(6969);
+        this.session = new MultiParticipantSession("id", 8, participant);
+        assertTrue(this.session.init());
+        assertTrue(this.session.addReceiver(RtpParticipant.createReceiver("localhost", 9000, 9001)));
+
+        LocalStream video = this.session.addLocalStream(7070, 96);
+        try {
+            this.session.addLocalStream(6969, 96);
+            fail("SSRC of the local participant can't be reused");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        // Every stream is described under the local participant's CNAME.
+        SourceDescriptionPacket sdes = (SourceDescriptionPacket) ControlPacket.decode(
+                this.session.getEncodedSdes(6969).duplicate());
+        assertEquals(2, sdes.getChunks().size());
+        assertEquals(7070, sdes.getChunks().get(1).getSsrc());
+        assertEquals(participant.getInfo().getCname(), sdes.getChunks().get(1).getItemValue(SdesChunkItem.Type.CNAME));
+
+        // Streams number their own packets and only streams that sent data get a sender report.
+        assertTrue(this.session.buildStreamReports().isEmpty());
+        assertTrue(video.sendData(new byte[]{0x45}, 1, false));
+        DataPacket packet = new DataPacket();
+        packet.setData(new byte[]{0x45, 0x45});
+        assertTrue(video.sendDataPacket(packet));
+        assertEquals(7070, packet.getSsrc());
+        assertEquals(96, packet.getPayloadType());
+        assertEquals(2, packet.getSequenceNumber());
+        assertEquals(2, video.getSentPackets());
+        assertEquals(3, video.getSentBytes());
+        assertEquals(0, this.session.getSentPackets());
+        List<ByteBuf> reports = this.session.buildStreamReports();
+        assertEquals(1, reports.size());
+        for (ByteBuf report : reports) {
+            report.release();
+        }
+
+        // A remote source using the stream's SSRC forces the stream onto a new one.
+        packet = new DataPacket();
+        packet.setSequenceNumber(1);
+        packet.setPayloadType(8);
+        packet.setSsrc(7070);
+        this.session.dataPacketReceived(new InetSocketAddress("localhost", 9000), packet);
+        assertTrue(video.getSsrc() != 7070);
+        sdes = (SourceDescriptionPacket) ControlPacket.decode(this.session.getEncodedSdes(6969).duplicate());
+        assertEquals(video.getSsrc(), sdes.getChunks().get(1).getSsrc());
+
+        assertTrue(this.session.removeLocalStream(video));
+        assertFalse(this.session.removeLocalStream(video));
+        assertFalse(video.sendData(new byte[]{0x45}, 2, false));
+        sdes = (SourceDescriptionPacket) ControlPacket.decode(this.session.getEncodedSdes(6969).duplicate());
+        assertEquals(1, sdes.getChunks().size());
+    }
+
+    @Test
+    public void testDiagnostics() throws Exception {
+        RtpParticipant participant = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        participant.getInfo().setSsrc(6969);
+        this.session = new MultiParticipantSession("id", 8, participant);
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch terminated = new CountDownLatch(1);
+        this.session.setDiagnosticsSamplingInterval(2);
+        this.session.setDiagnostics(new DiagnosticsListener() {
+            @Override
+            public void sessionInitialised(String sessionId, long duration, boolean success) {
+                events.add("initialised " + success);
+            }
+
+            @Override
+            public void sessionTerminated(String sessionId, long duration, Throwable cause) {
+                events.add("terminated");
+                terminated.countDown();
+            }
+
+            @Override
+            public void ssrcCollided(String sessionId, long oldSsrc, long newSsrc) {
+                events.add("collided " + oldSsrc);
+            }
+
+            @Override
+            public void loopDetected(String sessionId, long ssrc, int collisions) {
+                events.add("loop " + collisions);
+            }
+
+            @Override
+            public void reportsSent(String sessionId, long interval) {
+            }
+
+            @Override
+            public void participantCreated(String sessionId, RtpParticipant participant) {
+                events.add("created " + participant.getSsrc());
+            }
+
+            @Override
+            public void participantExpired(String sessionId, RtpParticipant participant, boolean byeReceived) {
+            }
+
+            @Override
+            public void decodeFailed(String sessionId, boolean control, int size, Throwable cause) {
+            }
+
+            @Override
+            public void packetProcessed(String sessionId, long duration) {
+                assertTrue(duration >= 0);
+                events.add("processed");
+            }
+        });
+        assertTrue(this.session.init());
+
+        // Every other packet is timed, starting with the first.
+        DataPacket packet = new DataPacket();
+        packet.setPayloadType(8);
+        packet.setSsrc(69);
+        SocketAddress address = new InetSocketAddress("localhost", 9000);
+        for (int i = 1; i <= 4; i++) {
+            packet.setSequenceNumber(i);
+            this.session.dataPacketReceived(address, packet);
+        }
+
+        // Collision, then the session receiving its own packets.
+        packet.setSsrc(6969);
+        this.session.dataPacketReceived(address, packet);
+        packet.setSsrc(participant.getSsrc());
+        this.session.dataPacketReceived(new InetSocketAddress("localhost", 8000), packet);
+        assertTrue(terminated.await(5, TimeUnit.SECONDS));
+
+        // The colliding source still joins, and its packet is timed once handled.
+        assertEquals(Arrays.asList("initialised true", "created 69", "processed", "processed", "collided 6969",
+                                   "created 6969", "processed", "loop 1", "terminated"), events);
+    }
+
+    @Test
+    public void testWriteBufferWaterMarksBelowDefaults() throws Exception {
+        RtpParticipant participant = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        participant.getInfo().setSsrc(6969);
+        this.session = new MultiParticipantSession("id", 8, participant);
+        try {
+            // Default low water mark is 32KB.
+            this.session.setWriteBufferHighWaterMark(16 * 1024);
+            fail("High water mark below the low one was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        this.session.setWriteBufferLowWaterMark(8 * 1024);
+        this.session.setWriteBufferHighWaterMark(16 * 1024);
+        assertTrue(this.session.init());
+        assertEquals(16 * 1024, this.session.dataChannel.config().getWriteBufferHighWaterMark());
+        assertEquals(8 * 1024, this.session.dataChannel.config().getWriteBufferLowWaterMark());
+        assertEquals(16 * 1024, this.session.controlChannel.config().getWriteBufferHighWaterMark());
+        assertEquals(8 * 1024, this.session.controlChannel.config().getWriteBufferLowWaterMark());
+
+        // Same for channels adopted from a pool.
+        PortPairPool pool = new PortPairPool("127.0.0.1", 31060, 31069, 1);
+        assertTrue(pool.init());
+        RtpParticipant local = RtpParticipant.createReceiver(new RtpParticipantInfo(1), "127.0.0.1", 1, 2);
+        MultiParticipantSession pooled = new MultiParticipantSession("pooled", 8, local);
+        pooled.setPortPairPool(pool);
+        pooled.setWriteBufferLowWaterMark(8 * 1024);
+        pooled.setWriteBufferHighWaterMark(16 * 1024);
+        try {
+            assertTrue(pooled.init());
+            assertEquals(16 * 1024, pooled.dataChannel.config().getWriteBufferHighWaterMark());
+            assertEquals(8 * 1024, pooled.controlChannel.config().getWriteBufferLowWaterMark());
+        } finally {
+            pooled.terminate();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPinnedEventLoopExcludesPortPairPool() throws Exception {
+        RtpParticipant participant = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        EventLoopGroup group = new NioEventLoopGroup(1);
+        PortPairPool pool = new PortPairPool("127.0.0.1", 31070, 31079, 1);
+        try {
+            MultiParticipantSession pinned = new MultiParticipantSession("pinned", 8, participant);
+            pinned.setEventLoop(group.next());
+            try {
+                pinned.setPortPairPool(pool);
+                fail("Pooled channels accepted in a pinned session");
+            } catch (IllegalArgumentException expected) {
+            }
+
+            MultiParticipantSession pooled = new MultiParticipantSession("pooled", 8, participant);
+            pooled.setPortPairPool(pool);
+            try {
+                pooled.setEventLoop(group.next());
+                fail("Session adopting pooled channels accepted an event loop");
+            } catch (IllegalArgumentException expected) {
+            }
+        } finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testReportsAndRoundTripDelay() throws Exception {
+        RtpParticipant participant = RtpParticipant.createReceiver("localhost", 8000, 8001);
+        participant.getInfo().setSsrc(6969);
+        this.session = new MultiParticipantSession("id", 8, participant);
+        assertTrue(this.session.init());
+
+        DataPacket packet = new DataPacket();
+        packet.setSequenceNumber(1);
+        packet.setPayloadType(8);
+        packet.setSsrc(69);
+        packet.setData(new byte[]{0x45});
+        this.session.dataPacketReceived(new InetSocketAddress("localhost", 9000), packet);
+        RtpParticipant remote = this.session.getRemoteParticipants().get(69L);
+
+        // Nothing sent yet.
+        AbstractReportPacket report = this.session.buildReportPacket(6969, remote);
+        assertTrue(report instanceof ReceiverReportPacket);
+        assertEquals(6969, report.getSenderSsrc());
+        assertEquals(1, report.getReceptionReportCount());
+        assertEquals(0, report.getReceptionReports().get(0).getLastSenderReport());
+
+        // The remote's sender report is echoed back in the reception report about it.
+        SenderReportPacket senderReport = new SenderReportPacket();
+        senderReport.setSenderSsrc(69);
+        senderReport.setNtpTimestamp(0x83aa7e8180000000L);
+        this.session.handleReportPacket(null, senderReport);
+        assertEquals(0x7e818000L, remote.getLastSenderReport());
+
+        // Once counters move, reports become sender reports.
+        DataPacket sent = new DataPacket();
+        sent.setTimestamp(1234);
+        sent.setData(new byte[]{0x45, 0x45});
+        assertTrue(this.session.sendDataPacket(sent));
+        report = this.session.buildReportPacket(6969, remote);
+        assertTrue(report instanceof SenderReportPacket);
+        assertEquals(1, ((SenderReportPacket) report).getSenderPacketCount());
+        assertEquals(2, ((SenderReportPacket) report).getSenderOctetCount());
+        assertEquals(1234, ((SenderReportPacket) report).getRtpTimestamp());
+        ReceptionReport block = report.getReceptionReports().get(0);
+        assertEquals(69, block.getSsrc());
+        assertEquals(0x7e818000L, block.getLastSenderReport());
+        assertTrue(block.getDelaySinceLastSenderReport() < 0x10000);
+
+        // Report about us, sent 300ms after our SR and held for 100ms by the remote: 200ms round trip.
+        ReceptionReport aboutUs = new ReceptionReport();
+        aboutUs.setSsrc(6969);
+        aboutUs.setLastSenderReport(TimeUtils.toCompactNtpTimestamp(TimeUtils.now() - 300));
+        aboutUs.setDelaySinceLastSenderReport((100 << 16) / 1000);
+        ReceiverReportPacket receiverReport = new ReceiverReportPacket();
+        receiverReport.setSenderSsrc(69);
+        receiverReport.addReceptionReportBlock(aboutUs);
+        this.session.handleReportPacket(null, receiverReport);
+        assertTrue(remote.getRoundTripDelay() >= 199);
+        assertTrue(remote.getRoundTripDelay() < 250);
+    }
+
+    @Test
+    public void testFrameCanBeReusedOnceSent() throws Exception {
+        DatagramSocket socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 31080));
+        socket.setSoTimeout(1000);
+        try {
+            RtpParticipant participant = RtpParticipant.createReceiver("127.0.0.1", 31082, 31083);
+            participant.getInfo().setSsrc(6969);
+            this.session = new MultiParticipantSession("id", 8, participant);
+            assertTrue(this.session.init());
+            this.session.addReceiver(RtpParticipant.createReceiver(new RtpParticipantInfo(69), "127.0.0.1", 31080,
+                                                                   31081));
+
+            ByteBuf frame = Unpooled.buffer(2500);
+            for (int i = 0; i < 2500; i++) {
+                frame.writeByte(i);
+            }
+            Future<Integer> sent = this.session.sendFrame(new FixedSizePacketizer(8, 1000), frame, 160);
+            assertTrue(sent.await(1000));
+            assertEquals(3, sent.getNow().intValue());
+            // Reused (or released) as soon as the future completes.
+            frame.setZero(0, 2500);
+
+            byte[] datagram = new byte[1500];
+            for (int k = 0; k < 3; k++) {
+                DatagramPacket packet = new DatagramPacket(datagram, datagram.length);
+                socket.receive(packet);
+                assertEquals(12 + ((k < 2) ? 1000 : 500), packet.getLength());
+                for (int j = 12; j < packet.getLength(); j++) {
+                    assertEquals((byte) ((k * 1000) + j - 12), datagram[j]);
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.util;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class ExpiryWheelTest {
+
+    @Test
+    public void testExpireInOrder() throws Exception {
+        ExpiryWheel<String> wheel = new ExpiryWheel<String>(1000, 8, 0);
+        wheel.schedule("a", 1500);
+        wheel.schedule("b", 3000);
+        assertEquals(2, wheel.size());
+
+        // Deadlines are rounded up to the tick, never expire early.
+        assertTrue(wheel.expire(1999).isEmpty());
+        assertEquals(1, wheel.expire(2000).size());
+        assertTrue(wheel.expire(2999).isEmpty());
+        List<String> expired = wheel.expire(3000);
+        assertEquals(1, expired.size());
+        assertEquals("b", expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRescheduleAndCancel() throws Exception {
+        ExpiryWheel<String> wheel = new ExpiryWheel<String>(1000, 8, 0);
+        wheel.schedule("a", 2000);
+        wheel.schedule("b", 2000);
+        wheel.schedule("a", 5000);
+        assertTrue(wheel.cancel("b"));
+        assertFalse(wheel.cancel("c"));
+
+        assertTrue(wheel.expire(4000).isEmpty());
+        assertTrue(wheel.isScheduled("a"));
+        assertEquals("a", wheel.expire(5000).get(0));
+        assertFalse(wheel.isScheduled("a"));
+    }
+
+    @Test
+    public void testDeadlinesBeyondOneRevolution() throws Exception {
+        ExpiryWheel<String> wheel = new ExpiryWheel<String>(1000, 4, 0);
+        wheel.schedule("far", 10000);
+        wheel.schedule("near", 1000);
+
+        assertEquals("near", wheel.expire(1000).get(0));
+        assertTrue(wheel.expire(9000).isEmpty());
+        assertEquals(1, wheel.size());
+        // Jumping far ahead visits every bucket once.
+        assertEquals("far", wheel.expire(100000).get(0));
+        assertEquals(0, wheel.size());
+    }
+}
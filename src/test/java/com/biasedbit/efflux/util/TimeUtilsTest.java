@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010 Bruno de Carvalho
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.biasedbit.efflux.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author <a href="http://bruno.biasedbit.com/">Bruno de Carvalho</a>
+ */
+public class TimeUtilsTest {
+
+    @Test
+    public void testNtpTimestamp() throws Exception {
+        // Unix epoch is 2208988800 seconds into the NTP era.
+        assertEquals(0x83aa7e8000000000L, TimeUtils.toNtpTimestamp(0));
+        assertEquals(0x83aa7e8180000000L, TimeUtils.toNtpTimestamp(1500));
+        // 1ms is 2^32 / 1000 fractions, rounded down.
+        assertEquals(0x83aa7e8000418937L, TimeUtils.toNtpTimestamp(1));
+        assertEquals(0x83aa7e81L, TimeUtils.toNtpTimestamp(1999) >>> 32);
+    }
+
+    @Test
+    public void testCompactNtpTimestamp() throws Exception {
+        // Lower 16 bits of the seconds, upper 16 bits of the fraction.
+        assertEquals(0x7e808000L, TimeUtils.toCompactNtpTimestamp(500));
+        assertEquals(0x7e818000L, TimeUtils.toCompactNtpTimestamp(1500));
+        long millis = 1234567890123L;
+        assertEquals((TimeUtils.toNtpTimestamp(millis) >>> 16) & 0xffffffffL, TimeUtils.toCompactNtpTimestamp(millis));
+    }
+
+    @Test
+    public void testRoundTripDelay() throws Exception {
+        // Report sent 1.5s after the SR it echoes, 1s of which was spent at the receiver.
+        assertEquals(500, TimeUtils.roundTripDelay(0x00018000L, 0x00000000L, 0x00010000L));
+
+        // The compact timestamps wrap every 65536 seconds.
+        assertEquals(250, TimeUtils.roundTripDelay(0x00004000L, 0xffff8000L, 0x00008000L));
+        assertEquals(250, TimeUtils.roundTripDelay(0x00004000L, 0xffffc000L, 0x00004000L));
+
+        // DLSR beyond the arrival makes no sense.
+        assertEquals(-1, TimeUtils.roundTripDelay(0x00010000L, 0x00008000L, 0x00010000L));
+    }
+}